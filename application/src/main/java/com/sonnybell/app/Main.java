@@ -1,12 +1,14 @@
 package com.sonnybell.app;
 
+import com.sonnybell.app.analytics.LogAnalyzer;
 import com.sonnybell.app.client.Client;
 import com.sonnybell.app.javafx.ClientSideGUI;
+import com.sonnybell.app.loadtest.LoadTest;
 import com.sonnybell.app.server.Server;
 
 /**
  * Main class to start the application.
- * Usage: java -jar your-app.jar <server|client|GUI>
+ * Usage: java -jar your-app.jar <server|client|GUI|analyze [log file]|loadtest [password]>
  */
 public final class Main {
 
@@ -17,13 +19,19 @@ public final class Main {
 
     /**
      * Main method to start the application based on the provided argument.
-     * It can start the server, client, or GUI.
+     * It can start the server, client, or GUI, analyze the message log, or
+     * run a load test against a local server.
      *
-     * @param args Command line arguments: "server", "client", or "GUI"
+     * @param args Command line arguments: "server", "client", "GUI",
+     *             "analyze" followed by an optional log file, or "loadtest"
+     *             followed by the server password
      */
     public static void main(String[] args) {
-        if (args.length != 1) {
-            System.out.println("Usage: java -jar your-app.jar <server|client|GUI>");
+        boolean analyze = args.length > 0 && "analyze".equalsIgnoreCase(args[0]);
+        boolean loadtest = args.length > 0 && "loadtest".equalsIgnoreCase(args[0]);
+        if (args.length != 1 && !((analyze || loadtest) && args.length == 2)) {
+            System.out.println(
+                    "Usage: java -jar your-app.jar <server|client|GUI|analyze [log file]|loadtest [password]>");
             System.exit(1);
         }
 
@@ -38,8 +46,12 @@ public final class Main {
         } else if ("gui".equalsIgnoreCase(mode)) {
             System.out.println("Starting the GUI...");
             ClientSideGUI.main(args); // Replace with your JavaFX main class
+        } else if (analyze) {
+            LogAnalyzer.main(args);
+        } else if (loadtest) {
+            LoadTest.main(args);
         } else {
-            System.out.println("Invalid argument. Use 'server', 'client', or 'GUI'.");
+            System.out.println("Invalid argument. Use 'server', 'client', 'GUI', 'analyze' or 'loadtest'.");
             System.exit(1);
         }
     }
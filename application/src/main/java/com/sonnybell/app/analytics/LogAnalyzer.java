@@ -0,0 +1,195 @@
+package com.sonnybell.app.analytics;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * LogAnalyzer class to report on the message log without a running server.
+ * Prints per-user message counts, joins and leaves, and activity by hour.
+ * The log is split into chunks of about CHUNK_BYTES that end on a line
+ * break, each chunk is memory-mapped and counted on its own by the common
+ * fork/join pool, and the counts are merged pairwise as the tasks finish.
+ * Usage: java -jar your-app.jar analyze [path to MessageLog.log]
+ */
+public final class LogAnalyzer {
+
+    private static final long CHUNK_BYTES = 32L * 1024 * 1024;
+    private static final int BOUNDARY_WINDOW = 64 * 1024;
+    private static final int TOP_USERS = 20;
+    private static final int BAR_WIDTH = 40;
+    private static final double BYTES_PER_MB = 1024.0 * 1024.0;
+
+    private LogAnalyzer() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Main method to analyze a log and print the report.
+     *
+     * @param args Command line arguments: "analyze" and optionally the log path.
+     */
+    public static void main(String[] args) {
+        Path log = args.length > 1 ? Paths.get(args[1])
+                : Paths.get(System.getProperty("user.dir"), "MessageLog.log");
+        try {
+            long started = System.nanoTime();
+            LogStats stats = analyze(log);
+            long tookMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+            printReport(stats, Files.size(log), tookMs);
+        } catch (IOException e) {
+            System.err.println("Could not read " + log + ": " + e.getMessage());
+            System.exit(1);
+        } catch (UncheckedIOException e) {
+            System.err.println("Could not read " + log + ": " + e.getCause().getMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Counts a whole log in parallel.
+     *
+     * @param log The log to read.
+     * @return The counts.
+     * @throws IOException If the log cannot be read.
+     */
+    static LogStats analyze(Path log) throws IOException {
+        try (FileChannel channel = FileChannel.open(log, StandardOpenOption.READ)) {
+            long[] bounds = chunkBounds(channel);
+            return ForkJoinPool.commonPool().invoke(new ChunkTask(channel, bounds, 0, bounds.length - 1));
+        }
+    }
+
+    // Start of every chunk and the end of the file; every start but the first follows a line break
+    private static long[] chunkBounds(FileChannel channel) throws IOException {
+        long size = channel.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer window = ByteBuffer.allocate(BOUNDARY_WINDOW);
+        long next = CHUNK_BYTES;
+        while (next < size) {
+            long lineStart = -1;
+            long position = next;
+            while (lineStart < 0 && position < size) {
+                int read = channel.read(window.clear(), position);
+                for (int i = 0; i < read && lineStart < 0; i++) {
+                    if (window.get(i) == '\n') {
+                        lineStart = position + i + 1;
+                    }
+                }
+                position += read;
+            }
+            if (lineStart < 0 || lineStart >= size) {
+                break;
+            }
+            bounds.add(lineStart);
+            next = lineStart + CHUNK_BYTES;
+        }
+        bounds.add(size);
+        return bounds.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private static void printReport(LogStats stats, long bytes, long tookMs) {
+        System.out.printf("Read %d lines (%.1f MB) in %d ms%n", stats.getLines(), bytes / BYTES_PER_MB, tookMs);
+        if (stats.getMalformed() > 0) {
+            System.out.println("Lines not in the [date] [tag] message format: " + stats.getMalformed());
+        }
+
+        System.out.println();
+        System.out.println("Lines by tag:");
+        for (Map.Entry<String, Long> tag : stats.getTags().top(Integer.MAX_VALUE)) {
+            System.out.printf("  %-20s %d%n", tag.getKey(), tag.getValue());
+        }
+
+        System.out.println();
+        System.out.printf("Chat messages: %d from %d users. Top %d:%n", stats.getChats(),
+                stats.getChatsByUser().size(), TOP_USERS);
+        for (Map.Entry<String, Long> user : stats.getChatsByUser().top(TOP_USERS)) {
+            System.out.printf("  %-20s %d%n", user.getKey(), user.getValue());
+        }
+
+        System.out.println();
+        System.out.printf("Churn: %d joins by %d users, %d leaves by %d users%n", stats.getJoins(),
+                stats.getJoinsByUser().size(), stats.getLeaves(), stats.getLeavesByUser().size());
+        for (Map.Entry<String, Long> user : stats.getJoinsByUser().top(TOP_USERS)) {
+            System.out.printf("  %-20s joined %d times%n", user.getKey(), user.getValue());
+        }
+
+        System.out.println();
+        System.out.println("Activity by hour (all lines / chat messages):");
+        long busiest = 1;
+        for (long count : stats.getLinesByHour()) {
+            busiest = Math.max(busiest, count);
+        }
+        for (int hour = 0; hour < LogStats.HOURS; hour++) {
+            long count = stats.getLinesByHour()[hour];
+            System.out.printf("  %02d:00 %10d %10d %s%n", hour, count, stats.getChatsByHour()[hour],
+                    "#".repeat((int) (count * BAR_WIDTH / busiest)));
+        }
+    }
+
+    /**
+     * Counts the chunks between two indexes of the bounds, splitting in half
+     * until a single chunk is left.
+     */
+    private static final class ChunkTask extends RecursiveTask<LogStats> {
+        private static final long serialVersionUID = 1L;
+
+        private final transient FileChannel channel;
+        private final long[] bounds;
+        private final int from;
+        private final int to;
+
+        ChunkTask(FileChannel channel, long[] bounds, int from, int to) {
+            this.channel = channel;
+            this.bounds = bounds;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected LogStats compute() {
+            if (to - from > 1) {
+                int middle = (from + to) >>> 1;
+                ChunkTask left = new ChunkTask(channel, bounds, from, middle);
+                left.fork();
+                LogStats right = new ChunkTask(channel, bounds, middle, to).compute();
+                return left.join().merge(right);
+            }
+            LogStats stats = new LogStats();
+            long start = bounds[from];
+            long length = bounds[to] - start;
+            if (length == 0) {
+                return stats;
+            }
+            try {
+                MappedByteBuffer chunk = channel.map(FileChannel.MapMode.READ_ONLY, start, length);
+                int lineStart = 0;
+                for (int i = 0; i < length; i++) {
+                    if (chunk.get(i) == '\n') {
+                        stats.addLine(chunk, lineStart, i);
+                        lineStart = i + 1;
+                    }
+                }
+                if (lineStart < length) {
+                    stats.addLine(chunk, lineStart, (int) length);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return stats;
+        }
+    }
+}
@@ -0,0 +1,205 @@
+package com.sonnybell.app.analytics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * LogStats class for the counts gathered from part of the message log.
+ * Lines look like "[Sun Oct 19 00:55:00 UTC 2026] [UserChats] alice: hi" and
+ * are read byte by byte where they lie in the buffer; only new user names
+ * and tags are copied out. The stats of two parts are combined with merge.
+ */
+final class LogStats {
+
+    /**
+     * Number of hours in a day, the buckets of the activity histogram.
+     */
+    static final int HOURS = 24;
+
+    private static final byte[] CHAT_TAG = bytes("UserChats");
+    private static final byte[] WEB_CHAT_TAG = bytes("WebChat");
+    private static final byte[] JOIN_TAG = bytes("HelloUser");
+    private static final byte[] LEAVE_TAG = bytes("GoodbyeUser");
+    private static final byte[] SERVER_PREFIX = bytes("SERVER: ");
+    private static final byte[] HAS = bytes(" has ");
+    private static final byte[] TAG_OPENING = bytes("] [");
+    // "[Sun Oct 19 00:55:00 ..." has the hour at 12 and 13 and a colon at 14
+    private static final int HOUR_AT = 12;
+    private static final int COLON_AT = 14;
+    private static final int MIN_LINE = 16;
+    private static final int DECIMAL = 10;
+
+    private final SliceCounter tags = new SliceCounter();
+    private final SliceCounter chatsByUser = new SliceCounter();
+    private final SliceCounter joinsByUser = new SliceCounter();
+    private final SliceCounter leavesByUser = new SliceCounter();
+    private final long[] linesByHour = new long[HOURS];
+    private final long[] chatsByHour = new long[HOURS];
+    private long lines;
+    private long malformed;
+    private long chats;
+    private long joins;
+    private long leaves;
+
+    /**
+     * Counts one line.
+     *
+     * @param buffer  The buffer holding the line.
+     * @param start   The first byte of the line.
+     * @param lineEnd The byte after the line, not counting the line break.
+     */
+    void addLine(ByteBuffer buffer, int start, int lineEnd) {
+        lines++;
+        int end = lineEnd > start && buffer.get(lineEnd - 1) == '\r' ? lineEnd - 1 : lineEnd;
+        int dateEnd = end - start < MIN_LINE || buffer.get(start) != '[' ? -1 : indexOf(buffer, ']', start + 1, end);
+        if (dateEnd < 0 || !matches(buffer, dateEnd, Math.min(dateEnd + TAG_OPENING.length, end), TAG_OPENING)) {
+            malformed++;
+            return;
+        }
+        int tagStart = dateEnd + TAG_OPENING.length;
+        int tagEnd = indexOf(buffer, ']', tagStart, end);
+        if (tagEnd < 0) {
+            malformed++;
+            return;
+        }
+        int messageStart = Math.min(tagEnd + 2, end);
+        int hour = hourOf(buffer, start);
+        if (hour >= 0) {
+            linesByHour[hour]++;
+        }
+        tags.add(buffer, tagStart, tagEnd, 1);
+
+        if (matches(buffer, tagStart, tagEnd, CHAT_TAG) || matches(buffer, tagStart, tagEnd, WEB_CHAT_TAG)) {
+            int colon = indexOf(buffer, ':', messageStart, end);
+            if (colon > messageStart) {
+                chatsByUser.add(buffer, messageStart, colon, 1);
+            }
+            chats++;
+            if (hour >= 0) {
+                chatsByHour[hour]++;
+            }
+        } else if (matches(buffer, tagStart, tagEnd, JOIN_TAG)) {
+            joins++;
+            countSubject(buffer, messageStart, end, joinsByUser);
+        } else if (matches(buffer, tagStart, tagEnd, LEAVE_TAG)) {
+            leaves++;
+            countSubject(buffer, messageStart, end, leavesByUser);
+        }
+    }
+
+    // "SERVER: bob has joined the chat!" is about bob
+    private static void countSubject(ByteBuffer buffer, int start, int end, SliceCounter counter) {
+        if (!matches(buffer, start, Math.min(start + SERVER_PREFIX.length, end), SERVER_PREFIX)) {
+            return;
+        }
+        int nameStart = start + SERVER_PREFIX.length;
+        for (int i = nameStart; i + HAS.length <= end; i++) {
+            if (matches(buffer, i, i + HAS.length, HAS)) {
+                counter.add(buffer, nameStart, i, 1);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Adds the counts of another part of the log.
+     *
+     * @param other The stats of the other part.
+     * @return This object.
+     */
+    LogStats merge(LogStats other) {
+        tags.addAll(other.tags);
+        chatsByUser.addAll(other.chatsByUser);
+        joinsByUser.addAll(other.joinsByUser);
+        leavesByUser.addAll(other.leavesByUser);
+        for (int i = 0; i < HOURS; i++) {
+            linesByHour[i] += other.linesByHour[i];
+            chatsByHour[i] += other.chatsByHour[i];
+        }
+        lines += other.lines;
+        malformed += other.malformed;
+        chats += other.chats;
+        joins += other.joins;
+        leaves += other.leaves;
+        return this;
+    }
+
+    SliceCounter getTags() {
+        return tags;
+    }
+
+    SliceCounter getChatsByUser() {
+        return chatsByUser;
+    }
+
+    SliceCounter getJoinsByUser() {
+        return joinsByUser;
+    }
+
+    SliceCounter getLeavesByUser() {
+        return leavesByUser;
+    }
+
+    long[] getLinesByHour() {
+        return linesByHour;
+    }
+
+    long[] getChatsByHour() {
+        return chatsByHour;
+    }
+
+    long getLines() {
+        return lines;
+    }
+
+    long getMalformed() {
+        return malformed;
+    }
+
+    long getChats() {
+        return chats;
+    }
+
+    long getJoins() {
+        return joins;
+    }
+
+    long getLeaves() {
+        return leaves;
+    }
+
+    private static int hourOf(ByteBuffer buffer, int start) {
+        byte tens = buffer.get(start + HOUR_AT);
+        byte ones = buffer.get(start + HOUR_AT + 1);
+        if (buffer.get(start + COLON_AT) != ':' || tens < '0' || tens > '2' || ones < '0' || ones > '9') {
+            return -1;
+        }
+        int hour = (tens - '0') * DECIMAL + (ones - '0');
+        return hour < HOURS ? hour : -1;
+    }
+
+    private static int indexOf(ByteBuffer buffer, char c, int from, int end) {
+        for (int i = from; i < end; i++) {
+            if (buffer.get(i) == c) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean matches(ByteBuffer buffer, int start, int end, byte[] expected) {
+        if (end - start != expected.length) {
+            return false;
+        }
+        for (int i = 0; i < expected.length; i++) {
+            if (buffer.get(start + i) != expected[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static byte[] bytes(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
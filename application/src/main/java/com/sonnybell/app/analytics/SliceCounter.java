@@ -0,0 +1,133 @@
+package com.sonnybell.app.analytics;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SliceCounter class for counting byte strings, such as user names, read
+ * straight from a mapped log.
+ * Keys are looked up by the bytes in the buffer, so counting an existing key
+ * allocates nothing; a key is only copied out the first time it is seen.
+ * Uses open addressing with linear probing.
+ */
+final class SliceCounter {
+
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int FNV_OFFSET = 0x811C9DC5;
+    private static final int FNV_PRIME = 0x01000193;
+    private static final int SPREAD_SHIFT = 16;
+
+    private byte[][] keys = new byte[INITIAL_CAPACITY][];
+    private long[] counts = new long[INITIAL_CAPACITY];
+    private int[] hashes = new int[INITIAL_CAPACITY];
+    private int size;
+
+    /**
+     * Adds to the count of the bytes from start to end of a buffer.
+     *
+     * @param buffer The buffer holding the key.
+     * @param start  The first byte of the key.
+     * @param end    The byte after the last byte of the key.
+     * @param delta  The amount to add.
+     */
+    void add(ByteBuffer buffer, int start, int end, long delta) {
+        int hash = FNV_OFFSET;
+        for (int i = start; i < end; i++) {
+            hash = (hash ^ buffer.get(i)) * FNV_PRIME;
+        }
+        hash ^= hash >>> SPREAD_SHIFT;
+
+        int mask = keys.length - 1;
+        int slot = hash & mask;
+        while (keys[slot] != null) {
+            if (hashes[slot] == hash && sameBytes(keys[slot], buffer, start, end)) {
+                counts[slot] += delta;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        byte[] key = new byte[end - start];
+        buffer.get(start, key);
+        insert(slot, key, hash, delta);
+    }
+
+    /**
+     * Adds all the counts of another counter to this one.
+     *
+     * @param other The counter to add.
+     */
+    void addAll(SliceCounter other) {
+        for (int i = 0; i < other.keys.length; i++) {
+            if (other.keys[i] != null) {
+                add(ByteBuffer.wrap(other.keys[i]), 0, other.keys[i].length, other.counts[i]);
+            }
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Gets the keys with the highest counts.
+     *
+     * @param limit The most keys to return.
+     * @return The keys and their counts, highest first.
+     */
+    List<Map.Entry<String, Long>> top(int limit) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != null) {
+                entries.add(Map.entry(new String(keys[i], StandardCharsets.UTF_8), counts[i]));
+            }
+        }
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return entries.subList(0, Math.min(limit, entries.size()));
+    }
+
+    private void insert(int slot, byte[] key, int hash, long delta) {
+        keys[slot] = key;
+        hashes[slot] = hash;
+        counts[slot] = delta;
+        size++;
+        if (size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    private void grow() {
+        byte[][] oldKeys = keys;
+        long[] oldCounts = counts;
+        int[] oldHashes = hashes;
+        keys = new byte[oldKeys.length * 2][];
+        counts = new long[keys.length];
+        hashes = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != null) {
+                int slot = oldHashes[i] & mask;
+                while (keys[slot] != null) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                hashes[slot] = oldHashes[i];
+                counts[slot] = oldCounts[i];
+            }
+        }
+    }
+
+    private static boolean sameBytes(byte[] key, ByteBuffer buffer, int start, int end) {
+        if (key.length != end - start) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (key[i] != buffer.get(start + i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,183 @@
+package com.sonnybell.app.chatfunctions;
+
+import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.interfaces.Moderation;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * BulkModerationEndpointHandler class to handle HTTP requests acting on many
+ * users at once, such as the accounts of a raid.
+ * A POST to /api/admin/moderate takes a JSON body like
+ * {"action": "ban", "users": ["alice"], "addresses": ["203.0.113.0/24"], "pattern": "bot*", "minutes": 60}
+ * and answers with the users it acted on. The action is one of:
+ * <pre>
+ * remove  removes the online users from the whole cluster
+ * ban     bans the usernames, addresses and pattern, for "minutes" or for good, then removes the online users
+ * mute    mutes the usernames, addresses and online users matching the pattern for "minutes" (10)
+ * unmute  lifts the mutes of the usernames, addresses and online users matching the pattern
+ * unban   lifts the bans of the usernames, addresses and of the pattern itself
+ * </pre>
+ * Whatever the number of users, everyone left gets a single notice.
+ * A GET lists the bans and mutes in force, kept by Sanctions.
+ */
+public class BulkModerationEndpointHandler implements HttpHandler {
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+    private static final long DEFAULT_MUTE_MINUTES = 10;
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if ("GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            JSONArray rules = new JSONArray();
+            for (Sanctions.Rule rule : Sanctions.getRules()) {
+                JSONObject json = new JSONObject();
+                json.put("action", rule.getAction());
+                json.put("kind", rule.getKind());
+                json.put("target", rule.getTarget());
+                json.put("until", rule.getUntil() == 0 ? JSONObject.NULL : Instant.ofEpochMilli(rule.getUntil()));
+                rules.put(json);
+            }
+            JSONObject resp = new JSONObject();
+            resp.put("rules", rules);
+            respond(exchange, HTTP_OK, "application/json", resp.toString());
+            return;
+        }
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            respond(exchange, HTTP_METHOD_NOT_ALLOWED, "text/plain; charset=UTF-8",
+                    "Method Not Allowed. Use GET or POST for this endpoint.");
+            return;
+        }
+
+        String action;
+        List<String> usernames;
+        List<String> addresses;
+        String pattern;
+        long minutes;
+        try {
+            JSONObject body = new JSONObject(new String(exchange.getRequestBody().readAllBytes(),
+                    StandardCharsets.UTF_8));
+            action = body.optString("action", "");
+            usernames = strings(body.optJSONArray("users"));
+            addresses = strings(body.optJSONArray("addresses"));
+            pattern = body.optString("pattern", "").trim();
+            // Mutes always end, bans only when given a time
+            minutes = body.optLong("minutes", "mute".equals(action) ? DEFAULT_MUTE_MINUTES : 0);
+        } catch (JSONException e) {
+            respond(exchange, HTTP_BAD_REQUEST, "text/plain; charset=UTF-8", "Invalid JSON: " + e.getMessage());
+            return;
+        }
+        if (usernames.isEmpty() && addresses.isEmpty() && pattern.isEmpty()) {
+            respond(exchange, HTTP_BAD_REQUEST, "text/plain; charset=UTF-8",
+                    "Give \"users\", \"addresses\", \"pattern\" or several of them.");
+            return;
+        }
+        if (minutes < 0 || minutes == 0 && "mute".equals(action)) {
+            respond(exchange, HTTP_BAD_REQUEST, "text/plain; charset=UTF-8", "minutes must be above 0.");
+            return;
+        }
+        long until = minutes == 0 ? 0 : System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(minutes);
+
+        List<String> affected;
+        try {
+            switch (action) {
+                case "remove":
+                    affected = Moderation.removeUsers(Moderation.findOnlineUsers(usernames, pattern), "removed");
+                    break;
+                case "ban":
+                    Sanctions.banAddresses(addresses, until);
+                    Sanctions.banUsers(usernames, until);
+                    if (!pattern.isEmpty()) {
+                        Sanctions.banPattern(pattern, until);
+                    }
+                    // Users on this server caught by an address ban are removed as well
+                    Set<String> banned = new LinkedHashSet<>(Moderation.findOnlineUsers(usernames, pattern));
+                    banned.addAll(Moderation.findBannedLocalUsers());
+                    affected = Moderation.removeUsers(new ArrayList<>(banned), "banned");
+                    break;
+                case "mute":
+                    Sanctions.muteAddresses(addresses, until);
+                    affected = withOnlineMatches(usernames, pattern);
+                    Moderation.muteUsers(affected, minutes);
+                    break;
+                case "unmute":
+                    affected = Sanctions.unmute(withAddresses(withOnlineMatches(usernames, pattern), addresses));
+                    break;
+                case "unban":
+                    List<String> targets = withAddresses(usernames, addresses);
+                    if (!pattern.isEmpty()) {
+                        targets.add(pattern);
+                    }
+                    affected = Sanctions.unban(targets);
+                    break;
+                default:
+                    respond(exchange, HTTP_BAD_REQUEST, "text/plain; charset=UTF-8",
+                            "action must be remove, ban, mute, unmute or unban.");
+                    return;
+            }
+        } catch (IllegalArgumentException e) {
+            respond(exchange, HTTP_BAD_REQUEST, "text/plain; charset=UTF-8", e.getMessage());
+            return;
+        }
+
+        // The other actions were logged with their notice
+        if (!affected.isEmpty() && action.startsWith("un")) {
+            ClientHandler.logMessage("SERVER: An admin lifted the " + action.substring(2) + " of "
+                    + String.join(", ", affected) + ".", "Moderation");
+        }
+        JSONObject resp = new JSONObject();
+        resp.put("action", action);
+        resp.put("count", affected.size());
+        resp.put("users", new JSONArray(affected));
+        respond(exchange, HTTP_OK, "application/json", resp.toString());
+    }
+
+    private static List<String> strings(JSONArray array) {
+        List<String> strings = new ArrayList<>();
+        if (array != null) {
+            for (int i = 0; i < array.length(); i++) {
+                String value = array.getString(i).trim();
+                if (!value.isEmpty()) {
+                    strings.add(value);
+                }
+            }
+        }
+        return strings;
+    }
+
+    private static List<String> withAddresses(List<String> targets, List<String> addresses) {
+        List<String> all = new ArrayList<>(targets);
+        all.addAll(addresses);
+        return all;
+    }
+
+    // The given usernames, online or not, and the online users matching the pattern
+    private static List<String> withOnlineMatches(List<String> usernames, String pattern) {
+        Set<String> users = new LinkedHashSet<>(usernames);
+        users.addAll(Moderation.findOnlineUsers(List.of(), pattern));
+        return new ArrayList<>(users);
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String text)
+            throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
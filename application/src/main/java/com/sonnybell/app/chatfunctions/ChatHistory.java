@@ -1,5 +1,13 @@
 package com.sonnybell.app.chatfunctions;
 
+import com.sonnybell.app.store.MessageStore;
+import com.sonnybell.app.store.StoredMessage;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -18,27 +26,82 @@ import java.util.List;
  * the new one.
  * This ensures that the message history does not grow indefinitely and consumes
  * excessive memory.
+ * Every message is given a sequence number when it is added, which the binary
+ * protocol sends along with the message.
+ * Every message is also written to a MessageStore in the "message-store"
+ * directory (or the directory set with "-Dchat.store.dir"), so sequence
+ * numbers and the last MAX_HISTORY messages survive a restart and older
+ * history can still be paged through. If the store cannot be opened, the
+ * history is kept in memory only.
  */
 public final class ChatHistory {
 
     private static final int MAX_HISTORY = 100;
-    private static final LinkedList<String> MESSAGE_HISTORY = new LinkedList<>();
+    private static final int MAX_REPLAY = 1000;
+    private static final LinkedList<Entry> MESSAGE_HISTORY = new LinkedList<>();
+    private static final MessageStore STORE = openStore();
+    private static long lastSeq;
+
+    static {
+        if (STORE != null) {
+            lastSeq = STORE.getLastSeq();
+            try {
+                for (StoredMessage stored : STORE.readBefore(lastSeq + 1, MAX_HISTORY)) {
+                    MESSAGE_HISTORY.add(new Entry(stored.getSeq(), stored.getTimestamp(), stored.getMessage()));
+                }
+            } catch (IOException e) {
+                System.err.println("Could not load history from the message store: " + e.getMessage());
+            }
+        }
+    }
 
     private ChatHistory() {
         // Prevent instantiation
     }
 
+    private static MessageStore openStore() {
+        Path directory = Paths.get(System.getProperty("chat.store.dir",
+                Paths.get(System.getProperty("user.dir"), "message-store").toString()));
+        try {
+            MessageStore store = MessageStore.open(directory);
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    store.close();
+                } catch (IOException e) {
+                    System.err.println("Could not close the message store: " + e.getMessage());
+                }
+            }, "message-store-close"));
+            return store;
+        } catch (IOException e) {
+            System.err.println("Could not open the message store in " + directory
+                    + ", history will not survive a restart: " + e.getMessage());
+            return null;
+        }
+    }
+
     /**
      * Adds a message to the history.
      * If the history is full, the oldest message is removed.
      *
      * @param message The message to add to the history.
+     * @return The sequence number given to the message.
      */
-    public static synchronized void addMessageToHistory(String message) {
+    public static synchronized long addMessageToHistory(String message) {
         if (MESSAGE_HISTORY.size() >= MAX_HISTORY) {
             MESSAGE_HISTORY.removeFirst();
         }
-        MESSAGE_HISTORY.add(message);
+        lastSeq++;
+        Entry entry = new Entry(lastSeq, System.currentTimeMillis(), message);
+        MESSAGE_HISTORY.add(entry);
+        if (STORE != null) {
+            try {
+                STORE.append(entry.getSeq(), entry.getTimestamp(), message);
+            } catch (IOException e) {
+                System.err.println("Could not write message " + entry.getSeq() + " to the message store: "
+                        + e.getMessage());
+            }
+        }
+        return lastSeq;
     }
 
     /**
@@ -48,6 +111,150 @@ public final class ChatHistory {
      * @return A list of messages in the history.
      */
     public static synchronized List<String> getMessageHistory() {
-        return new LinkedList<>(MESSAGE_HISTORY);
+        List<String> messages = new ArrayList<>(MESSAGE_HISTORY.size());
+        for (Entry entry : MESSAGE_HISTORY) {
+            messages.add(entry.getMessage());
+        }
+        return messages;
+    }
+
+    /**
+     * Retrieves the message history together with the sequence numbers.
+     * Returns a copy of the message history to ensure thread safety.
+     *
+     * @return A list of history entries, oldest first.
+     */
+    public static synchronized List<Entry> getEntries() {
+        return new ArrayList<>(MESSAGE_HISTORY);
+    }
+
+    /**
+     * Retrieves the messages added after a sequence number, so a client that
+     * reconnects only receives what it missed.
+     * If the client has missed more than the in-memory history holds, the
+     * rest is read from the message store, up to MAX_REPLAY messages.
+     * If the sequence number is newer than any message, for example because
+     * the store was wiped, the whole in-memory history is returned.
+     *
+     * @param seq The sequence number of the last message the client has seen.
+     * @return A list of history entries newer than seq, oldest first.
+     */
+    public static List<Entry> getEntriesAfter(long seq) {
+        long newest;
+        synchronized (ChatHistory.class) {
+            if (seq > lastSeq) {
+                return new ArrayList<>(MESSAGE_HISTORY);
+            }
+            if (STORE == null || MESSAGE_HISTORY.isEmpty() || MESSAGE_HISTORY.getFirst().getSeq() <= seq + 1) {
+                return entriesAfterInMemory(seq);
+            }
+            newest = lastSeq;
+        }
+
+        // Older than the in-memory history, read without holding up new messages
+        List<Entry> missed = getPageBefore(newest + 1, (int) Math.min(newest - seq, MAX_REPLAY));
+        missed.removeIf(entry -> entry.getSeq() <= seq);
+        return missed;
+    }
+
+    private static List<Entry> entriesAfterInMemory(long seq) {
+        List<Entry> missed = new ArrayList<>();
+        Iterator<Entry> newestFirst = MESSAGE_HISTORY.descendingIterator();
+        while (newestFirst.hasNext()) {
+            Entry entry = newestFirst.next();
+            if (entry.getSeq() <= seq) {
+                break;
+            }
+            missed.add(entry);
+        }
+        Collections.reverse(missed);
+        return missed;
+    }
+
+    /**
+     * Retrieves a page of history older than a sequence number, for paging
+     * backwards. Served from the message store when there is one, so pages
+     * can go back further than the in-memory history.
+     *
+     * @param beforeSeq The sequence number to read before.
+     * @param limit     The most entries to return.
+     * @return A list of history entries older than beforeSeq, oldest first.
+     */
+    public static List<Entry> getPageBefore(long beforeSeq, int limit) {
+        List<Entry> page = new ArrayList<>(limit);
+        if (STORE != null) {
+            try {
+                for (StoredMessage stored : STORE.readBefore(beforeSeq, limit)) {
+                    page.add(new Entry(stored.getSeq(), stored.getTimestamp(), stored.getMessage()));
+                }
+                return page;
+            } catch (IOException e) {
+                System.err.println("Could not read history from the message store: " + e.getMessage());
+            }
+        }
+
+        synchronized (ChatHistory.class) {
+            Iterator<Entry> newestFirst = MESSAGE_HISTORY.descendingIterator();
+            while (newestFirst.hasNext() && page.size() < limit) {
+                Entry entry = newestFirst.next();
+                if (entry.getSeq() < beforeSeq) {
+                    page.add(entry);
+                }
+            }
+        }
+        Collections.reverse(page);
+        return page;
+    }
+
+    /**
+     * Gets the number of messages held in memory.
+     *
+     * @return The number of messages, at most MAX_HISTORY.
+     */
+    public static synchronized int getSize() {
+        return MESSAGE_HISTORY.size();
+    }
+
+    /**
+     * Gets the sequence number of the newest message.
+     *
+     * @return The sequence number, or 0 if there are no messages yet.
+     */
+    public static synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * A message in the history and the sequence number it was given.
+     */
+    public static final class Entry {
+        private final long seq;
+        private final long timestamp;
+        private final String message;
+
+        /**
+         * Constructor to initialize a history entry.
+         *
+         * @param seq       The sequence number of the message.
+         * @param timestamp When the message was added, in epoch milliseconds.
+         * @param message   The message text.
+         */
+        Entry(long seq, long timestamp, String message) {
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.message = message;
+        }
+
+        public long getSeq() {
+            return seq;
+        }
+
+        public long getTimestamp() {
+            return timestamp;
+        }
+
+        public String getMessage() {
+            return message;
+        }
     }
 }
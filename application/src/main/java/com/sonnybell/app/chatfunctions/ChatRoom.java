@@ -0,0 +1,238 @@
+package com.sonnybell.app.chatfunctions;
+
+import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.metrics.ServerMetrics;
+import com.sonnybell.app.profiling.BroadcastEvent;
+import com.sonnybell.app.protocol.OutboundMessage;
+import com.sonnybell.app.tracing.MessageTracer;
+import com.sonnybell.app.tracing.TraceStage;
+import com.sonnybell.app.web.WebSessions;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * ChatRoom class for a named room that socket clients can join.
+ * Messages sent in a room only go to its members, so the cost of a message
+ * depends on the size of the room rather than on everyone connected.
+ * Every client starts in the lobby, which is where web users, the game and
+ * server notices live; its history is ChatHistory, so it is stored on disk
+ * and replayed to resuming clients. Other rooms keep their last
+ * MAX_ROOM_HISTORY lines in memory, shown to whoever joins, and are removed
+ * once the last member leaves.
+ */
+public final class ChatRoom {
+
+    /**
+     * Name of the room every client starts in.
+     */
+    public static final String LOBBY_NAME = "lobby";
+
+    private static final int MAX_ROOM_HISTORY = 100;
+    private static final int MAX_NAME_LENGTH = 32;
+
+    private static final ConcurrentMap<String, ChatRoom> ROOMS = new ConcurrentHashMap<>();
+    private static final ChatRoom LOBBY = new ChatRoom(LOBBY_NAME);
+
+    static {
+        ROOMS.put(LOBBY_NAME, LOBBY);
+    }
+
+    private final String name;
+    // Read on every message and changed only on join and leave
+    private final Set<ClientHandler> members = new CopyOnWriteArraySet<>();
+    private final Deque<String> history = new ArrayDeque<>();
+
+    private ChatRoom(String name) {
+        this.name = name;
+    }
+
+    public static ChatRoom lobby() {
+        return LOBBY;
+    }
+
+    /**
+     * Turns what a user typed into a room name.
+     *
+     * @param requested The name typed after /join.
+     * @return The room name in lower case, or null if it is not a valid name.
+     */
+    public static String normalizeName(String requested) {
+        String roomName = requested.trim().toLowerCase(Locale.ROOT);
+        if (roomName.startsWith("#")) {
+            roomName = roomName.substring(1);
+        }
+        if (roomName.isEmpty() || roomName.length() > MAX_NAME_LENGTH) {
+            return null;
+        }
+        for (int i = 0; i < roomName.length(); i++) {
+            char c = roomName.charAt(i);
+            if (!Character.isLetterOrDigit(c) && c != '-' && c != '_') {
+                return null;
+            }
+        }
+        return roomName;
+    }
+
+    /**
+     * Adds a client to a room, creating the room if it does not exist.
+     *
+     * @param roomName A name returned by normalizeName.
+     * @param client   The client joining.
+     * @return The room joined.
+     */
+    public static ChatRoom join(String roomName, ClientHandler client) {
+        // compute keeps a join from racing with the removal of an emptied room
+        return ROOMS.compute(roomName, (key, room) -> {
+            ChatRoom joined = room != null ? room : new ChatRoom(key);
+            joined.members.add(client);
+            return joined;
+        });
+    }
+
+    /**
+     * Removes a client from this room. A room other than the lobby is removed
+     * when its last member leaves.
+     *
+     * @param client The client leaving.
+     */
+    public void leave(ClientHandler client) {
+        ROOMS.computeIfPresent(name, (key, room) -> {
+            room.members.remove(client);
+            return room.members.isEmpty() && room != LOBBY ? null : room;
+        });
+    }
+
+    /**
+     * Lists the rooms and how many members each has.
+     *
+     * @return Lines such as "#lobby (3)", the lobby first.
+     */
+    public static List<String> describeRooms() {
+        List<String> lines = new ArrayList<>();
+        lines.add("#" + LOBBY_NAME + " (" + LOBBY.members.size() + ")");
+        for (ChatRoom room : ROOMS.values()) {
+            if (room != LOBBY) {
+                lines.add("#" + room.name + " (" + room.members.size() + ")");
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Gets every room that has members on this server, the lobby included.
+     *
+     * @return The rooms.
+     */
+    public static Collection<ChatRoom> getRooms() {
+        return new ArrayList<>(ROOMS.values());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public boolean isLobby() {
+        return this == LOBBY;
+    }
+
+    /**
+     * Gets the tag used when logging lines of this room.
+     * Lobby lines keep their own tags such as "UserChats".
+     *
+     * @return The log tag, such as "Room-dev".
+     */
+    public String getLogTag() {
+        return "Room-" + name;
+    }
+
+    public Collection<ClientHandler> getMembers() {
+        return members;
+    }
+
+    /**
+     * Adds a line to the history of this room and returns its sequence number.
+     * Lobby lines go to ChatHistory; lines of other rooms are kept in memory
+     * only and get sequence number 0, so resuming clients never skip lobby
+     * messages because of them.
+     *
+     * @param line The line to add.
+     * @return The sequence number of the line.
+     */
+    public long addToHistory(String line) {
+        if (this == LOBBY) {
+            return ChatHistory.addMessageToHistory(line);
+        }
+        synchronized (history) {
+            if (history.size() >= MAX_ROOM_HISTORY) {
+                history.removeFirst();
+            }
+            history.addLast(line);
+        }
+        return 0;
+    }
+
+    /**
+     * Gets the recent lines of this room, oldest first.
+     *
+     * @return The lines.
+     */
+    public List<String> getHistory() {
+        if (this == LOBBY) {
+            return ChatHistory.getMessageHistory();
+        }
+        synchronized (history) {
+            return new ArrayList<>(history);
+        }
+    }
+
+    /**
+     * Adds a line sent to a room on another server of the cluster to the room
+     * here and sends it to its members. Nothing happens if no one here is in
+     * the room.
+     *
+     * @param roomName The room name.
+     * @param line     The full line.
+     */
+    public static void deliverFromPeer(String roomName, String line) {
+        ChatRoom room = ROOMS.get(roomName);
+        if (room != null) {
+            long seq = room.addToHistory(line);
+            room.deliver(OutboundMessage.system(seq, line), null);
+        }
+    }
+
+    /**
+     * Sends a message to every member of this room except one.
+     *
+     * @param message The message to send.
+     * @param except  The member not to send it to, usually the sender, or null.
+     */
+    public void deliver(OutboundMessage message, ClientHandler except) {
+        long start = System.nanoTime();
+        BroadcastEvent event = new BroadcastEvent();
+        event.begin();
+        MessageTracer.mark(message.getTrace(), TraceStage.FANOUT_START);
+        int recipients = 0;
+        for (ClientHandler member : members) {
+            if (member != except) {
+                member.deliver(message);
+                recipients++;
+            }
+        }
+        // Web users are always in the lobby
+        if (this == LOBBY) {
+            WebSessions.publish(message.getSeq(), message.getLine());
+        }
+        ServerMetrics.BROADCAST_FANOUT.recordSince(start);
+        event.finish(name, recipients, message.getSeq());
+        MessageTracer.mark(message.getTrace(), TraceStage.FANOUT_END);
+    }
+}
@@ -0,0 +1,117 @@
+package com.sonnybell.app.chatfunctions;
+
+import java.util.Arrays;
+import java.util.function.LongBinaryOperator;
+
+/**
+ * CidrTrie class finding which address ranges an address falls in, such as
+ * 203.0.113.0/24 or 2001:db8::/32.
+ * It is a binary trie over the bits of the address, with IPv4 addresses
+ * stored as IPv4-mapped IPv6 ones so both share one trie. The nodes live in
+ * three arrays instead of one object each, and a lookup follows at most 128
+ * bits whatever the number of ranges. Each range carries a value, here the
+ * time its rule ends.
+ */
+final class CidrTrie {
+    /**
+     * Returned by find() when no range matches.
+     */
+    static final long NONE = Long.MIN_VALUE;
+
+    private static final int IPV6_BITS = 128;
+    private static final int IPV4_BITS = 32;
+    private static final int INITIAL_NODES = 64;
+    private static final int IPV6_BYTES = 16;
+    private static final int BITS_PER_BYTE = 8;
+    private static final int HIGHEST_BIT = 7;
+    // The first 12 bytes of an IPv4-mapped IPv6 address, ::ffff:0:0/96
+    private static final byte[] IPV4_MAPPED_PREFIX = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, (byte) 0xff, (byte) 0xff};
+
+    // Child node of each node for a 0 bit and a 1 bit, 0 for none since the root is never a child
+    private int[] zero = new int[INITIAL_NODES];
+    private int[] one = new int[INITIAL_NODES];
+    private long[] values = new long[INITIAL_NODES];
+    private int size = 1;
+
+    /**
+     * Creates an empty trie.
+     */
+    CidrTrie() {
+        values[0] = NONE;
+    }
+
+    /**
+     * Adds a range. When a range is added twice, the values are merged with
+     * the given function.
+     *
+     * @param address   The address bytes, 4 or 16 of them.
+     * @param prefixLen The number of leading bits of the range, up to 32 for IPv4.
+     * @param value     The value of the range.
+     * @param merge     Combines the value already there with the new one.
+     */
+    void add(byte[] address, int prefixLen, long value, LongBinaryOperator merge) {
+        byte[] bytes = toIpv6(address);
+        int bits = address.length == IPV6_BYTES ? prefixLen : prefixLen + IPV6_BITS - IPV4_BITS;
+        int node = 0;
+        for (int i = 0; i < bits; i++) {
+            boolean set = bit(bytes, i);
+            int child = set ? one[node] : zero[node];
+            if (child == 0) {
+                child = newNode();
+                if (set) {
+                    one[node] = child;
+                } else {
+                    zero[node] = child;
+                }
+            }
+            node = child;
+        }
+        values[node] = values[node] == NONE ? value : merge.applyAsLong(values[node], value);
+    }
+
+    /**
+     * Finds the ranges an address falls in.
+     *
+     * @param address The address bytes, 4 or 16 of them.
+     * @param merge   Combines the values of the ranges, from the widest to the narrowest.
+     * @return The merged value of every range the address is in, or NONE.
+     */
+    long find(byte[] address, LongBinaryOperator merge) {
+        byte[] bytes = toIpv6(address);
+        long found = values[0];
+        int node = 0;
+        for (int i = 0; i < IPV6_BITS; i++) {
+            node = bit(bytes, i) ? one[node] : zero[node];
+            if (node == 0) {
+                break;
+            }
+            if (values[node] != NONE) {
+                found = found == NONE ? values[node] : merge.applyAsLong(found, values[node]);
+            }
+        }
+        return found;
+    }
+
+    private int newNode() {
+        if (size == values.length) {
+            zero = Arrays.copyOf(zero, size * 2);
+            one = Arrays.copyOf(one, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        values[size] = NONE;
+        return size++;
+    }
+
+    private static boolean bit(byte[] bytes, int index) {
+        return (bytes[index / BITS_PER_BYTE] >> (HIGHEST_BIT - index % BITS_PER_BYTE) & 1) != 0;
+    }
+
+    private static byte[] toIpv6(byte[] address) {
+        if (address.length == IPV6_BYTES) {
+            return address;
+        }
+        byte[] mapped = Arrays.copyOf(IPV4_MAPPED_PREFIX, IPV6_BYTES);
+        System.arraycopy(address, 0, mapped, IPV4_MAPPED_PREFIX.length, address.length);
+        return mapped;
+    }
+}
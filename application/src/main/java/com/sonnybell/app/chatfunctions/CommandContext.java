@@ -0,0 +1,46 @@
+package com.sonnybell.app.chatfunctions;
+
+import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.interfaces.MessageListener;
+
+/**
+ * CommandContext class holding everything a command needs to know about who
+ * ran it.
+ * Socket clients pass their ClientHandler as the session, web clients have no
+ * session and collect replies into their HTTP response instead.
+ */
+public final class CommandContext {
+    private final String sender;
+    private final ClientHandler session;
+    private final MessageListener replyTo;
+
+    /**
+     * Constructor to initialize the context of a command.
+     *
+     * @param sender  The username of the user who ran the command.
+     * @param session The socket session of the user, or null for web users.
+     * @param replyTo Where replies meant only for the sender are sent.
+     */
+    public CommandContext(String sender, ClientHandler session, MessageListener replyTo) {
+        this.sender = sender;
+        this.session = session;
+        this.replyTo = replyTo;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public ClientHandler getSession() {
+        return session;
+    }
+
+    /**
+     * Sends a message to the user who ran the command only.
+     *
+     * @param message The message to send.
+     */
+    public void reply(String message) {
+        replyTo.onMessageReceived(message);
+    }
+}
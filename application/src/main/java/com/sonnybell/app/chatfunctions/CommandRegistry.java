@@ -0,0 +1,160 @@
+package com.sonnybell.app.chatfunctions;
+
+import com.sonnybell.app.games.CapitalGame;
+import com.sonnybell.app.interfaces.ChatCommand;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CommandRegistry class holding every "/" command understood by the server.
+ * Both socket clients (ClientHandler) and web clients (WebChat) dispatch
+ * through this class, so they always get the same behaviour.
+ * The lookup table is built once when the class is loaded and is keyed by the
+ * lower case command token, so a dispatch is a single map lookup.
+ * Commands that broadcast or do slow work are marked async and run on a small
+ * bounded executor, so they never block the thread reading from a client.
+ */
+public final class CommandRegistry {
+
+    // Threads and queue size of the executor running async commands
+    private static final int COMMAND_THREADS = 2;
+    private static final int COMMAND_QUEUE_SIZE = 64;
+
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+    private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+    private static final ExecutorService COMMAND_EXECUTOR = new ThreadPoolExecutor(
+            COMMAND_THREADS, COMMAND_THREADS, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(COMMAND_QUEUE_SIZE),
+            runnable -> {
+                Thread thread = new Thread(runnable, "chat-command-" + THREAD_COUNT.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.AbortPolicy());
+
+    // Lookup table keyed by command token, and the help text in registration order
+    private static final Map<String, RegisteredCommand> COMMANDS;
+    private static final List<String> HELP_LINES;
+
+    static {
+        Map<String, RegisteredCommand> commands = new HashMap<>();
+        List<String> helpLines = new ArrayList<>();
+
+        register(commands, helpLines, "/startgame", "Start a new capital game", true,
+                (context, args) -> CapitalGame.startGame());
+        register(commands, helpLines, "/stopgame", "Stop the current game", true,
+                (context, args) -> CapitalGame.stopGame());
+        register(commands, helpLines, "/scores", "Show current scores", true,
+                (context, args) -> CapitalGame.showScores());
+        register(commands, helpLines, "/gamestatus", "Check game status", false,
+                (context, args) -> context.reply("GAME: " + CapitalGame.getGameStatus()));
+        register(commands, helpLines, "/join", "Join or create a room, for example /join dev", false,
+                (context, args) -> switchRoom(context, args.isEmpty() ? "" : args));
+        register(commands, helpLines, "/leave", "Leave the room and go back to the lobby", false,
+                (context, args) -> switchRoom(context, null));
+        register(commands, helpLines, "/rooms", "List the rooms and their members", false,
+                (context, args) -> ChatRoom.describeRooms().forEach(line -> context.reply("SERVER: " + line)));
+        register(commands, helpLines, "/msg", "Send a private message, for example /msg bob hi", false,
+                DirectMessages::send);
+        register(commands, helpLines, "/help", "Show this help message", false,
+                (context, args) -> showHelp(context));
+
+        COMMANDS = Map.copyOf(commands);
+        HELP_LINES = Collections.unmodifiableList(helpLines);
+    }
+
+    private CommandRegistry() {
+        // Prevent instantiation
+    }
+
+    private static void register(Map<String, RegisteredCommand> commands, List<String> helpLines,
+            String token, String description, boolean async, ChatCommand command) {
+        commands.put(token, new RegisteredCommand(command, async));
+        helpLines.add("GAME: " + token + " - " + description);
+    }
+
+    private static void switchRoom(CommandContext context, String roomName) {
+        if (context.getSession() == null) {
+            context.reply("SERVER: Web users stay in the lobby.");
+        } else if (roomName != null && roomName.isEmpty()) {
+            context.reply("SERVER: Usage: /join <room>");
+        } else {
+            context.getSession().switchRoom(roomName);
+        }
+    }
+
+    private static void showHelp(CommandContext context) {
+        context.reply("GAME: Available commands:");
+        for (String line : HELP_LINES) {
+            context.reply(line);
+        }
+    }
+
+    /**
+     * Checks if a message is a command.
+     *
+     * @param message The message typed by the user.
+     * @return true if the message starts with "/".
+     */
+    public static boolean isCommand(String message) {
+        return !message.isEmpty() && message.charAt(0) == '/';
+    }
+
+    /**
+     * Looks up and runs a command.
+     * Unknown commands are answered with a reply to the sender only.
+     * Async commands are handed to the command executor; if its queue is full
+     * the sender is told to try again instead of blocking.
+     *
+     * @param context The context of the command.
+     * @param message The full message typed by the user, starting with "/".
+     * @return A future completing when the command has finished running.
+     */
+    public static CompletableFuture<Void> dispatch(CommandContext context, String message) {
+        int space = message.indexOf(' ');
+        String token = (space < 0 ? message : message.substring(0, space)).toLowerCase(Locale.ROOT);
+        String args = space < 0 ? "" : message.substring(space + 1).trim();
+
+        RegisteredCommand registered = COMMANDS.get(token);
+        if (registered == null) {
+            context.reply("GAME: Unknown command '" + message + "'. Type /help for available commands.");
+            return DONE;
+        }
+
+        if (!registered.async) {
+            registered.command.execute(context, args);
+            return DONE;
+        }
+
+        try {
+            return CompletableFuture.runAsync(() -> registered.command.execute(context, args), COMMAND_EXECUTOR);
+        } catch (RejectedExecutionException e) {
+            context.reply("SERVER: The server is busy, please try " + token + " again shortly.");
+            return DONE;
+        }
+    }
+
+    /**
+     * A command in the lookup table together with how it should be run.
+     */
+    private static final class RegisteredCommand {
+        private final ChatCommand command;
+        private final boolean async;
+
+        RegisteredCommand(ChatCommand command, boolean async) {
+            this.command = command;
+            this.async = async;
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.sonnybell.app.chatfunctions;
+
+import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.filter.ContentFilter;
+import com.sonnybell.app.web.WebSessions;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * DirectMessages class for the /msg command, which sends a message to one
+ * user only.
+ * Recipients are found in maps keyed by username, so sending never scans the
+ * connected clients. Socket users get the message straight away, web users
+ * through the event stream of their page.
+ * The text goes through the ContentFilter like any chat line.
+ * Direct messages are kept out of the chat history and the message log. If
+ * the system property chat.dm.audit names a file, they are appended to it.
+ */
+public final class DirectMessages {
+
+    private static final ConcurrentMap<String, ClientHandler> SESSIONS = new ConcurrentHashMap<>();
+    private static final String AUDIT_PATH = System.getProperty("chat.dm.audit");
+    private static BufferedWriter auditWriter;
+
+    private DirectMessages() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Makes a socket client reachable by /msg. A later client with the same
+     * name replaces it.
+     *
+     * @param username The username of the client.
+     * @param session  The client.
+     */
+    public static void registerSession(String username, ClientHandler session) {
+        SESSIONS.put(username, session);
+    }
+
+    /**
+     * Removes a socket client, unless its name was taken over by another one.
+     *
+     * @param username The username of the client.
+     * @param session  The client.
+     */
+    public static void unregisterSession(String username, ClientHandler session) {
+        SESSIONS.remove(username, session);
+    }
+
+    /**
+     * Runs /msg: sends the text after the recipient name to that user and
+     * echoes it back to the sender.
+     *
+     * @param context The context of the command.
+     * @param args    The recipient name followed by the text.
+     */
+    static void send(CommandContext context, String args) {
+        int space = args.indexOf(' ');
+        String recipient = space < 0 ? args : args.substring(0, space);
+        String text = space < 0 ? "" : args.substring(space + 1).trim();
+        if (recipient.isEmpty() || text.isEmpty()) {
+            context.reply("SERVER: Usage: /msg <user> <message>");
+            return;
+        }
+        text = ContentFilter.apply(text);
+        if (text == null) {
+            context.reply(ContentFilter.blockedNotice());
+            return;
+        }
+
+        String line = "[DM from " + context.getSender() + "] " + text;
+        ClientHandler session = SESSIONS.get(recipient);
+        if (session != null) {
+            session.sendMessage(line);
+        } else if (!WebSessions.notify(recipient, line)) {
+            context.reply("SERVER: No user named " + recipient + " is online.");
+            return;
+        }
+        context.reply("[DM to " + recipient + "] " + text);
+        audit(context.getSender(), recipient, text);
+    }
+
+    private static synchronized void audit(String sender, String recipient, String text) {
+        if (AUDIT_PATH == null) {
+            return;
+        }
+        try {
+            if (auditWriter == null) {
+                auditWriter = Files.newBufferedWriter(Paths.get(AUDIT_PATH), StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            }
+            auditWriter.write("[" + new Date() + "] " + sender + " -> " + recipient + ": "
+                    + text.replace('\n', ' ').replace('\r', ' '));
+            auditWriter.newLine();
+            auditWriter.flush();
+        } catch (IOException e) {
+            System.err.println("DirectMessages: Could not write to the audit file " + AUDIT_PATH + ": "
+                    + e.getMessage());
+        }
+    }
+}
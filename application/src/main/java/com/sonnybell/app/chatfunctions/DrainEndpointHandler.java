@@ -0,0 +1,60 @@
+package com.sonnybell.app.chatfunctions;
+
+import com.sonnybell.app.server.Server;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * DrainEndpointHandler class to handle HTTP requests for draining the server
+ * before a restart.
+ * A POST to /api/admin/drain, optionally with "window" in milliseconds,
+ * answers straight away and then drains and stops the server in the
+ * background, since stopping the web server ends this request too.
+ */
+public class DrainEndpointHandler implements HttpHandler {
+    private static final int HTTP_ACCEPTED = 202;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+    private static final int HTTP_CONFLICT = 409;
+    private static final long DEFAULT_WINDOW_MS = 10_000;
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            respond(exchange, HTTP_METHOD_NOT_ALLOWED, "Method Not Allowed. Use POST for this endpoint.");
+            return;
+        }
+
+        long windowMs = Long.getLong("chat.drain.window.ms", DEFAULT_WINDOW_MS);
+        String query = exchange.getRequestURI().getRawQuery();
+        try {
+            for (String param : query == null ? new String[0] : query.split("&")) {
+                if (param.startsWith("window=")) {
+                    windowMs = Math.max(0, Long.parseLong(param.substring("window=".length())));
+                }
+            }
+        } catch (NumberFormatException e) {
+            respond(exchange, HTTP_BAD_REQUEST, "window must be a number of milliseconds.");
+            return;
+        }
+
+        // Answer before draining starts, the web server stops during the drain
+        if (Server.drainAndExit(windowMs)) {
+            respond(exchange, HTTP_ACCEPTED, "Draining, clients will reconnect within " + windowMs + " ms.");
+        } else {
+            respond(exchange, HTTP_CONFLICT, "The server is not running or is already draining.");
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
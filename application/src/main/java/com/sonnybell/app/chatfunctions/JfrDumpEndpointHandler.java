@@ -0,0 +1,96 @@
+package com.sonnybell.app.chatfunctions;
+
+import com.sonnybell.app.profiling.FlightRecording;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+/**
+ * JfrDumpEndpointHandler class to handle HTTP requests for the continuous
+ * flight recording.
+ * A POST to /api/admin/jfr, optionally with "minutes" (5 by default),
+ * returns the last minutes of the recording as a .jfr file to open in JDK
+ * Mission Control or with the jfr tool, for example:
+ * curl -X POST -o chat.jfr "http://localhost:8080/api/admin/jfr?minutes=10"
+ */
+public class JfrDumpEndpointHandler implements HttpHandler {
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+    private static final int HTTP_CONFLICT = 409;
+    private static final int HTTP_INTERNAL_ERROR = 500;
+    private static final long DEFAULT_MINUTES = 5;
+    private static final DateTimeFormatter FILE_TIME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            respond(exchange, HTTP_METHOD_NOT_ALLOWED, "Method Not Allowed. Use POST for this endpoint.");
+            return;
+        }
+        if (!FlightRecording.isRecording()) {
+            respond(exchange, HTTP_CONFLICT, "No recording is running, start the server with -Dchat.jfr=true.");
+            return;
+        }
+
+        long minutes = DEFAULT_MINUTES;
+        String query = exchange.getRequestURI().getRawQuery();
+        try {
+            for (String param : query == null ? new String[0] : query.split("&")) {
+                if (param.startsWith("minutes=")) {
+                    minutes = Long.parseLong(param.substring("minutes=".length()));
+                }
+            }
+        } catch (NumberFormatException e) {
+            minutes = 0;
+        }
+        if (minutes < 1 || minutes > FlightRecording.getMaxAgeMinutes()) {
+            respond(exchange, HTTP_BAD_REQUEST,
+                    "minutes must be from 1 to " + FlightRecording.getMaxAgeMinutes() + ".");
+            return;
+        }
+
+        // JFR.dump writes to a file, which is sent and then removed
+        String name = "chat-" + LocalDateTime.now().format(FILE_TIME) + ".jfr";
+        Path directory = Files.createTempDirectory("chat-jfr");
+        Path file = directory.resolve(name);
+        try {
+            long size;
+            try {
+                FlightRecording.dump(minutes, file);
+                size = Files.size(file);
+            } catch (IOException e) {
+                respond(exchange, HTTP_INTERNAL_ERROR, "Could not dump the recording: " + e.getMessage());
+                return;
+            }
+            exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+            exchange.getResponseHeaders().set("Content-Disposition", "attachment; filename=\"" + name + "\"");
+            exchange.sendResponseHeaders(HTTP_OK, size);
+            // The headers are out, so a failed copy can only cut the response short
+            try (OutputStream os = exchange.getResponseBody()) {
+                Files.copy(file, os);
+            } catch (IOException e) {
+                System.err.println("JfrDumpEndpointHandler: Could not send the recording: " + e.getMessage());
+                exchange.close();
+            }
+        } finally {
+            Files.deleteIfExists(file);
+            Files.deleteIfExists(directory);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,286 @@
+package com.sonnybell.app.chatfunctions;
+
+import com.sonnybell.app.profiling.LogFlushEvent;
+import com.sonnybell.app.search.SearchIndex;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MessageLog class to write the message log, MessageLog.log in the directory
+ * the server runs in.
+ * Lines look like "[date] [tag] message" and are written by one background
+ * thread, so the threads logging never wait for the disk and never open the
+ * file themselves. The thread writes whatever is queued, flushes, and then
+ * adds the lines to the SearchIndex, which is saved next to the log as
+ * MessageLog.idx by a thread of its own, so a large index being written out
+ * never holds up the log.
+ * The queue holds at most MAX_QUEUED lines; if the disk cannot keep up, or
+ * the log could not be opened at all, further lines are dropped and counted
+ * rather than holding up the threads logging them. A batch that fails for
+ * any reason is reported and the thread carries on with the next one.
+ */
+public final class MessageLog {
+
+    private static final String LOG_PATTERN = "%h/MessageLog.log";
+    private static final String INDEX_PATTERN = "%h/MessageLog.idx";
+    private static final int MAX_QUEUED = 65536;
+    private static final int MAX_BATCH = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long SNAPSHOT_INTERVAL_MS = 5 * 60 * 1000;
+    private static final long FLUSH_TIMEOUT_MS = 5000;
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private static final BlockingQueue<Line> QUEUE = new LinkedBlockingQueue<>(MAX_QUEUED);
+    private static final Path LOG_FILE = Paths.get(LOG_PATTERN.replace("%h", System.getProperty("user.dir")));
+    private static final SearchIndex INDEX = SearchIndex.open(LOG_FILE,
+            Paths.get(INDEX_PATTERN.replace("%h", System.getProperty("user.dir"))));
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final ExecutorService INDEX_SAVER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "message-log-index-save");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // Set when the writer gave up, so nothing more is queued for it
+    private static volatile boolean stopped;
+    // Only used by the writer thread
+    private static long lastSnapshot = System.currentTimeMillis();
+
+    static {
+        Thread writer = new Thread(MessageLog::writeLoop, "message-log-writer");
+        writer.setDaemon(true);
+        writer.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(MessageLog::flush, "message-log-flush"));
+    }
+
+    private MessageLog() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Queues a message to be written to the log.
+     * Line breaks in the message are replaced with spaces so every message is
+     * exactly one line of the log.
+     *
+     * @param message The message to log.
+     * @param tag     The tag of the message, for example "UserChats".
+     */
+    public static void append(String message, String tag) {
+        String oneLine = message.indexOf('\n') < 0 && message.indexOf('\r') < 0 ? message
+                : message.replace('\r', ' ').replace('\n', ' ');
+        if (stopped || !QUEUE.offer(new Line(System.currentTimeMillis(), tag, oneLine, null))) {
+            DROPPED.incrementAndGet();
+        }
+    }
+
+    /**
+     * Waits until everything logged so far is written and saves the search
+     * index.
+     */
+    public static void flush() {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        try {
+            if (stopped) {
+                return;
+            }
+            QUEUE.offer(new Line(0, null, null, done), FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            done.get(FLUSH_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("Could not flush the message log: " + e.getMessage());
+        }
+    }
+
+    public static int getQueueDepth() {
+        return QUEUE.size();
+    }
+
+    public static long getDroppedLines() {
+        return DROPPED.get();
+    }
+
+    /**
+     * Gets the search index over the log.
+     *
+     * @return The search index.
+     */
+    public static SearchIndex getSearchIndex() {
+        return INDEX;
+    }
+
+    @SuppressWarnings("checkstyle:IllegalCatch")
+    private static void writeLoop() {
+        OutputStream out;
+        long offset;
+        try {
+            offset = prepareFile();
+            INDEX.catchUp(offset);
+            out = new BufferedOutputStream(Files.newOutputStream(LOG_FILE, StandardOpenOption.APPEND), BUFFER_SIZE);
+        } catch (IOException e) {
+            System.err.println("Failed to open the log file, messages will not be logged.");
+            e.printStackTrace();
+            stop();
+            return;
+        }
+
+        List<Line> batch = new ArrayList<>(MAX_BATCH);
+        List<Long> lineOffsets = new ArrayList<>(MAX_BATCH);
+        while (true) {
+            try {
+                batch.add(QUEUE.take());
+            } catch (InterruptedException e) {
+                stop();
+                return;
+            }
+            QUEUE.drainTo(batch, MAX_BATCH - 1);
+            try {
+                offset = writeBatch(out, batch, lineOffsets, offset);
+            } catch (Throwable e) {
+                // One bad batch must not end logging for the rest of the server's life
+                System.err.println("Failed to log a batch of messages: " + e);
+                e.printStackTrace();
+                offset = resync(out, offset);
+                for (Line line : batch) {
+                    if (line.flushed != null) {
+                        line.flushed.completeExceptionally(e);
+                    }
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    // Writes, indexes and completes one batch; returns the length of the file after it
+    private static long writeBatch(OutputStream out, List<Line> batch, List<Long> lineOffsets, long start)
+            throws IOException {
+        long offset = start;
+        lineOffsets.clear();
+        LogFlushEvent event = new LogFlushEvent();
+        event.begin();
+        int written = 0;
+        // A failed write goes to the caller, so nothing below runs for lines that may not be in the file
+        for (Line line : batch) {
+            lineOffsets.add(offset);
+            if (line.flushed == null) {
+                byte[] bytes = ("[" + new Date(line.timestamp) + "] [" + line.tag + "] " + line.message)
+                        .getBytes(StandardCharsets.UTF_8);
+                out.write(bytes);
+                out.write(NEWLINE);
+                offset += bytes.length + NEWLINE.length;
+                written++;
+            }
+        }
+        out.flush();
+        event.finish(written, offset - start);
+
+        // Index only once the lines are in the file, so every hit can be read back
+        for (int i = 0; i < batch.size(); i++) {
+            Line line = batch.get(i);
+            long end = i + 1 < batch.size() ? lineOffsets.get(i + 1) : offset;
+            if (line.flushed == null) {
+                INDEX.add(lineOffsets.get(i), end, line.timestamp, line.tag, line.message);
+            }
+        }
+
+        boolean flushRequested = batch.stream().anyMatch(line -> line.flushed != null);
+        CompletableFuture<Void> saved = CompletableFuture.completedFuture(null);
+        if (flushRequested || System.currentTimeMillis() - lastSnapshot > SNAPSHOT_INTERVAL_MS) {
+            saved = CompletableFuture.runAsync(MessageLog::saveIndex, INDEX_SAVER);
+            lastSnapshot = System.currentTimeMillis();
+        }
+        // A flush is done once the index is saved too, without the writer waiting for it
+        for (Line line : batch) {
+            if (line.flushed != null) {
+                saved.whenComplete((result, error) -> line.flushed.complete(null));
+            }
+        }
+        return offset;
+    }
+
+    // After a failed batch, carries on from wherever the file really ends
+    private static long resync(OutputStream out, long offset) {
+        try {
+            out.flush();
+            return Files.size(LOG_FILE);
+        } catch (IOException e) {
+            return offset;
+        }
+    }
+
+    // Lines still queued and any logged later only count as dropped
+    private static void stop() {
+        stopped = true;
+        List<Line> left = new ArrayList<>();
+        QUEUE.drainTo(left);
+        for (Line line : left) {
+            if (line.flushed == null) {
+                DROPPED.incrementAndGet();
+            } else {
+                line.flushed.complete(null);
+            }
+        }
+    }
+
+    // Creates the log if needed and ends a line cut short by a crash; returns the length
+    private static long prepareFile() throws IOException {
+        if (Files.notExists(LOG_FILE)) {
+            Files.createFile(LOG_FILE);
+            System.out.println("Log file created.");
+        }
+        try (RandomAccessFile file = new RandomAccessFile(LOG_FILE.toFile(), "rw")) {
+            long length = file.length();
+            if (length > 0) {
+                file.seek(length - 1);
+                if (file.read() != '\n') {
+                    file.write(NEWLINE);
+                }
+            }
+            return file.length();
+        }
+    }
+
+    private static void saveIndex() {
+        try {
+            INDEX.saveIfChanged();
+        } catch (IOException e) {
+            System.err.println("Failed to save the search index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * A queued line, or a flush request when flushed is set.
+     */
+    private static final class Line {
+        private final long timestamp;
+        private final String tag;
+        private final String message;
+        private final CompletableFuture<Void> flushed;
+
+        Line(long timestamp, String tag, String message, CompletableFuture<Void> flushed) {
+            this.timestamp = timestamp;
+            this.tag = tag;
+            this.message = message;
+            this.flushed = flushed;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.sonnybell.app.chatfunctions;
+
+import com.sonnybell.app.metrics.ServerMetrics;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * MetricsEndpointHandler class to handle HTTP requests for the server metrics.
+ * A GET to /metrics returns every metric of ServerMetrics in the Prometheus
+ * text format, ready to be scraped.
+ */
+public class MetricsEndpointHandler implements HttpHandler {
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+    private static final int UNKNOWN_CONTENT_LENGTH = -1;
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            exchange.sendResponseHeaders(HTTP_METHOD_NOT_ALLOWED, UNKNOWN_CONTENT_LENGTH);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = ServerMetrics.REGISTRY.scrape().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+        exchange.sendResponseHeaders(HTTP_OK, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,545 @@
+package com.sonnybell.app.chatfunctions;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Sanctions class holding the users an admin banned or muted.
+ * A rule bans or mutes a username, a glob pattern of usernames such as
+ * "bot*", or an address or address range such as 203.0.113.0/24, either
+ * for good or until a given time. A ban turns away the logins it matches,
+ * a banned address right when it connects; a mute drops every line the
+ * user sends.
+ * The rules are kept in -Dchat.sanctions.file (sanctions.txt in the working
+ * directory), rewritten on every change and read again within
+ * -Dchat.sanctions.reload.ms (5000) when someone edits it, so a list shared
+ * by the servers of a cluster or fixed by hand applies without a restart.
+ * Each line of the file is "ban|mute user|pattern|address until|- target",
+ * the time in ISO-8601 like 2026-10-20T12:00:00Z, or - for no end.
+ * Lookups go through an index rebuilt on every change: hash maps for
+ * usernames and single addresses, a CidrTrie for ranges, so checking a login
+ * costs the same with ten rules as with ten thousand, patterns aside.
+ */
+public final class Sanctions {
+    private static final Path FILE = Paths.get(System.getProperty("chat.sanctions.file",
+            Paths.get(System.getProperty("user.dir"), "sanctions.txt").toString()));
+    private static final long RELOAD_MILLIS = Long.getLong("chat.sanctions.reload.ms", 5000);
+    private static final String BAN = "ban";
+    private static final String MUTE = "mute";
+    private static final String USER = "user";
+    private static final String PATTERN = "pattern";
+    private static final String ADDRESS = "address";
+    private static final String NO_END = "-";
+    private static final int RULE_FIELDS = 4;
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    // Every rule by "action kind target", in the order they were added; only changed under the class lock
+    private static final Map<String, Rule> RULES = new LinkedHashMap<>();
+    private static volatile Index index = new Index(List.of());
+    private static FileTime loadedTime;
+    private static ScheduledExecutorService reloader;
+
+    private Sanctions() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Loads the rules file and starts checking it for changes.
+     */
+    public static synchronized void start() {
+        if (reloader != null) {
+            return;
+        }
+        reload();
+        reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "sanctions-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloader.scheduleWithFixedDelay(Sanctions::reload, RELOAD_MILLIS, RELOAD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Turns a glob pattern into a regular expression: "*" matches any run of
+     * characters, "?" any one character, and everything else itself.
+     *
+     * @param glob The glob pattern.
+     * @return The compiled pattern, matching whole usernames.
+     */
+    public static Pattern compileGlob(String glob) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for (char c : glob.toCharArray()) {
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                regex.append(c == '*' ? ".*" : ".");
+            } else {
+                literal.append(c);
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString(), Pattern.DOTALL);
+    }
+
+    /**
+     * Bans usernames.
+     *
+     * @param usernames The usernames.
+     * @param until     When the ban ends in epoch milliseconds, 0 for never.
+     */
+    public static void banUsers(Collection<String> usernames, long until) {
+        add(BAN, USER, usernames, until);
+    }
+
+    /**
+     * Bans every username matching a glob pattern.
+     *
+     * @param glob  The pattern, such as "bot*".
+     * @param until When the ban ends in epoch milliseconds, 0 for never.
+     */
+    public static void banPattern(String glob, long until) {
+        add(BAN, PATTERN, List.of(glob), until);
+    }
+
+    /**
+     * Bans addresses or address ranges.
+     *
+     * @param addresses Addresses such as 203.0.113.7 or ranges such as 203.0.113.0/24.
+     * @param until     When the ban ends in epoch milliseconds, 0 for never.
+     * @throws IllegalArgumentException If one of them is not an address or a range.
+     */
+    public static void banAddresses(Collection<String> addresses, long until) {
+        add(BAN, ADDRESS, normalizeRanges(addresses), until);
+    }
+
+    /**
+     * Mutes every user connecting from addresses or address ranges.
+     *
+     * @param addresses Addresses such as 203.0.113.7 or ranges such as 203.0.113.0/24.
+     * @param until     When the mute ends in epoch milliseconds.
+     * @throws IllegalArgumentException If one of them is not an address or a range.
+     */
+    public static void muteAddresses(Collection<String> addresses, long until) {
+        add(MUTE, ADDRESS, normalizeRanges(addresses), until);
+    }
+
+    /**
+     * Mutes usernames.
+     *
+     * @param usernames The usernames.
+     * @param until     When the mute ends in epoch milliseconds.
+     */
+    public static void muteUsers(Collection<String> usernames, long until) {
+        add(MUTE, USER, usernames, until);
+    }
+
+    /**
+     * Lifts the bans on usernames, patterns or addresses.
+     *
+     * @param targets The banned usernames, patterns, addresses or ranges.
+     * @return The targets that were banned.
+     */
+    public static List<String> unban(Collection<String> targets) {
+        return remove(BAN, targets);
+    }
+
+    /**
+     * Lifts the mutes of usernames or addresses.
+     *
+     * @param targets The muted usernames, addresses or ranges.
+     * @return The targets that were muted.
+     */
+    public static List<String> unmute(Collection<String> targets) {
+        return remove(MUTE, targets);
+    }
+
+    /**
+     * Checks if an address may not connect at all.
+     *
+     * @param address The address of the client.
+     * @return true if a ban matches the address.
+     */
+    public static boolean isAddressBanned(String address) {
+        return index.bans.addressEnd(address, System.currentTimeMillis()) != 0;
+    }
+
+    /**
+     * Checks if a user may not log in.
+     *
+     * @param username The username.
+     * @param address  The address the user connects from, or null if unknown.
+     * @return true if a ban matches the username or the address.
+     */
+    public static boolean isBanned(String username, String address) {
+        long now = System.currentTimeMillis();
+        RuleSet bans = index.bans;
+        return bans.matchUser(username, now) != 0 || bans.addressEnd(address, now) != 0;
+    }
+
+    /**
+     * Gets how long a user stays muted. Called for every line, so it only
+     * costs a volatile read while nobody is muted.
+     *
+     * @param username The username.
+     * @param address  The address the user is connected from, or null if unknown.
+     * @return The time left in milliseconds, Long.MAX_VALUE for a mute without
+     *         end, or 0 if the user is not muted.
+     */
+    public static long getMuteMillisLeft(String username, String address) {
+        RuleSet mutes = index.mutes;
+        if (mutes.isEmpty()) {
+            return 0;
+        }
+        long now = System.currentTimeMillis();
+        long until = Math.max(mutes.matchUser(username, now), mutes.addressEnd(address, now));
+        if (until == Long.MAX_VALUE) {
+            return Long.MAX_VALUE;
+        }
+        return until == 0 ? 0 : until - now;
+    }
+
+    /**
+     * Gets the line telling a muted user their lines are dropped.
+     *
+     * @param millisLeft The time left of the mute, Long.MAX_VALUE if it has no end.
+     * @return The notice.
+     */
+    public static String muteNotice(long millisLeft) {
+        if (millisLeft == Long.MAX_VALUE) {
+            return "SERVER: You are muted.";
+        }
+        return "SERVER: You are muted for " + (millisLeft + MILLIS_PER_SECOND - 1) / MILLIS_PER_SECOND
+                + " more seconds.";
+    }
+
+    /**
+     * Gets the rules still in force.
+     *
+     * @return Each rule as its action, kind, target, and end in epoch
+     *         milliseconds or 0 for none.
+     */
+    public static synchronized List<Rule> getRules() {
+        long now = System.currentTimeMillis();
+        List<Rule> rules = new ArrayList<>();
+        for (Rule rule : RULES.values()) {
+            if (!rule.isOver(now)) {
+                rules.add(rule);
+            }
+        }
+        return rules;
+    }
+
+    private static synchronized void add(String action, String kind, Collection<String> targets, long until) {
+        for (String target : targets) {
+            Rule rule = new Rule(action, kind, target, until);
+            RULES.put(rule.key(), rule);
+        }
+        changed();
+    }
+
+    private static synchronized List<String> remove(String action, Collection<String> targets) {
+        List<String> removed = new ArrayList<>();
+        for (String target : targets) {
+            boolean found = false;
+            for (String kind : List.of(USER, PATTERN, ADDRESS)) {
+                String key = action + " " + kind + " "
+                        + (ADDRESS.equals(kind) ? normalizeRangeOrSelf(target) : target);
+                found |= RULES.remove(key) != null;
+            }
+            if (found) {
+                removed.add(target);
+            }
+        }
+        if (!removed.isEmpty()) {
+            changed();
+        }
+        return removed;
+    }
+
+    // Rebuilds the index and saves the rules, dropping the ones that are over
+    private static void changed() {
+        long now = System.currentTimeMillis();
+        RULES.values().removeIf(rule -> rule.isOver(now));
+        index = new Index(RULES.values());
+        try {
+            Files.createDirectories(FILE.toAbsolutePath().getParent());
+            Path temp = FILE.resolveSibling(FILE.getFileName() + ".tmp");
+            List<String> lines = new ArrayList<>();
+            lines.add("# action kind until target, rewritten by the server on every change");
+            for (Rule rule : RULES.values()) {
+                lines.add(rule.toLine());
+            }
+            Files.write(temp, lines, StandardCharsets.UTF_8);
+            Files.move(temp, FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            loadedTime = Files.getLastModifiedTime(FILE);
+        } catch (IOException e) {
+            System.err.println("Sanctions: Could not save " + FILE + ", the change only lasts until a restart: "
+                    + e.getMessage());
+        }
+    }
+
+    // Reads the file again if it changed since it was last read or written
+    private static synchronized void reload() {
+        FileTime modified;
+        List<String> lines;
+        try {
+            modified = Files.getLastModifiedTime(FILE);
+            if (modified.equals(loadedTime)) {
+                return;
+            }
+            lines = Files.readAllLines(FILE, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            System.err.println("Sanctions: Could not read " + FILE + ": " + e.getMessage());
+            return;
+        }
+
+        Map<String, Rule> rules = new LinkedHashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            try {
+                Rule rule = Rule.parse(line);
+                rules.put(rule.key(), rule);
+            } catch (IllegalArgumentException e) {
+                System.err.println("Sanctions: Skipping line " + (i + 1) + " of " + FILE + ": " + e.getMessage());
+            }
+        }
+        RULES.clear();
+        RULES.putAll(rules);
+        index = new Index(RULES.values());
+        loadedTime = modified;
+        System.out.println("Sanctions: Loaded " + RULES.size() + " rules from " + FILE);
+    }
+
+    // Turns "203.0.113.7/24" into "203.0.113.0/24" and "203.0.113.7" into itself, so equal ranges have one key
+    private static String normalizeRange(String range) {
+        int slash = range.indexOf('/');
+        byte[] bytes = parseAddress(slash < 0 ? range : range.substring(0, slash));
+        int bits = bytes.length * Byte.SIZE;
+        int prefix = bits;
+        if (slash >= 0) {
+            try {
+                prefix = Integer.parseInt(range.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Bad prefix length in " + range);
+            }
+            if (prefix < 0 || prefix > bits) {
+                throw new IllegalArgumentException("Bad prefix length in " + range);
+            }
+        }
+        for (int i = prefix; i < bits; i++) {
+            bytes[i / Byte.SIZE] &= (byte) ~(1 << (Byte.SIZE - 1 - i % Byte.SIZE));
+        }
+        String address = toText(bytes);
+        return prefix == bits ? address : address + "/" + prefix;
+    }
+
+    private static List<String> normalizeRanges(Collection<String> ranges) {
+        List<String> normalized = new ArrayList<>();
+        for (String range : ranges) {
+            normalized.add(normalizeRange(range));
+        }
+        return normalized;
+    }
+
+    private static String normalizeRangeOrSelf(String range) {
+        try {
+            return normalizeRange(range);
+        } catch (IllegalArgumentException e) {
+            return range;
+        }
+    }
+
+    // Only address literals are accepted, a host name would be looked up in the DNS
+    private static byte[] parseAddress(String text) {
+        if (text.isEmpty() || !text.matches("[0-9A-Fa-f:.]+")) {
+            throw new IllegalArgumentException("Not an address: " + text);
+        }
+        try {
+            return InetAddress.getByName(text).getAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Not an address: " + text);
+        }
+    }
+
+    private static String toText(byte[] bytes) {
+        try {
+            return InetAddress.getByAddress(bytes).getHostAddress();
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("Not an address");
+        }
+    }
+
+    /**
+     * Rule class for one ban or mute.
+     */
+    public static final class Rule {
+        private final String action;
+        private final String kind;
+        private final String target;
+        private final long until;
+
+        private Rule(String action, String kind, String target, long until) {
+            this.action = action;
+            this.kind = kind;
+            this.target = target;
+            this.until = until;
+        }
+
+        private static Rule parse(String line) {
+            String[] fields = line.split("\\s+", RULE_FIELDS);
+            if (fields.length < RULE_FIELDS) {
+                throw new IllegalArgumentException("expected \"action kind until target\"");
+            }
+            if (!BAN.equals(fields[0]) && !MUTE.equals(fields[0])) {
+                throw new IllegalArgumentException("unknown action " + fields[0]);
+            }
+            String target = fields[RULE_FIELDS - 1];
+            if (ADDRESS.equals(fields[1])) {
+                target = normalizeRange(target);
+            } else if (!USER.equals(fields[1]) && !PATTERN.equals(fields[1])) {
+                throw new IllegalArgumentException("unknown kind " + fields[1]);
+            }
+            long until = 0;
+            if (!NO_END.equals(fields[2])) {
+                try {
+                    until = Instant.parse(fields[2]).toEpochMilli();
+                } catch (DateTimeParseException e) {
+                    throw new IllegalArgumentException("bad time " + fields[2]);
+                }
+            }
+            return new Rule(fields[0], fields[1], target, until);
+        }
+
+        private String key() {
+            return action + " " + kind + " " + target;
+        }
+
+        private String toLine() {
+            return action + " " + kind + " " + (until == 0 ? NO_END : Instant.ofEpochMilli(until).toString())
+                    + " " + target;
+        }
+
+        private boolean isOver(long now) {
+            return until != 0 && until <= now;
+        }
+
+        public String getAction() {
+            return action;
+        }
+
+        public String getKind() {
+            return kind;
+        }
+
+        public String getTarget() {
+            return target;
+        }
+
+        public long getUntil() {
+            return until;
+        }
+    }
+
+    // The bans and the mutes, each ready for lookups; never changed once built
+    private static final class Index {
+        private final RuleSet bans = new RuleSet();
+        private final RuleSet mutes = new RuleSet();
+
+        Index(Collection<Rule> rules) {
+            for (Rule rule : rules) {
+                (BAN.equals(rule.action) ? bans : mutes).add(rule);
+            }
+        }
+    }
+
+    // Rules of one action; ends are kept as epoch milliseconds with Long.MAX_VALUE for never
+    private static final class RuleSet {
+        private final Map<String, Long> users = new HashMap<>();
+        private final Map<Pattern, Long> patterns = new LinkedHashMap<>();
+        private final Map<String, Long> addresses = new HashMap<>();
+        private final CidrTrie ranges = new CidrTrie();
+        private boolean empty = true;
+        private boolean hasRanges;
+
+        void add(Rule rule) {
+            long end = rule.until == 0 ? Long.MAX_VALUE : rule.until;
+            empty = false;
+            if (USER.equals(rule.kind)) {
+                users.merge(rule.target, end, Math::max);
+            } else if (PATTERN.equals(rule.kind)) {
+                patterns.merge(compileGlob(rule.target), end, Math::max);
+            } else if (rule.target.indexOf('/') < 0) {
+                addresses.merge(rule.target, end, Math::max);
+            } else {
+                int slash = rule.target.indexOf('/');
+                hasRanges = true;
+                ranges.add(parseAddress(rule.target.substring(0, slash)),
+                        Integer.parseInt(rule.target.substring(slash + 1)), end, Math::max);
+            }
+        }
+
+        boolean isEmpty() {
+            return empty;
+        }
+
+        // The latest end of the rules matching the username and still in force, or 0 if none
+        long matchUser(String username, long now) {
+            if (empty) {
+                return 0;
+            }
+            long end = users.getOrDefault(username, 0L);
+            for (Map.Entry<Pattern, Long> pattern : patterns.entrySet()) {
+                if (pattern.getValue() > Math.max(end, now) && pattern.getKey().matcher(username).matches()) {
+                    end = pattern.getValue();
+                }
+            }
+            return end > now ? end : 0;
+        }
+
+        // The latest end of the rules matching the address and still in force, or 0 if none
+        long addressEnd(String address, long now) {
+            if (empty || address == null) {
+                return 0;
+            }
+            long end = addresses.getOrDefault(address, 0L);
+            if (hasRanges) {
+                try {
+                    end = Math.max(end, ranges.find(parseAddress(address), Math::max));
+                } catch (IllegalArgumentException e) {
+                    // Not an address literal, such as a link-local address with a scope
+                }
+            }
+            return end > now ? end : 0;
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.sonnybell.app.chatfunctions;
+
+import com.sonnybell.app.search.SearchHit;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * SearchEndpointHandler class to handle HTTP requests searching the message
+ * log.
+ * GET /api/admin/search takes "q" (words that must all appear), "user",
+ * "tag", "from" and "to" (epoch milliseconds) and "limit", all optional,
+ * and returns the newest matching lines first.
+ */
+public class SearchEndpointHandler implements HttpHandler {
+
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 1000;
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        final int getOk = 200;
+        final int badRequest = 400;
+        final int methodNotAllowed = 405;
+
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            sendText(exchange, methodNotAllowed, "Method Not Allowed. Use GET for this endpoint.");
+            return;
+        }
+
+        Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+        long from;
+        long to;
+        int limit;
+        try {
+            from = Long.parseLong(params.getOrDefault("from", "0"));
+            to = Long.parseLong(params.getOrDefault("to", String.valueOf(Long.MAX_VALUE)));
+            limit = Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(params.getOrDefault("limit",
+                    String.valueOf(DEFAULT_LIMIT)))));
+        } catch (NumberFormatException e) {
+            sendText(exchange, badRequest, "from, to and limit must be numbers.");
+            return;
+        }
+
+        long started = System.nanoTime();
+        List<SearchHit> hits = MessageLog.getSearchIndex().search(params.get("q"), params.get("user"),
+                params.get("tag"), from, to, limit);
+        long tookMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+        JSONArray arr = new JSONArray();
+        for (SearchHit hit : hits) {
+            JSONObject item = new JSONObject();
+            item.put("time", hit.getTimestamp());
+            item.put("tag", hit.getTag());
+            item.put("message", hit.getMessage());
+            item.put("offset", hit.getOffset());
+            arr.put(item);
+        }
+        JSONObject resp = new JSONObject();
+        resp.put("hits", arr);
+        resp.put("tookMs", tookMs);
+
+        byte[] respBytes = resp.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(getOk, respBytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(respBytes);
+        }
+    }
+
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        for (String pair : rawQuery.split("&")) {
+            int equals = pair.indexOf('=');
+            if (equals > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    private static void sendText(HttpExchange exchange, int status, String text) throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=UTF-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.sonnybell.app.chatfunctions;
+
+import com.sonnybell.app.tracing.MessageTracer;
+import com.sonnybell.app.tracing.TraceEvent;
+import com.sonnybell.app.tracing.TraceStage;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * TraceEndpointHandler class to handle HTTP requests for message traces.
+ * A POST to /api/admin/trace with "enabled=true" or "enabled=false" turns
+ * tracing on or off. A GET returns the latest traces, "limit" of them (100
+ * by default), each with the time of every stage in microseconds since the
+ * line was read and the user a READ or WRITE was for.
+ */
+public class TraceEndpointHandler implements HttpHandler {
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_BAD_REQUEST = 400;
+    private static final int HTTP_METHOD_NOT_ALLOWED = 405;
+    private static final int DEFAULT_LIMIT = 100;
+    private static final int MAX_LIMIT = 10_000;
+    private static final double NANOS_PER_MICRO = 1000.0;
+
+    @Override
+    public void handle(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String[] params = query == null ? new String[0] : query.split("&");
+
+        if ("POST".equalsIgnoreCase(exchange.getRequestMethod())) {
+            for (String param : params) {
+                if ("enabled=true".equals(param) || "enabled=false".equals(param)) {
+                    MessageTracer.setEnabled(param.endsWith("true"));
+                    respond(exchange, HTTP_OK, "text/plain; charset=UTF-8",
+                            "Tracing is " + (MessageTracer.isEnabled() ? "on." : "off."));
+                    return;
+                }
+            }
+            respond(exchange, HTTP_BAD_REQUEST, "text/plain; charset=UTF-8", "Use enabled=true or enabled=false.");
+            return;
+        }
+        if (!"GET".equalsIgnoreCase(exchange.getRequestMethod())) {
+            respond(exchange, HTTP_METHOD_NOT_ALLOWED, "text/plain; charset=UTF-8",
+                    "Method Not Allowed. Use GET or POST for this endpoint.");
+            return;
+        }
+
+        int limit = DEFAULT_LIMIT;
+        try {
+            for (String param : params) {
+                if (param.startsWith("limit=")) {
+                    limit = Math.max(1, Math.min(MAX_LIMIT, Integer.parseInt(param.substring("limit=".length()))));
+                }
+            }
+        } catch (NumberFormatException e) {
+            respond(exchange, HTTP_BAD_REQUEST, "text/plain; charset=UTF-8", "limit must be a number.");
+            return;
+        }
+
+        JSONArray traces = new JSONArray();
+        for (Map.Entry<Long, List<TraceEvent>> trace : MessageTracer.recent(limit).entrySet()) {
+            traces.put(toJson(trace.getKey(), trace.getValue()));
+        }
+        JSONObject resp = new JSONObject();
+        resp.put("enabled", MessageTracer.isEnabled());
+        resp.put("traces", traces);
+        respond(exchange, HTTP_OK, "application/json", resp.toString());
+    }
+
+    private static JSONObject toJson(long id, List<TraceEvent> events) {
+        long start = events.get(0).getNanos();
+        JSONArray stages = new JSONArray();
+        for (TraceEvent event : events) {
+            JSONObject stage = new JSONObject();
+            stage.put("stage", event.getStage().name());
+            stage.put("us", (event.getNanos() - start) / NANOS_PER_MICRO);
+            if (event.getStage() == TraceStage.WRITE) {
+                stage.put("user", event.getDetail());
+            }
+            stages.put(stage);
+        }
+        JSONObject trace = new JSONObject();
+        trace.put("trace", id);
+        trace.put("user", events.get(0).getDetail());
+        trace.put("totalUs", (events.get(events.size() - 1).getNanos() - start) / NANOS_PER_MICRO);
+        trace.put("stages", stages);
+        return trace;
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String text)
+            throws IOException {
+        byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(bytes);
+        }
+    }
+}
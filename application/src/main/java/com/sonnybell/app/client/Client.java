@@ -1,42 +1,113 @@
 package com.sonnybell.app.client;
 
 import com.sonnybell.app.interfaces.MessageListener;
+import com.sonnybell.app.protocol.BinaryFrames;
+import com.sonnybell.app.protocol.Compression;
+import com.sonnybell.app.protocol.FrameReader;
+import com.sonnybell.app.protocol.Handshake;
 import java.io.*;
 import java.net.Socket;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
 
 /**
  * Client class to handle sending and receiving messages from the server.
  * It connects to the server, sends messages, and listens for incoming messages.
  */
 public class Client {
+    private static final String END_HISTORY = "---END_HISTORY---";
+    // Reconnect backoff: random delay up to BASE * 2^attempt, capped at MAX
+    private static final int MAX_RECONNECT_ATTEMPTS = 10;
+    private static final long RECONNECT_BASE_DELAY_MS = 500;
+    private static final long RECONNECT_MAX_DELAY_MS = 30000;
+    // Redirects followed in a row before giving up on the room, in case servers disagree on its owner
+    private static final int MAX_REDIRECTS = 3;
     private static int serverPort = 6666;
+    // Usernames behind the sender ids of the binary protocol
+    private final Map<Integer, String> senderNames = new HashMap<>();
+    // Guards the connection streams, which are replaced when reconnecting
+    private final Object connectionLock = new Object();
     private Socket socket;
     private BufferedReader reader;
     private BufferedWriter writer;
+    private FrameReader frameReader;
+    private OutputStream out;
+    private boolean binary;
+    private boolean resume;
     private String username;
     private MessageListener messageListener;
+    // Last history sequence number received, sent back to the server when resuming
+    private long lastSeq;
+    // Set once the user quits, so a closed connection is not reconnected
+    private volatile boolean closed;
+    // What is needed to log in again after the connection is lost
+    private String host;
+    private String password;
+    private Set<String> requestedCapabilities;
+    // Room joined with /join, joined again after reconnecting; null for the lobby
+    private volatile String room;
+    // Delay before reconnecting chosen by the server that sent us away, or -1 to back off as usual
+    private volatile long serverDelayMs = -1;
 
     /**
      * Constructor to initialize the client with a socket and username.
+     * It is called once the password has been accepted and sends the username
+     * to the server in the protocol negotiated during the handshake.
      *
-     * @param socket   The socket connected to the server.
-     * @param username The username of the client.
+     * @param socket       The socket connected to the server.
+     * @param username     The username of the client.
+     * @param capabilities The features accepted by the server during the handshake.
      */
-    public Client(Socket socket, String username) {
+    public Client(Socket socket, String username, Set<String> capabilities) {
+        this.username = username;
         try {
-            this.socket = socket;
-            this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-            this.username = username;
-
-            writer.newLine();
-            writer.flush();
+            openStreams(socket, capabilities);
         } catch (IOException e) {
             closeEverything();
         }
     }
 
+    /**
+     * Sets up the streams of a connection whose password has been accepted and
+     * sends the username. A resuming client also sends the last sequence number
+     * it has seen, so the server only replays what was missed.
+     *
+     * @param newSocket    The socket connected to the server.
+     * @param capabilities The features accepted by the server during the handshake.
+     * @throws IOException If the connection fails.
+     */
+    private void openStreams(Socket newSocket, Set<String> capabilities) throws IOException {
+        synchronized (connectionLock) {
+            this.socket = newSocket;
+            this.binary = capabilities.contains(Handshake.BINARY);
+            this.resume = capabilities.contains(Handshake.RESUME);
+
+            // With compression, everything after the password is a deflate stream
+            InputStream in = newSocket.getInputStream();
+            OutputStream rawOut = newSocket.getOutputStream();
+            if (capabilities.contains(Handshake.DEFLATE)) {
+                in = Compression.inflate(in);
+                rawOut = Compression.deflate(rawOut);
+            }
+
+            if (binary) {
+                this.out = new BufferedOutputStream(rawOut);
+                this.frameReader = new FrameReader(in);
+                BinaryFrames.write(out, BinaryFrames.TYPE_HELLO, resume ? lastSeq : 0, 0, username);
+                out.flush();
+            } else {
+                this.writer = new BufferedWriter(new OutputStreamWriter(rawOut));
+                this.reader = new BufferedReader(new InputStreamReader(in));
+                writer.write(username);
+                writer.newLine();
+                writer.flush();
+            }
+        }
+    }
+
     /**
      * Method to set the server port.
      * This allows the client to connect to a different port if needed.
@@ -54,6 +125,25 @@ public class Client {
         this.messageListener = messageListener;
     }
 
+    /**
+     * Turns on automatic reconnection.
+     * When the connection is lost, the client logs in again with the same
+     * details after a random, growing delay, so many clients losing the same
+     * server do not all come back at the same moment.
+     *
+     * @param serverHost            The host of the server.
+     * @param port                  The port of the server.
+     * @param serverPassword        The password accepted by the server.
+     * @param capabilitiesToRequest The features to ask for when reconnecting.
+     */
+    public void enableReconnect(String serverHost, int port, String serverPassword,
+            Set<String> capabilitiesToRequest) {
+        this.host = serverHost;
+        serverPort = port;
+        this.password = serverPassword;
+        this.requestedCapabilities = capabilitiesToRequest;
+    }
+
     /**
      * Client GUI method to send messages to the server.
      * It reads user input from the console and sends it to the server.
@@ -66,18 +156,48 @@ public class Client {
      * and close the connection.
      */
     public void sendMessage(String messageToSend) {
-        try {
-            if ("quit".equalsIgnoreCase(messageToSend)) {
-                writer.write("quit");
-            } else {
-                writer.write(username + ": " + messageToSend);
+        boolean quit = "quit".equalsIgnoreCase(messageToSend);
+        if (quit) {
+            closed = true;
+        }
+        rememberRoom(messageToSend);
+        synchronized (connectionLock) {
+            try {
+                if (binary) {
+                    // The server knows who we are, so only the text is sent
+                    if (quit) {
+                        BinaryFrames.write(out, BinaryFrames.TYPE_QUIT, 0, 0, "");
+                    } else {
+                        BinaryFrames.write(out, BinaryFrames.TYPE_CHAT, 0, 0, messageToSend);
+                    }
+                    out.flush();
+                    return;
+                }
+                if (quit) {
+                    writer.write("quit");
+                } else {
+                    writer.write(username + ": " + messageToSend);
+                }
+                writer.newLine();
+                writer.flush();
+            } catch (IOException e) {
+                System.out.println("[ERROR] Failed to send message: " + e.getMessage());
+                // While reconnecting the message is lost, but the client keeps running
+                if (host == null) {
+                    e.printStackTrace();
+                    closeEverything();
+                }
             }
-            writer.newLine();
-            writer.flush();
-        } catch (IOException e) {
-            System.out.println("[ERROR] Failed to send message: " + e.getMessage());
-            e.printStackTrace();
-            closeEverything();
+        }
+    }
+
+    // Follows /join and /leave so the room can be joined again after a reconnect
+    private void rememberRoom(String messageToSend) {
+        String trimmed = messageToSend.trim();
+        if (trimmed.startsWith("/join ")) {
+            room = trimmed.substring("/join ".length()).trim();
+        } else if ("/leave".equals(trimmed)) {
+            room = null;
         }
     }
 
@@ -104,30 +224,15 @@ public class Client {
     /**
      * Method to listen for incoming messages from the server.
      * It runs in a separate thread to continuously read messages.
+     * If reconnection is enabled, a lost connection is re-established and
+     * listening continues on the new connection.
      */
     public void listenForMessages() {
         Thread listenerThread = new Thread(() -> {
-            String msgFromServer;
             try {
-                while ((msgFromServer = reader.readLine()) != null) {
-                    // Check if server sent a quit command
-                    if ("quit".equalsIgnoreCase(msgFromServer.trim())) {
-                        System.out.println("[INFO] Server has requested client to quit. Disconnecting...");
-                        closeEverything();
-                        System.exit(0); // Force application exit
-                        break;
-                    }
-
-                    if (messageListener != null) {
-                        messageListener.onMessageReceived(msgFromServer);
-                    } else {
-                        System.out.println(msgFromServer);
-                    }
-                }
-                System.out.println("[DEBUG] Server closed the connection (readLine returned null)");
-            } catch (IOException e) {
-                System.out.println("[ERROR] Error reading from server: " + e.getMessage());
-                e.printStackTrace();
+                do {
+                    readUntilDisconnected();
+                } while (!closed && host != null && reconnect());
             } finally {
                 System.out.println("[DEBUG] Listener thread finally block");
                 closeEverything();
@@ -137,6 +242,206 @@ public class Client {
         listenerThread.start();
     }
 
+    /**
+     * Reads and shows messages until the connection is closed.
+     */
+    private void readUntilDisconnected() {
+        String msgFromServer;
+        try {
+            while ((msgFromServer = readLine()) != null) {
+                // The room joined is owned by another server of the cluster
+                if (Handshake.isRedirectLine(msgFromServer) && followRedirect(msgFromServer)) {
+                    return;
+                }
+                // The server is shutting down and says when to come back
+                if (Handshake.isReconnectLine(msgFromServer) && scheduleReconnect(msgFromServer)) {
+                    return;
+                }
+
+                // Check if server sent a quit command
+                if ("quit".equalsIgnoreCase(msgFromServer.trim())) {
+                    System.out.println("[INFO] Server has requested client to quit. Disconnecting...");
+                    closeEverything();
+                    System.exit(0); // Force application exit
+                    break;
+                }
+
+                showMessage(msgFromServer);
+            }
+            System.out.println("[DEBUG] Server closed the connection (readLine returned null)");
+        } catch (IOException e) {
+            if (!closed) {
+                System.out.println("[ERROR] Error reading from server: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Points the client at the server named in a "#REDIRECT host:port room"
+     * line. Only possible when reconnection is enabled.
+     *
+     * @param line The redirect line.
+     * @return true if the client should now reconnect.
+     */
+    private boolean followRedirect(String line) {
+        String[] parts = Handshake.argument(line).split(" ");
+        int colon = parts[0].lastIndexOf(':');
+        if (host == null || parts.length < 2 || colon <= 0) {
+            showMessage("[INFO] The server asked to move to " + Handshake.argument(line));
+            return false;
+        }
+        try {
+            serverPort = Integer.parseInt(parts[0].substring(colon + 1));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        host = parts[0].substring(0, colon);
+        room = parts[1];
+        serverDelayMs = 0;
+        // Sequence numbers belong to one server, so the new one sends its whole history
+        lastSeq = 0;
+        showMessage("[INFO] #" + room + " is on " + parts[0] + ", moving there...");
+        return true;
+    }
+
+    /**
+     * Takes the delay, and optionally the server, from a
+     * "#RECONNECT delayMs [host:port]" line sent by a server that is shutting
+     * down. Only possible when reconnection is enabled.
+     *
+     * @param line The reconnect line.
+     * @return true if the client should now reconnect.
+     */
+    private boolean scheduleReconnect(String line) {
+        String[] parts = Handshake.argument(line).split(" ");
+        long delay;
+        try {
+            delay = Math.max(0, Long.parseLong(parts[0]));
+        } catch (NumberFormatException e) {
+            return false;
+        }
+        int colon = parts.length > 1 ? parts[1].lastIndexOf(':') : -1;
+        if (host == null) {
+            showMessage("[INFO] The server is shutting down.");
+            return false;
+        }
+        if (colon > 0) {
+            try {
+                serverPort = Integer.parseInt(parts[1].substring(colon + 1));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            host = parts[1].substring(0, colon);
+            // Sequence numbers belong to one server, so the new one sends its whole history
+            lastSeq = 0;
+        }
+        serverDelayMs = delay;
+        showMessage("[INFO] The server is restarting, reconnecting to " + host + ":" + serverPort + " in "
+                + delay + " ms...");
+        return true;
+    }
+
+    /**
+     * Logs in again after the connection was lost.
+     * Each attempt waits a random time between zero and a limit that doubles
+     * after every failure.
+     *
+     * @return true if the client is connected again.
+     */
+    private boolean reconnect() {
+        closeConnection();
+        int redirects = 0;
+        for (int attempt = 0; attempt < MAX_RECONNECT_ATTEMPTS && !closed; attempt++) {
+            long delay = serverDelayMs;
+            serverDelayMs = -1;
+            if (!pauseBeforeReconnect(attempt, delay)) {
+                return false;
+            }
+
+            Socket newSocket = null;
+            try {
+                newSocket = new Socket(host, serverPort);
+                BufferedWriter tempWriter = new BufferedWriter(new OutputStreamWriter(newSocket.getOutputStream()));
+                BufferedReader tempReader = new BufferedReader(new InputStreamReader(newSocket.getInputStream()));
+                // Ask for the room first, a server that does not own it sends us on
+                String lastRoom = room;
+                if (lastRoom != null && redirects < MAX_REDIRECTS) {
+                    tempWriter.write(Handshake.ROOM_PREFIX + " " + lastRoom);
+                    tempWriter.newLine();
+                    tempWriter.flush();
+                    String response = readHandshakeReply(tempReader);
+                    if (Handshake.isRedirectLine(response) && followRedirect(response)) {
+                        redirects++;
+                        newSocket.close();
+                        continue;
+                    }
+                }
+                Set<String> capabilities = Handshake.negotiate(tempWriter, tempReader, requestedCapabilities);
+                tempWriter.write(password);
+                tempWriter.newLine();
+                tempWriter.flush();
+                String reply = readHandshakeReply(tempReader);
+                if (!"OK".equals(reply)) {
+                    newSocket.close();
+                    showMessage("[ERROR] The server did not accept the password: " + reply);
+                    return false;
+                }
+
+                openStreams(newSocket, capabilities);
+                readInitialHistory();
+                showMessage("[INFO] Reconnected to the server.");
+                String joinRoom = room;
+                if (joinRoom != null) {
+                    sendMessage("/join " + joinRoom);
+                }
+                return true;
+            } catch (IOException e) {
+                if (newSocket != null) {
+                    try {
+                        newSocket.close();
+                    } catch (IOException ignored) {
+                        // Already failed, try again
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Reads a reply while logging in again; a server too busy to take the connection says when to retry
+    private String readHandshakeReply(BufferedReader handshakeReader) throws IOException {
+        String reply = handshakeReader.readLine();
+        if (reply == null) {
+            throw new IOException("The server closed the connection");
+        }
+        if (Handshake.isReconnectLine(reply)) {
+            try {
+                serverDelayMs = Math.max(0, Long.parseLong(Handshake.argument(reply).split(" ")[0]));
+            } catch (NumberFormatException e) {
+                // Fall back to the usual delay
+            }
+            throw new IOException("The server is busy");
+        }
+        return reply;
+    }
+
+    // Waits the delay given by the server, or a random time below a limit that doubles after every failure
+    private boolean pauseBeforeReconnect(int attempt, long serverDelay) {
+        long delay = serverDelay;
+        if (delay < 0) {
+            long limit = Math.min(RECONNECT_MAX_DELAY_MS, RECONNECT_BASE_DELAY_MS << attempt);
+            delay = ThreadLocalRandom.current().nextLong(limit + 1);
+            showMessage("[INFO] Connection lost, reconnecting in " + delay + " ms...");
+        }
+        try {
+            Thread.sleep(delay);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
     /**
      * Add a method to read initial history.
      * It reads the history sent by the server until a special line
@@ -145,38 +450,98 @@ public class Client {
     public void readInitialHistory() throws IOException {
         // Assume the server sends a special line "---END_HISTORY---" after the history
         String line;
-        while ((line = reader.readLine()) != null) {
-            if ("---END_HISTORY---".equals(line)) {
+        while ((line = readLine()) != null) {
+            if (END_HISTORY.equals(line)) {
                 break;
             }
-            if (messageListener != null) {
-                messageListener.onMessageReceived(line);
-            } else {
-                System.out.println(line);
+            showMessage(line);
+        }
+    }
+
+    private void showMessage(String message) {
+        if (messageListener != null) {
+            messageListener.onMessageReceived(message);
+        } else {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Reads the next line to show from the server.
+     * With the binary protocol, frames are turned back into the same lines the
+     * text protocol would have sent, so the rest of the client is unchanged.
+     *
+     * @return The next line, or null if the server closed the connection.
+     * @throws IOException If reading fails.
+     */
+    private String readLine() throws IOException {
+        if (!binary) {
+            return reader.readLine();
+        }
+        while (frameReader.next()) {
+            if (frameReader.getSeq() > 0) {
+                lastSeq = frameReader.getSeq();
+            }
+            switch (frameReader.getType()) {
+                case BinaryFrames.TYPE_USER:
+                    senderNames.put(frameReader.getSenderId(), frameReader.getPayload());
+                    break;
+                case BinaryFrames.TYPE_CHAT:
+                    return senderNames.getOrDefault(frameReader.getSenderId(), "unknown") + ": "
+                            + frameReader.getPayload();
+                case BinaryFrames.TYPE_SYSTEM:
+                    return frameReader.getPayload();
+                case BinaryFrames.TYPE_HISTORY_END:
+                    return END_HISTORY;
+                case BinaryFrames.TYPE_QUIT:
+                    return "quit";
+                default:
+                    // Unknown frame types are skipped so newer servers can add them
+                    break;
             }
         }
+        return null;
     }
 
     /**
      * Method to close all resources when done.
      * It closes the socket, reader, and writer.
+     * The client will not reconnect after this.
      */
     public void closeEverything() {
-        try {
-            if (reader != null) {
-                reader.close();
-            }
+        closed = true;
+        closeConnection();
+    }
 
-            if (writer != null) {
-                writer.close();
-            }
+    /**
+     * Closes the streams and socket of the current connection.
+     */
+    private void closeConnection() {
+        synchronized (connectionLock) {
+            try {
+                if (reader != null) {
+                    reader.close();
+                }
 
-            if (socket != null) {
-                socket.close();
-            }
+                if (writer != null) {
+                    writer.close();
+                }
 
-        } catch (IOException e) {
-            e.printStackTrace();
+                if (frameReader != null) {
+                    frameReader.close();
+                }
+
+                if (out != null) {
+                    out.close();
+                }
+
+                if (socket != null) {
+                    socket.close();
+                }
+
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
         }
     }
 
@@ -214,10 +579,15 @@ public class Client {
             BufferedReader tempReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
             String serverResponse;
+            String clientInputPassword;
+
+            // Ask for optional features such as the binary protocol (-Dchat.protocol=text to opt out)
+            Set<String> requested = Handshake.requestedByClient();
+            Set<String> capabilities = Handshake.negotiate(tempWriter, tempReader, requested);
 
             while (true) {
                 System.out.println("Enter server password:");
-                String clientInputPassword = scanner.nextLine();
+                clientInputPassword = scanner.nextLine();
 
                 // exit client if no password is entered
                 // this is to prevent the client from hanging if the server is not
@@ -241,8 +611,13 @@ public class Client {
                 // If the password is correct, the server will respond with "OK"
                 if ("OK".equals(serverResponse)) {
                     break; // Password is correct, exit the loop
+                } else if (serverResponse == null || Handshake.isReconnectLine(serverResponse)) {
+                    // Too many attempts or connections from this machine
+                    System.out.println("The server closed the connection. Try again later.");
+                    socket.close();
+                    return;
                 } else {
-                    System.out.println("Incorrect password. Please try again.");
+                    System.out.println(serverResponse);
                 }
             }
 
@@ -252,12 +627,8 @@ public class Client {
             System.out.println("Welcome to the chat application!");
 
             // Send username to the server
-            tempWriter.write(username);
-            tempWriter.newLine();
-            tempWriter.flush();
-
-            // Close the temporary writer and reader
-            Client client = new Client(socket, username);
+            Client client = new Client(socket, username, capabilities);
+            client.enableReconnect("localhost", serverPort, clientInputPassword, requested);
             client.readInitialHistory();
             client.listenForMessages();
             client.sendMessageFromConsole(); // CLI uses this
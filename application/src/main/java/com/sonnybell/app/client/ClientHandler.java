@@ -1,15 +1,33 @@
 package com.sonnybell.app.client;
 
 import com.sonnybell.app.chatfunctions.ChatHistory;
-import com.sonnybell.app.games.CapitalGame;
+import com.sonnybell.app.chatfunctions.ChatRoom;
+import com.sonnybell.app.chatfunctions.DirectMessages;
+import com.sonnybell.app.chatfunctions.MessageLog;
+import com.sonnybell.app.chatfunctions.Sanctions;
+import com.sonnybell.app.cluster.Cluster;
+import com.sonnybell.app.metrics.ServerMetrics;
+import com.sonnybell.app.pipeline.InboundMessage;
+import com.sonnybell.app.pipeline.MessagePipeline;
+import com.sonnybell.app.protocol.BinaryFrames;
+import com.sonnybell.app.protocol.Compression;
+import com.sonnybell.app.protocol.FrameReader;
+import com.sonnybell.app.protocol.Handshake;
+import com.sonnybell.app.protocol.OutboundMessage;
+import com.sonnybell.app.ratelimit.FloodControl;
+import com.sonnybell.app.tracing.MessageTracer;
+import com.sonnybell.app.tracing.TraceStage;
 import java.io.*;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ClientHandler class to manage individual client connections.
@@ -22,9 +40,8 @@ public class ClientHandler implements Runnable {
     // Maintain a static set of all connected handlers
     private static final Set<ClientHandler> HANDLERS = new CopyOnWriteArraySet<>();
 
-    // Make these static since they're used in static methods
-    private static final String LOG_PATTERN = "%h/MessageLog.log";
-    private static final boolean APPEND_MODE = true;
+    // Source of the ids sent instead of usernames by the binary protocol
+    private static final AtomicInteger NEXT_USER_ID = new AtomicInteger();
 
     /**
      * Static variable to keep track of the total number of connected clients.
@@ -40,42 +57,121 @@ public class ClientHandler implements Runnable {
      */
     private static List<String> clientNamesList = Collections.synchronizedList(new ArrayList<>());
 
+    // Guards writes to the client so lines from different threads never interleave
+    private final Object writeLock = new Object();
+    // Sender ids this client has already been told the username of (binary protocol only)
+    private final Set<Integer> knownSenders = new HashSet<>();
+    // Guards moving between rooms so a disconnect cannot leave this client behind in a room
+    private final Object roomLock = new Object();
+
     // Socket connected to the client
     private Socket socket;
-    // BufferedReader to read messages from the client
+    // BufferedReader to read messages from the client (text protocol)
     private BufferedReader reader;
-    // BufferedWriter to send messages to the client
-    private BufferedWriter writer;
+    // FrameReader to read messages from the client (binary protocol)
+    private FrameReader frameReader;
+    // Stream to send messages to the client
+    private OutputStream out;
+    // Whether the client negotiated the binary protocol
+    private boolean binary;
+    // Id sent instead of the username by the binary protocol
+    private int userId;
     // Username of the client
     private String username;
+    // Address the client connected from
+    private String remoteAddress;
+    // Room the client is chatting in, the lobby until it joins another
+    private volatile ChatRoom room = ChatRoom.lobby();
+    // Cleared when the server sends the client away, so its leaving is not announced
+    private volatile boolean announceLeave = true;
+    // Limits how fast this client may send lines; only used by the thread reading from the client
+    private final FloodControl flood = new FloodControl();
+    // Set once the client has been told its lines are being dropped, until one gets through again
+    private boolean dropNoticeSent;
 
     /**
      * Constructor to initialize the client handler with a socket.
+     * The client uses the plain text protocol.
      *
      * @param socket The socket connected to the client.
      */
     public ClientHandler(Socket socket) {
+        this(socket, Collections.emptySet());
+    }
+
+    /**
+     * Constructor to initialize the client handler with a socket and the
+     * features negotiated during the handshake.
+     *
+     * @param socket       The socket connected to the client.
+     * @param capabilities The features accepted during the handshake.
+     */
+    public ClientHandler(Socket socket, Set<String> capabilities) {
         this.socket = socket;
+        this.binary = capabilities.contains(Handshake.BINARY);
+        this.userId = NEXT_USER_ID.incrementAndGet();
+        this.remoteAddress = socket.getInetAddress().getHostAddress();
+
+        boolean deflate = capabilities.contains(Handshake.DEFLATE);
 
         try {
-            this.writer = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
-            this.reader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            InputStream in = deflate ? Compression.inflate(socket.getInputStream()) : socket.getInputStream();
+            OutputStream rawOut = socket.getOutputStream();
 
             // Reading username after password is validated
-            this.username = reader.readLine();
+            // A resuming client puts the last sequence number it saw in the hello frame
+            long resumeAfter = 0;
+            if (binary) {
+                this.frameReader = new FrameReader(in);
+                boolean hello = frameReader.next() && frameReader.getType() == BinaryFrames.TYPE_HELLO;
+                this.username = hello ? frameReader.getPayload() : null;
+                if (hello && capabilities.contains(Handshake.RESUME)) {
+                    resumeAfter = frameReader.getSeq();
+                }
+            } else {
+                this.reader = new BufferedReader(new InputStreamReader(in));
+                this.username = reader.readLine();
+            }
             if (username == null) {
                 socket.close();
                 return;
             }
 
+            // A banned user gets the same goodbye as a removed one, without the history replay
+            // and before anyone hears of them. The connection's own deflate stream can follow
+            // the handshake directly, the shared history block is just skipped.
+            if (Sanctions.isBanned(username, remoteAddress)) {
+                System.out.println("Banned user " + username + " from " + remoteAddress + " was turned away.");
+                this.out = new BufferedOutputStream(deflate ? Compression.deflate(rawOut) : rawOut);
+                synchronized (writeLock) {
+                    writeUnflushed(OutboundMessage.system(0, "SERVER: You are banned from this server."));
+                    writeControlUnflushed(BinaryFrames.TYPE_HISTORY_END, "---END_HISTORY---");
+                }
+                removeByAdmin();
+                return;
+            }
+
             // Getting chat history from the ChatHistory class
-            for (String msg : ChatHistory.getMessageHistory()) {
-                writer.write(msg);
-                writer.newLine();
+            if (deflate && resumeAfter == 0) {
+                // The compressed history is shared by every client, then this
+                // connection's own deflate stream carries the live messages
+                rawOut.write(Compression.historyBlock(binary));
+                rawOut.flush();
+                this.out = new BufferedOutputStream(Compression.deflate(rawOut));
+            } else {
+                this.out = new BufferedOutputStream(deflate ? Compression.deflate(rawOut) : rawOut);
+                // A resuming client only gets the messages it missed
+                List<ChatHistory.Entry> replay = resumeAfter > 0
+                        ? ChatHistory.getEntriesAfter(resumeAfter)
+                        : ChatHistory.getEntries();
+                synchronized (writeLock) {
+                    for (ChatHistory.Entry entry : replay) {
+                        writeUnflushed(OutboundMessage.system(entry.getSeq(), entry.getMessage()));
+                    }
+                    writeControlUnflushed(BinaryFrames.TYPE_HISTORY_END, "---END_HISTORY---");
+                    out.flush();
+                }
             }
-            writer.write("---END_HISTORY---");
-            writer.newLine();
-            writer.flush();
 
             System.out.println("A new user has connected!");
 
@@ -91,6 +187,9 @@ public class ClientHandler implements Runnable {
             // Add this client to the list of connected clients
             CLIENT.add(this);
             HANDLERS.add(this);
+            ChatRoom.join(ChatRoom.LOBBY_NAME, this);
+            DirectMessages.registerSession(username, this);
+            Cluster.publishUserJoined(username);
 
             String message = "SERVER: " + username + " has joined the chat!";
             broadcastMessage(message);
@@ -99,13 +198,12 @@ public class ClientHandler implements Runnable {
         }
     }
 
-    /**
-     * Method to get the BufferedWriter for sending messages to the client.
-     *
-     * @return The BufferedWriter for sending messages to the client.
-     */
-    public BufferedWriter getBufferedWriter() {
-        return writer;
+    public String getRemoteAddress() {
+        return remoteAddress;
+    }
+
+    public boolean isInLobby() {
+        return room.isLobby();
     }
 
     /**
@@ -129,6 +227,7 @@ public class ClientHandler implements Runnable {
 
         // Adds the web client to the list of usernames
         clientNamesList.add(username);
+        Cluster.publishUserJoined(username);
 
         System.out.println("Web user " + username + " has connected!");
     }
@@ -145,6 +244,9 @@ public class ClientHandler implements Runnable {
 
         // Removes the web client from the list of usernames
         clientNamesList.remove(username);
+        if (!clientNamesList.contains(username)) {
+            Cluster.publishUserLeft(username);
+        }
 
         System.out.println("Web user " + username + " has disconnected!");
     }
@@ -191,7 +293,7 @@ public class ClientHandler implements Runnable {
         String message;
         while (socket.isConnected()) {
             try {
-                message = reader.readLine();
+                message = readMessage();
                 if (message == null) {
                     break;
                 }
@@ -206,142 +308,284 @@ public class ClientHandler implements Runnable {
                     break;
                 }
 
+                // 0 unless tracing is on, then each stage of the pipeline is timed under this id
+                long trace = MessageTracer.begin(userId);
+                ServerMetrics.MESSAGES_RECEIVED_SOCKET.increment();
+
                 // Parse the message to extract the actual content after "username: "
+                // Binary clients never send the prefix, the server knows who they are
                 String actualMessage = message;
                 String prefix = username + ": ";
                 if (message.startsWith(prefix)) {
                     actualMessage = message.substring(prefix.length());
                 }
 
-                // Check for game commands on the actual message content
-                if (actualMessage.startsWith("/")) {
-                    handleGameCommands(actualMessage);
-                    continue;
+                // Mutes, flood control, commands, the game, the filter and the broadcast,
+                // shared with the web chat; only async commands finish on another thread
+                InboundMessage inbound = InboundMessage.fromSocket(this, actualMessage, flood, trace,
+                        this::sendDropNotice);
+                MessagePipeline.chat().process(inbound);
+                if (inbound.isDisconnect()) {
+                    break;
                 }
-
-                // Check if it's an answer to the current question
-                if (CapitalGame.isGameActive()) {
-                    boolean wasCorrectAnswer = CapitalGame.checkAnswer(username, actualMessage);
-                    if (wasCorrectAnswer) {
-                        // Don't broadcast the message if it was a correct answer
-                        // The game will handle the announcement
-                        continue;
-                    }
+                if (!inbound.isNoticed()) {
+                    dropNoticeSent = false;
                 }
 
-                // Regular chat message - only log if it's not empty/whitespace
-                broadcastMessage(message); // Broadcast the original formatted message
-
             } catch (IOException e) {
-                closeEverything();
                 break;
             }
         }
+        // The client quit or disconnected, so it should not stay in the client list
+        closeEverything();
+    }
+
+    // Tells the client once why its lines are dropped, rather than answering every dropped line
+    private void sendDropNotice(String notice) {
+        if (!dropNoticeSent) {
+            dropNoticeSent = true;
+            sendMessage(notice);
+        }
     }
 
     /**
-     * Handle game-related commands.
+     * Reads the next message typed by the client.
+     *
+     * @return The message, "quit" if the client asked to leave, or null if the
+     *         connection was closed.
+     * @throws IOException If reading fails.
      */
-    private void handleGameCommands(String command) {
-        switch (command.toLowerCase()) {
-            case "/startgame":
-                CapitalGame.startGame();
-                break;
-            case "/stopgame":
-                CapitalGame.stopGame();
-                break;
-            case "/scores":
-                CapitalGame.showScores();
-                break;
-            case "/gamestatus":
-                String status = CapitalGame.getGameStatus();
-                // Send status only to the user who requested it
-                sendMessage("GAME: " + status);
-                break;
-            case "/help":
-                sendMessage("GAME: Available commands:");
-                sendMessage("GAME: /startgame - Start a new capital game");
-                sendMessage("GAME: /stopgame - Stop the current game");
-                sendMessage("GAME: /scores - Show current scores");
-                sendMessage("GAME: /gamestatus - Check game status");
-                sendMessage("GAME: /help - Show this help message");
-                break;
-            default:
-                sendMessage("GAME: Unknown command '" + command + "'. Type /help for available commands.");
+    private String readMessage() throws IOException {
+        if (!binary) {
+            return reader.readLine();
+        }
+        while (frameReader.next()) {
+            if (frameReader.getType() == BinaryFrames.TYPE_CHAT) {
+                return frameReader.getPayload();
+            }
+            if (frameReader.getType() == BinaryFrames.TYPE_QUIT) {
+                return "quit";
+            }
         }
+        return null;
     }
 
     /**
-     * Send a message to this specific client only.
+     * Writes a message in the protocol of this client without flushing.
+     * Binary clients are told the username behind a sender id the first time
+     * they see it. The caller must hold the write lock.
+     *
+     * @param message The message to write.
+     * @throws IOException If writing fails.
+     */
+    private void writeUnflushed(OutboundMessage message) throws IOException {
+        if (!binary) {
+            out.write(message.textBytes());
+            return;
+        }
+        if (message.getSenderId() != 0 && knownSenders.add(message.getSenderId())) {
+            BinaryFrames.write(out, BinaryFrames.TYPE_USER, 0, message.getSenderId(), message.getSender());
+        }
+        out.write(message.frameBytes());
+    }
+
+    /**
+     * Writes a protocol marker such as the end of the history without flushing.
+     * The caller must hold the write lock.
+     *
+     * @param frameType The frame type used by the binary protocol.
+     * @param textLine  The line used by the text protocol.
+     * @throws IOException If writing fails.
+     */
+    private void writeControlUnflushed(byte frameType, String textLine) throws IOException {
+        if (binary) {
+            BinaryFrames.write(out, frameType, 0, 0, "");
+        } else {
+            out.write((textLine + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Sends a message to this client in its own protocol.
+     * If the write fails the client is disconnected.
      *
      * @param message The message to send.
      */
-    public void sendMessage(String message) {
+    public void deliver(OutboundMessage message) {
+        long start = System.nanoTime();
         try {
-            writer.write(message);
-            writer.newLine();
-            writer.flush();
+            synchronized (writeLock) {
+                writeUnflushed(message);
+                out.flush();
+            }
+            ServerMetrics.MESSAGES_SENT.increment();
+            ServerMetrics.CLIENT_WRITE.recordSince(start);
+            MessageTracer.mark(message.getTrace(), TraceStage.WRITE, userId);
         } catch (IOException e) {
             closeEverything();
         }
     }
 
     /**
-     * Static method to broadcast a message to ALL connected clients.
-     * This is used for game messages and server announcements.
+     * Send a message to this specific client only.
+     *
+     * @param message The message to send.
+     */
+    public void sendMessage(String message) {
+        deliver(OutboundMessage.system(0, message));
+    }
+
+    /**
+     * Static method to broadcast a message to everyone in the lobby, which is
+     * every client that has not joined another room.
+     * This is used for game messages, logged as GameMessages. The game runs
+     * on this server only and only checks the answers of its users, so its
+     * messages are not sent to the other servers of a cluster.
      *
      * @param message The message to be sent to all clients.
      */
     public static void broadcastMessageToAll(String message) {
         // Log game messages
-        logMessage(message, "GameMessages");
+        broadcastToLobby(message, "GameMessages");
+    }
+
+    /**
+     * Static method to broadcast a message to everyone in the lobby, logged
+     * under the given tag.
+     * This is the one call for a lobby event that does not come from a socket
+     * client: it adds the message to the history and the log exactly once, so
+     * callers must not add or log it themselves.
+     *
+     * @param message The message to be sent to all clients.
+     * @param tag     The tag to log the message with.
+     */
+    public static void broadcastMessageToAll(String message, String tag) {
+        broadcastToLobby(message, tag);
+        Cluster.publishMessage(ChatRoom.LOBBY_NAME, message);
+    }
+
+    // Stores, logs and sends a lobby event on this server only
+    private static void broadcastToLobby(String message, String tag) {
+        logMessage(message, tag);
 
         // Add to chat history
-        ChatHistory.addMessageToHistory(message);
+        long seq = ChatHistory.addMessageToHistory(message);
 
-        // Send to all socket clients
-        for (ClientHandler handler : CLIENT) {
-            try {
-                handler.writer.write(message);
-                handler.writer.newLine();
-                handler.writer.flush();
-            } catch (IOException e) {
-                handler.closeEverything();
-            }
-        }
+        // Send to the lobby, encoding the message once for each protocol
+        ChatRoom.lobby().deliver(OutboundMessage.system(seq, message), null);
     }
 
     /**
-     * Method to broadcast a message to all connected clients except the sender.
-     * This is used for regular chat messages.
+     * Sends a chat line typed by this client to the other members of its room.
+     *
+     * @param text  The text typed by the user, without the "username: " prefix.
+     * @param trace The trace id of the line, 0 if it is not traced.
+     */
+    public void broadcastChat(String text, long trace) {
+        broadcast(username + ": " + text, userId, text, trace);
+    }
+
+    /**
+     * Method to broadcast a message to the room of this client, except to the
+     * client itself.
+     * This is used for the join and leave notices of this client.
      *
      * @param message The message to be sent.
      */
     public void broadcastMessage(String message) {
+        broadcast(message, 0, message, 0);
+    }
+
+    /**
+     * Adds a line to the history and log of the room of this client, then
+     * sends it to the other members of the room.
+     *
+     * @param line     The full line as stored in the history, such as "user: hi".
+     * @param senderId The id of this user for a chat message, 0 for a server line.
+     * @param text     The text typed by the user for a chat message.
+     * @param trace    The trace id of a chat message, 0 if it is not traced.
+     */
+    private void broadcast(String line, int senderId, String text, long trace) {
+        ChatRoom current = room;
+
         // Decide on a tag to label this message
         String tag;
-        if (message.contains("has joined the chat!")) {
+        if (!current.isLobby()) {
+            tag = current.getLogTag();
+        } else if (line.contains("has joined the chat!")) {
             tag = "HelloUser";
-        } else if (message.contains("has left the chat.")) {
+        } else if (line.contains("has left the chat.")) {
             tag = "GoodbyeUser";
         } else {
             tag = "UserChats";
         }
+        broadcastIn(current, line, tag, senderId, text, trace);
+    }
 
-        ChatHistory.addMessageToHistory(message);
-        logMessage(message, tag);
+    private void broadcastIn(ChatRoom target, String line, String tag, int senderId, String text, long trace) {
+        long seq = target.addToHistory(line);
+        MessageTracer.mark(trace, TraceStage.HISTORY_APPEND);
+        logMessage(line, tag);
+        MessageTracer.mark(trace, TraceStage.LOG_ENQUEUE);
+
+        OutboundMessage outbound = senderId == 0
+                ? OutboundMessage.system(seq, line)
+                : OutboundMessage.chat(seq, senderId, username, text, trace);
+        target.deliver(outbound, this);
+        // Other rooms live on the one server that owns them
+        if (target.isLobby()) {
+            Cluster.publishMessage(target.getName(), line);
+        }
+    }
 
-        for (ClientHandler client : CLIENT) {
-            try {
-                if (!client.username.equals(this.username)) {
-                    client.writer.write(message);
-                    client.writer.newLine();
-                    client.writer.flush();
-                }
-            } catch (IOException e) {
-                client.closeEverything();
+    /**
+     * Moves this client to another room, telling both rooms.
+     * The recent history of the new room is sent to the client, except for
+     * the lobby, whose history the client saw when it connected.
+     *
+     * @param requested The room name typed by the user, or null for the lobby.
+     */
+    public void switchRoom(String requested) {
+        String roomName = requested == null ? ChatRoom.LOBBY_NAME : ChatRoom.normalizeName(requested);
+        if (roomName == null) {
+            sendMessage("SERVER: Room names are 1 to 32 letters, digits, '-' or '_'.");
+            return;
+        }
+
+        ChatRoom next;
+        synchronized (roomLock) {
+            ChatRoom current = room;
+            if (current.getName().equals(roomName)) {
+                sendMessage("SERVER: You are already in #" + roomName + ".");
+                return;
             }
+            // In a cluster the room may be owned by another server, which the client moves to
+            String redirect = Cluster.redirectFor(roomName);
+            if (redirect != null) {
+                sendMessage(redirect);
+                return;
+            }
+            if (!CLIENT.contains(this)) {
+                return;
+            }
+            current.leave(this);
+            broadcastIn(current, "SERVER: " + username + " has moved to #" + roomName + ".",
+                    roomTag(current), 0, null, 0);
+            next = ChatRoom.join(roomName, this);
+            room = next;
         }
+
+        if (!next.isLobby()) {
+            for (String line : next.getHistory()) {
+                sendMessage(line);
+            }
+        }
+        sendMessage("SERVER: You are now in #" + roomName + " with " + next.getMembers().size() + " member(s).");
+        broadcastIn(next, "SERVER: " + username + " has joined #" + roomName + ".", roomTag(next), 0, null, 0);
+    }
+
+    private static String roomTag(ChatRoom target) {
+        return target.isLobby() ? "Rooms" : target.getLogTag();
     }
 
     /**
@@ -349,9 +593,15 @@ public class ClientHandler implements Runnable {
      * and broadcast a message indicating the client has left.
      */
     public void removeClientHandler() {
-        // Removes the client from the server
-        CLIENT.remove(this);
+        // Removes the client from the server; nothing to do if it never joined or already left
+        if (!CLIENT.remove(this)) {
+            return;
+        }
         HANDLERS.remove(this);
+        DirectMessages.unregisterSession(username, this);
+        synchronized (roomLock) {
+            room.leave(this);
+        }
 
         // Use centralized tracking for socket clients
         synchronized (ClientHandler.class) {
@@ -359,10 +609,16 @@ public class ClientHandler implements Runnable {
             clientTotal--;
             // Removes the client from the list of usernames
             clientNamesList.remove(username);
+            // The other servers keep one name per user, so they hear when the last session left
+            if (!clientNamesList.contains(username)) {
+                Cluster.publishUserLeft(username);
+            }
         }
 
-        String message = "SERVER: " + username + " has left the chat.";
-        broadcastMessage(message);
+        if (announceLeave) {
+            String message = "SERVER: " + username + " has left the chat.";
+            broadcastMessage(message);
+        }
     }
 
     /**
@@ -371,61 +627,89 @@ public class ClientHandler implements Runnable {
     public void closeEverything() {
         removeClientHandler();
         try {
+            // The socket goes first: it wakes up the thread blocked reading from
+            // it, which holds the reader's lock, so closing the reader could
+            // otherwise wait until the client sends another line
+            if (socket != null) {
+                socket.close();
+            }
+
             if (reader != null) {
                 reader.close();
             }
 
-            if (writer != null) {
-                writer.close();
+            if (frameReader != null) {
+                frameReader.close();
             }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
 
-            if (socket != null) {
-                socket.close();
+        // Anything still buffered can no longer be sent once the socket is closed
+        try {
+            if (out != null) {
+                out.close();
             }
-
         } catch (IOException e) {
-            e.printStackTrace();
+            // Expected when the buffer was not empty
         }
     }
 
     /**
      * Static method to log messages to a file.
+     * The line is written by the MessageLog in the background.
      *
      * @param message The message to be logged.
      * @param tag     The tag to associate with the message.
      */
     public static void logMessage(String message, String tag) {
-        String projectDir = System.getProperty("user.dir");
-        if (projectDir == null) {
-            System.err.println("Could not resolve project directory.");
-            return;
-        }
-
-        String filePath = LOG_PATTERN.replace("%h", projectDir);
-        File file = new File(filePath);
+        MessageLog.append(message, tag);
+    }
 
-        if (!file.exists()) {
-            try {
-                boolean created = file.createNewFile();
-                if (created) {
-                    System.out.println("Log file created.");
+    /**
+     * Tells the client this server is shutting down and when to reconnect,
+     * then closes the connection. Its leaving is not announced, since the
+     * user will be back shortly.
+     *
+     * @param delayMs How long the client should wait before reconnecting.
+     * @param address The host:port to reconnect to, or null for this server.
+     */
+    public void drain(long delayMs, String address) {
+        announceLeave = false;
+        try {
+            if (socket != null && !socket.isClosed() && out != null) {
+                synchronized (writeLock) {
+                    writeUnflushed(OutboundMessage.system(0, Handshake.formatReconnect(delayMs, address)));
+                    out.flush();
                 }
-            } catch (IOException e) {
-                System.err.println("Failed to create log file.");
-                e.printStackTrace();
-                return;
             }
-        }
-
-        try (FileWriter fw = new FileWriter(filePath, APPEND_MODE)) {
-            String timestamped = "[" + new java.util.Date() + "] [" + tag + "] " + message;
-            fw.write(timestamped + System.lineSeparator());
         } catch (IOException e) {
-            System.err.println("Failed to write to log file.");
-            e.printStackTrace();
+            System.err.println("ClientHandler: Error telling " + username + " to reconnect: " + e.getMessage());
+        } finally {
+            closeEverything();
         }
     }
 
+    /**
+     * Closes the connection of a client that could not be told to reconnect
+     * in time, without announcing that the user left. Does not wait for a
+     * write in progress, which fails once the socket is closed.
+     */
+    public void abandon() {
+        announceLeave = false;
+        closeEverything();
+    }
+
+    /**
+     * Closes the connection like initiateShutdownByAdmin() without announcing
+     * that the user left, for removals the admin's own notice already tells
+     * everyone about.
+     */
+    public void removeByAdmin() {
+        announceLeave = false;
+        initiateShutdownByAdmin();
+    }
+
     /**
      * Initiates a shutdown sequence for this client handler, typically triggered by
      * an admin.
@@ -434,10 +718,11 @@ public class ClientHandler implements Runnable {
      */
     public void initiateShutdownByAdmin() {
         try {
-            if (socket != null && !socket.isClosed() && writer != null) {
-                writer.write("quit"); // Send quit command to the client
-                writer.newLine();
-                writer.flush();
+            if (socket != null && !socket.isClosed() && out != null) {
+                synchronized (writeLock) {
+                    writeControlUnflushed(BinaryFrames.TYPE_QUIT, "quit"); // Send quit command to the client
+                    out.flush();
+                }
                 // Log that admin initiated quit, if desired
                 // logMessage("Admin initiated quit for user: " + username, "Moderation");
             }
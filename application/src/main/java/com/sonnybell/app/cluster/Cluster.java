@@ -0,0 +1,289 @@
+package com.sonnybell.app.cluster;
+
+import com.sonnybell.app.chatfunctions.ChatRoom;
+import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.interfaces.ClusterBus;
+import com.sonnybell.app.interfaces.Moderation;
+import com.sonnybell.app.protocol.Handshake;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cluster class joining this server to other chat servers, so users of
+ * every server can talk to each other.
+ * Lines sent to the lobby, users logging in and out, and admin removals are
+ * published on the cluster bus; events from the other servers are applied to
+ * the sessions of this server only and are never published again. Every
+ * server keeps its own history and message log, and only logs the lines of
+ * its own users. The capital game is not shared: it stays on the server it
+ * was started on.
+ * The lobby is shared by every server. Every other room is owned by one
+ * server, picked by a HashRing of the servers currently connected, so the
+ * members, history and order of a room live in one place; clients asking for
+ * a room owned elsewhere are redirected to its owner, and when a server
+ * joins or leaves, the members of the rooms that moved are redirected too.
+ * Clustering is off unless the system properties chat.cluster.port and
+ * chat.cluster.secret are set:
+ * <pre>
+ * -Dchat.cluster.port=7000                 port the other servers connect to
+ * -Dchat.cluster.secret=secret             shared by every server, proves a connection comes from one of them
+ * -Dchat.cluster.bind=address              address the cluster port listens on, loopback by default
+ * -Dchat.cluster.peers=host1:7000,host2:7000 the other servers
+ * -Dchat.cluster.node=name                 name of this server, localhost:port by default
+ * -Dchat.cluster.advertise=host:port       where clients reach this server, localhost and the chat port by default
+ * </pre>
+ */
+public final class Cluster {
+
+    private static final int MAX_PORT = 65535;
+    private static final ClusterBus BUS = createBus();
+    // Users logged in to each of the other servers, replaced by the list each one sends when it connects
+    private static final ConcurrentMap<String, Set<String>> REMOTE_USERS = new ConcurrentHashMap<>();
+    // Client address of every other server connected to this one, keyed by node id
+    private static final ConcurrentMap<String, String> NODE_ADDRESSES = new ConcurrentHashMap<>();
+    private static volatile HashRing ring;
+
+    private Cluster() {
+        // Prevent instantiation
+    }
+
+    private static ClusterBus createBus() {
+        Integer port = Integer.getInteger("chat.cluster.port");
+        if (port == null) {
+            return null;
+        }
+        String secret = System.getProperty("chat.cluster.secret", "");
+        if (secret.isEmpty()) {
+            System.err.println("Cluster: chat.cluster.secret is not set, running alone");
+            return null;
+        }
+        InetAddress bindAddress;
+        try {
+            String bind = System.getProperty("chat.cluster.bind");
+            bindAddress = bind == null ? InetAddress.getLoopbackAddress() : InetAddress.getByName(bind);
+        } catch (UnknownHostException e) {
+            System.err.println("Cluster: Unknown chat.cluster.bind address, running alone: " + e.getMessage());
+            return null;
+        }
+        List<InetSocketAddress> peers = new ArrayList<>();
+        for (String peer : System.getProperty("chat.cluster.peers", "").split(",")) {
+            int colon = peer.lastIndexOf(':');
+            int peerPort = -1;
+            try {
+                peerPort = colon > 0 ? Integer.parseInt(peer.substring(colon + 1).trim()) : -1;
+            } catch (NumberFormatException e) {
+                // Reported below like any other malformed entry
+            }
+            if (peerPort >= 0 && peerPort <= MAX_PORT) {
+                peers.add(new InetSocketAddress(peer.substring(0, colon).trim(), peerPort));
+            } else if (!peer.isBlank()) {
+                System.err.println("Cluster: Ignoring peer '" + peer + "', expected host:port");
+            }
+        }
+        return new TcpMeshBus(System.getProperty("chat.cluster.node", "localhost:" + port), bindAddress, port, peers,
+                secret);
+    }
+
+    /**
+     * Starts the cluster bus if clustering is configured. If the bus cannot
+     * start, the server carries on alone.
+     *
+     * @param chatPort The port chat clients connect to on this server.
+     */
+    public static void start(int chatPort) {
+        if (BUS == null) {
+            return;
+        }
+        rebuildRing();
+        try {
+            BUS.start(new BusListener(), System.getProperty("chat.cluster.advertise", "localhost:" + chatPort));
+            Runtime.getRuntime().addShutdownHook(new Thread(BUS::close, "cluster-shutdown"));
+        } catch (IOException e) {
+            System.err.println("Cluster: Could not start the cluster bus, running alone: " + e.getMessage());
+        }
+    }
+
+    public static boolean isEnabled() {
+        return BUS != null;
+    }
+
+    /**
+     * Sends a line that was sent to a room here to the same room on the other servers.
+     *
+     * @param room The room name.
+     * @param line The full line, such as "alice: hi".
+     */
+    public static void publishMessage(String room, String line) {
+        publish(ClusterEvent.MESSAGE, room, line);
+    }
+
+    /**
+     * Tells the other servers a user logged in here.
+     *
+     * @param username The username.
+     */
+    public static void publishUserJoined(String username) {
+        publish(ClusterEvent.USER_JOINED, "", username);
+    }
+
+    /**
+     * Tells the other servers a user logged out of this server.
+     *
+     * @param username The username.
+     */
+    public static void publishUserLeft(String username) {
+        publish(ClusterEvent.USER_LEFT, "", username);
+    }
+
+    /**
+     * Asks the other servers to remove users an admin removed, in one event.
+     *
+     * @param usernames The usernames.
+     */
+    public static void publishRemoveUsers(List<String> usernames) {
+        publish(ClusterEvent.REMOVE_USER, "", String.join("\n", usernames));
+    }
+
+    private static void publish(byte type, String room, String text) {
+        if (BUS != null) {
+            BUS.publish(new ClusterEvent(type, BUS.getNodeId(), room, text));
+        }
+    }
+
+    /**
+     * Finds out if a room belongs on another server.
+     *
+     * @param room The room name, as given by the user.
+     * @return The "#REDIRECT" line to send the client to the owner of the room,
+     *         or null if the room is served here.
+     */
+    public static String redirectFor(String room) {
+        String roomName = room == null ? null : ChatRoom.normalizeName(room);
+        HashRing current = ring;
+        if (roomName == null || ChatRoom.LOBBY_NAME.equals(roomName) || current == null) {
+            return null;
+        }
+        String owner = current.ownerOf(roomName);
+        String address = owner == null ? null : NODE_ADDRESSES.get(owner);
+        return address == null ? null : Handshake.formatRedirect(address, roomName);
+    }
+
+    // Places this server and the connected ones on a new ring, then sends away the members of rooms that moved
+    private static synchronized void rebuildRing() {
+        List<String> nodes = new ArrayList<>(NODE_ADDRESSES.keySet());
+        nodes.add(BUS.getNodeId());
+        ring = new HashRing(nodes);
+        for (ChatRoom room : ChatRoom.getRooms()) {
+            String redirect = redirectFor(room.getName());
+            if (redirect == null) {
+                continue;
+            }
+            for (ClientHandler member : room.getMembers()) {
+                member.sendMessage(redirect);
+            }
+        }
+    }
+
+    /**
+     * Gets where clients reach the other servers currently connected.
+     *
+     * @return The host:port of each other server.
+     */
+    public static List<String> getPeerAddresses() {
+        return new ArrayList<>(NODE_ADDRESSES.values());
+    }
+
+    /**
+     * Leaves the cluster, so the other servers take over the rooms of this one.
+     */
+    public static void stop() {
+        if (BUS != null) {
+            BUS.close();
+        }
+    }
+
+    /**
+     * Gets the users logged in to the other servers.
+     *
+     * @return The usernames.
+     */
+    public static List<String> getRemoteUsers() {
+        List<String> users = new ArrayList<>();
+        for (Set<String> nodeUsers : REMOTE_USERS.values()) {
+            users.addAll(nodeUsers);
+        }
+        return users;
+    }
+
+    /**
+     * Applies the events of the other servers to this one.
+     */
+    private static final class BusListener implements ClusterBus.Listener {
+
+        @Override
+        public void onEvent(ClusterEvent event) {
+            switch (event.getType()) {
+                case ClusterEvent.MESSAGE:
+                    ChatRoom.deliverFromPeer(event.getRoom(), event.getText());
+                    break;
+                case ClusterEvent.USERS:
+                    Set<String> users = ConcurrentHashMap.newKeySet();
+                    if (!event.getText().isEmpty()) {
+                        users.addAll(Arrays.asList(event.getText().split("\n")));
+                    }
+                    REMOTE_USERS.put(event.getOrigin(), users);
+                    break;
+                case ClusterEvent.USER_JOINED:
+                    REMOTE_USERS.computeIfAbsent(event.getOrigin(), node -> ConcurrentHashMap.newKeySet())
+                            .add(event.getText());
+                    break;
+                case ClusterEvent.USER_LEFT:
+                    Set<String> left = REMOTE_USERS.get(event.getOrigin());
+                    if (left != null) {
+                        left.remove(event.getText());
+                    }
+                    break;
+                case ClusterEvent.REMOVE_USER:
+                    Moderation.removeLocalUsers(Arrays.asList(event.getText().split("\n")));
+                    break;
+                default:
+                    System.err.println("Cluster: Ignoring unknown event type " + event.getType()
+                            + " from " + event.getOrigin());
+            }
+        }
+
+        @Override
+        public List<ClusterEvent> snapshot() {
+            // One name per user, even if they are logged in more than once
+            Set<String> users = new LinkedHashSet<>();
+            List<String> names = ClientHandler.getClientNamesList();
+            synchronized (names) {
+                users.addAll(names);
+            }
+            return List.of(new ClusterEvent(ClusterEvent.USERS, BUS.getNodeId(), "", String.join("\n", users)));
+        }
+
+        @Override
+        public void onNodeJoined(String nodeId, String clientAddress) {
+            NODE_ADDRESSES.put(nodeId, clientAddress);
+            rebuildRing();
+        }
+
+        @Override
+        public void onNodeLost(String nodeId) {
+            REMOTE_USERS.remove(nodeId);
+            if (NODE_ADDRESSES.remove(nodeId) != null) {
+                rebuildRing();
+            }
+        }
+    }
+}
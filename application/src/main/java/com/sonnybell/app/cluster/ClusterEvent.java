@@ -0,0 +1,82 @@
+package com.sonnybell.app.cluster;
+
+/**
+ * ClusterEvent class for something that happened on one server of a cluster
+ * and has to be applied on the others.
+ * Every event has a type, the node id of the server it came from, a room
+ * name for messages, and a text: the line for a message, the username or
+ * usernames for the other types.
+ */
+public final class ClusterEvent {
+
+    /**
+     * Sent by the bus when a connection opens, to name the server at the other
+     * end; the text is the host:port its chat clients connect to, and the room
+     * carries the random challenges and the answers to them that prove both
+     * ends have the cluster secret.
+     */
+    public static final byte HELLO = 0;
+
+    /**
+     * A line sent to a room.
+     */
+    public static final byte MESSAGE = 1;
+
+    /**
+     * A user logged in to the server the event came from.
+     */
+    public static final byte USER_JOINED = 2;
+
+    /**
+     * A user logged out of the server the event came from.
+     */
+    public static final byte USER_LEFT = 3;
+
+    /**
+     * An admin removed users, who have to be removed from whichever server they are on;
+     * the text is their usernames, one per line.
+     */
+    public static final byte REMOVE_USER = 4;
+
+    /**
+     * Every user logged in to the server the event came from, one per line,
+     * replacing whatever was known about it; sent at the start of each connection.
+     */
+    public static final byte USERS = 5;
+
+    private final byte type;
+    private final String origin;
+    private final String room;
+    private final String text;
+
+    /**
+     * Constructor to initialize an event.
+     *
+     * @param type   One of the type constants.
+     * @param origin The node id of the server the event came from.
+     * @param room   The room of a message, the signature of a hello, empty for other types.
+     * @param text   The line of a message, the username, or the client address of a hello.
+     */
+    public ClusterEvent(byte type, String origin, String room, String text) {
+        this.type = type;
+        this.origin = origin;
+        this.room = room;
+        this.text = text;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public String getOrigin() {
+        return origin;
+    }
+
+    public String getRoom() {
+        return room;
+    }
+
+    public String getText() {
+        return text;
+    }
+}
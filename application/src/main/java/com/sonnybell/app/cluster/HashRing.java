@@ -0,0 +1,74 @@
+package com.sonnybell.app.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * HashRing class for deciding which server of a cluster owns a room.
+ * Every server is placed on a ring of 64-bit hashes at VIRTUAL_NODES points,
+ * and a room belongs to the first point at or after the hash of its name.
+ * Adding or removing a server only moves the rooms next to its points, about
+ * one room in N for N servers, and the many points per server keep the rooms
+ * evenly spread. Every server builds the same ring from the same node ids.
+ */
+final class HashRing {
+
+    private static final int VIRTUAL_NODES = 160;
+    private static final long FNV_OFFSET = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+    // Finaliser of MurmurHash3, so similar names such as "node#1" and "node#2" land far apart
+    private static final int MIX_SHIFT = 33;
+    private static final long MIX_1 = 0xFF51AFD7ED558CCDL;
+    private static final long MIX_2 = 0xC4CEB9FE1A85EC53L;
+
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+
+    /**
+     * Constructor to place servers on the ring.
+     *
+     * @param nodes The node ids of the servers.
+     */
+    HashRing(Collection<String> nodes) {
+        // Sorted so two servers resolve a clash of points the same way
+        List<String> sorted = new ArrayList<>(nodes);
+        Collections.sort(sorted);
+        for (String node : sorted) {
+            for (int i = 0; i < VIRTUAL_NODES; i++) {
+                points.putIfAbsent(hash(node + "#" + i), node);
+            }
+        }
+    }
+
+    /**
+     * Finds the server that owns a key.
+     *
+     * @param key The key, such as a room name.
+     * @return The node id of the owner, or null if the ring is empty.
+     */
+    String ownerOf(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> point = points.ceilingEntry(hash(key));
+        return (point != null ? point : points.firstEntry()).getValue();
+    }
+
+    private static long hash(String key) {
+        long hash = FNV_OFFSET;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ Byte.toUnsignedInt(b)) * FNV_PRIME;
+        }
+        hash ^= hash >>> MIX_SHIFT;
+        hash *= MIX_1;
+        hash ^= hash >>> MIX_SHIFT;
+        hash *= MIX_2;
+        hash ^= hash >>> MIX_SHIFT;
+        return hash;
+    }
+}
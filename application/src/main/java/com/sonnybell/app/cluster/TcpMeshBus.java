@@ -0,0 +1,494 @@
+package com.sonnybell.app.cluster;
+
+import com.sonnybell.app.interfaces.ClusterBus;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * TcpMeshBus class for a cluster bus where every server has a TCP
+ * connection to every other server.
+ * Each server only writes on the connections it opened and only reads from
+ * the connections it accepted, so every event crosses each link once and is
+ * never relayed. Every peer has its own queue and writer thread, so a slow
+ * or unreachable server does not hold up the others; events for it are
+ * queued while it reconnects and dropped once the queue is full. Events
+ * that were being written when a connection failed go back to the front of
+ * the queue, so a peer may see an event twice but does not miss it. Presence
+ * events still queued when a connection opens are dropped, since the
+ * listener's snapshot sent first already covers them.
+ * A connection starts with three HELLOs. The server connecting sends a
+ * random challenge; the server accepting answers with a challenge of its own
+ * and an HMAC-SHA256, under the shared cluster secret, of its name, its
+ * address and both challenges; the server connecting then sends the same kind
+ * of HMAC. Since every connection signs fresh challenges, a HELLO recorded
+ * from an earlier connection is of no use, and a connection that does not
+ * answer correctly is closed before a single event is applied. Both servers
+ * know each other as soon as either connects, and a server counts as joined
+ * for as long as any connection to or from it is open.
+ * Events are framed as:
+ * <pre>
+ * int  length  number of bytes after this field
+ * byte type    one of the ClusterEvent type constants
+ * then origin, room and text, each as an int length and UTF-8 bytes
+ * </pre>
+ */
+public final class TcpMeshBus implements ClusterBus {
+
+    private static final int QUEUE_SIZE = 10_000;
+    private static final int MAX_EVENT_BYTES = 1024 * 1024;
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    // How often an idle link checks that the other server has not closed it
+    private static final long IDLE_CHECK_MS = 1000;
+    private static final long RETRY_BASE_MS = 250;
+    private static final long RETRY_MAX_MS = 10_000;
+    private static final int MAX_RETRY_SHIFT = 6;
+    // Origin, room and text
+    private static final int STRING_FIELDS = 3;
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final int CHALLENGE_BYTES = 16;
+    // Sign what each side proves differently, so one side's answer is never valid for the other
+    private static final String CONNECTING = "connect";
+    private static final String ACCEPTING = "accept";
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final Base64.Encoder ENCODER = Base64.getEncoder();
+    private static final Base64.Decoder DECODER = Base64.getDecoder();
+
+    private final String nodeId;
+    private final InetAddress bindAddress;
+    private final int port;
+    private final SecretKeySpec key;
+    private final List<PeerLink> links = new ArrayList<>();
+    // Connection currently accepted from each peer, so a stale one closing does not forget a live peer
+    private final ConcurrentMap<String, Socket> inbound = new ConcurrentHashMap<>();
+    // Open connections to and from each other server, locked while the listener is told of a change
+    private final Map<String, Integer> connections = new HashMap<>();
+    private volatile Listener listener;
+    private volatile String clientAddress;
+    private volatile boolean closed;
+    private ServerSocket serverSocket;
+
+    /**
+     * Constructor to initialize the bus.
+     *
+     * @param nodeId      The name of this server in the cluster.
+     * @param bindAddress The local address to accept connections from the other servers on.
+     * @param port        The port to accept connections from the other servers on.
+     * @param peers       The addresses of the other servers.
+     * @param secret      The secret every server of the cluster is started with.
+     */
+    public TcpMeshBus(String nodeId, InetAddress bindAddress, int port, List<InetSocketAddress> peers,
+            String secret) {
+        this.nodeId = nodeId;
+        this.bindAddress = bindAddress;
+        this.port = port;
+        this.key = new SecretKeySpec(secret.getBytes(StandardCharsets.UTF_8), ALGORITHM);
+        for (InetSocketAddress peer : peers) {
+            links.add(new PeerLink(peer));
+        }
+    }
+
+    @Override
+    public void start(Listener eventListener, String address) throws IOException {
+        this.listener = eventListener;
+        this.clientAddress = address;
+        serverSocket = new ServerSocket(port, 0, bindAddress);
+        startDaemon("cluster-accept", this::acceptPeers);
+        for (PeerLink link : links) {
+            startDaemon("cluster-link-" + link.address, link);
+        }
+        System.out.println("Cluster node " + nodeId + " listening on " + bindAddress.getHostAddress() + ":" + port
+                + " with "
+                + links.size() + " peer(s)");
+    }
+
+    @Override
+    public void publish(ClusterEvent event) {
+        byte[] frame = encode(event);
+        for (PeerLink link : links) {
+            link.offer(frame);
+        }
+    }
+
+    @Override
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+            for (Socket socket : inbound.values()) {
+                socket.close();
+            }
+        } catch (IOException e) {
+            System.err.println("TcpMeshBus: Error closing the cluster connections: " + e.getMessage());
+        }
+        for (PeerLink link : links) {
+            link.close();
+        }
+    }
+
+    private void acceptPeers() {
+        while (!closed) {
+            try {
+                Socket socket = serverSocket.accept();
+                startDaemon("cluster-peer-" + socket.getRemoteSocketAddress(), () -> readPeer(socket));
+            } catch (IOException e) {
+                if (!closed) {
+                    System.err.println("TcpMeshBus: Error accepting a cluster connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void readPeer(Socket socket) {
+        String origin = null;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()))) {
+            // A connection that does not prove who it is in time is dropped
+            socket.setSoTimeout(CONNECT_TIMEOUT_MS);
+            ClusterEvent hello = accept(in, socket);
+            socket.setSoTimeout(0);
+            origin = hello.getOrigin();
+            // A peer that reconnects before its old connection timed out replaces it
+            Socket previous = inbound.put(origin, socket);
+            if (previous != null) {
+                previous.close();
+            }
+            connectionOpened(origin, hello.getText());
+            while (!closed) {
+                ClusterEvent event = readEvent(in);
+                if (event.getType() == ClusterEvent.HELLO) {
+                    throw new IOException("Second HELLO from " + origin);
+                }
+                listener.onEvent(event);
+            }
+        } catch (EOFException e) {
+            // The peer closed the connection
+        } catch (IOException e) {
+            if (!closed) {
+                System.err.println("TcpMeshBus: Lost the connection from " + (origin == null ? "a peer" : origin)
+                        + ": " + e.getMessage());
+            }
+        }
+        if (origin != null) {
+            inbound.remove(origin, socket);
+            connectionClosed(origin);
+        }
+    }
+
+    private void connectionOpened(String node, String address) {
+        synchronized (connections) {
+            connections.merge(node, 1, Integer::sum);
+            // Told every time, so a server that came back with a new client address is updated
+            listener.onNodeJoined(node, address);
+        }
+    }
+
+    private void connectionClosed(String node) {
+        synchronized (connections) {
+            if (connections.computeIfPresent(node, (name, count) -> count == 1 ? null : count - 1) == null) {
+                listener.onNodeLost(node);
+            }
+        }
+    }
+
+    // Answers the challenge of a server connecting and checks its answer to ours; returns its last HELLO
+    private ClusterEvent accept(DataInputStream in, Socket socket) throws IOException {
+        ClusterEvent challenge = readHello(in, socket);
+        byte[] theirs = decodeChallenge(challenge.getRoom());
+        byte[] ours = randomChallenge();
+        socket.getOutputStream().write(encode(new ClusterEvent(ClusterEvent.HELLO, nodeId,
+                ENCODER.encodeToString(ours) + "." + ENCODER.encodeToString(
+                        sign(ACCEPTING, nodeId, clientAddress, theirs, ours)),
+                clientAddress)));
+
+        ClusterEvent answer = readHello(in, socket);
+        if (!answer.getOrigin().equals(challenge.getOrigin()) || !answer.getText().equals(challenge.getText())
+                || !isSigned(answer.getRoom(), sign(CONNECTING, answer.getOrigin(), answer.getText(), theirs, ours))) {
+            throw new IOException("HELLO from " + socket.getRemoteSocketAddress()
+                    + " is not signed with the cluster secret");
+        }
+        return answer;
+    }
+
+    // Challenges the server connected to and answers its challenge; returns its HELLO
+    private ClusterEvent connect(DataOutputStream out, DataInputStream in, Socket socket) throws IOException {
+        byte[] ours = randomChallenge();
+        out.write(encode(new ClusterEvent(ClusterEvent.HELLO, nodeId, ENCODER.encodeToString(ours), clientAddress)));
+        out.flush();
+
+        ClusterEvent answer = readHello(in, socket);
+        int dot = answer.getRoom().indexOf('.');
+        if (dot < 0) {
+            throw new IOException("HELLO from " + socket.getRemoteSocketAddress() + " has no challenge");
+        }
+        byte[] theirs = decodeChallenge(answer.getRoom().substring(0, dot));
+        if (!isSigned(answer.getRoom().substring(dot + 1),
+                sign(ACCEPTING, answer.getOrigin(), answer.getText(), ours, theirs))) {
+            throw new IOException("HELLO from " + socket.getRemoteSocketAddress()
+                    + " is not signed with the cluster secret");
+        }
+        out.write(encode(new ClusterEvent(ClusterEvent.HELLO, nodeId,
+                ENCODER.encodeToString(sign(CONNECTING, nodeId, clientAddress, ours, theirs)), clientAddress)));
+        return answer;
+    }
+
+    // Reads the next event of a connection that is still starting, which must be a HELLO
+    private static ClusterEvent readHello(DataInputStream in, Socket socket) throws IOException {
+        ClusterEvent event = readEvent(in);
+        if (event.getType() != ClusterEvent.HELLO) {
+            throw new IOException("Event from " + socket.getRemoteSocketAddress() + " before its HELLO");
+        }
+        return event;
+    }
+
+    private static ClusterEvent readEvent(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_EVENT_BYTES) {
+            throw new IOException("Bad cluster event length " + length);
+        }
+        byte[] body = new byte[length];
+        in.readFully(body);
+        return decode(body);
+    }
+
+    private static byte[] randomChallenge() {
+        byte[] challenge = new byte[CHALLENGE_BYTES];
+        RANDOM.nextBytes(challenge);
+        return challenge;
+    }
+
+    private static byte[] decodeChallenge(String text) throws IOException {
+        try {
+            byte[] challenge = DECODER.decode(text);
+            if (challenge.length == CHALLENGE_BYTES) {
+                return challenge;
+            }
+        } catch (IllegalArgumentException e) {
+            // Reported below like any other bad challenge
+        }
+        throw new IOException("Bad cluster challenge");
+    }
+
+    private static boolean isSigned(String signature, byte[] expected) {
+        try {
+            return MessageDigest.isEqual(expected, DECODER.decode(signature));
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    // Both challenges have a fixed length, so the text before them cannot be shifted into them
+    private byte[] sign(String role, String node, String address, byte[] connecting, byte[] accepting) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(key);
+            mac.update((role + "\n" + node + "\n" + address + "\n").getBytes(StandardCharsets.UTF_8));
+            mac.update(connecting);
+            return mac.doFinal(accepting);
+        } catch (GeneralSecurityException e) {
+            // Every JDK has HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean isPresence(byte[] frame) {
+        byte type = frame[Integer.BYTES];
+        return type == ClusterEvent.USER_JOINED || type == ClusterEvent.USER_LEFT;
+    }
+
+    private static void startDaemon(String name, Runnable task) {
+        Thread thread = new Thread(task, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static byte[] encode(ClusterEvent event) {
+        byte[] origin = event.getOrigin().getBytes(StandardCharsets.UTF_8);
+        byte[] room = event.getRoom().getBytes(StandardCharsets.UTF_8);
+        byte[] text = event.getText().getBytes(StandardCharsets.UTF_8);
+        int length = 1 + Integer.BYTES * STRING_FIELDS + origin.length + room.length + text.length;
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + length);
+        frame.putInt(length).put(event.getType());
+        frame.putInt(origin.length).put(origin);
+        frame.putInt(room.length).put(room);
+        frame.putInt(text.length).put(text);
+        return frame.array();
+    }
+
+    private static ClusterEvent decode(byte[] body) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(body);
+        byte type = buffer.get();
+        return new ClusterEvent(type, readString(buffer), readString(buffer), readString(buffer));
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException {
+        int length = buffer.remaining() >= Integer.BYTES ? buffer.getInt() : -1;
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IOException("Bad cluster event field length " + length);
+        }
+        String value = new String(buffer.array(), buffer.position(), length, StandardCharsets.UTF_8);
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * The connection to one other server, with the events waiting to be sent
+     * to it. Reconnects with a growing random delay when the connection fails.
+     */
+    private final class PeerLink implements Runnable {
+        private final InetSocketAddress address;
+        private final BlockingDeque<byte[]> queue = new LinkedBlockingDeque<>(QUEUE_SIZE);
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile Socket socket;
+
+        PeerLink(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        void offer(byte[] frame) {
+            if (!queue.offer(frame) && dropped.getAndIncrement() == 0) {
+                System.err.println("TcpMeshBus: Queue for " + address + " is full, dropping events");
+            }
+        }
+
+        @Override
+        public void run() {
+            int failures = 0;
+            while (!closed) {
+                String peer = null;
+                try (Socket connection = new Socket()) {
+                    connection.connect(address, CONNECT_TIMEOUT_MS);
+                    connection.setTcpNoDelay(true);
+                    connection.setSoTimeout(CONNECT_TIMEOUT_MS);
+                    socket = connection;
+                    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(connection.getOutputStream()));
+                    // Nothing but the end of the connection is read here after this, so nothing is buffered
+                    InputStream in = connection.getInputStream();
+                    ClusterEvent answer = connect(out, new DataInputStream(in), connection);
+                    peer = answer.getOrigin();
+                    connectionOpened(peer, answer.getText());
+                    queue.removeIf(TcpMeshBus::isPresence);
+                    for (ClusterEvent event : listener.snapshot()) {
+                        out.write(encode(event));
+                    }
+                    out.flush();
+                    System.out.println("Cluster link to " + address + " is up");
+                    failures = 0;
+                    dropped.set(0);
+                    connection.setSoTimeout(1);
+                    send(out, in);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                } catch (IOException e) {
+                    if (failures == 0 && !closed) {
+                        System.err.println("TcpMeshBus: No connection to " + address + ": " + e.getMessage());
+                    }
+                } finally {
+                    if (peer != null) {
+                        connectionClosed(peer);
+                    }
+                }
+                socket = null;
+                failures++;
+                if (!pause(failures)) {
+                    return;
+                }
+            }
+        }
+
+        // Writes queued events, flushing whenever the queue runs empty, until the connection ends
+        private void send(DataOutputStream out, InputStream in) throws IOException, InterruptedException {
+            List<byte[]> batch = new ArrayList<>();
+            while (!closed) {
+                byte[] frame = queue.poll(IDLE_CHECK_MS, TimeUnit.MILLISECONDS);
+                if (frame == null) {
+                    checkOpen(in);
+                    continue;
+                }
+                try {
+                    do {
+                        batch.add(frame);
+                        out.write(frame);
+                        frame = queue.poll();
+                    } while (frame != null);
+                    out.flush();
+                } catch (IOException e) {
+                    // Sent again, in order, once the connection is back
+                    for (int i = batch.size() - 1; i >= 0; i--) {
+                        queue.offerFirst(batch.get(i));
+                    }
+                    throw e;
+                }
+                batch.clear();
+            }
+        }
+
+        // The other server never writes after its HELLO, so a read only ends when it closed the connection
+        private void checkOpen(InputStream in) throws IOException {
+            try {
+                if (in.read() < 0) {
+                    throw new EOFException("Closed by the other server");
+                }
+            } catch (SocketTimeoutException e) {
+                // Still open
+            }
+        }
+
+        private boolean pause(int failures) {
+            long limit = Math.min(RETRY_MAX_MS, RETRY_BASE_MS << Math.min(failures, MAX_RETRY_SHIFT));
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(limit / 2, limit + 1));
+                return true;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+
+        void close() {
+            Socket current = socket;
+            try {
+                if (current != null) {
+                    current.close();
+                }
+            } catch (IOException e) {
+                System.err.println("TcpMeshBus: Error closing the link to " + address + ": " + e.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package com.sonnybell.app.filter;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+
+/**
+ * AhoCorasick class finding any number of terms in a text in one pass.
+ * The terms are built into a trie whose nodes also link to the longest
+ * suffix of their path that is a prefix of some term, so the scan never
+ * goes back in the text: each character costs one transition plus the
+ * matches ending there, however many terms there are.
+ * Matching ignores case, one char at a time. Once built the automaton is
+ * a handful of arrays and can be shared by any number of threads; the
+ * edges of a node are sorted and binary searched, except the root's ASCII
+ * edges, which are a direct table since most characters start from there.
+ */
+final class AhoCorasick {
+    /**
+     * The state before the first character, and after any character that
+     * cannot continue a term.
+     */
+    static final int ROOT = 0;
+
+    private static final int ASCII = 128;
+
+    // Edges of node n are edgeChars/edgeTargets[edgeStart[n] .. edgeStart[n + 1]), sorted by char
+    private final int[] edgeStart;
+    private final char[] edgeChars;
+    private final int[] edgeTargets;
+    private final int[] rootAscii = new int[ASCII];
+    private final int[] fail;
+    // Term ending exactly at each node, or -1
+    private final int[] terms;
+    // Nearest node down the fail links whose term also ends here, or ROOT for none
+    private final int[] nextMatch;
+    private final int[] lengths;
+
+    /**
+     * Builds the automaton.
+     *
+     * @param patterns The terms, none of them empty; a term given twice is
+     *                 only reported under its first index.
+     */
+    AhoCorasick(List<String> patterns) {
+        List<Map<Character, Integer>> children = new ArrayList<>();
+        List<Integer> nodeTerms = new ArrayList<>();
+        children.add(new TreeMap<>());
+        nodeTerms.add(-1);
+        lengths = new int[patterns.size()];
+        for (int term = 0; term < patterns.size(); term++) {
+            String pattern = patterns.get(term);
+            lengths[term] = pattern.length();
+            int node = ROOT;
+            for (int i = 0; i < pattern.length(); i++) {
+                char c = Character.toLowerCase(pattern.charAt(i));
+                Integer next = children.get(node).get(c);
+                if (next == null) {
+                    next = children.size();
+                    children.add(new TreeMap<>());
+                    nodeTerms.add(-1);
+                    children.get(node).put(c, next);
+                }
+                node = next;
+            }
+            if (nodeTerms.get(node) < 0) {
+                nodeTerms.set(node, term);
+            }
+        }
+
+        int nodes = children.size();
+        int edges = nodes - 1;
+        edgeStart = new int[nodes + 1];
+        edgeChars = new char[edges];
+        edgeTargets = new int[edges];
+        terms = new int[nodes];
+        int edge = 0;
+        for (int node = 0; node < nodes; node++) {
+            edgeStart[node] = edge;
+            terms[node] = nodeTerms.get(node);
+            for (Map.Entry<Character, Integer> child : children.get(node).entrySet()) {
+                edgeChars[edge] = child.getKey();
+                edgeTargets[edge] = child.getValue();
+                edge++;
+            }
+        }
+        edgeStart[nodes] = edge;
+        for (int i = edgeStart[ROOT]; i < edgeStart[ROOT + 1] && edgeChars[i] < ASCII; i++) {
+            rootAscii[edgeChars[i]] = edgeTargets[i];
+        }
+
+        // Breadth first, so the fail link of a node's parent is known before the node
+        fail = new int[nodes];
+        nextMatch = new int[nodes];
+        Queue<Integer> queue = new ArrayDeque<>();
+        for (int i = edgeStart[ROOT]; i < edgeStart[ROOT + 1]; i++) {
+            queue.add(edgeTargets[i]);
+        }
+        while (!queue.isEmpty()) {
+            int node = queue.remove();
+            for (int i = edgeStart[node]; i < edgeStart[node + 1]; i++) {
+                int child = edgeTargets[i];
+                int suffix = step(fail[node], edgeChars[i]);
+                fail[child] = suffix;
+                nextMatch[child] = terms[suffix] >= 0 ? suffix : nextMatch[suffix];
+                queue.add(child);
+            }
+        }
+    }
+
+    /**
+     * Moves to the state after one more character of the text.
+     *
+     * @param state The current state, ROOT to start.
+     * @param c     The character, in any case.
+     * @return The next state.
+     */
+    int step(int state, char c) {
+        char lower = Character.toLowerCase(c);
+        int node = state;
+        while (true) {
+            int next = edge(node, lower);
+            if (next != ROOT || node == ROOT) {
+                return next;
+            }
+            node = fail[node];
+        }
+    }
+
+    private int edge(int node, char c) {
+        if (node == ROOT && c < ASCII) {
+            return rootAscii[c];
+        }
+        int index = Arrays.binarySearch(edgeChars, edgeStart[node], edgeStart[node + 1], c);
+        return index < 0 ? ROOT : edgeTargets[index];
+    }
+
+    /**
+     * Gets the term that ends at a state, to be followed by nextMatch() for
+     * the shorter terms ending at the same character.
+     *
+     * @param state A state.
+     * @return The term index, or -1 if no term ends exactly there.
+     */
+    int termAt(int state) {
+        return terms[state];
+    }
+
+    /**
+     * Gets the next state down the suffix chain where another term ends.
+     *
+     * @param state A state.
+     * @return The state, or ROOT if there is none.
+     */
+    int nextMatch(int state) {
+        return nextMatch[state];
+    }
+
+    int length(int term) {
+        return lengths[term];
+    }
+}
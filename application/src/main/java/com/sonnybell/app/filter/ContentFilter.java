@@ -0,0 +1,203 @@
+package com.sonnybell.app.filter;
+
+import com.sonnybell.app.metrics.Counter;
+import com.sonnybell.app.metrics.ServerMetrics;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ContentFilter class checking every chat line against a blocklist of words
+ * and links before it is sent to anyone.
+ * The blocklist is read from -Dchat.filter.file (blocklist.txt in the working
+ * directory), one rule per line: "mask term" replaces the term with
+ * asterisks, "block term" drops the whole line, and a line with just a term
+ * masks it. Terms match in any case, and a term starting or ending with a
+ * letter or digit only matches whole words there, so "ass" does not catch
+ * "class" while "http://" catches every link.
+ * All terms are compiled into one AhoCorasick automaton, so a line is
+ * scanned once whatever the size of the list, and a line with no match is
+ * returned as it is, without any copy. The file is read again within
+ * -Dchat.filter.reload.ms (5000) after it changes; lines already being
+ * checked finish with the list they started with. Each rule counts its hits
+ * in the chat_filter_hits_total metric.
+ */
+public final class ContentFilter {
+    private static final Path FILE = Paths.get(System.getProperty("chat.filter.file",
+            Paths.get(System.getProperty("user.dir"), "blocklist.txt").toString()));
+    private static final long RELOAD_MILLIS = Long.getLong("chat.filter.reload.ms", 5000);
+    private static final String MASK = "mask";
+    private static final String BLOCK = "block";
+    private static final char MASK_CHAR = '*';
+
+    private static volatile Rules rules = new Rules(new LinkedHashMap<>());
+    private static FileTime loadedTime;
+    private static ScheduledExecutorService reloader;
+
+    private ContentFilter() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Loads the blocklist and starts checking it for changes.
+     */
+    public static synchronized void start() {
+        if (reloader != null) {
+            return;
+        }
+        reload();
+        reloader = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "filter-reload");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reloader.scheduleWithFixedDelay(ContentFilter::reload, RELOAD_MILLIS, RELOAD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Checks a chat line against the blocklist.
+     *
+     * @param text The text the user typed, without the "username: " prefix.
+     * @return The text with the masked terms replaced, the same instance if
+     *         nothing matched, or null if the line must not be sent.
+     */
+    public static String apply(String text) {
+        Rules current = rules;
+        if (current.automaton == null) {
+            return text;
+        }
+        AhoCorasick automaton = current.automaton;
+        char[] masked = null;
+        int state = AhoCorasick.ROOT;
+        for (int end = 0; end < text.length(); end++) {
+            state = automaton.step(state, text.charAt(end));
+            int node = automaton.termAt(state) >= 0 ? state : automaton.nextMatch(state);
+            while (node != AhoCorasick.ROOT) {
+                int term = automaton.termAt(node);
+                int start = end + 1 - automaton.length(term);
+                if (current.isWholeWord(term, text, start, end + 1)) {
+                    current.hits[term].increment();
+                    if (current.block[term]) {
+                        return null;
+                    }
+                    if (masked == null) {
+                        masked = text.toCharArray();
+                    }
+                    for (int i = start; i <= end; i++) {
+                        masked[i] = MASK_CHAR;
+                    }
+                }
+                node = automaton.nextMatch(node);
+            }
+        }
+        return masked == null ? text : new String(masked);
+    }
+
+    /**
+     * Gets the notice for a user whose line was blocked.
+     *
+     * @return The notice.
+     */
+    public static String blockedNotice() {
+        return "SERVER: Your message was not sent, it contains a blocked word or link.";
+    }
+
+    // Reads the file again if it changed since it was last read
+    private static synchronized void reload() {
+        FileTime modified;
+        List<String> lines;
+        try {
+            modified = Files.getLastModifiedTime(FILE);
+            if (modified.equals(loadedTime)) {
+                return;
+            }
+            lines = Files.readAllLines(FILE, StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            if (loadedTime != null) {
+                rules = new Rules(new LinkedHashMap<>());
+                loadedTime = null;
+                System.out.println("ContentFilter: " + FILE + " was removed, nothing is filtered.");
+            }
+            return;
+        } catch (IOException e) {
+            System.err.println("ContentFilter: Could not read " + FILE + ": " + e.getMessage());
+            return;
+        }
+
+        // By term, the first rule for a term wins unless a later one blocks it
+        Map<String, Boolean> terms = new LinkedHashMap<>();
+        for (String line : lines) {
+            String rule = line.strip();
+            if (rule.isEmpty() || rule.startsWith("#")) {
+                continue;
+            }
+            boolean block = false;
+            int space = rule.indexOf(' ');
+            if (space > 0 && (rule.startsWith(BLOCK + " ") || rule.startsWith(MASK + " "))) {
+                block = rule.startsWith(BLOCK);
+                rule = rule.substring(space + 1).strip();
+            }
+            terms.merge(lowerCase(rule), block, Boolean::logicalOr);
+        }
+        rules = new Rules(terms);
+        loadedTime = modified;
+        System.out.println("ContentFilter: Loaded " + terms.size() + " rules from " + FILE);
+    }
+
+    // Char by char like the automaton, so a term keeps its length
+    private static String lowerCase(String term) {
+        char[] chars = term.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = Character.toLowerCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    // The compiled blocklist; never changed once built
+    private static final class Rules {
+        private final AhoCorasick automaton;
+        private final boolean[] block;
+        private final boolean[] wordStart;
+        private final boolean[] wordEnd;
+        private final Counter[] hits;
+
+        Rules(Map<String, Boolean> terms) {
+            List<String> patterns = new ArrayList<>(terms.keySet());
+            automaton = patterns.isEmpty() ? null : new AhoCorasick(patterns);
+            block = new boolean[patterns.size()];
+            wordStart = new boolean[patterns.size()];
+            wordEnd = new boolean[patterns.size()];
+            hits = new Counter[patterns.size()];
+            for (int i = 0; i < patterns.size(); i++) {
+                String term = patterns.get(i);
+                block[i] = terms.get(term);
+                wordStart[i] = Character.isLetterOrDigit(term.charAt(0));
+                wordEnd[i] = Character.isLetterOrDigit(term.charAt(term.length() - 1));
+                // The registry keeps the counter of a rule across reloads
+                hits[i] = ServerMetrics.REGISTRY.counter("chat_filter_hits_total",
+                        "Chat lines matching each content filter rule.",
+                        "action=\"" + (block[i] ? BLOCK : MASK) + "\",term=\"" + escape(term) + "\"");
+            }
+        }
+
+        boolean isWholeWord(int term, String text, int start, int end) {
+            return !(wordStart[term] && start > 0 && Character.isLetterOrDigit(text.charAt(start - 1)))
+                    && !(wordEnd[term] && end < text.length() && Character.isLetterOrDigit(text.charAt(end)));
+        }
+
+        private static String escape(String label) {
+            return label.replace("\\", "\\\\").replace("\"", "\\\"");
+        }
+    }
+}
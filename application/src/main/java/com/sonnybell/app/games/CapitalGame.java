@@ -1,15 +1,20 @@
 package com.sonnybell.app.games;
 
 import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.metrics.ServerMetrics;
+import com.sonnybell.app.profiling.GameRoundEvent;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Capital Game is a multiplayer game that involves players answering questions
  * about world capitals.
  * Any connected player can answer the current question, and the game keeps
  * track of scores.
+ * In a cluster every server runs its own game for its own users: questions
+ * and results stay on the server, and only its users' answers are checked.
  */
 public final class CapitalGame {
 
@@ -36,6 +41,8 @@ public final class CapitalGame {
     private static final List<String> QUESTIONS = new CopyOnWriteArrayList<>();
     private static final List<String> ANSWERS = new CopyOnWriteArrayList<>();
     private static final Map<String, Integer> PLAYER_SCORES = new ConcurrentHashMap<>();
+    // The question being asked, recorded for the flight recorder when it is answered or times out
+    private static final AtomicReference<GameRoundEvent> CURRENT_ROUND = new AtomicReference<>();
 
     // Static variables
     private static String currentQuestion = "";
@@ -110,6 +117,7 @@ public final class CapitalGame {
 
         gameActive = true;
         PLAYER_SCORES.clear();
+        ServerMetrics.GAMES_STARTED.increment();
 
         // Send game start message with delays between instructions
         ClientHandler.broadcastMessageToAll("CAPITAL GAME STARTED! ");
@@ -177,6 +185,10 @@ public final class CapitalGame {
         currentQuestionIndex = (int) (Math.random() * QUESTIONS.size());
         currentQuestion = QUESTIONS.get(currentQuestionIndex);
         currentAnswer = ANSWERS.get(currentQuestionIndex);
+        ServerMetrics.GAME_ROUNDS.increment();
+        GameRoundEvent round = new GameRoundEvent();
+        round.begin();
+        CURRENT_ROUND.set(round);
         // seconds for division
         final int second = 1000;
 
@@ -199,6 +211,7 @@ public final class CapitalGame {
             @Override
             public void run() {
                 if (gameActive && currentQuestion.equals(QUESTIONS.get(currentQuestionIndex))) {
+                    endRound(null);
                     ClientHandler.broadcastMessageToAll("TIME'S UP! The answer was: " + currentAnswer);
 
                     // Small delay before next question
@@ -215,6 +228,14 @@ public final class CapitalGame {
         }, QUESTION_TIMEOUT);
     }
 
+    // Only the first of the answer and the timeout records the round
+    private static void endRound(String winner) {
+        GameRoundEvent round = CURRENT_ROUND.getAndSet(null);
+        if (round != null) {
+            round.finish(currentQuestion, winner);
+        }
+    }
+
     /**
      * Check if a player's message is an answer to the current question.
      */
@@ -231,6 +252,7 @@ public final class CapitalGame {
         // Check if the message is a correct answer (case-insensitive)
         if (message.trim().equalsIgnoreCase(currentAnswer)) {
             // Player got it right logic
+            endRound(username);
             PLAYER_SCORES.put(username, PLAYER_SCORES.getOrDefault(username, defaultScore) + correctAnswerScore);
             int playerScore = PLAYER_SCORES.get(username);
 
@@ -0,0 +1,21 @@
+package com.sonnybell.app.interfaces;
+
+import com.sonnybell.app.chatfunctions.CommandContext;
+
+/**
+ * Interface for a single chat command such as "/startgame".
+ * Commands are registered once in the CommandRegistry and are shared by
+ * socket clients and web clients.
+ */
+public interface ChatCommand {
+
+    /**
+     * Runs the command.
+     *
+     * @param context The context of the command, including the sender and where
+     *                replies should be sent.
+     * @param args    Everything typed after the command token, trimmed.
+     *                Empty if nothing was given.
+     */
+    void execute(CommandContext context, String args);
+}
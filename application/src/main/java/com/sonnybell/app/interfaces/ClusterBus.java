@@ -0,0 +1,85 @@
+package com.sonnybell.app.interfaces;
+
+import com.sonnybell.app.cluster.ClusterEvent;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Interface for the bus that carries events between the servers of a cluster.
+ * Each server publishes what happens to its own sessions, such as messages,
+ * presence changes and moderation actions, and applies the events of the
+ * other servers to its own sessions. An implementation only has to deliver
+ * the events of one server to each other server in the order they were
+ * published; it never relays an event it received.
+ */
+public interface ClusterBus {
+
+    /**
+     * Connects to the other servers and starts passing events to the listener.
+     *
+     * @param listener      Receives the events published by the other servers.
+     * @param clientAddress The host:port chat clients use to reach this server,
+     *                      announced to the other servers.
+     * @throws IOException If the bus cannot start listening.
+     */
+    void start(Listener listener, String clientAddress) throws IOException;
+
+    /**
+     * Sends an event to every other server. Does not block; an event that
+     * cannot be sent is dropped.
+     *
+     * @param event The event to send.
+     */
+    void publish(ClusterEvent event);
+
+    /**
+     * Gets the name of this server in the cluster.
+     *
+     * @return The node id.
+     */
+    String getNodeId();
+
+    /**
+     * Disconnects from the other servers.
+     */
+    void close();
+
+    /**
+     * Interface for what a server does with the events of the other servers.
+     */
+    interface Listener {
+
+        /**
+         * Applies an event published by another server.
+         *
+         * @param event The event.
+         */
+        void onEvent(ClusterEvent event);
+
+        /**
+         * Gets the events that bring a newly connected server up to date with
+         * this one, such as the users logged in here. They replace the presence
+         * events still queued for that server, so they must describe the whole
+         * current state.
+         *
+         * @return The events, sent before any other event on a new connection.
+         */
+        List<ClusterEvent> snapshot();
+
+        /**
+         * Called when a connection to or from another server opens; a server
+         * reached both ways is announced twice.
+         *
+         * @param nodeId        The node id of the other server.
+         * @param clientAddress The host:port chat clients use to reach it.
+         */
+        void onNodeJoined(String nodeId, String clientAddress);
+
+        /**
+         * Called when the last connection to or from another server is lost.
+         *
+         * @param nodeId The node id of the other server.
+         */
+        void onNodeLost(String nodeId);
+    }
+}
@@ -0,0 +1,22 @@
+package com.sonnybell.app.interfaces;
+
+import com.sonnybell.app.pipeline.InboundMessage;
+
+/**
+ * Interface for one stage of the MessagePipeline every chat line goes
+ * through, whether it came from a socket or the web page.
+ * A stage may change the text of the line, answer the sender, or stop the
+ * line from going further, for example because it was a command or because
+ * the sender is muted.
+ */
+public interface MessageInterceptor {
+
+    /**
+     * Handles a line.
+     *
+     * @param message The line, its sender and where to answer them.
+     * @return true to pass the line to the next stage, false if this stage
+     *         handled it or dropped it.
+     */
+    boolean intercept(InboundMessage message);
+}
@@ -1,18 +1,37 @@
 package com.sonnybell.app.interfaces;
 
+import com.sonnybell.app.chatfunctions.Sanctions;
 import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.cluster.Cluster;
 import com.sonnybell.app.web.WebChat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
 
 /**
  * Utility class for moderation-related functionalities.
- * Used for removing users from the chat server,
- * used by admin only.
+ * Used for removing, muting and banning users of the chat server,
+ * used by admin only. Actions on many users at once are announced
+ * with a single notice.
  */
 public interface Moderation {
 
+    /**
+     * Most usernames a moderation notice lists before it only counts the rest.
+     */
+    int NOTICE_NAMES = 10;
+
     /**
      * Removes a user directly from the server's client list.
      * This method is intended to be used by an admin.
+     * In a cluster the other servers are asked to remove the user as well.
      *
      * @param usernameToRemove The username of the user to be removed.
      * @return true if the user was found and removal was initiated, false
@@ -24,59 +43,142 @@ public interface Moderation {
             return false;
         }
 
-        ClientHandler handlerToRemove = null;
-        for (ClientHandler handler : ClientHandler.getClientList()) {
-            if (handler.getUsername().equals(usernameToRemove)) {
-                handlerToRemove = handler;
-                break;
-            }
+        boolean found = !removeUsers(List.of(usernameToRemove), "removed").isEmpty();
+        if (!found) {
+            System.out.println("Moderation: User " + usernameToRemove + " not found.");
         }
+        return found;
+    }
 
-        if (handlerToRemove != null) {
-            String message = "SERVER: " + usernameToRemove + " has been removed by an admin.";
-            String tag = "Moderation";
-
-            // Log the admin action before initiating shutdown
-            ClientHandler.logMessage(message, tag);
-            System.out.println(message);
-
-            // Ask the ClientHandler to shut down itself and notify its client.
-            // This will also trigger the "user has left" broadcast via closeEverything ->
-            // removeClientHandler.
-            handlerToRemove.initiateShutdownByAdmin();
+    /**
+     * Finds the users an admin action is about among the users online here
+     * and on the other servers of the cluster.
+     *
+     * @param usernames Usernames asked for by name, kept if they are online.
+     * @param glob      A glob pattern such as "bot*" matching more users, or null.
+     * @return The matching usernames, each once, in the order they were found.
+     */
+    static List<String> findOnlineUsers(Collection<String> usernames, String glob) {
+        Set<String> online = new TreeSet<>();
+        synchronized (ClientHandler.getClientNamesList()) {
+            online.addAll(ClientHandler.getClientNamesList());
+        }
+        online.addAll(Cluster.getRemoteUsers());
 
-            // Broadcast the specific admin removal message to other clients.
-            for (ClientHandler client : ClientHandler.getClientList()) {
-                // The list should be updated, so handlerToRemove should not be in it.
-                // We send to all *other* clients.
-                if (!client.getUsername().equals(usernameToRemove)) { // Check username to be sure
-                    client.sendMessage(message); // Send the specific admin removal message
+        Set<String> found = new LinkedHashSet<>();
+        for (String username : usernames) {
+            if (online.contains(username)) {
+                found.add(username);
+            }
+        }
+        if (glob != null && !glob.isEmpty()) {
+            Pattern pattern = Sanctions.compileGlob(glob);
+            for (String username : online) {
+                if (pattern.matcher(username).matches()) {
+                    found.add(username);
                 }
             }
-            return true;
-        } else {
-            // Check if it's a web client by looking at the centralized username list
-            if (ClientHandler.getClientNamesList().contains(usernameToRemove)) {
-                // It's a web client, remove it using the web client removal method
-                ClientHandler.removeWebClient(usernameToRemove);
+        }
+        return new ArrayList<>(found);
+    }
 
-                // Also remove from the WebChat WEB_USERS set
-                WebChat.removeFromWebUsers(usernameToRemove);
+    /**
+     * Removes users from the whole cluster and tells everyone left with a
+     * single notice, however many users went. Their leaving is not announced
+     * one by one, which would be two broadcasts for every removed user.
+     *
+     * @param usernames The usernames to remove.
+     * @param verb      What happened to them for the notice, such as "removed".
+     * @return The users that were online and removed.
+     */
+    static List<String> removeUsers(List<String> usernames, String verb) {
+        List<String> online = findOnlineUsers(usernames, null);
+        if (online.isEmpty()) {
+            return online;
+        }
+        Cluster.publishRemoveUsers(online);
+        removeLocalUsers(online);
+        announce(online, verb);
+        return online;
+    }
 
-                String message = "SERVER: " + usernameToRemove + " (Web) has been removed by an admin.";
-                String tag = "Moderation";
+    /**
+     * Removes users from this server only, without a notice.
+     * Used for removals asked for by another server of the cluster, which
+     * sends the notice to its lobby and so to this one.
+     *
+     * @param usernames The usernames to remove.
+     * @return The users that were found on this server.
+     */
+    static List<String> removeLocalUsers(Collection<String> usernames) {
+        Map<String, ClientHandler> handlers = new HashMap<>();
+        for (ClientHandler handler : ClientHandler.getClientList()) {
+            handlers.put(handler.getUsername(), handler);
+        }
 
-                ClientHandler.logMessage(message, tag);
-                System.out.println(message);
+        List<String> removed = new ArrayList<>();
+        for (String username : usernames) {
+            ClientHandler handler = handlers.get(username);
+            if (handler != null) {
+                handler.removeByAdmin();
+                removed.add(username);
+            } else if (WebChat.removeFromWebUsers(username)) {
+                ClientHandler.removeWebClient(username);
+                removed.add(username);
+            }
+        }
+        return removed;
+    }
 
-                // Broadcast removal message to all socket clients
-                ClientHandler.broadcastMessageToAll(message); // This is a static method, sends to all current socket
+    /**
+     * Mutes users on this server, including the ones not logged in yet, and
+     * tells the lobby with a single notice.
+     *
+     * @param usernames The usernames to mute.
+     * @param minutes   How long the mute lasts.
+     */
+    static void muteUsers(List<String> usernames, long minutes) {
+        Sanctions.muteUsers(usernames, System.currentTimeMillis() + TimeUnit.MINUTES.toMillis(minutes));
+        announce(usernames, "muted for " + minutes + (minutes == 1 ? " minute" : " minutes"));
+    }
 
-                return true;
-            } else {
-                System.out.println("Moderation: User " + usernameToRemove + " not found.");
-                return false;
+    /**
+     * Finds the users connected to this server whose username or address is
+     * banned, such as after a ban on an address range.
+     *
+     * @return The usernames.
+     */
+    static List<String> findBannedLocalUsers() {
+        List<String> banned = new ArrayList<>();
+        for (ClientHandler handler : ClientHandler.getClientList()) {
+            if (Sanctions.isBanned(handler.getUsername(), handler.getRemoteAddress())) {
+                banned.add(handler.getUsername());
             }
         }
+        return banned;
+    }
+
+    /**
+     * Tells the lobby of the whole cluster what an admin did to some users,
+     * in one line that names the first few of them.
+     *
+     * @param usernames The users the action was about.
+     * @param verb      What happened to them, such as "removed".
+     */
+    static void announce(List<String> usernames, String verb) {
+        if (usernames.isEmpty()) {
+            return;
+        }
+        String message;
+        if (usernames.size() == 1) {
+            message = "SERVER: " + usernames.get(0) + " has been " + verb + " by an admin.";
+        } else {
+            int listed = Math.min(NOTICE_NAMES, usernames.size());
+            message = "SERVER: " + usernames.size() + " users have been " + verb + " by an admin: "
+                    + String.join(", ", usernames.subList(0, listed))
+                    + (listed < usernames.size() ? " and " + (usernames.size() - listed) + " more." : ".");
+        }
+        System.out.println(message);
+        ClientHandler.broadcastMessageToAll(message, "Moderation");
     }
 }
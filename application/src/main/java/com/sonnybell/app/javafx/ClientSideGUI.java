@@ -1,8 +1,10 @@
 package com.sonnybell.app.javafx;
 
 import com.sonnybell.app.client.Client;
+import com.sonnybell.app.protocol.Handshake;
 import java.io.*;
 import java.net.Socket;
+import java.util.Set;
 import javafx.animation.KeyFrame;
 import javafx.animation.Timeline;
 import javafx.application.Application;
@@ -153,10 +155,15 @@ public class ClientSideGUI extends Application {
             BufferedWriter tempWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
             BufferedReader tempReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
 
+            // Ask for optional features such as the binary protocol (-Dchat.protocol=text to opt out)
+            Set<String> requested = Handshake.requestedByClient();
+            Set<String> capabilities = Handshake.negotiate(tempWriter, tempReader, requested);
+
             // Prompt for password
             String serverResponse;
+            String password;
             while (true) {
-                String password = promptDialog("Enter server password:");
+                password = promptDialog("Enter server password:");
                 if (password == null) {
                     // User cancelled the dialog, exit the app
                     if (socket != null && !socket.isClosed()) {
@@ -179,8 +186,14 @@ public class ClientSideGUI extends Application {
                 serverResponse = tempReader.readLine();
                 if ("OK".equals(serverResponse)) {
                     break;
+                } else if (serverResponse == null || Handshake.isReconnectLine(serverResponse)) {
+                    // Too many attempts or connections from this machine
+                    showAlert("The server closed the connection. Try again later.");
+                    socket.close();
+                    Platform.exit();
+                    return;
                 } else {
-                    showAlert("Incorrect password. Please try again.");
+                    showAlert(serverResponse);
                 }
             }
 
@@ -208,10 +221,8 @@ public class ClientSideGUI extends Application {
             }
 
             // Send username
-            tempWriter.write(username);
-            tempWriter.newLine();
-            tempWriter.flush();
-            client = new Client(socket, username);
+            client = new Client(socket, username, capabilities);
+            client.enableReconnect("localhost", serverPort, password, requested);
             client.setMessageListener(msg -> {
                 Platform.runLater(() -> messageArea.appendText(msg + "\n"));
             });
@@ -0,0 +1,155 @@
+package com.sonnybell.app.loadtest;
+
+import com.sonnybell.app.metrics.Histogram;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * LoadStats class with the counts and latencies of one load test run.
+ * Every line sent carries a stamp with the run id and the System.nanoTime()
+ * it was sent at. Sender and receivers share this JVM, so the receiver
+ * subtracts the stamp from its own clock to get the end-to-end delivery
+ * latency; lines of other runs, such as old ones in the history, have another
+ * run id and are not counted.
+ */
+final class LoadStats {
+    private final String stampPrefix = "load:" + Integer.toHexString(ThreadLocalRandom.current().nextInt()) + ":";
+
+    private final Histogram socketLatency = new Histogram();
+    private final Histogram webLatency = new Histogram();
+    private final Histogram requestLatency = new Histogram();
+    private final LongAdder socketsConnected = new LongAdder();
+    private final LongAdder socketsFailed = new LongAdder();
+    private final LongAdder webConnected = new LongAdder();
+    private final LongAdder webFailed = new LongAdder();
+    private final LongAdder socketSent = new LongAdder();
+    private final LongAdder webSent = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final LongAdder requestErrors = new LongAdder();
+
+    /**
+     * Makes the text of a line to send now.
+     *
+     * @return The stamped text.
+     */
+    String stamp() {
+        return stampPrefix + System.nanoTime();
+    }
+
+    /**
+     * Records a line received by a socket user, if it was sent by this run.
+     *
+     * @param line The line as shown to the user, such as "load12: load:3f2a1c:8812733".
+     */
+    void deliveredToSocket(String line) {
+        record(socketLatency, line);
+    }
+
+    /**
+     * Records a line received by a web user, if it was sent by this run.
+     *
+     * @param line The line as pushed to the event stream of the user.
+     */
+    void deliveredToWeb(String line) {
+        record(webLatency, line);
+    }
+
+    private void record(Histogram latency, String line) {
+        int start = line.indexOf(stampPrefix);
+        if (start < 0) {
+            return;
+        }
+        start += stampPrefix.length();
+        int end = start;
+        while (end < line.length() && Character.isDigit(line.charAt(end))) {
+            end++;
+        }
+        if (end > start) {
+            latency.recordSince(Long.parseLong(line.substring(start, end)));
+        }
+    }
+
+    /**
+     * Records how long a web chat request took.
+     *
+     * @param startNanos When the request was sent, as returned by System.nanoTime().
+     */
+    void requestDone(long startNanos) {
+        requestLatency.recordSince(startNanos);
+    }
+
+    void requestFailed() {
+        requestErrors.increment();
+    }
+
+    /**
+     * Records whether a user managed to log in.
+     *
+     * @param web       True for a web user, false for a socket user.
+     * @param connected True if the user is logged in.
+     */
+    void loggedIn(boolean web, boolean connected) {
+        if (web) {
+            (connected ? webConnected : webFailed).increment();
+        } else {
+            (connected ? socketsConnected : socketsFailed).increment();
+        }
+    }
+
+    /**
+     * Records a line sent.
+     *
+     * @param web True if a web user sent it.
+     */
+    void sent(boolean web) {
+        (web ? webSent : socketSent).increment();
+    }
+
+    void sendFailed() {
+        sendErrors.increment();
+    }
+
+    Histogram getSocketLatency() {
+        return socketLatency;
+    }
+
+    Histogram getWebLatency() {
+        return webLatency;
+    }
+
+    Histogram getRequestLatency() {
+        return requestLatency;
+    }
+
+    long getSocketsConnected() {
+        return socketsConnected.sum();
+    }
+
+    long getSocketsFailed() {
+        return socketsFailed.sum();
+    }
+
+    long getWebConnected() {
+        return webConnected.sum();
+    }
+
+    long getWebFailed() {
+        return webFailed.sum();
+    }
+
+    long getSocketSent() {
+        return socketSent.sum();
+    }
+
+    long getWebSent() {
+        return webSent.sum();
+    }
+
+    long getSendErrors() {
+        return sendErrors.sum();
+    }
+
+    long getRequestErrors() {
+        return requestErrors.sum();
+    }
+}
@@ -0,0 +1,270 @@
+package com.sonnybell.app.loadtest;
+
+import com.sonnybell.app.metrics.Histogram;
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * LoadTest class simulating many users of a chat server running on this
+ * machine, to see how far one server goes.
+ * Socket users log in like the console client and web users like the web
+ * page. Every user gets a virtual thread to send and one to receive, so
+ * tens of thousands of users fit in one JVM. Once everyone is logged in,
+ * the users together send RATE lines a second, spread evenly over them,
+ * for the length of the run. Each line carries the time it was sent, which
+ * gives the end-to-end delivery latency to every user who receives it.
+ * Settings are system properties:
+ * <pre>
+ * chat.loadtest.sockets       socket users, 100
+ * chat.loadtest.web           web users, 10
+ * chat.loadtest.rate          lines a second sent by all users together, 50
+ * chat.loadtest.duration.s    how long lines are sent, 30
+ * chat.loadtest.connect.rate  logins a second while users join, 200
+ * chat.loadtest.port          the chat port, 6666
+ * chat.web.port               the web port, 8080
+ * </pre>
+ * The server's limits are meant for real users and will turn most of the
+ * simulated ones away; see the README for the settings to raise them.
+ * Usage: java -jar your-app.jar loadtest [server password]
+ */
+public final class LoadTest {
+    private static final String HOST = "localhost";
+    private static final int SOCKET_USERS = Integer.getInteger("chat.loadtest.sockets", 100);
+    private static final int WEB_USERS = Integer.getInteger("chat.loadtest.web", 10);
+    private static final double RATE = Double.parseDouble(System.getProperty("chat.loadtest.rate", "50"));
+    private static final int DURATION_SECONDS = Integer.getInteger("chat.loadtest.duration.s", 30);
+    private static final double CONNECT_RATE = Double.parseDouble(
+            System.getProperty("chat.loadtest.connect.rate", "200"));
+    private static final int PORT = Integer.getInteger("chat.loadtest.port", 6666);
+    private static final int WEB_PORT = Integer.getInteger("chat.web.port", 8080);
+    // Time left after the last line is sent for it to arrive
+    private static final long DRAIN_MILLIS = 2000;
+    private static final long PROGRESS_SECONDS = 5;
+    private static final double NANOS_PER_SECOND = 1e9;
+    private static final double NANOS_PER_MILLI = 1e6;
+    private static final double PERCENT = 100.0;
+    private static final double PROGRESS_QUANTILE = 0.99;
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999, 1.0};
+    private static final String[] QUANTILE_NAMES = {"p50", "p90", "p99", "p99.9", "max"};
+
+    private final String password;
+    private final LoadStats stats = new LoadStats();
+    private final List<SimulatedUser> users = new CopyOnWriteArrayList<>();
+    private final CountDownLatch joined = new CountDownLatch(SOCKET_USERS + WEB_USERS);
+    private final CountDownLatch started = new CountDownLatch(1);
+    // The first reason a user could not log in, the others are most likely the same
+    private final AtomicReference<String> firstFailure = new AtomicReference<>();
+    // Set before started is counted down, which makes them visible to the senders
+    private long startNanos;
+    private long endNanos;
+    private long sendIntervalNanos;
+
+    private LoadTest(String password) {
+        this.password = password;
+    }
+
+    /**
+     * Main method to run a load test and print the report.
+     *
+     * @param args Command line arguments: "loadtest" and the server password,
+     *             which can also be given as -Dchat.loadtest.password.
+     */
+    public static void main(String[] args) {
+        String password = args.length > 1 ? args[1] : System.getProperty("chat.loadtest.password");
+        if (password == null || password.isEmpty()) {
+            System.out.println("Usage: java -jar your-app.jar loadtest <server password>");
+            System.exit(1);
+        }
+        if (RATE <= 0 || CONNECT_RATE <= 0 || SOCKET_USERS + WEB_USERS == 0) {
+            System.out.println("chat.loadtest.rate and chat.loadtest.connect.rate must be above 0, "
+                    + "and there must be at least one user");
+            System.exit(1);
+        }
+        try {
+            new LoadTest(password).run();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() throws InterruptedException {
+        try (ExecutorService threads = Executors.newVirtualThreadPerTaskExecutor();
+                HttpClient http = HttpClient.newBuilder().executor(threads).build()) {
+            System.out.printf("Logging in %d socket users and %d web users, %.0f a second...%n",
+                    SOCKET_USERS, WEB_USERS, CONNECT_RATE);
+            long connectGapNanos = (long) (NANOS_PER_SECOND / CONNECT_RATE);
+            long connectStart = System.nanoTime();
+            for (int i = 0; i < SOCKET_USERS + WEB_USERS; i++) {
+                SimulatedUser user = i < SOCKET_USERS
+                        ? new SocketUser(HOST, PORT, password, "load" + i, stats)
+                        : new WebUser(http, "http://" + HOST + ":" + WEB_PORT, password, "webload" + (i - SOCKET_USERS),
+                                stats);
+                boolean web = i >= SOCKET_USERS;
+                threads.submit(() -> simulate(threads, user, web));
+                sleepUntil(connectStart + (i + 1) * connectGapNanos);
+            }
+            joined.await();
+
+            int loggedIn = users.size();
+            System.out.printf("%d socket users and %d web users logged in, %d could not%n",
+                    stats.getSocketsConnected(), stats.getWebConnected(),
+                    stats.getSocketsFailed() + stats.getWebFailed());
+            if (firstFailure.get() != null) {
+                System.out.println("First failure: " + firstFailure.get());
+            }
+            if (loggedIn > 0) {
+                measure(loggedIn);
+            }
+
+            // Web users log out through the HTTP client, so they are closed before it is; the receiving
+            // threads then return and the executor waits for them
+            List<Callable<Object>> logouts = new ArrayList<>();
+            for (SimulatedUser user : users) {
+                logouts.add(Executors.callable(user::close));
+            }
+            threads.invokeAll(logouts);
+        }
+    }
+
+    private void measure(int loggedIn) throws InterruptedException {
+        sendIntervalNanos = (long) (NANOS_PER_SECOND * loggedIn / RATE);
+        startNanos = System.nanoTime();
+        endNanos = startNanos + TimeUnit.SECONDS.toNanos(DURATION_SECONDS);
+        System.out.printf("Sending %.1f lines a second for %d seconds...%n", RATE, DURATION_SECONDS);
+        started.countDown();
+
+        long nextProgress = startNanos;
+        while (true) {
+            nextProgress += TimeUnit.SECONDS.toNanos(PROGRESS_SECONDS);
+            if (nextProgress - endNanos >= 0) {
+                break;
+            }
+            sleepUntil(nextProgress);
+            printProgress();
+        }
+        sleepUntil(endNanos);
+        TimeUnit.MILLISECONDS.sleep(DRAIN_MILLIS);
+        printReport();
+    }
+
+    // Runs on the user's own virtual thread until the test is over
+    private void simulate(ExecutorService threads, SimulatedUser user, boolean web) {
+        try {
+            try {
+                user.connect();
+                users.add(user);
+                stats.loggedIn(web, true);
+            } catch (IOException e) {
+                stats.loggedIn(web, false);
+                firstFailure.compareAndSet(null, e.getMessage());
+                return;
+            } finally {
+                joined.countDown();
+            }
+            threads.submit(() -> receive(user));
+            started.await();
+            sendLines(user, web);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void receive(SimulatedUser user) {
+        try {
+            user.receive();
+        } catch (IOException e) {
+            // Closed by the end of the test or by the server, either way there is nothing more to receive
+        }
+    }
+
+    // Every user sends once per interval, starting at a random point so the lines are spread out
+    private void sendLines(SimulatedUser user, boolean web) throws InterruptedException {
+        long next = startNanos + ThreadLocalRandom.current().nextLong(sendIntervalNanos);
+        while (next - endNanos < 0) {
+            sleepUntil(next);
+            try {
+                user.send(stats.stamp());
+                stats.sent(web);
+            } catch (IOException e) {
+                stats.sendFailed();
+                return;
+            }
+            next += sendIntervalNanos;
+        }
+    }
+
+    private void printProgress() {
+        long elapsedSeconds = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - startNanos);
+        System.out.printf("[%ds] sent %d, delivered %d to sockets and %d to web users, socket p99 %s ms%n",
+                elapsedSeconds, stats.getSocketSent() + stats.getWebSent(), stats.getSocketLatency().getCount(),
+                stats.getWebLatency().getCount(), millis(stats.getSocketLatency().getPercentile(PROGRESS_QUANTILE)));
+    }
+
+    private void printReport() {
+        long sockets = stats.getSocketsConnected();
+        long webUsers = stats.getWebConnected();
+        long socketSent = stats.getSocketSent();
+        long webSent = stats.getWebSent();
+        long sent = socketSent + webSent;
+        // Socket users get every line but their own, web users find every line in the history
+        long expectedSocket = socketSent * Math.max(0, sockets - 1) + webSent * sockets;
+        long expectedWeb = sent * webUsers;
+
+        System.out.println();
+        System.out.printf("Load test report: %d socket users, %d web users, %d seconds%n",
+                sockets, webUsers, DURATION_SECONDS);
+        System.out.printf("  Lines sent           %d (%s a second): %d by sockets, %d by web users, %d failed%n",
+                sent, perSecond(sent), socketSent, webSent, stats.getSendErrors());
+        printDeliveries("socket", stats.getSocketLatency(), expectedSocket);
+        printDeliveries("web", stats.getWebLatency(), expectedWeb);
+        if (webUsers > 0) {
+            Histogram requests = stats.getRequestLatency();
+            System.out.printf("  Web requests         %d, %d failed%n", requests.getCount(), stats.getRequestErrors());
+            System.out.println("    latency ms         " + percentiles(requests));
+        }
+    }
+
+    private void printDeliveries(String kind, Histogram latency, long expected) {
+        if (expected == 0) {
+            return;
+        }
+        long delivered = latency.getCount();
+        System.out.printf("  Deliveries to %-6s %d (%s a second) of %d expected, %.1f%%%n",
+                kind, delivered, perSecond(delivered), expected, PERCENT * delivered / expected);
+        System.out.println("    latency ms         " + percentiles(latency));
+    }
+
+    private static String percentiles(Histogram latency) {
+        StringBuilder out = new StringBuilder();
+        for (int i = 0; i < QUANTILES.length; i++) {
+            out.append(QUANTILE_NAMES[i]).append(' ').append(millis(latency.getPercentile(QUANTILES[i]))).append("  ");
+        }
+        return out.toString().trim();
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.2f", nanos / NANOS_PER_MILLI);
+    }
+
+    private static String perSecond(long count) {
+        return String.format(Locale.ROOT, "%.1f", count / (double) DURATION_SECONDS);
+    }
+
+    private static void sleepUntil(long deadlineNanos) throws InterruptedException {
+        long wait = deadlineNanos - System.nanoTime();
+        if (wait > 0) {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        }
+    }
+}
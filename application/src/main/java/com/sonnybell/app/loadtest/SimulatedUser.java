@@ -0,0 +1,39 @@
+package com.sonnybell.app.loadtest;
+
+import java.io.IOException;
+
+/**
+ * Interface for one user simulated by the load test, connected over a socket
+ * or through the web chat. Each user is driven by two virtual threads, one
+ * sending and one receiving, so no user waits on another.
+ */
+interface SimulatedUser {
+
+    /**
+     * Logs in the way the real client does.
+     *
+     * @throws IOException If the server cannot be reached or refuses the user.
+     */
+    void connect() throws IOException;
+
+    /**
+     * Sends one chat line.
+     *
+     * @param text The line.
+     * @throws IOException If sending fails.
+     */
+    void send(String text) throws IOException;
+
+    /**
+     * Receives messages until the user is closed or the connection is lost,
+     * handing each one to the stats.
+     *
+     * @throws IOException If receiving fails.
+     */
+    void receive() throws IOException;
+
+    /**
+     * Logs out and closes the connection; receive() then returns.
+     */
+    void close();
+}
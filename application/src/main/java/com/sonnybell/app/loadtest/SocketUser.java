@@ -0,0 +1,200 @@
+package com.sonnybell.app.loadtest;
+
+import com.sonnybell.app.protocol.BinaryFrames;
+import com.sonnybell.app.protocol.Compression;
+import com.sonnybell.app.protocol.FrameReader;
+import com.sonnybell.app.protocol.Handshake;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SocketUser class simulating one user of the console client.
+ * It goes through the same handshake as Client.main: the features of
+ * Handshake.requestedByClient(), so -Dchat.protocol and -Dchat.compression
+ * apply here too, then the password, the username and the history up to
+ * "---END_HISTORY---". Only what the load test needs is kept, there is no
+ * reconnecting and nothing is printed.
+ */
+final class SocketUser implements SimulatedUser {
+    private static final String END_HISTORY = "---END_HISTORY---";
+
+    private final String host;
+    private final int port;
+    private final String password;
+    private final String username;
+    private final LoadStats stats;
+    // A lock rather than synchronized, which would pin the virtual thread while a write blocks
+    private final ReentrantLock writeLock = new ReentrantLock();
+
+    private Socket socket;
+    private boolean binary;
+    private BufferedReader reader;
+    private BufferedWriter writer;
+    private FrameReader frameReader;
+    private OutputStream out;
+
+    /**
+     * Creates a user that is not connected yet.
+     *
+     * @param host     The host of the server.
+     * @param port     The chat port.
+     * @param password The server password.
+     * @param username The name to log in with.
+     * @param stats    Where deliveries are counted.
+     */
+    SocketUser(String host, int port, String password, String username, LoadStats stats) {
+        this.host = host;
+        this.port = port;
+        this.password = password;
+        this.username = username;
+        this.stats = stats;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        socket = new Socket(host, port);
+        try {
+            BufferedWriter handshakeWriter = new BufferedWriter(
+                    new OutputStreamWriter(socket.getOutputStream(), StandardCharsets.UTF_8));
+            BufferedReader handshakeReader = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+            Set<String> capabilities = Handshake.negotiate(handshakeWriter, handshakeReader,
+                    Handshake.requestedByClient());
+            handshakeWriter.write(password);
+            handshakeWriter.newLine();
+            handshakeWriter.flush();
+            String reply = handshakeReader.readLine();
+            if (!"OK".equals(reply)) {
+                throw new IOException("Password not accepted: " + reply);
+            }
+            openStreams(capabilities);
+            readHistory();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    // Same streams as Client.openStreams; the handshake reader has read nothing past "OK"
+    private void openStreams(Set<String> capabilities) throws IOException {
+        binary = capabilities.contains(Handshake.BINARY);
+        InputStream in = socket.getInputStream();
+        OutputStream rawOut = socket.getOutputStream();
+        if (capabilities.contains(Handshake.DEFLATE)) {
+            in = Compression.inflate(in);
+            rawOut = Compression.deflate(rawOut);
+        }
+        if (binary) {
+            out = new BufferedOutputStream(rawOut);
+            frameReader = new FrameReader(in);
+            BinaryFrames.write(out, BinaryFrames.TYPE_HELLO, 0, 0, username);
+            out.flush();
+        } else {
+            writer = new BufferedWriter(new OutputStreamWriter(rawOut, StandardCharsets.UTF_8));
+            reader = new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            writer.write(username);
+            writer.newLine();
+            writer.flush();
+        }
+    }
+
+    private void readHistory() throws IOException {
+        String line;
+        while ((line = readLine()) != null) {
+            if (END_HISTORY.equals(line)) {
+                return;
+            }
+        }
+        throw new IOException("Connection closed while reading the history");
+    }
+
+    @Override
+    public void send(String text) throws IOException {
+        writeLock.lock();
+        try {
+            if (binary) {
+                BinaryFrames.write(out, BinaryFrames.TYPE_CHAT, 0, 0, text);
+                out.flush();
+            } else {
+                writer.write(username + ": " + text);
+                writer.newLine();
+                writer.flush();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void receive() throws IOException {
+        String line;
+        while ((line = readLine()) != null) {
+            stats.deliveredToSocket(line);
+        }
+    }
+
+    // Chat frames only carry the text, which is all the stamp needs, so sender names are not tracked
+    private String readLine() throws IOException {
+        if (!binary) {
+            return reader.readLine();
+        }
+        while (frameReader.next()) {
+            switch (frameReader.getType()) {
+                case BinaryFrames.TYPE_CHAT:
+                case BinaryFrames.TYPE_SYSTEM:
+                    return frameReader.getPayload();
+                case BinaryFrames.TYPE_HISTORY_END:
+                    return END_HISTORY;
+                case BinaryFrames.TYPE_QUIT:
+                    return null;
+                default:
+                    break;
+            }
+        }
+        return null;
+    }
+
+    // Leaves the way Client.sendMessage("quit") does, so the server says goodbye as usual
+    private void sendQuit() throws IOException {
+        writeLock.lock();
+        try {
+            if (out != null) {
+                BinaryFrames.write(out, BinaryFrames.TYPE_QUIT, 0, 0, "");
+                out.flush();
+            } else if (writer != null) {
+                writer.write("quit");
+                writer.newLine();
+                writer.flush();
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (socket == null) {
+            return;
+        }
+        try {
+            sendQuit();
+        } catch (IOException e) {
+            // The connection is already gone
+        }
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to release
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.sonnybell.app.loadtest;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.util.Iterator;
+import java.util.stream.Stream;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * WebUser class simulating one user of the web chat page.
+ * It makes the same requests as WebChatMessaging.js: a login, an event
+ * stream the server pushes the lobby lines to, a post per message, then a
+ * logout. A line counts as delivered when it comes out of the stream.
+ */
+final class WebUser implements SimulatedUser {
+    private static final int HTTP_OK = 200;
+    private static final int HTTP_NO_CONTENT = 204;
+
+    private final HttpClient http;
+    private final String baseUrl;
+    private final String password;
+    private final String username;
+    private final LoadStats stats;
+
+    private volatile String token;
+    private volatile boolean closed;
+
+    /**
+     * Creates a user that is not logged in yet.
+     *
+     * @param http         The client shared by all web users.
+     * @param baseUrl      The address of the web server, such as http://localhost:8080.
+     * @param password     The server password.
+     * @param username     The name to log in with.
+     * @param stats        Where requests and deliveries are counted.
+     */
+    WebUser(HttpClient http, String baseUrl, String password, String username, LoadStats stats) {
+        this.http = http;
+        this.baseUrl = baseUrl;
+        this.password = password;
+        this.username = username;
+        this.stats = stats;
+    }
+
+    @Override
+    public void connect() throws IOException {
+        JSONObject body = new JSONObject();
+        body.put("username", username);
+        body.put("password", password);
+        HttpResponse<String> response = post("/api/webchat/login", body);
+        try {
+            token = new JSONObject(response.body()).optString("token", null);
+        } catch (JSONException e) {
+            token = null;
+        }
+        if (token == null) {
+            throw new IOException("Login refused with status " + response.statusCode() + ": " + response.body());
+        }
+    }
+
+    @Override
+    public void send(String text) throws IOException {
+        JSONObject body = new JSONObject();
+        body.put("token", token);
+        body.put("message", text);
+        HttpResponse<String> response = post("/api/webchat/messages", body);
+        if (response.statusCode() != HTTP_NO_CONTENT && response.statusCode() != HTTP_OK) {
+            throw new IOException("Post refused with status " + response.statusCode());
+        }
+    }
+
+    @Override
+    public void receive() throws IOException {
+        // A stream ended by the server for falling behind is opened again, like the browser does
+        while (!closed) {
+            if (!readEvents()) {
+                return;
+            }
+        }
+    }
+
+    // Reads the event stream until it ends; false once the session is over
+    private boolean readEvents() throws IOException {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl + "/api/webchat/events?token=" + token))
+                .GET().build();
+        HttpResponse<Stream<String>> response;
+        try {
+            response = http.send(request, HttpResponse.BodyHandlers.ofLines());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted", e);
+        }
+        if (response.statusCode() != HTTP_OK) {
+            response.body().close();
+            return false;
+        }
+        String event = "message";
+        try (Stream<String> lines = response.body()) {
+            Iterator<String> it = lines.iterator();
+            while (it.hasNext()) {
+                String line = it.next();
+                if (line.startsWith("event: ")) {
+                    event = line.substring("event: ".length());
+                } else if (line.startsWith("data: ") && "message".equals(event)) {
+                    stats.deliveredToWeb(line.substring("data: ".length()));
+                } else if (line.isEmpty()) {
+                    if ("kicked".equals(event) || "logout".equals(event)) {
+                        return false;
+                    }
+                    event = "message";
+                }
+            }
+        } catch (UncheckedIOException e) {
+            if (!closed) {
+                throw e.getCause();
+            }
+        }
+        return !closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        JSONObject body = new JSONObject();
+        body.put("token", token);
+        try {
+            post("/api/webchat/logout", body);
+        } catch (IOException e) {
+            // The server is gone, there is nobody to log out from
+        }
+    }
+
+    private HttpResponse<String> post(String path, JSONObject body) throws IOException {
+        return request(HttpRequest.newBuilder(URI.create(baseUrl + path))
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build());
+    }
+
+    private HttpResponse<String> request(HttpRequest request) throws IOException {
+        long started = System.nanoTime();
+        try {
+            HttpResponse<String> response = http.send(request, HttpResponse.BodyHandlers.ofString());
+            stats.requestDone(started);
+            return response;
+        } catch (IOException e) {
+            stats.requestFailed();
+            throw e;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            stats.requestFailed();
+            throw new IOException("Interrupted", e);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.sonnybell.app.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counter class for a count that only goes up, such as messages sent.
+ * It is a LongAdder, so threads counting at the same time do not contend.
+ */
+public final class Counter implements Metric {
+    private final LongAdder count = new LongAdder();
+
+    public void increment() {
+        count.increment();
+    }
+
+    public void add(long amount) {
+        count.add(amount);
+    }
+
+    public long get() {
+        return count.sum();
+    }
+
+    @Override
+    public String getType() {
+        return "counter";
+    }
+
+    @Override
+    public void writeSamples(StringBuilder out, String name, String labels) {
+        MetricsRegistry.writeSample(out, name, labels, get());
+    }
+}
@@ -0,0 +1,34 @@
+package com.sonnybell.app.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Gauge class for a value read when the metrics are collected, such as the
+ * number of connected clients. It can also expose a count kept elsewhere as
+ * a counter.
+ */
+public final class Gauge implements Metric {
+    private final String type;
+    private final LongSupplier value;
+
+    /**
+     * Constructor to initialize the gauge.
+     *
+     * @param type  "gauge", or "counter" for a count that only goes up.
+     * @param value Reads the current value.
+     */
+    Gauge(String type, LongSupplier value) {
+        this.type = type;
+        this.value = value;
+    }
+
+    @Override
+    public String getType() {
+        return type;
+    }
+
+    @Override
+    public void writeSamples(StringBuilder out, String name, String labels) {
+        MetricsRegistry.writeSample(out, name, labels, value.getAsLong());
+    }
+}
@@ -0,0 +1,137 @@
+package com.sonnybell.app.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram class for recording durations, such as how long a broadcast takes.
+ * Like an HDR histogram it splits every power of two into SUB_BUCKETS equal
+ * buckets, so any value from 1 ns to hours is counted with at most 1/16
+ * error, in a fixed array of counters, without allocating and without a lock.
+ * Percentiles can be read directly; Prometheus gets the counts folded into
+ * the usual cumulative buckets, in seconds.
+ */
+public final class Histogram implements Metric {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    // Enough buckets for every positive long
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_BUCKETS;
+    private static final double NANOS_PER_SECOND = 1e9;
+    // Upper bounds of the buckets given to Prometheus, in seconds
+    private static final double[] EXPORTED_BOUNDS = {
+        0.00001, 0.000025, 0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005,
+        0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10,
+    };
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder total = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+
+    /**
+     * Records a duration.
+     *
+     * @param nanos The duration in nanoseconds; negative values count as 0.
+     */
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        total.increment();
+        sum.add(value);
+    }
+
+    /**
+     * Records the time since a start time.
+     *
+     * @param startNanos The start, as returned by System.nanoTime().
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    public long getCount() {
+        return total.sum();
+    }
+
+    /**
+     * Gets the value below which a share of the recorded values fall.
+     *
+     * @param quantile The share, such as 0.99.
+     * @return The upper bound of the bucket holding that value in nanoseconds,
+     *         or 0 if nothing was recorded.
+     */
+    public long getPercentile(double quantile) {
+        long[] snapshot = snapshot();
+        long recorded = 0;
+        for (long count : snapshot) {
+            recorded += count;
+        }
+        long rank = (long) Math.ceil(quantile * recorded);
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank && seen > 0) {
+                return upperBound(i);
+            }
+        }
+        return 0;
+    }
+
+    private long[] snapshot() {
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+        }
+        return snapshot;
+    }
+
+    // Values below SUB_BUCKETS have a bucket each, then every power of two is split in SUB_BUCKETS
+    private static int indexOf(long value) {
+        if (value < SUB_BUCKETS) {
+            return (int) value;
+        }
+        int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    // Smallest value that no longer falls in a bucket
+    private static long upperBound(int index) {
+        if (index < SUB_BUCKETS) {
+            return index + 1;
+        }
+        int shift = index / SUB_BUCKETS - 1;
+        long lower = (long) (SUB_BUCKETS + index % SUB_BUCKETS) << shift;
+        return lower + (1L << shift);
+    }
+
+    @Override
+    public String getType() {
+        return "histogram";
+    }
+
+    @Override
+    public void writeSamples(StringBuilder out, String name, String labels) {
+        // Read the buckets first, so the +Inf bucket is never below the others
+        long[] snapshot = snapshot();
+        String separator = labels.isEmpty() ? "" : labels + ",";
+        int index = 0;
+        long cumulative = 0;
+        for (double bound : EXPORTED_BOUNDS) {
+            long boundNanos = (long) (bound * NANOS_PER_SECOND);
+            while (index < BUCKETS && upperBound(index) <= boundNanos) {
+                cumulative += snapshot[index++];
+            }
+            MetricsRegistry.writeSample(out, name + "_bucket", separator + "le=\"" + bound + "\"", cumulative);
+        }
+        while (index < BUCKETS) {
+            cumulative += snapshot[index++];
+        }
+        MetricsRegistry.writeSample(out, name + "_bucket", separator + "le=\"+Inf\"", cumulative);
+        out.append(name).append("_sum");
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(sum.sum() / NANOS_PER_SECOND).append('\n');
+        MetricsRegistry.writeSample(out, name + "_count", labels, cumulative);
+    }
+}
@@ -0,0 +1,24 @@
+package com.sonnybell.app.metrics;
+
+/**
+ * Interface for a value that MetricsRegistry exposes in the Prometheus text
+ * format.
+ */
+public interface Metric {
+
+    /**
+     * Gets the Prometheus type of the metric.
+     *
+     * @return "counter", "gauge" or "histogram".
+     */
+    String getType();
+
+    /**
+     * Writes the samples of the metric, without the HELP and TYPE lines.
+     *
+     * @param out    Where to write.
+     * @param name   The metric name.
+     * @param labels The labels, such as path="/x", or an empty string.
+     */
+    void writeSamples(StringBuilder out, String name, String labels);
+}
@@ -0,0 +1,154 @@
+package com.sonnybell.app.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * MetricsRegistry class holding named metrics and writing them in the
+ * Prometheus text format.
+ * A metric is registered once under its name and labels; registering the
+ * same name and labels again returns the metric already there, so code can
+ * look up a labelled metric on every call.
+ */
+public final class MetricsRegistry {
+    // Sorted by name and labels, so the series of one metric are written together
+    private final ConcurrentMap<String, Entry> metrics = new ConcurrentSkipListMap<>();
+
+    /**
+     * Gets or creates a counter.
+     *
+     * @param name The metric name, such as "chat_messages_sent_total".
+     * @param help What the metric counts.
+     * @return The counter.
+     */
+    public Counter counter(String name, String help) {
+        return register(name, help, "", Counter.class, Counter::new);
+    }
+
+    /**
+     * Gets or creates a counter with labels.
+     *
+     * @param name   The metric name.
+     * @param help   What the metric counts.
+     * @param labels The labels, such as source="web".
+     * @return The counter.
+     */
+    public Counter counter(String name, String help, String labels) {
+        return register(name, help, labels, Counter.class, Counter::new);
+    }
+
+    /**
+     * Registers a gauge read when the metrics are collected.
+     *
+     * @param name  The metric name.
+     * @param help  What the metric measures.
+     * @param value Reads the current value.
+     */
+    public void gauge(String name, String help, LongSupplier value) {
+        register(name, help, "", Gauge.class, () -> new Gauge("gauge", value));
+    }
+
+    /**
+     * Registers a count kept elsewhere, read when the metrics are collected.
+     *
+     * @param name  The metric name, ending in _total.
+     * @param help  What the metric counts.
+     * @param value Reads the current count.
+     */
+    public void counterOf(String name, String help, LongSupplier value) {
+        register(name, help, "", Gauge.class, () -> new Gauge("counter", value));
+    }
+
+    /**
+     * Gets or creates a histogram of durations.
+     *
+     * @param name The metric name, ending in _seconds.
+     * @param help What the metric times.
+     * @return The histogram.
+     */
+    public Histogram histogram(String name, String help) {
+        return histogram(name, help, "");
+    }
+
+    /**
+     * Gets or creates a histogram of durations with labels.
+     *
+     * @param name   The metric name, ending in _seconds.
+     * @param help   What the metric times.
+     * @param labels The labels, such as path="/api/webchat/login".
+     * @return The histogram.
+     */
+    public Histogram histogram(String name, String help, String labels) {
+        return register(name, help, labels, Histogram.class, Histogram::new);
+    }
+
+    // The metric is only created the first time, lookups of an existing one allocate nothing
+    private <T extends Metric> T register(String name, String help, String labels, Class<T> kind, Supplier<T> factory) {
+        String key = labels.isEmpty() ? name : name + "{" + labels + "}";
+        Entry entry = metrics.get(key);
+        if (entry == null) {
+            entry = metrics.computeIfAbsent(key, k -> new Entry(name, help, labels, factory.get()));
+        }
+        if (!kind.isInstance(entry.metric)) {
+            throw new IllegalArgumentException("Metric " + key + " is already registered as a "
+                    + entry.metric.getType());
+        }
+        return kind.cast(entry.metric);
+    }
+
+    /**
+     * Writes every metric in the Prometheus text format.
+     *
+     * @return The text.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        String lastName = null;
+        for (Map.Entry<String, Entry> item : metrics.entrySet()) {
+            Entry entry = item.getValue();
+            if (!entry.name.equals(lastName)) {
+                out.append("# HELP ").append(entry.name).append(' ').append(entry.help).append('\n');
+                out.append("# TYPE ").append(entry.name).append(' ').append(entry.metric.getType()).append('\n');
+                lastName = entry.name;
+            }
+            entry.metric.writeSamples(out, entry.name, entry.labels);
+        }
+        return out.toString();
+    }
+
+    /**
+     * Writes one sample line.
+     *
+     * @param out    Where to write.
+     * @param name   The sample name.
+     * @param labels The labels, or an empty string.
+     * @param value  The value.
+     */
+    static void writeSample(StringBuilder out, String name, String labels, long value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    /**
+     * A registered metric with its name, help text and labels.
+     */
+    private static final class Entry {
+        private final String name;
+        private final String help;
+        private final String labels;
+        private final Metric metric;
+
+        Entry(String name, String help, String labels, Metric metric) {
+            this.name = name;
+            this.help = help;
+            this.labels = labels;
+            this.metric = metric;
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package com.sonnybell.app.metrics;
+
+import com.sonnybell.app.chatfunctions.ChatHistory;
+import com.sonnybell.app.chatfunctions.ChatRoom;
+import com.sonnybell.app.chatfunctions.MessageLog;
+import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.ratelimit.Admission;
+import com.sonnybell.app.ratelimit.FloodControl;
+
+/**
+ * ServerMetrics class with the metrics of the chat server, served on /metrics.
+ * Every metric is created here, so all of them are listed from the start
+ * even before anything happened, and the code being measured only touches
+ * a field.
+ */
+public final class ServerMetrics {
+
+    /**
+     * The registry every server metric is in.
+     */
+    public static final MetricsRegistry REGISTRY = new MetricsRegistry();
+
+    /**
+     * Connections that passed admission control.
+     */
+    public static final Counter CONNECTIONS_ACCEPTED = REGISTRY.counter("chat_connections_accepted_total",
+            "Connections to the chat port that were taken on.");
+
+    /**
+     * Lines received from socket clients.
+     */
+    public static final Counter MESSAGES_RECEIVED_SOCKET = REGISTRY.counter("chat_messages_received_total",
+            "Lines and commands received from users.", "source=\"socket\"");
+
+    /**
+     * Messages posted from the web page.
+     */
+    public static final Counter MESSAGES_RECEIVED_WEB = REGISTRY.counter("chat_messages_received_total",
+            "Lines and commands received from users.", "source=\"web\"");
+
+    /**
+     * Messages written to socket clients, counted once per recipient.
+     */
+    public static final Counter MESSAGES_SENT = REGISTRY.counter("chat_messages_sent_total",
+            "Messages written to socket clients, once per recipient.");
+
+    /**
+     * Time to send one message to every member of a room.
+     */
+    public static final Histogram BROADCAST_FANOUT = REGISTRY.histogram("chat_broadcast_fanout_seconds",
+            "Time to send one message to every member of a room.");
+
+    /**
+     * Time to write one message to one client, including waiting for its lock.
+     */
+    public static final Histogram CLIENT_WRITE = REGISTRY.histogram("chat_client_write_seconds",
+            "Time to write and flush one message to one socket client.");
+
+    /**
+     * Capital game questions asked.
+     */
+    public static final Counter GAME_ROUNDS = REGISTRY.counter("chat_game_rounds_total",
+            "Questions asked by the capital game.");
+
+    /**
+     * Capital games started.
+     */
+    public static final Counter GAMES_STARTED = REGISTRY.counter("chat_games_started_total",
+            "Capital games started.");
+
+    static {
+        REGISTRY.gauge("chat_clients_connected", "Socket clients logged in.",
+                () -> ClientHandler.getClientList().size());
+        REGISTRY.gauge("chat_users_online", "Users logged in on this server, socket and web.",
+                () -> ClientHandler.getClientNamesList().size());
+        REGISTRY.gauge("chat_rooms", "Chat rooms with members on this server, the lobby included.",
+                () -> ChatRoom.getRooms().size());
+        REGISTRY.gauge("chat_history_size", "Lines held in the lobby history.", ChatHistory::getSize);
+        REGISTRY.gauge("chat_log_queue_depth", "Lines waiting to be written to the message log.",
+                MessageLog::getQueueDepth);
+        REGISTRY.counterOf("chat_log_dropped_total", "Lines left out of the message log because it could not keep up.",
+                MessageLog::getDroppedLines);
+        REGISTRY.counterOf("chat_connections_rejected_total", "Connections reset by admission control.",
+                Admission::getRejectedConnections);
+        REGISTRY.counterOf("chat_logins_rejected_total", "Password attempts refused for coming too often.",
+                Admission::getRejectedLogins);
+        REGISTRY.counterOf("chat_flood_dropped_total", "Lines dropped for being sent too fast.",
+                FloodControl::getDroppedLines);
+        REGISTRY.counterOf("chat_flood_disconnects_total", "Users disconnected for sending too fast.",
+                FloodControl::getDisconnects);
+    }
+
+    private ServerMetrics() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Gets the latency histogram of one web chat endpoint.
+     *
+     * @param path The request path, one of the web chat endpoints or "other".
+     * @return The histogram.
+     */
+    public static Histogram httpRequest(String path) {
+        return REGISTRY.histogram("chat_http_request_seconds", "Time to answer a web chat request.",
+                "path=\"" + path + "\"");
+    }
+
+    /**
+     * Gets the latency histogram of one stage of the message pipeline.
+     *
+     * @param stage The stage name, such as "filter".
+     * @return The histogram.
+     */
+    public static Histogram pipelineStage(String stage) {
+        return REGISTRY.histogram("chat_pipeline_stage_seconds", "Time a chat line spends in each pipeline stage.",
+                "stage=\"" + stage + "\"");
+    }
+}
@@ -0,0 +1,141 @@
+package com.sonnybell.app.pipeline;
+
+import com.sonnybell.app.chatfunctions.CommandContext;
+import com.sonnybell.app.chatfunctions.CommandRegistry;
+import com.sonnybell.app.chatfunctions.Sanctions;
+import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.filter.ContentFilter;
+import com.sonnybell.app.games.CapitalGame;
+import com.sonnybell.app.ratelimit.FloodControl;
+import com.sonnybell.app.tracing.MessageTracer;
+import com.sonnybell.app.tracing.TraceStage;
+
+/**
+ * ChatInterceptors class holding the stages of the standard chat pipeline,
+ * in the order MessagePipeline.chat() runs them.
+ * Each one behaves the same for socket and web users, except where only one
+ * of them has the thing checked, such as the trace id of a socket line.
+ */
+final class ChatInterceptors {
+
+    private ChatInterceptors() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Drops the line of a user an admin muted.
+     * An admin's mute is checked for every line since it can be lifted or
+     * reloaded at any time.
+     *
+     * @param message The line.
+     * @return true to go on, false if the line was handled or dropped.
+     */
+    static boolean mute(InboundMessage message) {
+        long muteLeft = Sanctions.getMuteMillisLeft(message.getSender(), message.getAddress());
+        if (muteLeft > 0) {
+            message.notice(Sanctions.muteNotice(muteLeft));
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Applies the flood control of the sender's session.
+     * Every line reaches everyone else, so one user sending too fast slows
+     * down the whole server.
+     *
+     * @param message The line.
+     * @return true to go on, false if the line was handled or dropped.
+     */
+    static boolean flood(InboundMessage message) {
+        FloodControl flood = message.getFlood();
+        if (flood == null) {
+            return true;
+        }
+        FloodControl.Verdict verdict = flood.check();
+        if (verdict == FloodControl.Verdict.DISCONNECT) {
+            message.reply("SERVER: You were disconnected for sending messages too fast.");
+            message.disconnect();
+            return false;
+        }
+        if (verdict == FloodControl.Verdict.MUTED) {
+            message.notice("SERVER: You are muted for " + flood.getMuteSecondsLeft() + " more seconds.");
+            return false;
+        }
+        if (verdict == FloodControl.Verdict.DROP) {
+            message.notice("SERVER: You are sending messages too fast, some were not delivered.");
+            return false;
+        }
+        MessageTracer.mark(message.getTrace(), TraceStage.FLOOD_CHECK);
+        return true;
+    }
+
+    /**
+     * Runs a line starting with "/" as a command.
+     * Commands are looked up in the shared registry; slow ones run on its
+     * executor, and the pipeline waits for them.
+     *
+     * @param message The line.
+     * @return true to go on, false if the line was handled or dropped.
+     */
+    static boolean command(InboundMessage message) {
+        boolean command = CommandRegistry.isCommand(message.getText());
+        MessageTracer.mark(message.getTrace(), TraceStage.COMMAND_CHECK);
+        if (!command) {
+            return true;
+        }
+        CommandContext context = new CommandContext(message.getSender(), message.getSession(),
+                message.getReplyTo());
+        message.handOff(CommandRegistry.dispatch(context, message.getText()));
+        return false;
+    }
+
+    /**
+     * Checks a line from the lobby against the question of the capital game.
+     * A correct answer is not sent, the game announces it instead.
+     *
+     * @param message The line.
+     * @return true to go on, false if the line was handled or dropped.
+     */
+    static boolean game(InboundMessage message) {
+        ClientHandler session = message.getSession();
+        boolean answered = CapitalGame.isGameActive() && (session == null || session.isInLobby())
+                && CapitalGame.checkAnswer(message.getSender(), message.getText());
+        MessageTracer.mark(message.getTrace(), TraceStage.GAME_CHECK);
+        return !answered;
+    }
+
+    /**
+     * Masks blocked words in the line, or drops the line.
+     * The whole blocklist is checked in one pass over the line.
+     *
+     * @param message The line.
+     * @return true to go on, false if the line was handled or dropped.
+     */
+    static boolean filter(InboundMessage message) {
+        String filtered = ContentFilter.apply(message.getText());
+        if (filtered == null) {
+            message.reply(ContentFilter.blockedNotice());
+            return false;
+        }
+        message.setText(filtered);
+        return true;
+    }
+
+    /**
+     * Sends the line to everyone.
+     * Socket users chat in their own room, web users in the lobby.
+     *
+     * @param message The line.
+     * @return true, so later stages also see the line.
+     */
+    static boolean broadcast(InboundMessage message) {
+        ClientHandler session = message.getSession();
+        if (session != null) {
+            session.broadcastChat(message.getText(), message.getTrace());
+        } else {
+            ClientHandler.broadcastMessageToAll(message.getSender() + ": " + message.getText(), "WebChat");
+        }
+        return true;
+    }
+}
@@ -0,0 +1,178 @@
+package com.sonnybell.app.pipeline;
+
+import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.interfaces.MessageListener;
+import com.sonnybell.app.ratelimit.FloodControl;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * InboundMessage class holding a chat line on its way through the
+ * MessagePipeline, with everything the stages need to know about where it
+ * came from.
+ * Socket lines carry the ClientHandler of their sender, its FloodControl and
+ * a trace id; web lines carry the FloodControl of their web session only,
+ * and collect whatever the stages say to the sender into their HTTP
+ * response instead.
+ * A message is only handled by one stage at a time, so it needs no locking.
+ */
+public final class InboundMessage {
+    private final String sender;
+    private final String address;
+    private final ClientHandler session;
+    private final FloodControl flood;
+    private final long trace;
+    private final MessageListener replyTo;
+    private final MessageListener notices;
+    private final List<CompletableFuture<?>> pending = new ArrayList<>();
+    private String text;
+    private boolean disconnect;
+    private boolean noticed;
+
+    private InboundMessage(String sender, String address, ClientHandler session, FloodControl flood, long trace,
+            MessageListener replyTo, MessageListener notices) {
+        this.sender = sender;
+        this.address = address;
+        this.session = session;
+        this.flood = flood;
+        this.trace = trace;
+        this.replyTo = replyTo;
+        this.notices = notices;
+    }
+
+    /**
+     * Creates a message for a line read from a socket client.
+     *
+     * @param session The client that sent the line.
+     * @param text    The text the user typed, without the "username: " prefix.
+     * @param flood   The flood control of the client.
+     * @param trace   The trace id of the line, 0 if it is not traced.
+     * @param notices Where notices about dropped lines are sent, so the
+     *                client can be told once rather than for every line.
+     * @return The message.
+     */
+    public static InboundMessage fromSocket(ClientHandler session, String text, FloodControl flood, long trace,
+            MessageListener notices) {
+        InboundMessage message = new InboundMessage(session.getUsername(), session.getRemoteAddress(), session,
+                flood, trace, session::sendMessage, notices);
+        message.text = text;
+        return message;
+    }
+
+    /**
+     * Creates a message for a line posted from the web page.
+     *
+     * @param sender  The username of the web user.
+     * @param address The address the request came from.
+     * @param text    The text the user typed.
+     * @param flood   The flood control of the web session.
+     * @param replies Where everything meant for the sender only is collected.
+     * @return The message.
+     */
+    public static InboundMessage fromWeb(String sender, String address, String text, FloodControl flood,
+            MessageListener replies) {
+        InboundMessage message = new InboundMessage(sender, address, null, flood, 0, replies, replies);
+        message.text = text;
+        return message;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public String getAddress() {
+        return address;
+    }
+
+    /**
+     * Gets the socket client that sent the line.
+     *
+     * @return The client, or null for a web user.
+     */
+    public ClientHandler getSession() {
+        return session;
+    }
+
+    /**
+     * Gets the flood control of the sender.
+     *
+     * @return The flood control, or null if the line is not limited.
+     */
+    public FloodControl getFlood() {
+        return flood;
+    }
+
+    public long getTrace() {
+        return trace;
+    }
+
+    public MessageListener getReplyTo() {
+        return replyTo;
+    }
+
+    public String getText() {
+        return text;
+    }
+
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    /**
+     * Sends a message to the sender only.
+     *
+     * @param reply The message to send.
+     */
+    public void reply(String reply) {
+        replyTo.onMessageReceived(reply);
+    }
+
+    /**
+     * Tells the sender why the line was dropped. A socket client only hears
+     * this once until one of its lines gets through again.
+     *
+     * @param notice The notice to send.
+     */
+    public void notice(String notice) {
+        noticed = true;
+        notices.onMessageReceived(notice);
+    }
+
+    /**
+     * Checks whether a stage dropped the line with a notice.
+     *
+     * @return true if notice() was called.
+     */
+    public boolean isNoticed() {
+        return noticed;
+    }
+
+    /**
+     * Asks for the connection of the sender to be closed once the line has
+     * been handled.
+     */
+    public void disconnect() {
+        disconnect = true;
+    }
+
+    public boolean isDisconnect() {
+        return disconnect;
+    }
+
+    /**
+     * Adds work a stage started elsewhere, such as an async command, which
+     * the pipeline waits for before the message counts as handled.
+     *
+     * @param work The future completing when the work is done.
+     */
+    public void handOff(CompletableFuture<?> work) {
+        if (!work.isDone()) {
+            pending.add(work);
+        }
+    }
+
+    List<CompletableFuture<?>> getPending() {
+        return pending;
+    }
+}
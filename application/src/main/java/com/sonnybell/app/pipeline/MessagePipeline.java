@@ -0,0 +1,140 @@
+package com.sonnybell.app.pipeline;
+
+import com.sonnybell.app.interfaces.MessageInterceptor;
+import com.sonnybell.app.metrics.Histogram;
+import com.sonnybell.app.metrics.ServerMetrics;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * MessagePipeline class passing every chat line through the same stages,
+ * whether it was read from a socket or posted from the web page.
+ * Each stage is a MessageInterceptor that lets the line go on or stops it.
+ * A stage runs on the thread that got the line unless it was added with an
+ * executor, in which case the line is handed to that executor and the rest
+ * of the chain runs there too, so a slow stage never blocks a client's
+ * reader thread. Every stage is timed in the chat_pipeline_stage_seconds
+ * metric under its name.
+ * The stages of the standard chain are in ChatInterceptors; a new check,
+ * such as another filter, is one more call to add() instead of a change to
+ * both ClientHandler and WebChat.
+ */
+public final class MessagePipeline {
+    private static final CompletableFuture<Void> DONE = CompletableFuture.completedFuture(null);
+    private static final MessagePipeline CHAT = new MessagePipeline()
+            .add("mute", ChatInterceptors::mute)
+            .add("flood", ChatInterceptors::flood)
+            .add("command", ChatInterceptors::command)
+            .add("game", ChatInterceptors::game)
+            .add("filter", ChatInterceptors::filter)
+            .add("broadcast", ChatInterceptors::broadcast);
+
+    // Replaced rather than changed, so a line going through keeps the stages it started with
+    private volatile Stage[] stages = new Stage[0];
+
+    /**
+     * Gets the pipeline every chat line of the server goes through.
+     *
+     * @return The pipeline.
+     */
+    public static MessagePipeline chat() {
+        return CHAT;
+    }
+
+    /**
+     * Adds a stage at the end of the pipeline, run on the thread that got the
+     * line or on the executor of an earlier stage.
+     *
+     * @param name        The stage name used in the metrics.
+     * @param interceptor The stage.
+     * @return This pipeline.
+     */
+    public MessagePipeline add(String name, MessageInterceptor interceptor) {
+        return add(name, interceptor, null);
+    }
+
+    /**
+     * Adds a stage at the end of the pipeline, run on the given executor.
+     *
+     * @param name        The stage name used in the metrics.
+     * @param interceptor The stage.
+     * @param executor    The executor the line is handed to before this stage,
+     *                    or null to stay on the current thread.
+     * @return This pipeline.
+     */
+    public synchronized MessagePipeline add(String name, MessageInterceptor interceptor, Executor executor) {
+        Stage[] next = Arrays.copyOf(stages, stages.length + 1);
+        next[stages.length] = new Stage(interceptor, executor, ServerMetrics.pipelineStage(name));
+        stages = next;
+        return this;
+    }
+
+    /**
+     * Passes a line through the stages until one of them stops it.
+     *
+     * @param message The line.
+     * @return A future completing once every stage that ran and any work they
+     *         handed off have finished, exceptionally if a stage run on an
+     *         executor or the handed off work failed. A stage failing on the
+     *         calling thread throws its exception from here.
+     */
+    public CompletableFuture<Void> process(InboundMessage message) {
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        run(stages, 0, false, message, done);
+        return done;
+    }
+
+    private static void run(Stage[] chain, int from, boolean handedOff, InboundMessage message,
+            CompletableFuture<Void> done) {
+        for (int i = from; i < chain.length; i++) {
+            Stage stage = chain[i];
+            if (stage.executor != null && !(handedOff && i == from)) {
+                int resume = i;
+                try {
+                    CompletableFuture.runAsync(() -> run(chain, resume, true, message, done), stage.executor)
+                            .exceptionally(failure -> {
+                                done.completeExceptionally(failure);
+                                return null;
+                            });
+                } catch (RejectedExecutionException e) {
+                    done.completeExceptionally(e);
+                }
+                return;
+            }
+            long start = System.nanoTime();
+            boolean pass = stage.interceptor.intercept(message);
+            stage.timer.recordSince(start);
+            if (!pass) {
+                break;
+            }
+        }
+        finish(message, done);
+    }
+
+    private static void finish(InboundMessage message, CompletableFuture<Void> done) {
+        CompletableFuture<?>[] pending = message.getPending().toArray(new CompletableFuture<?>[0]);
+        CompletableFuture<Void> all = pending.length == 0 ? DONE : CompletableFuture.allOf(pending);
+        all.whenComplete((ignored, failure) -> {
+            if (failure == null) {
+                done.complete(null);
+            } else {
+                done.completeExceptionally(failure);
+            }
+        });
+    }
+
+    // A stage with the executor it runs on and its timer
+    private static final class Stage {
+        private final MessageInterceptor interceptor;
+        private final Executor executor;
+        private final Histogram timer;
+
+        Stage(MessageInterceptor interceptor, Executor executor, Histogram timer) {
+            this.interceptor = interceptor;
+            this.executor = executor;
+            this.timer = timer;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.sonnybell.app.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one message sent to every member of a room.
+ */
+@Name("chat.Broadcast")
+@Label("Broadcast")
+@Category("Chat")
+@Description("One message written to every member of a room")
+@StackTrace(false)
+public final class BroadcastEvent extends jdk.jfr.Event {
+    @Label("Room")
+    private String room;
+
+    @Label("Recipients")
+    private int recipients;
+
+    @Label("Sequence Number")
+    @Description("Sequence number of the message in the room history, 0 if it is not kept")
+    private long seq;
+
+    /**
+     * Ends the broadcast and records it.
+     *
+     * @param roomName   The room the message was sent to.
+     * @param sentTo     The number of members written to.
+     * @param messageSeq The sequence number of the message.
+     */
+    public void finish(String roomName, int sentTo, long messageSeq) {
+        end();
+        if (shouldCommit()) {
+            room = roomName;
+            recipients = sentTo;
+            seq = messageSeq;
+            commit();
+        }
+    }
+}
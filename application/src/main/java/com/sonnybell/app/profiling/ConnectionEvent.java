@@ -0,0 +1,40 @@
+package com.sonnybell.app.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for a connection accepted on the chat port, or reset
+ * by admission control.
+ */
+@Name("chat.ConnectionAccept")
+@Label("Connection Accept")
+@Category("Chat")
+@Description("A connection to the chat port was taken on or turned away")
+@StackTrace(false)
+public final class ConnectionEvent extends jdk.jfr.Event {
+    @Label("Address")
+    private String address;
+
+    @Label("Admitted")
+    @Description("False if admission control reset the connection")
+    private boolean admitted;
+
+    /**
+     * Records a connection.
+     *
+     * @param remoteAddress The address of the client.
+     * @param wasAdmitted   False if the connection was reset.
+     */
+    public static void emit(String remoteAddress, boolean wasAdmitted) {
+        ConnectionEvent event = new ConnectionEvent();
+        if (event.shouldCommit()) {
+            event.address = remoteAddress;
+            event.admitted = wasAdmitted;
+            event.commit();
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.sonnybell.app.profiling;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.util.List;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Recording;
+
+/**
+ * FlightRecording class registering the chat events with the JDK Flight
+ * Recorder and, when asked for, keeping a recording running all the time.
+ * With -Dchat.jfr=true the server starts a recording with the low-overhead
+ * "default" settings of the JDK plus the chat events, keeping the last
+ * -Dchat.jfr.max.age.min minutes (30) and at most -Dchat.jfr.max.size.mb
+ * (250) on disk. Broadcasts, log flushes and web requests faster than
+ * -Dchat.jfr.threshold.ms (1) are left out of it, since there can be
+ * thousands of them a second; the rare events are always kept. When
+ * something goes wrong, /api/admin/jfr dumps the last minutes of it.
+ */
+public final class FlightRecording {
+    private static final String RECORDING_NAME = "chat-continuous";
+    private static final long MAX_AGE_MINUTES = Long.getLong("chat.jfr.max.age.min", 30);
+    private static final long MAX_SIZE_MB = Long.getLong("chat.jfr.max.size.mb", 250);
+    private static final long THRESHOLD_MS = Long.getLong("chat.jfr.threshold.ms", 1);
+    private static final long BYTES_PER_MB = 1024L * 1024L;
+    private static final List<Class<? extends Event>> EVENTS = List.of(ConnectionEvent.class, HandshakeEvent.class,
+            BroadcastEvent.class, LogFlushEvent.class, HttpRequestEvent.class, GameRoundEvent.class);
+    private static final List<String> FREQUENT_EVENTS = List.of("chat.Broadcast", "chat.LogFlush",
+            "chat.HttpRequest");
+
+    private static volatile Recording continuous;
+
+    private FlightRecording() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Registers the chat events, so any recording lists them even before
+     * they happen, and starts the continuous recording if -Dchat.jfr=true.
+     */
+    public static synchronized void start() {
+        if (!FlightRecorder.isAvailable()) {
+            return;
+        }
+        for (Class<? extends Event> event : EVENTS) {
+            FlightRecorder.register(event);
+        }
+        if (!Boolean.getBoolean("chat.jfr") || continuous != null) {
+            return;
+        }
+        try {
+            Recording recording = new Recording(Configuration.getConfiguration("default"));
+            recording.setName(RECORDING_NAME);
+            recording.setToDisk(true);
+            recording.setMaxAge(Duration.ofMinutes(MAX_AGE_MINUTES));
+            recording.setMaxSize(MAX_SIZE_MB * BYTES_PER_MB);
+            for (Class<? extends Event> event : EVENTS) {
+                recording.enable(event);
+            }
+            for (String event : FREQUENT_EVENTS) {
+                recording.enable(event).withThreshold(Duration.ofMillis(THRESHOLD_MS));
+            }
+            recording.start();
+            continuous = recording;
+            System.out.println("Flight recording started, keeping the last " + MAX_AGE_MINUTES + " minutes.");
+        } catch (IOException | ParseException e) {
+            System.err.println("Could not start the flight recording: " + e.getMessage());
+        }
+    }
+
+    public static boolean isRecording() {
+        return continuous != null;
+    }
+
+    public static long getMaxAgeMinutes() {
+        return MAX_AGE_MINUTES;
+    }
+
+    /**
+     * Writes the last minutes of the continuous recording to a file, through
+     * the same JFR.dump diagnostic command as jcmd, which can cut the
+     * recording to a time window.
+     *
+     * @param minutes How many of the last minutes to write.
+     * @param file    The file to write, which must not exist yet.
+     * @throws IOException If nothing is being recorded or the dump fails.
+     */
+    public static void dump(long minutes, Path file) throws IOException {
+        if (continuous == null) {
+            throw new IOException("No recording is running, start the server with -Dchat.jfr=true");
+        }
+        String[] arguments = {"name=" + RECORDING_NAME, "filename=" + file.toAbsolutePath(), "begin=-" + minutes + "m"};
+        try {
+            ManagementFactory.getPlatformMBeanServer().invoke(
+                    new ObjectName("com.sun.management:type=DiagnosticCommand"), "jfrDump",
+                    new Object[] {arguments}, new String[] {String[].class.getName()});
+        } catch (JMException e) {
+            throw new IOException("JFR.dump failed: " + e.getMessage(), e);
+        }
+        if (!Files.exists(file)) {
+            throw new IOException("JFR.dump wrote nothing, the recording may be empty");
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package com.sonnybell.app.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one question of the capital game, from being
+ * asked to being answered or timing out.
+ */
+@Name("chat.GameRound")
+@Label("Capital Game Round")
+@Category("Chat")
+@Description("One question of the capital game")
+@StackTrace(false)
+public final class GameRoundEvent extends jdk.jfr.Event {
+    @Label("Question")
+    private String question;
+
+    @Label("Winner")
+    @Description("The user who answered, null if time ran out")
+    private String winner;
+
+    /**
+     * Ends the round and records it.
+     *
+     * @param asked    The question.
+     * @param answerer The user who answered, or null if nobody did in time.
+     */
+    public void finish(String asked, String answerer) {
+        end();
+        if (shouldCommit()) {
+            question = asked;
+            winner = answerer;
+            commit();
+        }
+    }
+}
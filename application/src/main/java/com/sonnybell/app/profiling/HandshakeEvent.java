@@ -0,0 +1,50 @@
+package com.sonnybell.app.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for the handshake of a new connection, from being
+ * accepted to the username being read or the connection being closed.
+ */
+@Name("chat.Handshake")
+@Label("Handshake")
+@Category("Chat")
+@Description("Feature negotiation, password check and username of a new connection")
+@StackTrace(false)
+public final class HandshakeEvent extends jdk.jfr.Event {
+    @Label("Address")
+    private String address;
+
+    @Label("Username")
+    private String username;
+
+    @Label("Outcome")
+    @Description("ok, redirected, rate limited, disconnected or failed")
+    private String outcome;
+
+    @Label("Password Attempts")
+    private int attempts;
+
+    /**
+     * Ends the handshake and records it.
+     *
+     * @param remoteAddress The address of the client.
+     * @param user          The username, or null if the client did not get that far.
+     * @param result        How the handshake ended.
+     * @param tries         The passwords the client sent.
+     */
+    public void finish(String remoteAddress, String user, String result, int tries) {
+        end();
+        if (shouldCommit()) {
+            address = remoteAddress;
+            username = user;
+            outcome = result;
+            attempts = tries;
+            commit();
+        }
+    }
+}
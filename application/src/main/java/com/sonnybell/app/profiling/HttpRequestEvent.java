@@ -0,0 +1,45 @@
+package com.sonnybell.app.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one request to a web chat endpoint.
+ */
+@Name("chat.HttpRequest")
+@Label("Web Chat Request")
+@Category("Chat")
+@Description("A request answered by the web chat")
+@StackTrace(false)
+public final class HttpRequestEvent extends jdk.jfr.Event {
+    @Label("Path")
+    @Description("The web chat endpoint, or other")
+    private String path;
+
+    @Label("Method")
+    private String method;
+
+    @Label("Status")
+    @Description("The HTTP status sent, -1 if none was")
+    private int status;
+
+    /**
+     * Ends the request and records it.
+     *
+     * @param endpoint      The endpoint requested.
+     * @param requestMethod The HTTP method.
+     * @param responseCode  The status sent.
+     */
+    public void finish(String endpoint, String requestMethod, int responseCode) {
+        end();
+        if (shouldCommit()) {
+            path = endpoint;
+            method = requestMethod;
+            status = responseCode;
+            commit();
+        }
+    }
+}
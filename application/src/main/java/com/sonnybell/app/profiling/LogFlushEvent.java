@@ -0,0 +1,40 @@
+package com.sonnybell.app.profiling;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * Flight recorder event for one batch of lines written to the message log.
+ */
+@Name("chat.LogFlush")
+@Label("Message Log Flush")
+@Category("Chat")
+@Description("A batch of lines written and flushed to the message log")
+@StackTrace(false)
+public final class LogFlushEvent extends jdk.jfr.Event {
+    @Label("Lines")
+    private int lines;
+
+    @Label("Bytes")
+    @DataAmount
+    private long bytes;
+
+    /**
+     * Ends the flush and records it.
+     *
+     * @param written      The lines written.
+     * @param bytesWritten The bytes written.
+     */
+    public void finish(int written, long bytesWritten) {
+        end();
+        if (shouldCommit()) {
+            lines = written;
+            bytes = bytesWritten;
+            commit();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.sonnybell.app.protocol;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * BinaryFrames class describing the length-prefixed binary protocol.
+ * Every frame is laid out as:
+ * <pre>
+ * int  length    number of bytes after this field
+ * byte type      one of the TYPE_ constants
+ * long seq       sequence number of the message in the chat history, 0 if none
+ * int  senderId  id of the user who sent a chat message, 0 for the server
+ * byte[] payload UTF-8 text
+ * </pre>
+ * Chat messages only carry the sender id, the username is sent once per
+ * connection in a TYPE_USER frame instead of being repeated on every line.
+ */
+public final class BinaryFrames {
+
+    /**
+     * Client to server: the username, sent once after the password is accepted.
+     */
+    public static final byte TYPE_HELLO = 1;
+
+    /**
+     * A chat message; the payload is the text without the username.
+     */
+    public static final byte TYPE_CHAT = 2;
+
+    /**
+     * A server, game or history line; the payload is the full line.
+     */
+    public static final byte TYPE_SYSTEM = 3;
+
+    /**
+     * Server to client: binds the sender id to the username in the payload.
+     */
+    public static final byte TYPE_USER = 4;
+
+    /**
+     * Server to client: the history replay is complete.
+     */
+    public static final byte TYPE_HISTORY_END = 5;
+
+    /**
+     * Either direction: the connection is about to be closed.
+     */
+    public static final byte TYPE_QUIT = 6;
+
+    /**
+     * Size of the type, seq and senderId fields that follow the length.
+     */
+    public static final int HEADER_SIZE = 1 + Long.BYTES + Integer.BYTES;
+
+    /**
+     * Largest payload accepted, to stop a bad length from allocating huge buffers.
+     */
+    public static final int MAX_PAYLOAD = 64 * 1024;
+
+    private BinaryFrames() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Encodes a frame into a byte array that can be written to many connections.
+     *
+     * @param type     The frame type.
+     * @param seq      The sequence number, 0 if none.
+     * @param senderId The sender id, 0 for the server.
+     * @param payload  The text of the frame.
+     * @return The encoded frame, length field included.
+     */
+    public static byte[] encode(byte type, long seq, int senderId, String payload) {
+        byte[] text = payload.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer frame = ByteBuffer.allocate(Integer.BYTES + HEADER_SIZE + text.length);
+        frame.putInt(HEADER_SIZE + text.length);
+        frame.put(type);
+        frame.putLong(seq);
+        frame.putInt(senderId);
+        frame.put(text);
+        return frame.array();
+    }
+
+    /**
+     * Encodes and writes a single frame.
+     *
+     * @param out      The stream to write to; it is not flushed.
+     * @param type     The frame type.
+     * @param seq      The sequence number, 0 if none.
+     * @param senderId The sender id, 0 for the server.
+     * @param payload  The text of the frame.
+     * @throws IOException If the write fails.
+     */
+    public static void write(OutputStream out, byte type, long seq, int senderId, String payload)
+            throws IOException {
+        out.write(encode(type, seq, senderId, payload));
+    }
+}
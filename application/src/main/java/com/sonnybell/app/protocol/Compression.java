@@ -0,0 +1,130 @@
+package com.sonnybell.app.protocol;
+
+import com.sonnybell.app.chatfunctions.ChatHistory;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression class for the optional "deflate" feature.
+ * Once the password is accepted, both directions of the connection are raw
+ * deflate streams and every flush ends with a sync flush, so each message can
+ * be read as soon as it arrives.
+ * The history replay is the same for every client, so it is compressed once
+ * per history version and the same bytes are written to every client that
+ * connects. Because a sync flush leaves the stream on a byte boundary, the
+ * connection's own deflate stream can simply follow the shared block.
+ */
+public final class Compression {
+    private static final int BUFFER_SIZE = 8192;
+
+    // Compressed history block and the history version it was built from, per protocol
+    private static final byte[][] HISTORY_BLOCKS = new byte[2][];
+    private static final long[] HISTORY_BLOCK_SEQ = new long[2];
+
+    private Compression() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Wraps a stream so that everything written to it is compressed.
+     * Every flush is a sync flush.
+     *
+     * @param out The stream to write compressed data to.
+     * @return The compressing stream.
+     */
+    public static OutputStream deflate(OutputStream out) {
+        return new DeflaterOutputStream(out, new Deflater(Deflater.DEFAULT_COMPRESSION, true), BUFFER_SIZE, true) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    def.end();
+                }
+            }
+        };
+    }
+
+    /**
+     * Wraps a stream so that everything read from it is decompressed.
+     *
+     * @param in The stream to read compressed data from.
+     * @return The decompressing stream.
+     */
+    public static InputStream inflate(InputStream in) {
+        return new SyncInflaterInputStream(in);
+    }
+
+    /**
+     * Gets the whole history replay, end marker included, as one compressed
+     * block. The block is rebuilt only when the history has changed.
+     *
+     * @param binary true for the binary protocol, false for the text protocol.
+     * @return The compressed block, ending with a sync flush.
+     * @throws IOException If compressing fails.
+     */
+    public static synchronized byte[] historyBlock(boolean binary) throws IOException {
+        int slot = binary ? 1 : 0;
+        List<ChatHistory.Entry> entries = ChatHistory.getEntries();
+        long lastSeq = entries.isEmpty() ? 0 : entries.get(entries.size() - 1).getSeq();
+        if (HISTORY_BLOCKS[slot] != null && HISTORY_BLOCK_SEQ[slot] == lastSeq) {
+            return HISTORY_BLOCKS[slot];
+        }
+
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION, true);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed, deflater, BUFFER_SIZE, true)) {
+            for (ChatHistory.Entry entry : entries) {
+                OutboundMessage message = OutboundMessage.system(entry.getSeq(), entry.getMessage());
+                out.write(binary ? message.frameBytes() : message.textBytes());
+            }
+            if (binary) {
+                BinaryFrames.write(out, BinaryFrames.TYPE_HISTORY_END, 0, 0, "");
+            } else {
+                out.write("---END_HISTORY---\n".getBytes(StandardCharsets.UTF_8));
+            }
+            // Sync flush without finishing, so the connection's own stream can follow
+            out.flush();
+            HISTORY_BLOCKS[slot] = compressed.toByteArray();
+            HISTORY_BLOCK_SEQ[slot] = lastSeq;
+        } finally {
+            deflater.end();
+        }
+        return HISTORY_BLOCKS[slot];
+    }
+
+    /**
+     * Inflater stream for connections that are never finished.
+     * InflaterInputStream reports one byte available until the stream ends,
+     * which makes buffered readers wait for more data after a complete message.
+     * This version only reports data that has really arrived.
+     */
+    private static final class SyncInflaterInputStream extends InflaterInputStream {
+
+        SyncInflaterInputStream(InputStream in) {
+            super(in, new Inflater(true), BUFFER_SIZE);
+        }
+
+        @Override
+        public int available() throws IOException {
+            return inf.getRemaining() > 0 ? 1 : in.available();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                super.close();
+            } finally {
+                inf.end();
+            }
+        }
+    }
+}
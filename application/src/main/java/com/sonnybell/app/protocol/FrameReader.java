@@ -0,0 +1,101 @@
+package com.sonnybell.app.protocol;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * FrameReader class to read frames of the binary protocol.
+ * The reader keeps one payload buffer for the whole connection and only
+ * grows it when a larger frame arrives, so reading a frame allocates nothing
+ * until the payload is turned into a String.
+ */
+public final class FrameReader {
+    private static final int INITIAL_BUFFER = 256;
+
+    private final DataInputStream in;
+    private byte[] payload = new byte[INITIAL_BUFFER];
+    private int payloadLength;
+    private byte type;
+    private long seq;
+    private int senderId;
+
+    /**
+     * Constructor to initialize the reader over a stream.
+     *
+     * @param in The stream to read frames from.
+     */
+    public FrameReader(InputStream in) {
+        this.in = new DataInputStream(new BufferedInputStream(in));
+    }
+
+    /**
+     * Reads the next frame.
+     *
+     * @return true if a frame was read, false if the stream ended cleanly.
+     * @throws IOException If the stream ends inside a frame or the frame is invalid.
+     */
+    public boolean next() throws IOException {
+        int first = in.read();
+        if (first < 0) {
+            return false;
+        }
+        final int byteMask = 0xFF;
+        final int shift = 8;
+        int length = first;
+        for (int i = 1; i < Integer.BYTES; i++) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException("Stream ended inside a frame length");
+            }
+            length = (length << shift) | (b & byteMask);
+        }
+
+        payloadLength = length - BinaryFrames.HEADER_SIZE;
+        if (payloadLength < 0 || payloadLength > BinaryFrames.MAX_PAYLOAD) {
+            throw new IOException("Invalid frame length " + length);
+        }
+
+        type = in.readByte();
+        seq = in.readLong();
+        senderId = in.readInt();
+        if (payload.length < payloadLength) {
+            payload = new byte[Math.max(payloadLength, payload.length * 2)];
+        }
+        in.readFully(payload, 0, payloadLength);
+        return true;
+    }
+
+    public byte getType() {
+        return type;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    /**
+     * Decodes the payload of the last frame read.
+     *
+     * @return The payload as text.
+     */
+    public String getPayload() {
+        return new String(payload, 0, payloadLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Closes the underlying stream.
+     *
+     * @throws IOException If closing fails.
+     */
+    public void close() throws IOException {
+        in.close();
+    }
+}
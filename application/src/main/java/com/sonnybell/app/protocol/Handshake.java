@@ -0,0 +1,232 @@
+package com.sonnybell.app.protocol;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Handshake class for negotiating optional protocol features.
+ * Before sending the password, a client may send a line such as
+ * "#CAPS binary" listing the features it would like to use.
+ * The server answers with a "#CAPS" line listing the features it accepted,
+ * which may be empty. Clients that never send the line, and servers that do
+ * not understand it, keep using the plain newline-delimited text protocol.
+ * A client coming back to a room may also send "#ROOM name"; in a cluster
+ * the server answers "#REDIRECT host:port name" and closes the connection if
+ * another server owns the room, or "#ROOM OK" otherwise. The same redirect
+ * line is sent as a message when a user joins a room owned elsewhere.
+ * A server that is shutting down sends "#RECONNECT delayMs [host:port]" to
+ * tell a client when, and optionally where, to reconnect.
+ */
+public final class Handshake {
+
+    /**
+     * Prefix of the line used to negotiate features.
+     */
+    public static final String CAPS_PREFIX = "#CAPS";
+
+    /**
+     * Feature name of the length-prefixed binary protocol.
+     */
+    public static final String BINARY = "binary";
+
+    /**
+     * Feature name of deflate compression of everything after the password.
+     */
+    public static final String DEFLATE = "deflate";
+
+    /**
+     * Feature name of resuming from the last seen sequence number after a
+     * reconnect. Only the binary protocol carries sequence numbers, so it is
+     * only accepted together with BINARY.
+     */
+    public static final String RESUME = "resume";
+
+    /**
+     * Prefix of the line naming the room a client wants to be in.
+     */
+    public static final String ROOM_PREFIX = "#ROOM";
+
+    /**
+     * Prefix of the line telling a client to connect to another server.
+     */
+    public static final String REDIRECT_PREFIX = "#REDIRECT";
+
+    /**
+     * Prefix of the line telling a client to reconnect after a delay.
+     */
+    public static final String RECONNECT_PREFIX = "#RECONNECT";
+
+    // Features this server knows how to speak
+    private static final Set<String> SUPPORTED = Set.of(BINARY, DEFLATE, RESUME);
+
+    private Handshake() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Checks if a line received during the handshake is a feature request.
+     *
+     * @param line The line received.
+     * @return true if the line starts with the "#CAPS" prefix.
+     */
+    public static boolean isCapsLine(String line) {
+        return line != null && line.startsWith(CAPS_PREFIX);
+    }
+
+    /**
+     * Checks if a line received during the handshake names a room.
+     *
+     * @param line The line received.
+     * @return true if the line starts with the "#ROOM" prefix.
+     */
+    public static boolean isRoomLine(String line) {
+        return line != null && line.startsWith(ROOM_PREFIX);
+    }
+
+    /**
+     * Checks if a line tells the client to connect to another server.
+     *
+     * @param line The line received.
+     * @return true if the line starts with the "#REDIRECT" prefix.
+     */
+    public static boolean isRedirectLine(String line) {
+        return line != null && line.startsWith(REDIRECT_PREFIX + " ");
+    }
+
+    /**
+     * Checks if a line tells the client to reconnect after a delay.
+     *
+     * @param line The line received.
+     * @return true if the line starts with the "#RECONNECT" prefix.
+     */
+    public static boolean isReconnectLine(String line) {
+        return line != null && line.startsWith(RECONNECT_PREFIX + " ");
+    }
+
+    /**
+     * Formats the line telling a client to reconnect after a delay.
+     *
+     * @param delayMs How long the client should wait before reconnecting.
+     * @param address The host:port to reconnect to, or null for the same server.
+     * @return The line to send.
+     */
+    public static String formatReconnect(long delayMs, String address) {
+        return RECONNECT_PREFIX + " " + delayMs + (address == null ? "" : " " + address);
+    }
+
+    /**
+     * Gets the text after the prefix of a "#ROOM", "#REDIRECT" or "#RECONNECT" line.
+     *
+     * @param line The line received.
+     * @return The rest of the line, trimmed.
+     */
+    public static String argument(String line) {
+        int space = line.indexOf(' ');
+        return space < 0 ? "" : line.substring(space + 1).trim();
+    }
+
+    /**
+     * Formats the line sending a client to another server.
+     *
+     * @param address The host:port of the other server.
+     * @param room    The room the client should join there.
+     * @return The line to send.
+     */
+    public static String formatRedirect(String address, String room) {
+        return REDIRECT_PREFIX + " " + address + " " + room;
+    }
+
+    /**
+     * Parses the features listed in a "#CAPS" line.
+     *
+     * @param line The line received, for example "#CAPS binary".
+     * @return The features listed, in the order they were given.
+     */
+    public static Set<String> parse(String line) {
+        Set<String> capabilities = new LinkedHashSet<>();
+        for (String token : line.substring(CAPS_PREFIX.length()).trim().split("[,\\s]+")) {
+            if (!token.isEmpty()) {
+                capabilities.add(token);
+            }
+        }
+        return capabilities;
+    }
+
+    /**
+     * Formats a set of features as a "#CAPS" line.
+     *
+     * @param capabilities The features to list.
+     * @return The line to send.
+     */
+    public static String format(Set<String> capabilities) {
+        return capabilities.isEmpty() ? CAPS_PREFIX : CAPS_PREFIX + " " + String.join(",", capabilities);
+    }
+
+    /**
+     * Picks the requested features that this server supports.
+     *
+     * @param requested The features requested by the client.
+     * @return The features both sides will use.
+     */
+    public static Set<String> accept(Set<String> requested) {
+        Set<String> accepted = new LinkedHashSet<>(requested);
+        accepted.retainAll(SUPPORTED);
+        if (!accepted.contains(BINARY)) {
+            accepted.remove(RESUME);
+        }
+        return accepted;
+    }
+
+    /**
+     * Reads the features a client would like to use from system properties.
+     * The binary protocol with resume is asked for by default, setting
+     * "-Dchat.protocol=text" asks for plain text lines instead, and
+     * "-Dchat.compression=deflate" asks for compression.
+     *
+     * @return The features to request, empty for the plain text protocol.
+     */
+    public static Set<String> requestedByClient() {
+        Set<String> requested = new LinkedHashSet<>();
+        if (BINARY.equalsIgnoreCase(System.getProperty("chat.protocol", BINARY))) {
+            requested.add(BINARY);
+            requested.add(RESUME);
+        }
+        if (DEFLATE.equalsIgnoreCase(System.getProperty("chat.compression", "none"))) {
+            requested.add(DEFLATE);
+        }
+        return requested;
+    }
+
+    /**
+     * Client side of the negotiation, run before the password is sent.
+     * If nothing is requested no line is sent at all, so the exchange is
+     * exactly the same as before features existed.
+     *
+     * @param writer    The writer connected to the server.
+     * @param reader    The reader connected to the server.
+     * @param requested The features to request.
+     * @return The features accepted by the server, empty if it does not support
+     *         negotiation.
+     * @throws IOException If the connection fails.
+     */
+    public static Set<String> negotiate(BufferedWriter writer, BufferedReader reader, Set<String> requested)
+            throws IOException {
+        if (requested.isEmpty()) {
+            return Collections.emptySet();
+        }
+        writer.write(format(requested));
+        writer.newLine();
+        writer.flush();
+
+        // An older server treats the line as a wrong password and says so
+        String response = reader.readLine();
+        if (!isCapsLine(response)) {
+            return Collections.emptySet();
+        }
+        return parse(response);
+    }
+}
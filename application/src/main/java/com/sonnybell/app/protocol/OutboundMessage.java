@@ -0,0 +1,110 @@
+package com.sonnybell.app.protocol;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * OutboundMessage class for a message sent from the server to clients.
+ * A broadcast creates one OutboundMessage and every connection writes it in
+ * its own protocol. The encoded bytes for each protocol are built the first
+ * time they are needed and then shared by all recipients.
+ */
+public final class OutboundMessage {
+    private final long seq;
+    private final int senderId;
+    private final String sender;
+    private final String text;
+    private final String line;
+    private final long trace;
+    private volatile byte[] textBytes;
+    private volatile byte[] frameBytes;
+
+    private OutboundMessage(long seq, int senderId, String sender, String text, String line, long trace) {
+        this.seq = seq;
+        this.senderId = senderId;
+        this.sender = sender;
+        this.text = text;
+        this.line = line;
+        this.trace = trace;
+    }
+
+    /**
+     * Creates a chat message sent by a user.
+     *
+     * @param seq      The sequence number of the message in the chat history.
+     * @param senderId The id of the user who sent it.
+     * @param sender   The username of the user who sent it.
+     * @param text     The text typed by the user.
+     * @param trace    The id of the trace following the message, 0 if it is not traced.
+     * @return The message.
+     */
+    public static OutboundMessage chat(long seq, int senderId, String sender, String text, long trace) {
+        return new OutboundMessage(seq, senderId, sender, text, sender + ": " + text, trace);
+    }
+
+    /**
+     * Creates a server, game or history line.
+     *
+     * @param seq  The sequence number of the message in the chat history, 0 if
+     *             it is not part of the history.
+     * @param line The full line.
+     * @return The message.
+     */
+    public static OutboundMessage system(long seq, String line) {
+        return new OutboundMessage(seq, 0, null, line, line, 0);
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public int getSenderId() {
+        return senderId;
+    }
+
+    public String getSender() {
+        return sender;
+    }
+
+    public long getTrace() {
+        return trace;
+    }
+
+    /**
+     * Gets the message as one line of the text protocol, such as "user: hi".
+     *
+     * @return The formatted line.
+     */
+    public String getLine() {
+        return line;
+    }
+
+    /**
+     * Gets the message encoded for the text protocol.
+     *
+     * @return The UTF-8 line followed by a newline.
+     */
+    public byte[] textBytes() {
+        byte[] bytes = textBytes;
+        if (bytes == null) {
+            bytes = (line + "\n").getBytes(StandardCharsets.UTF_8);
+            textBytes = bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * Gets the message encoded as a frame of the binary protocol.
+     *
+     * @return The encoded frame.
+     */
+    public byte[] frameBytes() {
+        byte[] bytes = frameBytes;
+        if (bytes == null) {
+            bytes = senderId != 0
+                    ? BinaryFrames.encode(BinaryFrames.TYPE_CHAT, seq, senderId, text)
+                    : BinaryFrames.encode(BinaryFrames.TYPE_SYSTEM, seq, 0, line);
+            frameBytes = bytes;
+        }
+        return bytes;
+    }
+}
@@ -0,0 +1,98 @@
+package com.sonnybell.app.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Admission class deciding which new connections and password attempts the
+ * server takes on, so a flood of connections or a password spray is turned
+ * away before it costs a thread, while connected users are not affected.
+ * Every limit is a token bucket, set with system properties (rates are per
+ * second and may be fractions):
+ * <pre>
+ * chat.accept.rate / chat.accept.burst       new connections to the server, 200 / 400
+ * chat.accept.ip.rate / chat.accept.ip.burst new connections from one address, 5 / 20
+ * chat.login.ip.rate / chat.login.ip.burst   password attempts from one address, 0.2 / 10
+ * </pre>
+ * Password attempts are counted for the chat port and the web login together.
+ * Every attempt takes a token before the password is checked, and a right
+ * password gives it back, so only wrong guesses use up an address's budget.
+ */
+public final class Admission {
+    private static final TokenBucket CONNECTIONS = TokenBucket.fromProperties("chat.accept", 200, 400);
+    private static final KeyedLimiter CONNECTIONS_PER_ADDRESS = KeyedLimiter.fromProperties("chat.accept.ip", 5, 20);
+    private static final KeyedLimiter LOGINS_PER_ADDRESS = KeyedLimiter.fromProperties("chat.login.ip", 0.2, 10);
+    private static final AtomicLong REJECTED_CONNECTIONS = new AtomicLong();
+    private static final AtomicLong REJECTED_LOGINS = new AtomicLong();
+
+    private Admission() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Decides if a new connection is served.
+     * The address is checked first, so one busy address does not use up the
+     * tokens shared by everyone.
+     *
+     * @param address The remote IP address.
+     * @return true if the connection is taken on, false if it should be closed.
+     */
+    public static boolean admitConnection(String address) {
+        if (CONNECTIONS_PER_ADDRESS.tryAcquire(address) && CONNECTIONS.tryAcquire()) {
+            return true;
+        }
+        REJECTED_CONNECTIONS.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Gets how long a rejected address should wait before connecting again.
+     *
+     * @param address The remote IP address.
+     * @return The wait in milliseconds.
+     */
+    public static long connectionRetryMillis(String address) {
+        return Math.max(CONNECTIONS_PER_ADDRESS.millisUntilAvailable(address), CONNECTIONS.millisUntilAvailable());
+    }
+
+    /**
+     * Decides if a password attempt is checked.
+     *
+     * @param address The remote IP address.
+     * @return true if the password may be checked, false if the address made too many attempts.
+     */
+    public static boolean allowLogin(String address) {
+        if (LOGINS_PER_ADDRESS.tryAcquire(address)) {
+            return true;
+        }
+        REJECTED_LOGINS.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Gives back the token of a password attempt that was right, so logging
+     * in does not count against the address.
+     *
+     * @param address The remote IP address.
+     */
+    public static void loginSucceeded(String address) {
+        LOGINS_PER_ADDRESS.refund(address);
+    }
+
+    /**
+     * Gets how long an address has to wait before its next password attempt.
+     *
+     * @param address The remote IP address.
+     * @return The wait in milliseconds.
+     */
+    public static long loginRetryMillis(String address) {
+        return LOGINS_PER_ADDRESS.millisUntilAvailable(address);
+    }
+
+    public static long getRejectedConnections() {
+        return REJECTED_CONNECTIONS.get();
+    }
+
+    public static long getRejectedLogins() {
+        return REJECTED_LOGINS.get();
+    }
+}
@@ -0,0 +1,180 @@
+package com.sonnybell.app.ratelimit;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * FloodControl class limiting how fast one connected user may send lines,
+ * since every line is sent on to every other user.
+ * Each session has its own TokenBucket, so the check is a compare-and-set on
+ * that session's state and sessions never contend with each other. What
+ * happens to a user over the limit is set with system properties:
+ * <pre>
+ * chat.flood.rate / chat.flood.burst  lines per second and lines at once, 5 / 10
+ * chat.flood.action                   delay (the default), drop, mute or disconnect
+ * chat.flood.max.delay.ms             longest a line is held back by delay, 2000; later lines are dropped
+ * chat.flood.mute.ms                  how long mute silences the user, 30000
+ * </pre>
+ * Delaying holds back the session's reader thread, so a flooding client
+ * is slowed down by TCP itself instead of by a queue on the server. Web
+ * posts are answered by the shared threads of the web server, which must
+ * not sleep, so their flood control drops instead of delaying.
+ */
+public final class FloodControl {
+    private static final double RATE = TokenBucket.rateProperty("chat.flood.rate", 5);
+    private static final int BURST = Integer.getInteger("chat.flood.burst", 10);
+    private static final Action ACTION = Action.parse(System.getProperty("chat.flood.action", "delay"));
+    private static final long MAX_DELAY_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.flood.max.delay.ms", 2000));
+    private static final long MUTE_NANOS = TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.flood.mute.ms", 30_000));
+    // Totals over every session, for monitoring
+    private static final AtomicLong DROPPED = new AtomicLong();
+    private static final AtomicLong DISCONNECTED = new AtomicLong();
+
+    private final TokenBucket bucket = new TokenBucket(RATE, BURST);
+    private final Action action;
+    // System.nanoTime() at which a mute ends, or 0 if the user is not muted
+    private final AtomicLong mutedUntil = new AtomicLong();
+
+    /**
+     * Constructor for the flood control of a socket session, with the
+     * configured action.
+     */
+    public FloodControl() {
+        this(ACTION);
+    }
+
+    private FloodControl(Action action) {
+        this.action = action;
+    }
+
+    /**
+     * Creates the flood control of a session whose lines must never be held
+     * back, such as a web session; the delay action drops instead.
+     *
+     * @return The flood control.
+     */
+    public static FloodControl withoutDelay() {
+        return new FloodControl(ACTION == Action.DELAY ? Action.DROP : ACTION);
+    }
+
+    /**
+     * What to do with a user who sends faster than the limit.
+     */
+    public enum Action {
+        /** Hold each line back until the user is within the limit again. */
+        DELAY,
+        /** Drop the lines over the limit. */
+        DROP,
+        /** Drop every line for a while. */
+        MUTE,
+        /** Close the connection. */
+        DISCONNECT;
+
+        /**
+         * Reads an action name, case-insensitively.
+         *
+         * @param value The name, such as "drop".
+         * @return The action, DELAY if the name is unknown.
+         */
+        static Action parse(String value) {
+            try {
+                return valueOf(value.trim().toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                System.err.println("FloodControl: Unknown chat.flood.action '" + value + "', using delay");
+                return DELAY;
+            }
+        }
+    }
+
+    /**
+     * What the session should do with a line.
+     */
+    public enum Verdict {
+        /** Handle the line as usual. */
+        ALLOW,
+        /** Drop the line. */
+        DROP,
+        /** Drop the line, the user is muted. */
+        MUTED,
+        /** Drop the line and close the connection. */
+        DISCONNECT
+    }
+
+    /**
+     * Checks a line the user sent. With the delay action this waits until the
+     * line is within the limit; it is only called by the session's own thread.
+     *
+     * @return What to do with the line.
+     */
+    public Verdict check() {
+        long until = mutedUntil.get();
+        if (until != 0) {
+            if (until - System.nanoTime() > 0) {
+                DROPPED.incrementAndGet();
+                return Verdict.MUTED;
+            }
+            mutedUntil.compareAndSet(until, 0);
+        }
+        if (action == Action.DELAY) {
+            return delay();
+        }
+        if (bucket.tryAcquire()) {
+            return Verdict.ALLOW;
+        }
+        if (action == Action.DISCONNECT) {
+            DISCONNECTED.incrementAndGet();
+            return Verdict.DISCONNECT;
+        }
+        DROPPED.incrementAndGet();
+        if (action == Action.MUTE) {
+            mute(MUTE_NANOS);
+            return Verdict.MUTED;
+        }
+        return Verdict.DROP;
+    }
+
+    private Verdict delay() {
+        long wait = bucket.reserve(MAX_DELAY_NANOS);
+        if (wait < 0) {
+            DROPPED.incrementAndGet();
+            return Verdict.DROP;
+        }
+        try {
+            TimeUnit.NANOSECONDS.sleep(wait);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return Verdict.ALLOW;
+    }
+
+    /**
+     * Silences the user for a while; their lines are dropped until it ends.
+     *
+     * @param nanos How long, in nanoseconds.
+     */
+    public void mute(long nanos) {
+        // Never 0, which means not muted
+        mutedUntil.set((System.nanoTime() + nanos) | 1);
+    }
+
+    /**
+     * Gets how long the user stays muted.
+     *
+     * @return The time left in seconds, rounded up, or 0 if not muted.
+     */
+    public long getMuteSecondsLeft() {
+        long until = mutedUntil.get();
+        long left = until == 0 ? 0 : until - System.nanoTime();
+        return left <= 0 ? 0 : TimeUnit.NANOSECONDS.toSeconds(left) + 1;
+    }
+
+    public static long getDroppedLines() {
+        return DROPPED.get();
+    }
+
+    public static long getDisconnects() {
+        return DISCONNECTED.get();
+    }
+}
@@ -0,0 +1,95 @@
+package com.sonnybell.app.ratelimit;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * KeyedLimiter class for a TokenBucket per key, such as per remote address.
+ * Buckets are created on first use. Once a minute the next caller removes
+ * the buckets that have refilled completely, so the map only holds the keys
+ * that were active recently instead of every address ever seen.
+ */
+public final class KeyedLimiter {
+    private static final long PRUNE_INTERVAL_NANOS = 60_000_000_000L;
+
+    private final double ratePerSecond;
+    private final int burst;
+    private final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+    private final AtomicLong lastPrune = new AtomicLong(System.nanoTime());
+
+    /**
+     * Constructor to initialize the limiter.
+     *
+     * @param ratePerSecond The average number of events allowed per second for each key.
+     * @param burst         The number of events allowed at once for each key.
+     */
+    public KeyedLimiter(double ratePerSecond, int burst) {
+        if (!(ratePerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive: " + ratePerSecond + ", " + burst);
+        }
+        this.ratePerSecond = ratePerSecond;
+        this.burst = burst;
+    }
+
+    /**
+     * Creates a limiter configured by the system properties prefix.rate and
+     * prefix.burst.
+     *
+     * @param prefix       The property name prefix, such as "chat.accept.ip".
+     * @param defaultRate  The events per second when prefix.rate is not set.
+     * @param defaultBurst The burst when prefix.burst is not set.
+     * @return The limiter.
+     */
+    public static KeyedLimiter fromProperties(String prefix, double defaultRate, int defaultBurst) {
+        return new KeyedLimiter(TokenBucket.rateProperty(prefix + ".rate", defaultRate),
+                Integer.getInteger(prefix + ".burst", defaultBurst));
+    }
+
+    /**
+     * Takes a token from the bucket of a key if one is left.
+     *
+     * @param key The key, such as an IP address.
+     * @return true if the event is allowed.
+     */
+    public boolean tryAcquire(String key) {
+        pruneIfDue();
+        return buckets.computeIfAbsent(key, k -> new TokenBucket(ratePerSecond, burst)).tryAcquire();
+    }
+
+    /**
+     * Gives back a token taken from the bucket of a key.
+     *
+     * @param key The key.
+     */
+    public void refund(String key) {
+        TokenBucket bucket = buckets.get(key);
+        if (bucket != null) {
+            bucket.refund();
+        }
+    }
+
+    /**
+     * Gets how long a key has to wait for its next token.
+     *
+     * @param key The key.
+     * @return The wait in milliseconds, or 0 if a token is left.
+     */
+    public long millisUntilAvailable(String key) {
+        TokenBucket bucket = buckets.get(key);
+        return bucket == null ? 0 : bucket.millisUntilAvailable();
+    }
+
+    public int size() {
+        return buckets.size();
+    }
+
+    // A bucket taken from just as it is removed only loses that one event, which is allowed anyway
+    private void pruneIfDue() {
+        long now = System.nanoTime();
+        long last = lastPrune.get();
+        if (now - last >= PRUNE_INTERVAL_NANOS && lastPrune.compareAndSet(last, now)) {
+            buckets.values().removeIf(TokenBucket::isFull);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.sonnybell.app.ratelimit;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * TokenBucket class for limiting how often something may happen, such as new
+ * connections or lines sent by a user.
+ * It allows bursts of up to burst events and rate events per second on average.
+ * Instead of counting tokens it keeps the time at which the bucket will be
+ * full again (the generic cell rate algorithm), so a check is one read and
+ * one compare-and-set of an AtomicLong: no lock, no timer refilling tokens,
+ * and nothing to do for buckets that are not used.
+ */
+public final class TokenBucket {
+    private static final double NANOS_PER_SECOND = 1_000_000_000.0;
+    private static final long NANOS_PER_MILLI = 1_000_000;
+
+    // Time between two events at the average rate
+    private final long intervalNanos;
+    // How far ahead of now the bucket may be booked, a whole burst of intervals
+    private final long toleranceNanos;
+    // Time at which every token taken so far has been paid back, in System.nanoTime()
+    private final AtomicLong fullAt;
+
+    /**
+     * Constructor to create a full bucket.
+     *
+     * @param ratePerSecond The average number of events allowed per second.
+     * @param burst         The number of events allowed at once.
+     */
+    public TokenBucket(double ratePerSecond, int burst) {
+        if (!(ratePerSecond > 0) || burst < 1) {
+            throw new IllegalArgumentException("Rate and burst must be positive: " + ratePerSecond + ", " + burst);
+        }
+        this.intervalNanos = Math.max(1, (long) (NANOS_PER_SECOND / ratePerSecond));
+        this.toleranceNanos = intervalNanos * burst;
+        this.fullAt = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Creates a bucket configured by the system properties prefix.rate and
+     * prefix.burst.
+     *
+     * @param prefix       The property name prefix, such as "chat.accept".
+     * @param defaultRate  The events per second when prefix.rate is not set.
+     * @param defaultBurst The burst when prefix.burst is not set.
+     * @return The bucket.
+     */
+    public static TokenBucket fromProperties(String prefix, double defaultRate, int defaultBurst) {
+        return new TokenBucket(rateProperty(prefix + ".rate", defaultRate),
+                Integer.getInteger(prefix + ".burst", defaultBurst));
+    }
+
+    /**
+     * Reads a rate that may be a fraction, such as 0.2 for one event every 5 seconds.
+     *
+     * @param name        The system property.
+     * @param defaultRate The rate when the property is not set or not a number.
+     * @return The rate.
+     */
+    static double rateProperty(String name, double defaultRate) {
+        String value = System.getProperty(name);
+        if (value == null) {
+            return defaultRate;
+        }
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            System.err.println("TokenBucket: Ignoring " + name + "=" + value + ", expected a number");
+            return defaultRate;
+        }
+    }
+
+    /**
+     * Takes a token if one is left.
+     *
+     * @return true if the event is allowed.
+     */
+    public boolean tryAcquire() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            // Differences rather than comparisons, so the wrap of nanoTime does not matter
+            long next = (current - now > 0 ? current : now) + intervalNanos;
+            if (next - now > toleranceNanos) {
+                return false;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Books the next token even if it is not there yet, as long as it comes
+     * within a limit, so the caller can wait for it instead of being refused.
+     *
+     * @param maxWaitNanos The longest the caller is willing to wait.
+     * @return The time to wait before the event in nanoseconds, 0 if a token
+     *         was left, or -1 if the wait would be longer than the limit, in
+     *         which case nothing is booked.
+     */
+    public long reserve(long maxWaitNanos) {
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            long next = (current - now > 0 ? current : now) + intervalNanos;
+            long wait = next - now - toleranceNanos;
+            if (wait > maxWaitNanos) {
+                return -1;
+            }
+            if (fullAt.compareAndSet(current, next)) {
+                return Math.max(0, wait);
+            }
+        }
+    }
+
+    /**
+     * Gives back a token taken by tryAcquire, for an event that turned out not
+     * to count. The bucket never holds more than a full burst.
+     */
+    public void refund() {
+        long now = System.nanoTime();
+        while (true) {
+            long current = fullAt.get();
+            if (current - now <= 0) {
+                return;
+            }
+            long next = current - intervalNanos - now > 0 ? current - intervalNanos : now;
+            if (fullAt.compareAndSet(current, next)) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Gets how long until the next token, for telling a caller when to retry.
+     *
+     * @return The wait in milliseconds, rounded up, or 0 if a token is left.
+     */
+    public long millisUntilAvailable() {
+        long wait = fullAt.get() + intervalNanos - toleranceNanos - System.nanoTime();
+        return wait <= 0 ? 0 : (wait + NANOS_PER_MILLI - 1) / NANOS_PER_MILLI;
+    }
+
+    /**
+     * Checks if the bucket has refilled completely, so forgetting it and
+     * starting a new one later makes no difference.
+     *
+     * @return true if every token is back.
+     */
+    public boolean isFull() {
+        return fullAt.get() - System.nanoTime() <= 0;
+    }
+}
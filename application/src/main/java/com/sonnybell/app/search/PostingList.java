@@ -0,0 +1,153 @@
+package com.sonnybell.app.search;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * PostingList class for the ids of the log lines containing one term.
+ * Ids are added in increasing order and stored as variable-length deltas, so
+ * a term that appears on most lines costs about one byte per line.
+ */
+final class PostingList {
+
+    private static final int INITIAL_CAPACITY = 8;
+    private static final int SEVEN_BITS = 0x7F;
+    private static final int MORE_BYTES = 0x80;
+    private static final int SHIFT = 7;
+
+    private byte[] data;
+    private int length;
+    private int count;
+    private int lastDoc = -1;
+
+    PostingList() {
+        this.data = new byte[INITIAL_CAPACITY];
+    }
+
+    private PostingList(byte[] data, int length, int count, int lastDoc) {
+        this.data = data;
+        this.length = length;
+        this.count = count;
+        this.lastDoc = lastDoc;
+    }
+
+    int getCount() {
+        return count;
+    }
+
+    /**
+     * Adds a line id. Adding the same id twice in a row is ignored, so a term
+     * that appears several times on one line is only listed once.
+     *
+     * @param doc The line id, not smaller than the last one added.
+     */
+    void add(int doc) {
+        if (doc == lastDoc) {
+            return;
+        }
+        int delta = doc - lastDoc;
+        if (length + Integer.BYTES + 1 > data.length) {
+            // A list read from a snapshot is exactly full, and may be too short for doubling to make room
+            data = Arrays.copyOf(data, Math.max(data.length * 2, length + Integer.BYTES + 1));
+        }
+        while (delta > SEVEN_BITS) {
+            data[length++] = (byte) ((delta & SEVEN_BITS) | MORE_BYTES);
+            delta >>>= SHIFT;
+        }
+        data[length++] = (byte) delta;
+        lastDoc = doc;
+        count++;
+    }
+
+    /**
+     * Starts reading the ids from the beginning.
+     *
+     * @return A cursor positioned before the first id.
+     */
+    Cursor cursor() {
+        return new Cursor(data, length);
+    }
+
+    /**
+     * Gets the list as it is now. Bytes already written are never changed,
+     * only added after or copied to a larger array, so the view shares them
+     * and stays the same while the list grows.
+     * Must be called with the index locked.
+     *
+     * @return A list holding the ids added so far.
+     */
+    PostingList view() {
+        return new PostingList(data, length, count, lastDoc);
+    }
+
+    /**
+     * Writes the list to a snapshot.
+     *
+     * @param out The snapshot being written.
+     * @throws IOException If writing fails.
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(count);
+        out.writeInt(lastDoc);
+        out.writeInt(length);
+        out.write(data, 0, length);
+    }
+
+    /**
+     * Reads a list written by write.
+     *
+     * @param in The snapshot being read.
+     * @return The list.
+     * @throws IOException If reading fails.
+     */
+    static PostingList read(DataInputStream in) throws IOException {
+        int count = in.readInt();
+        int lastDoc = in.readInt();
+        byte[] data = new byte[in.readInt()];
+        in.readFully(data);
+        return new PostingList(data, data.length, count, lastDoc);
+    }
+
+    /**
+     * Reads the ids of a list in increasing order.
+     * A cursor sees the ids that were in the list when it was created.
+     */
+    static final class Cursor {
+        private final byte[] data;
+        private final int length;
+        private int position;
+        private int doc = -1;
+
+        private Cursor(byte[] data, int length) {
+            this.data = data;
+            this.length = length;
+        }
+
+        /**
+         * Moves to the first id that is at least target.
+         *
+         * @param target The id to move to.
+         * @return The id found, or Integer.MAX_VALUE if there is none.
+         */
+        int advanceTo(int target) {
+            while (doc < target) {
+                if (position >= length) {
+                    doc = Integer.MAX_VALUE;
+                    return doc;
+                }
+                int delta = 0;
+                int shift = 0;
+                byte b;
+                do {
+                    b = data[position++];
+                    delta |= (b & SEVEN_BITS) << shift;
+                    shift += SHIFT;
+                } while ((b & MORE_BYTES) != 0);
+                doc += delta;
+            }
+            return doc;
+        }
+    }
+}
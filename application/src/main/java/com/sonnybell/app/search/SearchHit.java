@@ -0,0 +1,42 @@
+package com.sonnybell.app.search;
+
+/**
+ * SearchHit class for a log line matching a search.
+ */
+public final class SearchHit {
+    private final long offset;
+    private final long timestamp;
+    private final String tag;
+    private final String message;
+
+    /**
+     * Constructor to initialize a search hit.
+     *
+     * @param offset    The byte offset of the line in the log.
+     * @param timestamp When the line was logged, in epoch milliseconds.
+     * @param tag       The tag of the line.
+     * @param message   The message of the line.
+     */
+    public SearchHit(long offset, long timestamp, String tag, String message) {
+        this.offset = offset;
+        this.timestamp = timestamp;
+        this.tag = tag;
+        this.message = message;
+    }
+
+    public long getOffset() {
+        return offset;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getTag() {
+        return tag;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,531 @@
+package com.sonnybell.app.search;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+
+/**
+ * SearchIndex class for finding lines of the message log by word, user, tag
+ * and time.
+ * Every line of the log gets an id in the order it was written. Each word,
+ * and the user and tag of each line, maps to the list of ids of the lines it
+ * appears on, so a search only reads the lists of the words asked for.
+ * Lines are added as they are logged. Since they are added in time order, a
+ * time range is turned into a range of ids with a binary search.
+ * The index is saved to a snapshot file next to the log, together with how
+ * much of the log it covers; on opening, any lines written after the
+ * snapshot are read from the log and added. Saving only holds the lock
+ * long enough to take a view of the lists, so lines keep being added while
+ * the file is written.
+ * Words are runs of letters and digits, compared in lower case. Words shorter
+ * than MIN_TERM_LENGTH are not indexed.
+ */
+public final class SearchIndex {
+
+    private static final int SNAPSHOT_MAGIC = 0x53524348;
+    private static final int SNAPSHOT_VERSION = 1;
+    private static final int MIN_TERM_LENGTH = 2;
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final int INITIAL_DOCS = 1024;
+    private static final int READ_CHUNK = 4096;
+    private static final int CATCH_UP_CHUNK = 1024 * 1024;
+    private static final int NEWLINE = '\n';
+    // Prefixes keeping user and tag terms apart from words, they cannot appear in a word
+    private static final String USER_PREFIX = "\u0000u:";
+    private static final String TAG_PREFIX = "\u0000t:";
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, PostingList> terms = new HashMap<>();
+    private final Path logFile;
+    private final Path snapshotFile;
+    private long[] offsets = new long[INITIAL_DOCS];
+    private long[] timestamps = new long[INITIAL_DOCS];
+    private int docCount;
+    private long coveredLength;
+    // Counts changes, so a save can tell whether anything was added since the last one
+    private long version;
+    // The version in the snapshot file; only used by saveIfChanged
+    private long savedVersion;
+
+    private SearchIndex(Path logFile, Path snapshotFile) {
+        this.logFile = logFile;
+        this.snapshotFile = snapshotFile;
+    }
+
+    /**
+     * Opens the index of a log, loading its snapshot if there is a usable one.
+     * Call catchUp before adding new lines.
+     *
+     * @param logFile      The log being indexed.
+     * @param snapshotFile Where the index is saved.
+     * @return The index.
+     */
+    public static SearchIndex open(Path logFile, Path snapshotFile) {
+        SearchIndex index = new SearchIndex(logFile, snapshotFile);
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(snapshotFile)))) {
+            index.load(in);
+        } catch (NoSuchFileException e) {
+            // No snapshot yet, the whole log is indexed by catchUp
+        } catch (IOException e) {
+            System.err.println("SearchIndex: snapshot " + snapshotFile + " is unusable, rebuilding: "
+                    + e.getMessage());
+            index.clear();
+        }
+        return index;
+    }
+
+    /**
+     * Adds the lines of the log that the index has not seen yet, up to a
+     * length. Used after opening, before new lines are added.
+     *
+     * @param logLength The length of the log.
+     * @throws IOException If the log cannot be read.
+     */
+    public void catchUp(long logLength) throws IOException {
+        if (coveredLength > logLength) {
+            // The log was replaced or cut short, so the snapshot no longer matches it
+            System.err.println("SearchIndex: log is shorter than the snapshot, rebuilding");
+            lock.writeLock().lock();
+            try {
+                clear();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        }
+        if (coveredLength == logLength) {
+            return;
+        }
+
+        LineDates dates = new LineDates();
+        long offset = coveredLength;
+        try (InputStream in = Files.newInputStream(logFile)) {
+            in.skipNBytes(coveredLength);
+            byte[] chunk = new byte[CATCH_UP_CHUNK];
+            ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int read;
+            while (offset + line.size() < logLength && (read = in.read(chunk)) > 0) {
+                int usable = (int) Math.min(read, logLength - offset - line.size());
+                int start = 0;
+                for (int i = 0; i < usable; i++) {
+                    if (chunk[i] != NEWLINE) {
+                        continue;
+                    }
+                    line.write(chunk, start, i - start);
+                    long end = offset + line.size() + 1;
+                    String text = line.toString(StandardCharsets.UTF_8).stripTrailing();
+                    add(offset, end, dates.timeOf(text, lastTimestamp()), tagOf(text), messageOf(text));
+                    offset = end;
+                    line.reset();
+                    start = i + 1;
+                }
+                line.write(chunk, start, usable - start);
+            }
+        }
+    }
+
+    private long lastTimestamp() {
+        return docCount > 0 ? timestamps[docCount - 1] : 0;
+    }
+
+    /**
+     * Adds a line that was just written to the log.
+     *
+     * @param offset    The byte offset of the line.
+     * @param end       The byte offset after the line and its line break.
+     * @param timestamp When the line was logged, in epoch milliseconds.
+     * @param tag       The tag of the line.
+     * @param message   The message of the line.
+     */
+    public void add(long offset, long end, long timestamp, String tag, String message) {
+        lock.writeLock().lock();
+        try {
+            if (docCount == offsets.length) {
+                offsets = Arrays.copyOf(offsets, docCount * 2);
+                timestamps = Arrays.copyOf(timestamps, docCount * 2);
+            }
+            int doc = docCount;
+            offsets[doc] = offset;
+            // Keep times in order so a time range is a range of ids, even if the clock goes back
+            timestamps[doc] = doc > 0 ? Math.max(timestamp, timestamps[doc - 1]) : timestamp;
+            docCount++;
+
+            forEachTerm(message, term -> posting(term).add(doc));
+            String user = userOf(message);
+            if (user != null) {
+                posting(USER_PREFIX + user.toLowerCase(Locale.ROOT)).add(doc);
+            }
+            posting(TAG_PREFIX + tag.toLowerCase(Locale.ROOT)).add(doc);
+            coveredLength = end;
+            version++;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private PostingList posting(String term) {
+        return terms.computeIfAbsent(term, key -> new PostingList());
+    }
+
+    /**
+     * Finds the newest lines matching every given condition.
+     *
+     * @param query Words that must all appear in the line, or null.
+     * @param user  The user who wrote the line, or null.
+     * @param tag   The tag of the line, or null.
+     * @param from  The earliest time, in epoch milliseconds.
+     * @param to    The latest time, in epoch milliseconds.
+     * @param limit The most lines to return.
+     * @return The matching lines, newest first.
+     * @throws IOException If the log cannot be read.
+     */
+    public List<SearchHit> search(String query, String user, String tag, long from, long to, int limit)
+            throws IOException {
+        List<String> wanted = new ArrayList<>();
+        if (query != null) {
+            forEachTerm(query, wanted::add);
+            if (wanted.isEmpty() && !query.isBlank()) {
+                // Only words too short to be indexed were given
+                return Collections.emptyList();
+            }
+        }
+        if (user != null && !user.isBlank()) {
+            wanted.add(USER_PREFIX + user.trim().toLowerCase(Locale.ROOT));
+        }
+        if (tag != null && !tag.isBlank()) {
+            wanted.add(TAG_PREFIX + tag.trim().toLowerCase(Locale.ROOT));
+        }
+
+        long[] found = new long[limit];
+        long[] foundTimes = new long[limit];
+        int matches;
+        lock.readLock().lock();
+        try {
+            int first = firstDocAtOrAfter(from);
+            int last = firstDocAtOrAfter(to == Long.MAX_VALUE ? to : to + 1) - 1;
+            matches = wanted.isEmpty() ? collectRange(first, last, found, foundTimes)
+                    : collectMatches(wanted, first, last, found, foundTimes);
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        // The lines are read from the log outside the lock
+        List<SearchHit> hits = new ArrayList<>(Math.min(matches, limit));
+        try (FileChannel channel = FileChannel.open(logFile, StandardOpenOption.READ)) {
+            for (int i = 0; i < Math.min(matches, limit); i++) {
+                int slot = Math.floorMod(matches - 1 - i, limit);
+                String line = readLine(channel, found[slot]);
+                hits.add(new SearchHit(found[slot], foundTimes[slot], tagOf(line), messageOf(line)));
+            }
+        }
+        return hits;
+    }
+
+    // Keeps the newest matches in a ring of size limit; returns the number of matches
+    private int collectRange(int first, int last, long[] found, long[] foundTimes) {
+        int matches = 0;
+        for (int doc = Math.max(first, last - found.length + 1); doc <= last; doc++) {
+            found[matches % found.length] = offsets[doc];
+            foundTimes[matches % found.length] = timestamps[doc];
+            matches++;
+        }
+        return matches;
+    }
+
+    private int collectMatches(List<String> wanted, int first, int last, long[] found, long[] foundTimes) {
+        List<PostingList> lists = new ArrayList<>(wanted.size());
+        for (String term : wanted) {
+            PostingList list = terms.get(term);
+            if (list == null) {
+                return 0;
+            }
+            lists.add(list);
+        }
+        // Walk the shortest list and skip ahead in the others
+        lists.sort(Comparator.comparingInt(PostingList::getCount));
+        PostingList.Cursor[] cursors = new PostingList.Cursor[lists.size()];
+        for (int i = 0; i < cursors.length; i++) {
+            cursors[i] = lists.get(i).cursor();
+        }
+
+        int matches = 0;
+        int doc = cursors[0].advanceTo(first);
+        while (doc <= last) {
+            int candidate = doc;
+            for (int i = 1; i < cursors.length && candidate == doc; i++) {
+                candidate = cursors[i].advanceTo(doc);
+            }
+            if (candidate == doc) {
+                found[matches % found.length] = offsets[doc];
+                foundTimes[matches % found.length] = timestamps[doc];
+                matches++;
+                candidate = doc + 1;
+            }
+            doc = cursors[0].advanceTo(candidate);
+        }
+        return matches;
+    }
+
+    private int firstDocAtOrAfter(long time) {
+        int low = 0;
+        int high = docCount;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (timestamps[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private static String readLine(FileChannel channel, long offset) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.allocate(READ_CHUNK);
+        long position = offset;
+        while (channel.read(buffer.clear(), position) > 0) {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                byte b = buffer.get();
+                if (b == NEWLINE) {
+                    return line.toString(StandardCharsets.UTF_8).stripTrailing();
+                }
+                line.write(b);
+            }
+            position += buffer.limit();
+        }
+        return line.toString(StandardCharsets.UTF_8).stripTrailing();
+    }
+
+    /**
+     * Saves the index to its snapshot file if lines were added since the last
+     * save. The file is replaced in one step, so a crash while saving leaves
+     * the previous snapshot in place.
+     * The index is only locked while the lists are gathered, not while they
+     * are written, so this can run on a thread of its own.
+     *
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public synchronized void saveIfChanged() throws IOException {
+        long savingVersion;
+        long savingLength;
+        int savingCount;
+        long[] savingOffsets;
+        long[] savingTimestamps;
+        Map<String, PostingList> savingTerms;
+        lock.readLock().lock();
+        try {
+            if (version == savedVersion) {
+                return;
+            }
+            savingVersion = version;
+            savingLength = coveredLength;
+            savingCount = docCount;
+            // Like the lists, the arrays are only written past docCount or copied when they grow
+            savingOffsets = offsets;
+            savingTimestamps = timestamps;
+            savingTerms = new HashMap<>(terms.size() * 2);
+            for (Map.Entry<String, PostingList> entry : terms.entrySet()) {
+                savingTerms.put(entry.getKey(), entry.getValue().view());
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+
+        Path temp = snapshotFile.resolveSibling(snapshotFile.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeInt(SNAPSHOT_VERSION);
+            out.writeLong(savingLength);
+            out.writeInt(savingCount);
+            for (int i = 0; i < savingCount; i++) {
+                out.writeLong(savingOffsets[i]);
+                out.writeLong(savingTimestamps[i]);
+            }
+            out.writeInt(savingTerms.size());
+            for (Map.Entry<String, PostingList> entry : savingTerms.entrySet()) {
+                out.writeUTF(entry.getKey());
+                entry.getValue().write(out);
+            }
+        }
+        Files.move(temp, snapshotFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        savedVersion = savingVersion;
+    }
+
+    private void load(DataInputStream in) throws IOException {
+        if (in.readInt() != SNAPSHOT_MAGIC || in.readInt() != SNAPSHOT_VERSION) {
+            throw new IOException("not a search index snapshot");
+        }
+        coveredLength = in.readLong();
+        docCount = in.readInt();
+        offsets = new long[Math.max(INITIAL_DOCS, docCount)];
+        timestamps = new long[offsets.length];
+        for (int i = 0; i < docCount; i++) {
+            offsets[i] = in.readLong();
+            timestamps[i] = in.readLong();
+        }
+        int termCount = in.readInt();
+        for (int i = 0; i < termCount; i++) {
+            terms.put(in.readUTF(), PostingList.read(in));
+        }
+    }
+
+    private void clear() {
+        terms.clear();
+        offsets = new long[INITIAL_DOCS];
+        timestamps = new long[INITIAL_DOCS];
+        docCount = 0;
+        coveredLength = 0;
+        version++;
+    }
+
+    /**
+     * Gets the number of lines in the index.
+     *
+     * @return The number of lines.
+     */
+    public int getLineCount() {
+        lock.readLock().lock();
+        try {
+            return docCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Splits text into lower case words, without regular expressions since
+     * every logged line goes through here.
+     *
+     * @param text   The text to split.
+     * @param action Called with each word long enough to be indexed.
+     */
+    static void forEachTerm(String text, Consumer<String> action) {
+        StringBuilder term = new StringBuilder();
+        for (int i = 0; i <= text.length(); i++) {
+            char c = i < text.length() ? text.charAt(i) : ' ';
+            if (Character.isLetterOrDigit(c)) {
+                if (term.length() < MAX_TERM_LENGTH) {
+                    term.append(Character.toLowerCase(c));
+                }
+                continue;
+            }
+            if (term.length() >= MIN_TERM_LENGTH) {
+                action.accept(term.toString());
+            }
+            term.setLength(0);
+        }
+    }
+
+    // "alice: hi" was written by alice; "SERVER: bob has joined" by SERVER
+    private static String userOf(String message) {
+        int colon = message.indexOf(": ");
+        if (colon <= 0 || message.substring(0, colon).indexOf(' ') >= 0) {
+            return null;
+        }
+        return message.substring(0, colon);
+    }
+
+    // Lines look like "[date] [tag] message"
+    private static String tagOf(String line) {
+        int open = line.indexOf("] [");
+        int close = open < 0 ? -1 : line.indexOf("] ", open + 2);
+        return close < 0 ? "" : line.substring(open + "] [".length(), close);
+    }
+
+    private static String messageOf(String line) {
+        int open = line.indexOf("] [");
+        int close = open < 0 ? -1 : line.indexOf("] ", open + 2);
+        return close < 0 ? line : line.substring(close + "] ".length());
+    }
+
+    /**
+     * Reads the times of log lines, which are written with Date.toString.
+     * Parsing a date is slow, so the start of the day is remembered and lines
+     * from the same day only have their time of day read. The day part includes
+     * the time zone name, which changes when daylight saving time starts or
+     * ends, so the remembered start of the day is always for the right offset.
+     */
+    private static final class LineDates {
+        // "[Sun Oct 19 00:55:00 UTC 2026]": the time of day is at 12 to 20
+        private static final int TIME_START = 12;
+        private static final int TIME_END = 20;
+        private static final int HOURS = 12;
+        private static final int MINUTES = 15;
+        private static final int SECONDS = 18;
+        private static final long SECONDS_PER_HOUR = 3600;
+        private static final long SECONDS_PER_MINUTE = 60;
+        private static final long MILLIS_PER_SECOND = 1000;
+        private static final int DECIMAL = 10;
+
+        private final SimpleDateFormat format = new SimpleDateFormat("EEE MMM dd HH:mm:ss zzz yyyy", Locale.US);
+        private String dayKey = "";
+        private long dayStart;
+
+        long timeOf(String line, long fallback) {
+            int close = line.indexOf(']');
+            if (!line.startsWith("[") || close <= TIME_END) {
+                return fallback;
+            }
+            String key = line.substring(0, TIME_START) + line.substring(TIME_END, close);
+            long secondOfDay = secondOfDay(line);
+            if (secondOfDay >= 0 && key.equals(dayKey)) {
+                return dayStart + secondOfDay * MILLIS_PER_SECOND;
+            }
+            try {
+                long time = format.parse(line.substring(1, close)).getTime();
+                if (secondOfDay >= 0) {
+                    dayKey = key;
+                    dayStart = time - secondOfDay * MILLIS_PER_SECOND;
+                }
+                return time;
+            } catch (ParseException e) {
+                return fallback;
+            }
+        }
+
+        private static long secondOfDay(String line) {
+            long hours = twoDigits(line, HOURS);
+            long minutes = twoDigits(line, MINUTES);
+            long seconds = twoDigits(line, SECONDS);
+            if (hours < 0 || minutes < 0 || seconds < 0) {
+                return -1;
+            }
+            return hours * SECONDS_PER_HOUR + minutes * SECONDS_PER_MINUTE + seconds;
+        }
+
+        private static int twoDigits(String line, int at) {
+            char tens = line.charAt(at);
+            char ones = line.charAt(at + 1);
+            if (!Character.isDigit(tens) || !Character.isDigit(ones)) {
+                return -1;
+            }
+            return (tens - '0') * DECIMAL + (ones - '0');
+        }
+    }
+}
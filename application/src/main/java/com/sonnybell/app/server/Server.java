@@ -1,7 +1,18 @@
 package com.sonnybell.app.server;
 
+import com.sonnybell.app.chatfunctions.MessageLog;
+import com.sonnybell.app.chatfunctions.Sanctions;
 import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.cluster.Cluster;
+import com.sonnybell.app.filter.ContentFilter;
+import com.sonnybell.app.metrics.ServerMetrics;
+import com.sonnybell.app.profiling.ConnectionEvent;
+import com.sonnybell.app.profiling.FlightRecording;
+import com.sonnybell.app.profiling.HandshakeEvent;
+import com.sonnybell.app.protocol.Handshake;
+import com.sonnybell.app.ratelimit.Admission;
 import com.sonnybell.app.web.WebServer;
+import com.sonnybell.app.web.WebSessions;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.IOException;
@@ -9,18 +20,56 @@ import java.io.InputStreamReader;
 import java.io.OutputStreamWriter;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Server class to handle incoming client connections.
- * It accepts client connections and starts a new thread for each client.
+ * It accepts client connections and starts a new thread for each client,
+ * which checks the password and then serves the client. Connections beyond
+ * the limits of Admission are reset at once, with a "#RECONNECT" line telling
+ * the client when to try again.
+ * The server can be drained before a restart or deploy: it stops accepting,
+ * tells every client to reconnect after a delay spread over the drain window
+ * (to another server of the cluster if there is one), flushes the message
+ * log and stops the web server. Draining is started by the admin endpoint
+ * /api/admin/drain, or when the process is asked to stop.
  */
 public class Server {
+    // Port of the web pages, set with -Dchat.web.port to run several servers on one machine
+    private static final int DEFAULT_WEB_PORT = 8080;
+    // Time over which drained clients are told to come back, set with -Dchat.drain.window.ms
+    private static final long DEFAULT_DRAIN_WINDOW_MS = 10_000;
+    // Threads telling clients to reconnect when draining, so a slow client only holds up its own thread
+    private static final int DRAIN_THREADS = 16;
+    // Time clients have to be told to reconnect before the rest are cut off, set with -Dchat.drain.notify.timeout.ms
+    private static final long DRAIN_NOTIFY_TIMEOUT_MS = Long.getLong("chat.drain.notify.timeout.ms", 5000);
+    // Seconds the web server is given to finish requests in progress when draining
+    private static final int WEB_STOP_SECONDS = 1;
+    // Time a new connection has to log in, set with -Dchat.handshake.timeout.ms
+    private static final int HANDSHAKE_TIMEOUT_MS = Integer.getInteger("chat.handshake.timeout.ms", 120_000);
+    private static final long MILLIS_PER_SECOND = 1000;
+    // Closes connections still logging in when their time is up, however slowly they send
+    private static final ScheduledThreadPoolExecutor HANDSHAKE_DEADLINES = deadlineExecutor();
+    // The server accepting connections in this process, null until it starts
+    private static volatile Server running;
     // Default server port is set to 6666
-    private static final int WEB_PORT = 8080;
     private static int serverPort = 6666;
     private static String serverPass;
     private ServerSocket serverSocket;
+    private WebServer webServer;
+    private boolean draining;
 
     /**
      * Constructor to initialize the server with a ServerSocket.
@@ -44,47 +93,290 @@ public class Server {
      * It runs in a loop to continuously accept new clients.
      */
     public void startServer() {
-        WebServer webServer = new WebServer(WEB_PORT);
+        FlightRecording.start();
+        Sanctions.start();
+        ContentFilter.start();
+        WebSessions.start();
+        webServer = new WebServer(Integer.getInteger("chat.web.port", DEFAULT_WEB_PORT));
         webServer.run();
+        Cluster.start(serverPort);
+        running = this;
+        // On SIGTERM the clients are still told when to come back; the process exits by itself
+        long window = Long.getLong("chat.drain.window.ms", DEFAULT_DRAIN_WINDOW_MS);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> drain(window), "server-drain"));
 
         try {
             while (!serverSocket.isClosed()) {
                 Socket socket = serverSocket.accept();
 
-                // Temporary input/output streams for password check
-                BufferedReader tempReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-                BufferedWriter tempWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+                // Floods are turned away here, before a thread is started for the connection
+                String address = socket.getInetAddress().getHostAddress();
+                // A banned address gets no handshake, history or thread, just a reset
+                if (Sanctions.isAddressBanned(address)) {
+                    ConnectionEvent.emit(address, false);
+                    reset(socket);
+                    continue;
+                }
+                if (!Admission.admitConnection(address)) {
+                    ConnectionEvent.emit(address, false);
+                    shed(socket, Admission.connectionRetryMillis(address));
+                    continue;
+                }
+                ConnectionEvent.emit(address, true);
+                ServerMetrics.CONNECTIONS_ACCEPTED.increment();
+                Thread thread = new Thread(() -> serveClient(socket, address));
+                thread.start();
+            }
+        } catch (IOException e) {
+            if (!isDraining()) {
+                System.err.println("Server error: " + e.getMessage());
+            }
+        }
+    }
 
-                String receivedPassword;
+    // Tells a client to come back later and resets the connection, which frees it at once
+    private static void shed(Socket socket, long retryMs) {
+        try {
+            socket.setSoLinger(true, 0);
+            socket.getOutputStream().write((Handshake.formatReconnect(retryMs, null) + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            // The client is gone already
+        }
+        closeQuietly(socket);
+    }
+
+    private static ScheduledThreadPoolExecutor deadlineExecutor() {
+        ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "handshake-deadline");
+            thread.setDaemon(true);
+            return thread;
+        });
+        // Most connections log in well before their deadline, which should not stay queued
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
 
-                while (true) {
-                    receivedPassword = tempReader.readLine();
+    private static void reset(Socket socket) {
+        try {
+            socket.setSoLinger(true, 0);
+        } catch (IOException e) {
+            // Closed normally then
+        }
+        closeQuietly(socket);
+    }
 
-                    if (receivedPassword == null) {
-                        System.out.println("Client disconnected before entering a password.");
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing more to do with it
+        }
+    }
+
+    // Checks the password of a new connection, then serves the client on the same thread
+    private void serveClient(Socket socket, String address) {
+        HandshakeEvent handshake = new HandshakeEvent();
+        handshake.begin();
+        int attempts = 0;
+        boolean finished = false;
+        // The whole login must be done in time, not just each read, so a trickle of bytes cannot keep it going
+        ScheduledFuture<?> deadline = HANDSHAKE_DEADLINES.schedule(() -> closeQuietly(socket),
+                HANDSHAKE_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        try {
+            // A connection that never sends its password must not hold its thread forever
+            socket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
+            // Temporary input/output streams for password check
+            BufferedReader tempReader = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            BufferedWriter tempWriter = new BufferedWriter(new OutputStreamWriter(socket.getOutputStream()));
+
+            String receivedPassword;
+            Set<String> capabilities = Collections.emptySet();
+            boolean capsSent = false;
+            boolean roomSent = false;
+
+            while (true) {
+                receivedPassword = tempReader.readLine();
+
+                // Each may be sent once; a client repeating them is not following the protocol
+                if (Handshake.isCapsLine(receivedPassword) && capsSent
+                        || Handshake.isRoomLine(receivedPassword) && roomSent) {
+                    handshake.finish(address, null, "bad handshake", attempts);
+                    socket.close();
+                    break;
+                }
+
+                // Optional features such as the binary protocol are negotiated
+                // before the password; clients that skip this use plain text
+                if (Handshake.isCapsLine(receivedPassword)) {
+                    capsSent = true;
+                    capabilities = Handshake.accept(Handshake.parse(receivedPassword));
+                    tempWriter.write(Handshake.format(capabilities));
+                    tempWriter.newLine();
+                    tempWriter.flush();
+                    continue;
+                }
+
+                // A client coming back to a room is sent to the server that owns it
+                if (Handshake.isRoomLine(receivedPassword)) {
+                    roomSent = true;
+                    String redirect = Cluster.redirectFor(Handshake.argument(receivedPassword));
+                    tempWriter.write(redirect != null ? redirect : Handshake.ROOM_PREFIX + " OK");
+                    tempWriter.newLine();
+                    tempWriter.flush();
+                    if (redirect != null) {
+                        handshake.finish(address, null, "redirected", attempts);
                         socket.close();
                         break;
                     }
+                    continue;
+                }
 
-                    if (receivedPassword.equals(serverPass)) {
-                        tempWriter.write("OK");
-                        tempWriter.newLine();
-                        tempWriter.flush();
+                if (receivedPassword == null) {
+                    handshake.finish(address, null, "disconnected", attempts);
+                    System.out.println("Client disconnected before entering a password.");
+                    socket.close();
+                    break;
+                }
 
-                        ClientHandler clientHandler = new ClientHandler(socket);
-                        Thread thread = new Thread(clientHandler);
-                        thread.start();
-                        break;
-                    } else {
-                        tempWriter.write("Incorrect password. Please try again.");
-                        tempWriter.newLine();
-                        tempWriter.flush();
-                    }
+                // Password sprays get a few guesses per address, on the chat port and the web page together
+                if (!Admission.allowLogin(address)) {
+                    handshake.finish(address, null, "rate limited", attempts);
+                    tempWriter.write("Too many password attempts. Try again in "
+                            + Admission.loginRetryMillis(address) / MILLIS_PER_SECOND + " seconds.");
+                    tempWriter.newLine();
+                    tempWriter.flush();
+                    socket.close();
+                    break;
+                }
+
+                attempts++;
+                if (receivedPassword.equals(serverPass)) {
+                    Admission.loginSucceeded(address);
+                    tempWriter.write("OK");
+                    tempWriter.newLine();
+                    tempWriter.flush();
+
+                    ClientHandler clientHandler = new ClientHandler(socket, capabilities);
+                    String username = clientHandler.getUsername();
+                    handshake.finish(address, username, username != null ? "ok" : "disconnected", attempts);
+                    finished = true;
+                    // The username has been read, a logged in user may stay quiet as long as they like
+                    deadline.cancel(false);
+                    socket.setSoTimeout(0);
+                    clientHandler.run();
+                    break;
+                } else {
+                    tempWriter.write("Incorrect password. Please try again.");
+                    tempWriter.newLine();
+                    tempWriter.flush();
                 }
             }
         } catch (IOException e) {
-            System.err.println("Server error: " + e.getMessage());
+            if (!finished) {
+                handshake.finish(address, null, "failed", attempts);
+            }
+            System.out.println("Client " + address + " left before logging in: " + e.getMessage());
+            closeQuietly(socket);
+        } finally {
+            deadline.cancel(false);
+        }
+    }
+
+    /**
+     * Starts draining the server running in this process and exits once it
+     * has drained.
+     *
+     * @param windowMs The time over which clients are told to reconnect.
+     * @return false if no server is running or it is already draining.
+     */
+    public static boolean drainAndExit(long windowMs) {
+        Server server = running;
+        if (server == null || server.isDraining()) {
+            return false;
+        }
+        Thread thread = new Thread(() -> {
+            server.drain(windowMs);
+            System.exit(0);
+        }, "server-drain");
+        thread.start();
+        return true;
+    }
+
+    private synchronized boolean isDraining() {
+        return draining;
+    }
+
+    /**
+     * Stops accepting clients, sends the connected ones away with staggered
+     * reconnect delays and flushes everything written so far. Runs once;
+     * later calls return straight away.
+     *
+     * @param windowMs The time over which clients are told to reconnect.
+     */
+    public void drain(long windowMs) {
+        synchronized (this) {
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+        System.out.println("Draining: no longer accepting clients.");
+        closeServerSocket();
+        // Leaving the cluster first lets the other servers take over the rooms before clients arrive
+        List<String> peers = Cluster.getPeerAddresses();
+        Cluster.stop();
+
+        try {
+            notifyClients(windowMs, peers);
+        } finally {
+            // However the clients were told, the log and the web server are always closed properly
+            webServer.stop(WEB_STOP_SECONDS);
+            MessageLog.flush();
+            System.out.println("Draining: done.");
+        }
+    }
+
+    // Tells every client when and where to reconnect, giving up on those not told within DRAIN_NOTIFY_TIMEOUT_MS
+    private static void notifyClients(long windowMs, List<String> peers) {
+        List<ClientHandler> clients = new ArrayList<>(ClientHandler.getClientList());
+        if (clients.isEmpty()) {
+            return;
+        }
+        ExecutorService notifier = Executors.newFixedThreadPool(Math.min(DRAIN_THREADS, clients.size()),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "server-drain-notify");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // Client i of n comes back in the i-th slice of the window, at a random point within it
+        List<Future<?>> told = new ArrayList<>(clients.size());
+        long slice = windowMs / clients.size();
+        for (int i = 0; i < clients.size(); i++) {
+            long delay = slice * i + (slice > 0 ? ThreadLocalRandom.current().nextLong(slice) : 0);
+            String address = peers.isEmpty() ? null : peers.get(i % peers.size());
+            ClientHandler client = clients.get(i);
+            told.add(notifier.submit(() -> client.drain(delay, address)));
+        }
+        notifier.shutdown();
+        try {
+            notifier.awaitTermination(DRAIN_NOTIFY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        // Closing the socket of a client still being written to ends the write, and its thread with it
+        int cutOff = 0;
+        for (int i = 0; i < clients.size(); i++) {
+            if (!told.get(i).isDone()) {
+                told.get(i).cancel(false);
+                clients.get(i).abandon();
+                cutOff++;
+            }
         }
+        notifier.shutdownNow();
+        System.out.println("Draining: told " + (clients.size() - cutOff) + " client(s) to reconnect within "
+                + windowMs + " ms" + (cutOff > 0 ? ", closed " + cutOff + " that did not answer in time." : "."));
     }
 
     /**
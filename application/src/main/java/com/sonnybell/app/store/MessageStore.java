@@ -0,0 +1,252 @@
+package com.sonnybell.app.store;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32C;
+
+/**
+ * MessageStore class for keeping every chat message on disk.
+ * Messages are appended to segment files named after the sequence number of
+ * their first message. When a segment grows past SEGMENT_BYTES a new one is
+ * started, so old history never has to be rewritten.
+ * Each record is [length][crc][seq][timestamp][UTF-8 text], and each segment
+ * has a sparse index so a page of history can be found without scanning the
+ * whole file. Pages are read backwards one index block at a time.
+ * Writes go to the page cache straight away and are forced to disk at most
+ * FORCE_INTERVAL_MS later, and always when a segment is sealed or the store
+ * is closed. On opening, anything after the last complete record is cut off.
+ */
+public final class MessageStore implements Closeable {
+
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+    private static final long FORCE_INTERVAL_MS = 1000;
+    private static final int INITIAL_RECORD_BUFFER = 1024;
+    private static final String SEGMENT_SUFFIX = ".seg";
+
+    // Segments by base sequence number, guarded by this
+    private final NavigableMap<Long, StoreSegment> segments = new TreeMap<>();
+    private final Path directory;
+    private final CRC32C crc = new CRC32C();
+    private final ScheduledExecutorService flusher;
+    private ByteBuffer recordBuffer = ByteBuffer.allocate(INITIAL_RECORD_BUFFER);
+    private StoreSegment active;
+    private long lastSeq;
+    private volatile boolean dirty;
+    private boolean closed;
+
+    private MessageStore(Path directory) {
+        this.directory = directory;
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "message-store-flush");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Opens the store in a directory, creating it if needed, and recovers the
+     * segments already there.
+     *
+     * @param directory The directory holding the segment files.
+     * @return The opened store.
+     * @throws IOException If the directory or segments cannot be read.
+     */
+    public static MessageStore open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        MessageStore store = new MessageStore(directory);
+        List<Long> baseSeqs = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                try {
+                    baseSeqs.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    System.err.println("MessageStore: ignoring unexpected file " + name);
+                }
+            }
+        }
+        Collections.sort(baseSeqs);
+
+        for (long baseSeq : baseSeqs) {
+            StoreSegment segment = StoreSegment.open(directory, baseSeq);
+            if (store.active != null) {
+                store.active.seal();
+            }
+            store.segments.put(baseSeq, segment);
+            store.active = segment;
+            store.lastSeq = Math.max(store.lastSeq, segment.getLastSeq());
+        }
+        if (store.active == null) {
+            store.active = StoreSegment.open(directory, 1);
+            store.segments.put(1L, store.active);
+        }
+
+        store.flusher.scheduleWithFixedDelay(store::forceQuietly, FORCE_INTERVAL_MS, FORCE_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+        return store;
+    }
+
+    /**
+     * Gets the sequence number of the newest stored message.
+     *
+     * @return The sequence number, or 0 if the store is empty.
+     */
+    public synchronized long getLastSeq() {
+        return lastSeq;
+    }
+
+    /**
+     * Appends a message. Sequence numbers must be given in increasing order.
+     *
+     * @param seq       The sequence number of the message.
+     * @param timestamp When the message was sent, in epoch milliseconds.
+     * @param message   The message text.
+     * @throws IOException If writing fails.
+     */
+    public synchronized void append(long seq, long timestamp, String message) throws IOException {
+        if (closed) {
+            throw new IOException("MessageStore is closed");
+        }
+        byte[] text = message.getBytes(StandardCharsets.UTF_8);
+        int recordSize = StoreSegment.RECORD_HEADER + text.length;
+        if (recordBuffer.capacity() < recordSize) {
+            recordBuffer = ByteBuffer.allocate(Math.max(recordSize, recordBuffer.capacity() * 2));
+        }
+        ByteBuffer record = recordBuffer.clear();
+        record.putInt(recordSize - Integer.BYTES).putInt(0).putLong(seq).putLong(timestamp).put(text).flip();
+        crc.reset();
+        crc.update(record.duplicate().position(Integer.BYTES * 2));
+        record.putInt(Integer.BYTES, (int) crc.getValue());
+
+        if (active.getSize() > 0 && active.getSize() + recordSize > SEGMENT_BYTES) {
+            active.seal();
+            active = StoreSegment.open(directory, seq);
+            segments.put(seq, active);
+        }
+        active.append(record, seq);
+        lastSeq = seq;
+        dirty = true;
+    }
+
+    /**
+     * Reads the newest messages older than a sequence number, for paging
+     * backwards through history.
+     *
+     * @param beforeSeq The sequence number to read before; use
+     *                  getLastSeq() + 1 for the newest messages.
+     * @param limit     The most messages to return.
+     * @return The messages, oldest first.
+     * @throws IOException If reading fails.
+     */
+    public List<StoredMessage> readBefore(long beforeSeq, int limit) throws IOException {
+        List<List<StoredMessage>> blocks = new ArrayList<>();
+        int found = 0;
+        long cursor = beforeSeq;
+        while (found < limit) {
+            StoreSegment.Block block = blockBefore(cursor);
+            if (block == null) {
+                break;
+            }
+
+            // The file is read outside the lock so paging never holds up appends
+            List<StoredMessage> messages = new ArrayList<>(StoreSegment.INDEX_INTERVAL);
+            ByteBuffer data = block.read();
+            while (data.hasRemaining()) {
+                StoredMessage message = StoreSegment.decode(data);
+                if (message.getSeq() < cursor) {
+                    messages.add(message);
+                }
+            }
+            blocks.add(messages);
+            found += messages.size();
+            cursor = block.getFirstSeq();
+        }
+
+        List<StoredMessage> page = new ArrayList<>(Math.min(found, limit));
+        int skip = Math.max(0, found - limit);
+        for (int i = blocks.size() - 1; i >= 0; i--) {
+            for (StoredMessage message : blocks.get(i)) {
+                if (skip > 0) {
+                    skip--;
+                } else {
+                    page.add(message);
+                }
+            }
+        }
+        return page;
+    }
+
+    private synchronized StoreSegment.Block blockBefore(long beforeSeq) throws IOException {
+        if (closed) {
+            throw new IOException("MessageStore is closed");
+        }
+        for (Map.Entry<Long, StoreSegment> entry = segments.lowerEntry(beforeSeq); entry != null;
+                entry = segments.lowerEntry(entry.getKey())) {
+            StoreSegment.Block block = entry.getValue().blockBefore(beforeSeq);
+            if (block != null) {
+                return block;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Forces everything appended so far to disk.
+     *
+     * @throws IOException If flushing fails.
+     */
+    public void flush() throws IOException {
+        StoreSegment segment;
+        synchronized (this) {
+            if (closed || !dirty) {
+                return;
+            }
+            dirty = false;
+            segment = active;
+        }
+        // Forcing outside the lock lets appends carry on while the disk catches up
+        segment.force();
+    }
+
+    private void forceQuietly() {
+        try {
+            flush();
+        } catch (ClosedChannelException e) {
+            // The segment was sealed or the store closed meanwhile, both force on their own
+        } catch (IOException e) {
+            System.err.println("MessageStore: could not flush to disk: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Flushes and closes every segment.
+     *
+     * @throws IOException If closing fails.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        flusher.shutdownNow();
+        for (StoreSegment segment : segments.values()) {
+            segment.close();
+        }
+    }
+}
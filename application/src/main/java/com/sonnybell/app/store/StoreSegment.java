@@ -0,0 +1,336 @@
+package com.sonnybell.app.store;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * StoreSegment class for one file of the MessageStore.
+ * A segment holds records for a range of sequence numbers, starting at its
+ * base sequence number, and has a sparse index file next to it with the
+ * sequence number and file position of every INDEX_INTERVAL-th record.
+ * Only the newest segment is written to; older segments are sealed and are
+ * memory-mapped the first time they are read.
+ * Callers must hold the MessageStore lock for everything except reads.
+ */
+final class StoreSegment {
+
+    /**
+     * Bytes before the message text: length, crc, seq and timestamp.
+     */
+    static final int RECORD_HEADER = Integer.BYTES * 2 + Long.BYTES * 2;
+
+    /**
+     * Every this many records, an entry is added to the sparse index.
+     */
+    static final int INDEX_INTERVAL = 64;
+
+    private static final int INDEX_ENTRY = Long.BYTES * 2;
+    private static final int INITIAL_INDEX_CAPACITY = 64;
+
+    private final long baseSeq;
+    private final Path logPath;
+    private final Path indexPath;
+    private final FileChannel channel;
+    private FileChannel indexChannel;
+    private MappedByteBuffer mapped;
+    private long size;
+    private long lastSeq;
+    private long[] indexSeqs = new long[INITIAL_INDEX_CAPACITY];
+    private long[] indexPositions = new long[INITIAL_INDEX_CAPACITY];
+    private int indexCount;
+    private int recordsSinceIndex;
+
+    private StoreSegment(long baseSeq, Path directory) throws IOException {
+        this.baseSeq = baseSeq;
+        this.logPath = directory.resolve(fileName(baseSeq, ".seg"));
+        this.indexPath = directory.resolve(fileName(baseSeq, ".idx"));
+        this.channel = FileChannel.open(logPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.indexChannel = FileChannel.open(indexPath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Opens a segment, creating its files if they do not exist.
+     * The index is loaded and the records after the last indexed one are
+     * checked; anything after the last complete record, such as a write cut
+     * short by a crash, is cut off.
+     *
+     * @param directory The directory of the store.
+     * @param baseSeq   The first sequence number of the segment.
+     * @return The opened segment.
+     * @throws IOException If the files cannot be read.
+     */
+    static StoreSegment open(Path directory, long baseSeq) throws IOException {
+        StoreSegment segment = new StoreSegment(baseSeq, directory);
+        segment.size = segment.channel.size();
+        segment.loadIndex();
+        segment.recover();
+        return segment;
+    }
+
+    static String fileName(long baseSeq, String suffix) {
+        return String.format("%020d%s", baseSeq, suffix);
+    }
+
+    long getBaseSeq() {
+        return baseSeq;
+    }
+
+    long getLastSeq() {
+        return lastSeq;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * Appends an encoded record.
+     *
+     * @param record The record, positioned at its first byte.
+     * @param seq    The sequence number of the record.
+     * @throws IOException If writing fails.
+     */
+    void append(ByteBuffer record, long seq) throws IOException {
+        long position = size;
+        while (record.hasRemaining()) {
+            size += channel.write(record, size);
+        }
+        if (recordsSinceIndex == 0) {
+            addIndexEntry(seq, position, true);
+        }
+        recordsSinceIndex = (recordsSinceIndex + 1) % INDEX_INTERVAL;
+        lastSeq = seq;
+    }
+
+    /**
+     * Finds the block of records holding the newest record older than a
+     * sequence number.
+     *
+     * @param beforeSeq The sequence number to look before.
+     * @return The block, or null if every record of the segment is newer.
+     */
+    Block blockBefore(long beforeSeq) {
+        int low = 0;
+        int high = indexCount - 1;
+        int found = -1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (indexSeqs[mid] < beforeSeq) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        if (found < 0) {
+            return null;
+        }
+        long end = found + 1 < indexCount ? indexPositions[found + 1] : size;
+        return new Block(this, indexSeqs[found], indexPositions[found], end);
+    }
+
+    /**
+     * Reads a range of the segment. Sealed segments are served from a memory
+     * map, the active segment with a positional read.
+     *
+     * @param start The first byte to read.
+     * @param end   The byte after the last one to read.
+     * @return The bytes, positioned at start.
+     * @throws IOException If reading fails.
+     */
+    ByteBuffer read(long start, long end) throws IOException {
+        MappedByteBuffer map = mappedOrNull();
+        if (map != null) {
+            return map.duplicate().position((int) start).limit((int) end).slice();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        while (buffer.hasRemaining()) {
+            int read = channel.read(buffer, start + buffer.position());
+            if (read < 0) {
+                break;
+            }
+        }
+        return buffer.flip();
+    }
+
+    private synchronized MappedByteBuffer mappedOrNull() throws IOException {
+        if (indexChannel == null && mapped == null && size > 0) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+        return mapped;
+    }
+
+    /**
+     * Stops writing to this segment; later reads use a memory map.
+     *
+     * @throws IOException If flushing to disk fails.
+     */
+    synchronized void seal() throws IOException {
+        force();
+        indexChannel.close();
+        indexChannel = null;
+    }
+
+    /**
+     * Forces written records and index entries to disk.
+     *
+     * @throws IOException If flushing fails.
+     */
+    void force() throws IOException {
+        channel.force(false);
+        FileChannel index = indexChannel;
+        if (index != null) {
+            index.force(false);
+        }
+    }
+
+    /**
+     * Closes the files of the segment.
+     *
+     * @throws IOException If closing fails.
+     */
+    synchronized void close() throws IOException {
+        if (indexChannel != null) {
+            force();
+            indexChannel.close();
+            indexChannel = null;
+        }
+        channel.close();
+        mapped = null;
+    }
+
+    /**
+     * Decodes a record from a buffer positioned at its first byte.
+     *
+     * @param buffer The buffer; its position is moved past the record.
+     * @return The record.
+     */
+    static StoredMessage decode(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        buffer.getInt();
+        long seq = buffer.getLong();
+        long timestamp = buffer.getLong();
+        byte[] text = new byte[length - (RECORD_HEADER - Integer.BYTES)];
+        buffer.get(text);
+        return new StoredMessage(seq, timestamp, new String(text, StandardCharsets.UTF_8));
+    }
+
+    private void addIndexEntry(long seq, long position, boolean write) throws IOException {
+        if (indexCount == indexSeqs.length) {
+            indexSeqs = Arrays.copyOf(indexSeqs, indexCount * 2);
+            indexPositions = Arrays.copyOf(indexPositions, indexCount * 2);
+        }
+        indexSeqs[indexCount] = seq;
+        indexPositions[indexCount] = position;
+        indexCount++;
+        if (write) {
+            ByteBuffer entry = ByteBuffer.allocate(INDEX_ENTRY).putLong(seq).putLong(position).flip();
+            long at = (long) (indexCount - 1) * INDEX_ENTRY;
+            while (entry.hasRemaining()) {
+                at += indexChannel.write(entry, at);
+            }
+        }
+    }
+
+    private void loadIndex() throws IOException {
+        long entries = indexChannel.size() / INDEX_ENTRY;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (entries * INDEX_ENTRY));
+        while (buffer.hasRemaining()) {
+            if (indexChannel.read(buffer, buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+        long previous = -1;
+        while (buffer.remaining() >= INDEX_ENTRY) {
+            long seq = buffer.getLong();
+            long position = buffer.getLong();
+            // Stop at the first entry that does not point into the segment in order
+            if (position <= previous || position >= size) {
+                break;
+            }
+            addIndexEntry(seq, position, false);
+            previous = position;
+        }
+        indexChannel.truncate((long) indexCount * INDEX_ENTRY);
+    }
+
+    private void recover() throws IOException {
+        long position = indexCount > 0 ? indexPositions[indexCount - 1] : 0;
+        ByteBuffer data = read(position, size);
+        CRC32C crc = new CRC32C();
+        while (data.remaining() >= RECORD_HEADER) {
+            int start = data.position();
+            int length = data.getInt(start);
+            int storedCrc = data.getInt(start + Integer.BYTES);
+            int textLength = length - (RECORD_HEADER - Integer.BYTES);
+            if (textLength < 0 || start + Integer.BYTES + length > data.limit()) {
+                break;
+            }
+            crc.reset();
+            crc.update(data.duplicate().position(start + Integer.BYTES * 2).limit(start + Integer.BYTES + length));
+            if ((int) crc.getValue() != storedCrc) {
+                break;
+            }
+
+            long seq = data.getLong(start + Integer.BYTES * 2);
+            long recordPosition = position + start;
+            if (recordsSinceIndex == 0 && (indexCount == 0 || indexPositions[indexCount - 1] != recordPosition)) {
+                addIndexEntry(seq, recordPosition, true);
+            }
+            recordsSinceIndex = (recordsSinceIndex + 1) % INDEX_INTERVAL;
+            lastSeq = seq;
+            data.position(start + Integer.BYTES + length);
+        }
+
+        long validSize = position + data.position();
+        if (validSize < size) {
+            System.err.println("MessageStore: cutting off " + (size - validSize) + " damaged bytes from "
+                    + logPath.getFileName());
+            channel.truncate(validSize);
+            size = validSize;
+        }
+    }
+
+    /**
+     * A run of records between two sparse index entries.
+     */
+    static final class Block {
+        private final StoreSegment segment;
+        private final long firstSeq;
+        private final long start;
+        private final long end;
+
+        /**
+         * Constructor to initialize a block.
+         *
+         * @param segment  The segment holding the block.
+         * @param firstSeq The sequence number of the first record.
+         * @param start    The position of the first record.
+         * @param end      The position after the last record.
+         */
+        Block(StoreSegment segment, long firstSeq, long start, long end) {
+            this.segment = segment;
+            this.firstSeq = firstSeq;
+            this.start = start;
+            this.end = end;
+        }
+
+        long getFirstSeq() {
+            return firstSeq;
+        }
+
+        ByteBuffer read() throws IOException {
+            return segment.read(start, end);
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package com.sonnybell.app.store;
+
+/**
+ * StoredMessage class for a message read back from the MessageStore.
+ */
+public final class StoredMessage {
+    private final long seq;
+    private final long timestamp;
+    private final String message;
+
+    /**
+     * Constructor to initialize a stored message.
+     *
+     * @param seq       The sequence number of the message.
+     * @param timestamp When the message was stored, in epoch milliseconds.
+     * @param message   The message text.
+     */
+    public StoredMessage(long seq, long timestamp, String message) {
+        this.seq = seq;
+        this.timestamp = timestamp;
+        this.message = message;
+    }
+
+    public long getSeq() {
+        return seq;
+    }
+
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
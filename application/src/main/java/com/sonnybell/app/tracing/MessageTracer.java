@@ -0,0 +1,127 @@
+package com.sonnybell.app.tracing;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MessageTracer class recording when each chat line reaches each stage on
+ * the server, to see where the time goes between reading a line and the
+ * last recipient's flush.
+ * Tracing is off unless the server is started with -Dchat.trace=true or it
+ * is turned on through /api/admin/trace. A line gets a trace id when it is
+ * read, 0 while tracing is off, and every later stage is recorded under that
+ * id; with id 0 a stage costs a single comparison, and starting a trace one
+ * volatile read. Events go to a TraceBuffer of -Dchat.trace.capacity events
+ * (65536 by default), allocated the first time tracing is turned on.
+ */
+public final class MessageTracer {
+    private static final int CAPACITY = Integer.getInteger("chat.trace.capacity", 65_536);
+    private static final AtomicLong NEXT_TRACE = new AtomicLong();
+    private static volatile boolean enabled;
+    // Kept once created, lines traced before tracing was turned off still finish their trace
+    private static volatile TraceBuffer buffer;
+
+    static {
+        setEnabled(Boolean.getBoolean("chat.trace"));
+    }
+
+    private MessageTracer() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Turns tracing on or off. Lines already being traced are traced to the end.
+     *
+     * @param on True to trace the lines read from now on.
+     */
+    public static synchronized void setEnabled(boolean on) {
+        if (on && buffer == null) {
+            buffer = new TraceBuffer(CAPACITY);
+        }
+        enabled = on;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts tracing a line just read from a client.
+     *
+     * @param userId The id of the user who sent it.
+     * @return The trace id to pass to the later stages, or 0 if tracing is off.
+     */
+    public static long begin(int userId) {
+        if (!enabled) {
+            return 0;
+        }
+        long trace = NEXT_TRACE.incrementAndGet();
+        buffer.record(trace, TraceStage.READ, System.nanoTime(), userId);
+        return trace;
+    }
+
+    /**
+     * Records that a traced line reached a stage.
+     *
+     * @param trace The id returned by begin(), nothing is recorded for 0.
+     * @param stage The stage reached.
+     */
+    public static void mark(long trace, TraceStage stage) {
+        if (trace != 0) {
+            buffer.record(trace, stage, System.nanoTime(), 0);
+        }
+    }
+
+    /**
+     * Records that a traced line reached a stage for one user, such as being
+     * written to one recipient.
+     *
+     * @param trace  The id returned by begin(), nothing is recorded for 0.
+     * @param stage  The stage reached.
+     * @param userId The user the stage is about.
+     */
+    public static void mark(long trace, TraceStage stage, int userId) {
+        if (trace != 0) {
+            buffer.record(trace, stage, System.nanoTime(), userId);
+        }
+    }
+
+    /**
+     * Gets the latest traces still complete in the buffer. A trace whose READ
+     * event has been overwritten is left out, since its times cannot be given
+     * from the start.
+     *
+     * @param limit The most traces to return.
+     * @return The events of each trace in the order they happened, by trace id,
+     *         the newest trace last.
+     */
+    public static Map<Long, List<TraceEvent>> recent(int limit) {
+        TraceBuffer current = buffer;
+        Map<Long, List<TraceEvent>> traces = new LinkedHashMap<>();
+        if (current == null) {
+            return traces;
+        }
+        for (TraceEvent event : current.snapshot()) {
+            List<TraceEvent> events = traces.get(event.getTrace());
+            if (events == null) {
+                if (event.getStage() != TraceStage.READ) {
+                    continue;
+                }
+                events = new ArrayList<>();
+                traces.put(event.getTrace(), events);
+            }
+            events.add(event);
+        }
+        // Traces are in the order they started, so the oldest come first
+        Iterator<Long> oldest = traces.keySet().iterator();
+        for (int skip = traces.size() - limit; skip > 0; skip--) {
+            oldest.next();
+            oldest.remove();
+        }
+        return traces;
+    }
+}
@@ -0,0 +1,95 @@
+package com.sonnybell.app.tracing;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * TraceBuffer class holding the latest trace events in a ring allocated once.
+ * Writers claim a slot with one atomic increment and overwrite whatever was
+ * there, so recording never blocks and never allocates. Each slot has a
+ * sequence number that is -1 while the slot is being written and the claim
+ * number once it is done; a reader keeps a slot only if it saw the same
+ * number before and after reading it, so a slot overwritten meanwhile is
+ * skipped rather than read half old and half new.
+ */
+final class TraceBuffer {
+    private static final long WRITING = -1;
+
+    private final int mask;
+    private final long[] traces;
+    private final long[] times;
+    private final int[] details;
+    private final byte[] stages;
+    private final AtomicLongArray published;
+    private final AtomicLong claimed = new AtomicLong();
+
+    /**
+     * Creates an empty buffer.
+     *
+     * @param capacity The number of events kept, rounded up to a power of two.
+     */
+    TraceBuffer(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity) - 1) << 1;
+        mask = size - 1;
+        traces = new long[size];
+        times = new long[size];
+        details = new int[size];
+        stages = new byte[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            published.set(i, WRITING);
+        }
+    }
+
+    /**
+     * Records an event, overwriting the oldest one.
+     *
+     * @param trace  The trace id.
+     * @param stage  The stage reached.
+     * @param nanos  When it was reached.
+     * @param detail The user id that goes with the stage, or 0.
+     */
+    void record(long trace, TraceStage stage, long nanos, int detail) {
+        long claim = claimed.getAndIncrement();
+        int slot = (int) (claim & mask);
+        published.set(slot, WRITING);
+        // Readers must see WRITING before any of the new fields
+        VarHandle.storeStoreFence();
+        traces[slot] = trace;
+        times[slot] = nanos;
+        details[slot] = detail;
+        stages[slot] = (byte) stage.ordinal();
+        published.lazySet(slot, claim);
+    }
+
+    /**
+     * Reads the events in the buffer, oldest first.
+     *
+     * @return The events that were not being written while they were read.
+     */
+    List<TraceEvent> snapshot() {
+        TraceStage[] values = TraceStage.values();
+        long end = claimed.get();
+        long start = Math.max(0, end - traces.length);
+        List<TraceEvent> events = new ArrayList<>((int) (end - start));
+        for (long claim = start; claim < end; claim++) {
+            int slot = (int) (claim & mask);
+            if (published.get(slot) != claim) {
+                continue;
+            }
+            long trace = traces[slot];
+            long nanos = times[slot];
+            int detail = details[slot];
+            int stage = stages[slot];
+            // The fields must be read before the sequence number is checked again
+            VarHandle.loadLoadFence();
+            if (published.get(slot) == claim) {
+                events.add(new TraceEvent(trace, values[stage], nanos, detail));
+            }
+        }
+        return events;
+    }
+}
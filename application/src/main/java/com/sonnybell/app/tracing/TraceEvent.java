@@ -0,0 +1,43 @@
+package com.sonnybell.app.tracing;
+
+/**
+ * TraceEvent class for one stage of a traced line, as read back from the
+ * trace buffer.
+ */
+public final class TraceEvent {
+    private final long trace;
+    private final TraceStage stage;
+    private final long nanos;
+    private final int detail;
+
+    /**
+     * Creates an event.
+     *
+     * @param trace  The id of the trace the event belongs to.
+     * @param stage  The stage reached.
+     * @param nanos  When it was reached, as returned by System.nanoTime().
+     * @param detail The sender's user id for READ, the recipient's for WRITE, otherwise 0.
+     */
+    public TraceEvent(long trace, TraceStage stage, long nanos, int detail) {
+        this.trace = trace;
+        this.stage = stage;
+        this.nanos = nanos;
+        this.detail = detail;
+    }
+
+    public long getTrace() {
+        return trace;
+    }
+
+    public TraceStage getStage() {
+        return stage;
+    }
+
+    public long getNanos() {
+        return nanos;
+    }
+
+    public int getDetail() {
+        return detail;
+    }
+}
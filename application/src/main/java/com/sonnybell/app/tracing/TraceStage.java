@@ -0,0 +1,27 @@
+package com.sonnybell.app.tracing;
+
+/**
+ * The stages a chat line goes through on the server, in order, from being
+ * read off a client's socket to being written to every other member of the
+ * room.
+ */
+public enum TraceStage {
+    /** The line was read from the sender's connection. */
+    READ,
+    /** The flood check let the line through, after any delay it imposed. */
+    FLOOD_CHECK,
+    /** The line was found not to be a command, or a command was handed to the registry. */
+    COMMAND_CHECK,
+    /** The line was found not to be an answer to the capital game. */
+    GAME_CHECK,
+    /** The line was added to the room history. */
+    HISTORY_APPEND,
+    /** The line was queued for the message log. */
+    LOG_ENQUEUE,
+    /** Sending to the members of the room started. */
+    FANOUT_START,
+    /** The line was written and flushed to one recipient, whose user id is the detail. */
+    WRITE,
+    /** Every member of the room was sent the line. */
+    FANOUT_END
+}
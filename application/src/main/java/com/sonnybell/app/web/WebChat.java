@@ -1,15 +1,26 @@
 package com.sonnybell.app.web;
 
 import com.sonnybell.app.chatfunctions.ChatHistory;
+import com.sonnybell.app.chatfunctions.Sanctions;
 import com.sonnybell.app.client.ClientHandler;
-import com.sonnybell.app.games.CapitalGame;
+import com.sonnybell.app.metrics.Histogram;
+import com.sonnybell.app.metrics.ServerMetrics;
+import com.sonnybell.app.pipeline.InboundMessage;
+import com.sonnybell.app.pipeline.MessagePipeline;
+import com.sonnybell.app.profiling.HttpRequestEvent;
+import com.sonnybell.app.ratelimit.Admission;
 import com.sonnybell.app.server.Server;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -31,10 +42,34 @@ public class WebChat implements HttpHandler {
     private static final int HTTP_NO_CONTENT = 204;
     // Constant for unknown content length, used when the response body is empty
     private static final int UNKNOWN_CONTENT_LENGTH = -1;
+    // Constant for HTTP status code 400 Bad Request, used when query parameters
+    // cannot be parsed
+    private static final int HTTP_BAD_REQUEST = 400;
+    // Constant for HTTP status code 429 Too Many Requests, used when an address
+    // has made too many login attempts
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final long MILLIS_PER_SECOND = 1000;
+    // Constant for HTTP status code 401 Unauthorized, used when a session token is missing or not valid
+    private static final int HTTP_UNAUTHORIZED = 401;
+    // Response length telling the server to stream the body in chunks
+    private static final int CHUNKED = 0;
+    // An event stream writes a comment this often when there is nothing to send, so proxies keep it open
+    private static final long KEEPALIVE_MS = 15000;
+    private static final byte[] KEEPALIVE = ": keepalive\n\n".getBytes(StandardCharsets.UTF_8);
+    // How long a browser waits before opening a lost event stream again
+    private static final byte[] RETRY = "retry: 2000\n\n".getBytes(StandardCharsets.UTF_8);
+    // How long a web request waits for an async command to finish before replying
+    private static final long COMMAND_REPLY_TIMEOUT_MS = 2000;
+    // Page size of the history endpoint when no limit is given, and the largest allowed
+    private static final int DEFAULT_HISTORY_PAGE = 50;
+    private static final int MAX_HISTORY_PAGE = 500;
     // Set to keep track of web users currently logged in via the web interface.
     // This is a thread-safe set to handle concurrent access from multiple web
     // clients.
     private static final java.util.Set<String> WEB_USERS = ConcurrentHashMap.newKeySet();
+    // Paths handled here, each timed separately in the metrics
+    private static final java.util.Set<String> ENDPOINTS = java.util.Set.of("/api/webchat/messages",
+            "/api/webchat/login", "/api/webchat/events", "/api/webchat/logout", "/api/webchat/history");
 
     /**
      * Handles HTTP requests for the web chat API.
@@ -46,8 +81,23 @@ public class WebChat implements HttpHandler {
      */
     @Override
     public void handle(HttpExchange exchange) throws IOException {
-        String method = exchange.getRequestMethod();
+        long start = System.nanoTime();
+        HttpRequestEvent event = new HttpRequestEvent();
+        event.begin();
         String path = exchange.getRequestURI().getPath();
+        try {
+            route(exchange, path);
+        } finally {
+            // Paths outside the endpoints share one series, so odd URLs cannot create new ones
+            String endpoint = ENDPOINTS.contains(path) ? path : "other";
+            Histogram latency = ServerMetrics.httpRequest(endpoint);
+            latency.recordSince(start);
+            event.finish(endpoint, exchange.getRequestMethod(), exchange.getResponseCode());
+        }
+    }
+
+    private void route(HttpExchange exchange, String path) throws IOException {
+        String method = exchange.getRequestMethod();
 
         // Handle different API endpoints based on the request path
         if ("/api/webchat/messages".equals(path)) {
@@ -70,14 +120,13 @@ public class WebChat implements HttpHandler {
                 exchange.sendResponseHeaders(HTTP_METHOD_NOT_ALLOWED, UNKNOWN_CONTENT_LENGTH);
             }
             // Handle the login endpoint for POST method only
-        } else if ("/api/webchat/status".equals(path)) {
-            // Handle the status check endpoint for POST method only
-            if ("POST".equalsIgnoreCase(method)) {
-                handleStatusCheck(exchange);
+        } else if ("/api/webchat/events".equals(path)) {
+            // Handle the event stream endpoint for GET method only
+            if ("GET".equalsIgnoreCase(method)) {
+                handleEvents(exchange);
             } else {
                 exchange.sendResponseHeaders(HTTP_METHOD_NOT_ALLOWED, UNKNOWN_CONTENT_LENGTH);
             }
-            // Handle the status check endpoint for POST method only
         } else if ("/api/webchat/logout".equals(path)) {
             // Handle the logout endpoint for POST method only
             // This endpoint allows users to log out and removes them from the web users set
@@ -87,6 +136,13 @@ public class WebChat implements HttpHandler {
                 exchange.sendResponseHeaders(HTTP_METHOD_NOT_ALLOWED, UNKNOWN_CONTENT_LENGTH);
             }
             // Handle the logout endpoint for POST method only
+        } else if ("/api/webchat/history".equals(path)) {
+            // Handle the history paging endpoint for GET method only
+            if ("GET".equalsIgnoreCase(method)) {
+                handleGetHistory(exchange);
+            } else {
+                exchange.sendResponseHeaders(HTTP_METHOD_NOT_ALLOWED, UNKNOWN_CONTENT_LENGTH);
+            }
         } else {
             exchange.sendResponseHeaders(HTTP_NOT_FOUND, UNKNOWN_CONTENT_LENGTH);
         }
@@ -116,11 +172,59 @@ public class WebChat implements HttpHandler {
         }
     }
 
+    /**
+     * Handles GET requests to page backwards through the stored history.
+     * Takes "before", the sequence number to read before (newest messages if
+     * left out), and "limit", the page size. Returns a JSON array of objects
+     * with "seq", "time" and "message", oldest first; the "seq" of the first
+     * one is the "before" of the next page.
+     *
+     * @param exchange The HttpExchange object containing request and response data.
+     * @throws IOException If an I/O error occurs during response handling.
+     */
+    private void handleGetHistory(HttpExchange exchange) throws IOException {
+        long before = ChatHistory.getLastSeq() + 1;
+        int limit = DEFAULT_HISTORY_PAGE;
+        String query = exchange.getRequestURI().getRawQuery();
+        try {
+            for (String param : query == null ? new String[0] : query.split("&")) {
+                if (param.startsWith("before=")) {
+                    before = Long.parseLong(param.substring("before=".length()));
+                } else if (param.startsWith("limit=")) {
+                    int requested = Integer.parseInt(param.substring("limit=".length()));
+                    limit = Math.max(1, Math.min(MAX_HISTORY_PAGE, requested));
+                }
+            }
+        } catch (NumberFormatException e) {
+            exchange.sendResponseHeaders(HTTP_BAD_REQUEST, UNKNOWN_CONTENT_LENGTH);
+            exchange.close();
+            return;
+        }
+
+        JSONArray arr = new JSONArray();
+        for (ChatHistory.Entry entry : ChatHistory.getPageBefore(before, limit)) {
+            JSONObject item = new JSONObject();
+            item.put("seq", entry.getSeq());
+            item.put("time", entry.getTimestamp());
+            item.put("message", entry.getMessage());
+            arr.put(item);
+        }
+        byte[] resp = arr.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(HTTP_OK, resp.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(resp);
+        }
+    }
+
     /**
      * Handles POST requests to send a chat message.
-     * It expects a JSON body with "user" and "message" fields.
-     * The message is added to the chat history and broadcasted to all connected
-     * clients.
+     * It expects a JSON body with "token" and "message" fields, and answers
+     * 401 Unauthorized if the token is not valid.
+     * The message goes through the MessagePipeline like a socket line, so it is
+     * added to the chat history and broadcasted to all connected clients unless
+     * a stage stops it. Command replies and notices are returned as a JSON
+     * object with a "replies" array.
      *
      * @param exchange The HttpExchange object containing request and response data.
      * @throws IOException If an I/O error occurs during request handling.
@@ -128,30 +232,34 @@ public class WebChat implements HttpHandler {
     private void handlePostMessage(HttpExchange exchange) throws IOException {
         String requestBody = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
         JSONObject payload = new JSONObject(requestBody);
-        String user = payload.optString("user", "");
-        String message = payload.optString("message", "");
-
-        // Handle game command
-        if (message.startsWith("/startgame")) {
-            CapitalGame.startGame();
-            // Optionally broadcast a notice
-            ClientHandler.broadcastMessageToAll("GAME START command issued by: " + user);
-        } else if (CapitalGame.isGameActive()) {
-            // Let the game check if this is the correct answer
-            boolean wasCorrect = CapitalGame.checkAnswer(user, message);
-            if (wasCorrect) {
-                // Already handled by game logic, so just return
-                sendNoContent(exchange);
-                return;
-            }
+        WebSessions.Session session = WebSessions.find(payload.optString("token", null));
+        if (session == null) {
+            sendUnauthorized(exchange);
+            return;
         }
+        String user = session.getUsername();
+        // One line, like a socket client's readLine() gives
+        String message = oneLine(payload.optString("message", ""));
+        ServerMetrics.MESSAGES_RECEIVED_WEB.increment();
 
-        // Normal chat message from web client; log/tag as WebChat
-        String formattedMessage = user + ": " + message;
-        ClientHandler.logMessage(formattedMessage, "WebChat");
-        ClientHandler.broadcastMessageToAll(formattedMessage);
-
-        sendNoContent(exchange);
+        // The same stages as a socket line; web users have no private channel, so
+        // whatever the stages say to the sender is returned in the response body
+        List<String> replies = new CopyOnWriteArrayList<>();
+        String address = exchange.getRemoteAddress().getAddress().getHostAddress();
+        InboundMessage inbound = InboundMessage.fromWeb(user, address, message, session.getFlood(), replies::add);
+        CompletableFuture<Void> done = MessagePipeline.chat().process(inbound);
+        try {
+            done.get(COMMAND_REPLY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException | TimeoutException e) {
+            System.err.println("[WebChat] Message " + message + " did not complete: " + e.getMessage());
+        }
+        if (inbound.isDisconnect()) {
+            // Flood control ended the session, as it closes a socket
+            leave(user, "kicked");
+        }
+        sendReplies(exchange, replies);
     }
 
     /**
@@ -159,31 +267,52 @@ public class WebChat implements HttpHandler {
      * It checks the provided username and password against the server's
      * credentials.
      * If valid, it adds the user to the set of web users and returns a success
-     * response.
+     * response. An address that made too many attempts gets 429 Too Many
+     * Requests with a Retry-After header instead.
      *
      * @param exchange The HttpExchange object containing request and response data.
      * @throws IOException If an I/O error occurs during request handling.
      */
     private void handleLogin(HttpExchange exchange) throws IOException {
+        // Login attempts share a limit per address with the chat port, checked before the password
+        String address = exchange.getRemoteAddress().getAddress().getHostAddress();
+        if (!Admission.allowLogin(address)) {
+            long retrySeconds = (Admission.loginRetryMillis(address) + MILLIS_PER_SECOND - 1) / MILLIS_PER_SECOND;
+            JSONObject resp = new JSONObject();
+            resp.put("valid", false);
+            resp.put("error", "Too many login attempts. Try again in " + retrySeconds + " seconds.");
+            byte[] respBytes = resp.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json");
+            exchange.getResponseHeaders().set("Retry-After", String.valueOf(retrySeconds));
+            exchange.sendResponseHeaders(HTTP_TOO_MANY_REQUESTS, respBytes.length);
+            try (OutputStream os = exchange.getResponseBody()) {
+                os.write(respBytes);
+            }
+            return;
+        }
+
         String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
         JSONObject obj = new JSONObject(body);
-        String username = obj.optString("username", "");
+        String username = oneLine(obj.optString("username", ""));
         String password = obj.optString("password", "");
-        boolean valid = password.equals(Server.getServerPass()) && !username.isBlank();
+        boolean valid = password.equals(Server.getServerPass());
+        if (valid) {
+            Admission.loginSucceeded(address);
+        }
+        valid = valid && !username.isBlank();
+        boolean banned = valid && Sanctions.isBanned(username, address);
+        valid = valid && !banned;
 
-        // Adds web user to the set if valid
+        // Adds web user to the set if valid; every login gets its own session
+        String token = valid ? WebSessions.open(username) : null;
         if (valid) {
             if (WEB_USERS.add(username)) {
                 // Use ClientHandler's centralized tracking
                 ClientHandler.addWebClient(username);
 
+                // One history entry and one log line, tagged like a socket user's join
                 String joinMsg = "SERVER: " + username + " has joined the chat!";
-                ChatHistory.addMessageToHistory(joinMsg);
-
-                // Broadcast join message to all socket clients
-                ClientHandler.broadcastMessageToAll(joinMsg);
-                // Log the successful login
-                ClientHandler.logMessage(joinMsg, "HelloUser");
+                ClientHandler.broadcastMessageToAll(joinMsg, "HelloUser");
 
                 // System.out.println("[WebChat] Web user logged in: " + username);
             }
@@ -193,6 +322,12 @@ public class WebChat implements HttpHandler {
         // with the validity of the login attempt
         JSONObject resp = new JSONObject();
         resp.put("valid", valid);
+        if (valid) {
+            resp.put("token", token);
+        }
+        if (banned) {
+            resp.put("error", "You are banned from this server.");
+        }
         byte[] respBytes = resp.toString().getBytes(StandardCharsets.UTF_8);
         exchange.getResponseHeaders().set("Content-Type", "application/json");
         exchange.sendResponseHeaders(HTTP_OK, respBytes.length);
@@ -202,35 +337,66 @@ public class WebChat implements HttpHandler {
     }
 
     /**
-     * Handles POST requests to check if a user is still logged in.
+     * Handles GET requests for the event stream of a session, given as
+     * "token" in the query. The response is a Server-Sent Events stream of
+     * "message" events for lobby lines, with their sequence number as id,
+     * "notice" events for direct messages, and a last "kicked", "logout" or
+     * "expired" event when the session ends. It holds one thread of the web server for
+     * as long as the page is open.
      *
      * @param exchange The HttpExchange object containing request and response data.
-     * @throws IOException If an I/O error occurs during request handling.
+     * @throws IOException If an I/O error occurs before the stream starts.
      */
-    private void handleStatusCheck(HttpExchange exchange) throws IOException {
-        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
-        JSONObject obj = new JSONObject(body);
-        String username = obj.optString("username", "");
-
-        // Check both the local WEB_USERS set and the centralized tracking
-        // This ensures that if an admin removes a user, they're properly logged out
-        boolean loggedIn = WEB_USERS.contains(username) && ClientHandler.getClientNamesList().contains(username);
-
-        JSONObject resp = new JSONObject();
-        resp.put("loggedIn", loggedIn);
+    private void handleEvents(HttpExchange exchange) throws IOException {
+        String query = exchange.getRequestURI().getRawQuery();
+        String token = null;
+        for (String param : query == null ? new String[0] : query.split("&")) {
+            if (param.startsWith("token=")) {
+                token = param.substring("token=".length());
+            }
+        }
+        WebSessions.Session session = WebSessions.find(token);
+        if (session == null) {
+            sendUnauthorized(exchange);
+            return;
+        }
 
-        byte[] respBytes = resp.toString().getBytes(StandardCharsets.UTF_8);
-        exchange.getResponseHeaders().set("Content-Type", "application/json");
-        exchange.sendResponseHeaders(HTTP_OK, respBytes.length);
+        WebSessions.Stream stream = session.attach();
+        exchange.getResponseHeaders().set("Content-Type", "text/event-stream; charset=UTF-8");
+        exchange.getResponseHeaders().set("Cache-Control", "no-cache");
+        exchange.sendResponseHeaders(HTTP_OK, CHUNKED);
         try (OutputStream os = exchange.getResponseBody()) {
-            os.write(respBytes);
+            os.write(RETRY);
+            os.flush();
+            byte[] event = stream.next(KEEPALIVE_MS);
+            while (event != WebSessions.END) {
+                os.write(event == null ? KEEPALIVE : event);
+                // Whatever else is already queued goes out in the same flush
+                event = stream.next(0);
+                while (event != null && event != WebSessions.END) {
+                    os.write(event);
+                    event = stream.next(0);
+                }
+                os.flush();
+                if (event == null) {
+                    event = stream.next(KEEPALIVE_MS);
+                }
+            }
+        } catch (IOException e) {
+            // The page was closed or lost its connection; a new stream picks up the queued events
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            // The session counts as idle until the page opens a stream again
+            session.detach(stream);
         }
     }
 
     /**
-     * Handles POST requests for user logout.
-     * It removes the user from the set of web users and returns a response
-     * indicating success.
+     * Handles POST requests for user logout, with the "token" of the session
+     * in a JSON body.
+     * It removes the user from the set of web users, ends all of their
+     * sessions and returns a response indicating success.
      *
      * @param exchange The HttpExchange object containing request and response data.
      * @throws IOException If an I/O error occurs during request handling.
@@ -238,23 +404,13 @@ public class WebChat implements HttpHandler {
     private void handleLogout(HttpExchange exchange) throws IOException {
         String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
         JSONObject obj = new JSONObject(body);
-        String username = obj.optString("username", "");
-        boolean removed = WEB_USERS.remove(username);
-        if (removed) {
-            // Use ClientHandler's centralized tracking
-            ClientHandler.removeWebClient(username);
-
-            String leaveMsg = "SERVER: " + username + " has left the chat.";
-            ChatHistory.addMessageToHistory(leaveMsg);
-
-            // Broadcast leave message to all socket clients
-            ClientHandler.broadcastMessageToAll(leaveMsg);
-
-            // Log the successful logout
-            ClientHandler.logMessage(leaveMsg, "GoodbyeUser");
-
-            // System.out.println("[WebChat] Web user logged out: " + username);
+        WebSessions.Session session = WebSessions.find(obj.optString("token", null));
+        if (session == null) {
+            sendUnauthorized(exchange);
+            return;
         }
+        // Other pages of the same user are logged out too, like a socket user's quit
+        boolean removed = leave(session.getUsername(), "logout");
         // Prepare the response indicating whether the user was removed
         JSONObject resp = new JSONObject();
         resp.put("removed", removed);
@@ -266,17 +422,73 @@ public class WebChat implements HttpHandler {
         }
     }
 
+    /**
+     * Ends every session of a web user and announces that they left, the same
+     * way for a logout as for a session ended by the server.
+     *
+     * @param username The username.
+     * @param event    The event sent to the user's pages, "logout", "kicked" or "expired".
+     * @return true if the user was logged in.
+     */
+    static boolean leave(String username, String event) {
+        WebSessions.close(username, event);
+        boolean removed = WEB_USERS.remove(username);
+        if (removed) {
+            // Use ClientHandler's centralized tracking
+            ClientHandler.removeWebClient(username);
+
+            // One history entry and one log line, tagged like a socket user's leave
+            String leaveMsg = "SERVER: " + username + " has left the chat.";
+            ClientHandler.broadcastMessageToAll(leaveMsg, "GoodbyeUser");
+        }
+        return removed;
+    }
+
     /**
      * Static method to remove a user from the WEB_USERS set.
-     * This is used by the moderation system when an admin removes a web user.
+     * This is used by the moderation system when an admin removes a web user,
+     * whose pages are told through their event streams.
      *
      * @param username The username to remove from the web users set.
      * @return true if the user was removed, false if they weren't in the set.
      */
     public static boolean removeFromWebUsers(String username) {
+        WebSessions.close(username, "kicked");
         return WEB_USERS.remove(username);
     }
 
+    /**
+     * Sends the replies of a command back to the web user who ran it.
+     * Responds with no content if the command did not reply.
+     *
+     * @param exchange The HttpExchange object containing request and response data.
+     * @param replies  The replies of the command.
+     * @throws IOException If an I/O error occurs during response handling.
+     */
+    private void sendReplies(HttpExchange exchange, List<String> replies) throws IOException {
+        if (replies.isEmpty()) {
+            sendNoContent(exchange);
+            return;
+        }
+        JSONObject resp = new JSONObject();
+        resp.put("replies", new JSONArray(replies));
+        byte[] respBytes = resp.toString().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(HTTP_OK, respBytes.length);
+        try (OutputStream os = exchange.getResponseBody()) {
+            os.write(respBytes);
+        }
+    }
+
+    private static String oneLine(String text) {
+        return text.indexOf('\n') < 0 && text.indexOf('\r') < 0 ? text : text.replace('\r', ' ').replace('\n', ' ');
+    }
+
+    private void sendUnauthorized(HttpExchange exchange) throws IOException {
+        exchange.sendResponseHeaders(HTTP_UNAUTHORIZED, UNKNOWN_CONTENT_LENGTH);
+        exchange.close();
+    }
+
     private void sendNoContent(HttpExchange exchange) throws IOException {
         exchange.sendResponseHeaders(HTTP_NO_CONTENT, UNKNOWN_CONTENT_LENGTH);
         exchange.close();
@@ -1,6 +1,7 @@
 package com.sonnybell.app.web;
 
 import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.cluster.Cluster;
 import com.sun.net.httpserver.HttpExchange;
 import com.sun.net.httpserver.HttpHandler;
 import java.io.ByteArrayOutputStream;
@@ -10,6 +11,8 @@ import java.io.OutputStream;
 import java.nio.charset.StandardCharsets;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * WebHandler class that implements HttpHandler to handle HTTP requests.
@@ -150,8 +153,12 @@ public class WebHandler implements HttpHandler {
         long seconds = uptime.getSeconds() % getSecond;
 
         String uptimeMessage = String.format("%02d:%02d:%02d", hours, minutes, seconds);
-        int totalClients = ClientHandler.getClientTotal();
-        String clientNames = String.join(",", ClientHandler.getClientNamesList());
+        // In a cluster the users of the other servers are listed too
+        List<String> remoteUsers = Cluster.getRemoteUsers();
+        int totalClients = ClientHandler.getClientTotal() + remoteUsers.size();
+        List<String> names = new ArrayList<>(ClientHandler.getClientNamesList());
+        names.addAll(remoteUsers);
+        String clientNames = String.join(",", names);
 
         return String.format(
             "{\"uptime\":\"%s\",\"totalClients\":%d,\"clientNames\":\"%s\"}",
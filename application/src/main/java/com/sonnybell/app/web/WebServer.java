@@ -1,6 +1,12 @@
 package com.sonnybell.app.web;
 
+import com.sonnybell.app.chatfunctions.BulkModerationEndpointHandler;
+import com.sonnybell.app.chatfunctions.DrainEndpointHandler;
+import com.sonnybell.app.chatfunctions.JfrDumpEndpointHandler;
+import com.sonnybell.app.chatfunctions.MetricsEndpointHandler;
 import com.sonnybell.app.chatfunctions.RemoveUserEndpointHandler;
+import com.sonnybell.app.chatfunctions.SearchEndpointHandler;
+import com.sonnybell.app.chatfunctions.TraceEndpointHandler;
 import com.sun.net.httpserver.HttpServer;
 import java.io.IOException;
 import java.net.InetSocketAddress;
@@ -15,6 +21,8 @@ import java.util.concurrent.Executors;
 public class WebServer implements Runnable {
     private int port;
     private Instant startTime;
+    private HttpServer server;
+    private ExecutorService threadPool;
 
     public WebServer(int port) {
         this.port = port;
@@ -28,14 +36,14 @@ public class WebServer implements Runnable {
      */
     @Override
     public void run() {
-        ExecutorService threadPool = Executors.newCachedThreadPool();
+        threadPool = Executors.newCachedThreadPool();
         Thread.setDefaultUncaughtExceptionHandler((Thread t, Throwable e) -> {
             e.printStackTrace();
         });
 
         try {
             // Create a new HttpServer instance
-            HttpServer server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+            server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
 
             // Create a WebHandler to handle general requests (files, /api/status)
             WebHandler webHandler = new WebHandler(startTime);
@@ -47,13 +55,27 @@ public class WebServer implements Runnable {
             // Map the admin remove user endpoint to the handler
             // api/admin/remove-user/
             server.createContext("/api/admin/remove-user/", adminRemoveUserHandler);
+            // Remove, ban or mute many users with one notice: POST {"action", "users", "pattern", "minutes"}
+            server.createContext("/api/admin/moderate", new BulkModerationEndpointHandler());
+            // Search over the message log: /api/admin/search?q=&user=&tag=&from=&to=
+            server.createContext("/api/admin/search", new SearchEndpointHandler());
+            // Shut the server down gracefully: POST /api/admin/drain?window=MILLIS
+            server.createContext("/api/admin/drain", new DrainEndpointHandler());
+            // Counters, gauges and latency histograms in the Prometheus text format
+            server.createContext("/metrics", new MetricsEndpointHandler());
+            // Per-line traces from read to the last write: GET ?limit=N, POST ?enabled=true|false
+            server.createContext("/api/admin/trace", new TraceEndpointHandler());
+            // The last minutes of the -Dchat.jfr=true flight recording: POST ?minutes=N
+            server.createContext("/api/admin/jfr", new JfrDumpEndpointHandler());
             // Map the WebChat endpoints to the WebChat handler
             // api/webchat/messages, /api/webchat/login, and /api/webchat/logout
             // These endpoints will be handled by the WebChat class
             server.createContext("/api/webchat/messages", new WebChat());
             server.createContext("/api/webchat/login", new WebChat());
-            server.createContext("/api/webchat/status", new WebChat()); // Add this line
+            // Lobby lines, direct messages and kicks pushed to a page: GET ?token=
+            server.createContext("/api/webchat/events", new WebChat());
             server.createContext("/api/webchat/logout", new WebChat()); // Add this line
+            server.createContext("/api/webchat/history", new WebChat());
 
             // Set executor for handling the requests
             server.setExecutor(threadPool);
@@ -66,4 +88,16 @@ public class WebServer implements Runnable {
             e.printStackTrace();
         }
     }
+
+    /**
+     * Stops the HTTP server, giving requests in progress up to the delay to finish.
+     *
+     * @param delaySeconds The longest time to wait for requests to finish.
+     */
+    public void stop(int delaySeconds) {
+        if (server != null) {
+            server.stop(delaySeconds);
+            threadPool.shutdown();
+        }
+    }
 }
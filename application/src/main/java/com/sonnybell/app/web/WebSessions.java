@@ -0,0 +1,358 @@
+package com.sonnybell.app.web;
+
+import com.sonnybell.app.ratelimit.FloodControl;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Base64;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * WebSessions class keeping track of who is logged in to the web chat and
+ * pushing them what happens in the lobby.
+ * Login hands out a token, a random id followed by an HMAC-SHA256 signature
+ * of the id and the username under a key made when the server starts, and
+ * every later request is checked against it instead of trusting a username
+ * sent by the browser. Checking a token is one map lookup by id and a
+ * constant time comparison of the signature. Sessions are also kept by
+ * username, so direct messages, kicks and logouts reach a user's pages
+ * without looking at anyone else's.
+ * Each session has one event stream (Server-Sent Events) at a time, through
+ * which it gets lobby lines, direct messages, and the news that it was
+ * kicked or logged out. Events are queued per stream, up to
+ * -Dchat.web.stream.queue (256); a browser too slow to keep up has its
+ * stream ended, and it reconnects and reloads the history. Events sent while
+ * a session has no stream wait for its next one.
+ * A session with no stream open for -Dchat.web.session.idle.ms (30 minutes),
+ * or older than -Dchat.web.session.max.age.ms (24 hours), is expired: its
+ * token stops working and, once the user has no session left, they leave
+ * the chat as if they had logged out.
+ */
+public final class WebSessions {
+    /**
+     * Ends a stream, after the events before it have been written.
+     */
+    static final byte[] END = new byte[0];
+
+    private static final int ID_BYTES = 16;
+    private static final int KEY_BYTES = 32;
+    private static final int QUEUE_SIZE = Math.max(2, Integer.getInteger("chat.web.stream.queue", 256));
+    private static final long IDLE_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.web.session.idle.ms", 30 * 60 * 1000));
+    private static final long MAX_AGE_NANOS =
+            TimeUnit.MILLISECONDS.toNanos(Long.getLong("chat.web.session.max.age.ms", 24 * 60 * 60 * 1000));
+    // Expired sessions are looked for this often, or twice per idle time if that is shorter
+    private static final long SWEEP_MILLIS =
+            Math.max(1, Math.min(60_000, TimeUnit.NANOSECONDS.toMillis(IDLE_NANOS) / 2));
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final SecureRandom RANDOM = new SecureRandom();
+    private static final SecretKeySpec KEY = new SecretKeySpec(randomBytes(KEY_BYTES), ALGORITHM);
+    private static final Base64.Encoder ENCODER = Base64.getUrlEncoder().withoutPadding();
+    private static final Base64.Decoder DECODER = Base64.getUrlDecoder();
+
+    // By token id
+    private static final ConcurrentMap<String, Session> SESSIONS = new ConcurrentHashMap<>();
+    // The same sessions by username, so a user's pages are found without a scan
+    private static final ConcurrentMap<String, Set<Session>> BY_USER = new ConcurrentHashMap<>();
+    private static ScheduledExecutorService sweeper;
+
+    private WebSessions() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Starts expiring sessions that were left idle or are too old.
+     */
+    public static synchronized void start() {
+        if (sweeper != null) {
+            return;
+        }
+        sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "web-session-sweep");
+            thread.setDaemon(true);
+            return thread;
+        });
+        sweeper.scheduleWithFixedDelay(WebSessions::sweep, SWEEP_MILLIS, SWEEP_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Starts a session for a user who just logged in.
+     *
+     * @param username The username.
+     * @return The token the browser sends with every request of the session.
+     */
+    static String open(String username) {
+        String id = ENCODER.encodeToString(randomBytes(ID_BYTES));
+        Session session = new Session(id, username);
+        SESSIONS.put(id, session);
+        BY_USER.compute(username, (name, sessions) -> {
+            Set<Session> updated = sessions == null ? ConcurrentHashMap.newKeySet() : sessions;
+            updated.add(session);
+            return updated;
+        });
+        return id + "." + ENCODER.encodeToString(sign(id, username));
+    }
+
+    /**
+     * Finds the session of a token.
+     *
+     * @param token The token given at login.
+     * @return The session, or null if the token is malformed, forged, expired
+     *         or no longer valid.
+     */
+    static Session find(String token) {
+        int dot = token == null ? -1 : token.indexOf('.');
+        if (dot < 0) {
+            return null;
+        }
+        Session session = SESSIONS.get(token.substring(0, dot));
+        if (session == null || session.isExpired(System.nanoTime())) {
+            return null;
+        }
+        byte[] signature;
+        try {
+            signature = DECODER.decode(token.substring(dot + 1));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return MessageDigest.isEqual(sign(token.substring(0, dot), session.username), signature) ? session : null;
+    }
+
+    /**
+     * Ends every session of a user, telling their browsers why.
+     *
+     * @param username The username.
+     * @param event    The event sent before the streams end, "kicked" or "logout".
+     * @return true if the user had a session.
+     */
+    static boolean close(String username, String event) {
+        Set<Session> sessions = BY_USER.remove(username);
+        if (sessions == null) {
+            return false;
+        }
+        byte[] last = format(0, event, "");
+        for (Session session : sessions) {
+            SESSIONS.remove(session.id, session);
+            session.end(last);
+        }
+        return true;
+    }
+
+    // Forgets one session; false if it was already gone
+    private static boolean remove(Session session) {
+        if (!SESSIONS.remove(session.id, session)) {
+            return false;
+        }
+        BY_USER.computeIfPresent(session.username, (name, sessions) -> {
+            sessions.remove(session);
+            return sessions.isEmpty() ? null : sessions;
+        });
+        return true;
+    }
+
+    // Ends the expired sessions, and logs out the users left without any
+    private static void sweep() {
+        long now = System.nanoTime();
+        byte[] last = format(0, "expired", "");
+        for (Session session : SESSIONS.values()) {
+            if (session.isExpired(now) && remove(session)) {
+                session.end(last);
+                if (!BY_USER.containsKey(session.username)) {
+                    WebChat.leave(session.username, "expired");
+                }
+            }
+        }
+    }
+
+    /**
+     * Sends a lobby line to every session.
+     *
+     * @param seq  The sequence number of the line in the history, 0 if it is not part of it.
+     * @param line The line.
+     */
+    public static void publish(long seq, String line) {
+        if (SESSIONS.isEmpty()) {
+            return;
+        }
+        byte[] event = format(seq, "message", line);
+        for (Session session : SESSIONS.values()) {
+            session.push(event);
+        }
+    }
+
+    /**
+     * Sends a message meant for one user only, such as a direct message.
+     *
+     * @param username The username.
+     * @param line     The message.
+     * @return true if the user has a session.
+     */
+    public static boolean notify(String username, String line) {
+        Set<Session> sessions = BY_USER.get(username);
+        if (sessions == null) {
+            return false;
+        }
+        byte[] event = format(0, "notice", line);
+        for (Session session : sessions) {
+            session.push(event);
+        }
+        return true;
+    }
+
+    // One Server-Sent Event, encoded once for every stream it goes to
+    private static byte[] format(long seq, String event, String data) {
+        StringBuilder out = new StringBuilder();
+        if (seq > 0) {
+            out.append("id: ").append(seq).append('\n');
+        }
+        out.append("event: ").append(event).append('\n');
+        // Event streams also break lines on a lone \r, which must not let data start a field of its own
+        for (String line : data.replace("\r\n", "\n").replace('\r', '\n').split("\n", -1)) {
+            out.append("data: ").append(line).append('\n');
+        }
+        return out.append('\n').toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] sign(String id, String username) {
+        try {
+            Mac mac = Mac.getInstance(ALGORITHM);
+            mac.init(KEY);
+            return mac.doFinal((id + "\n" + username).getBytes(StandardCharsets.UTF_8));
+        } catch (GeneralSecurityException e) {
+            // Every JDK has HmacSHA256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] randomBytes(int count) {
+        byte[] bytes = new byte[count];
+        RANDOM.nextBytes(bytes);
+        return bytes;
+    }
+
+    /**
+     * Session class for one login of a web user.
+     */
+    static final class Session {
+        private final String id;
+        private final String username;
+        // Each login is limited like a socket connection
+        private final FloodControl flood = FloodControl.withoutDelay();
+        private final long created = System.nanoTime();
+        private Stream current = new Stream();
+        // System.nanoTime() since which no stream has been open, or 0 while one is
+        private long idleSince = created | 1;
+
+        private Session(String id, String username) {
+            this.id = id;
+            this.username = username;
+        }
+
+        String getUsername() {
+            return username;
+        }
+
+        FloodControl getFlood() {
+            return flood;
+        }
+
+        /**
+         * Gives the events of this session to a new stream. A stream still
+         * being read is ended; the events queued while no stream was open go
+         * to the new one.
+         *
+         * @return The stream.
+         */
+        synchronized Stream attach() {
+            if (current.taken || current.ended) {
+                current.end(null);
+                current = new Stream();
+            }
+            current.taken = true;
+            idleSince = 0;
+            return current;
+        }
+
+        /**
+         * Lets the next stream take over the events of one that lost its
+         * connection or was ended.
+         *
+         * @param stream The stream.
+         */
+        synchronized void detach(Stream stream) {
+            stream.taken = false;
+            if (stream == current) {
+                // Never 0, which means a stream is open
+                idleSince = System.nanoTime() | 1;
+            }
+        }
+
+        private synchronized boolean isExpired(long now) {
+            return now - created > MAX_AGE_NANOS || idleSince != 0 && now - idleSince > IDLE_NANOS;
+        }
+
+        private synchronized void push(byte[] event) {
+            current.push(event);
+        }
+
+        private synchronized void end(byte[] last) {
+            current.end(last);
+        }
+    }
+
+    /**
+     * Stream class holding the events waiting to be written to one
+     * connection of a session.
+     */
+    static final class Stream {
+        private final BlockingQueue<byte[]> events = new ArrayBlockingQueue<>(QUEUE_SIZE);
+        private boolean taken;
+        private boolean ended;
+
+        /**
+         * Takes the next event.
+         *
+         * @param timeoutMillis How long to wait for one.
+         * @return The event, END when the stream is over, or null if there
+         *         was none in time.
+         * @throws InterruptedException If interrupted while waiting.
+         */
+        byte[] next(long timeoutMillis) throws InterruptedException {
+            return events.poll(timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+
+        // Called with the session locked
+        private void push(byte[] event) {
+            if (!ended && !events.offer(event)) {
+                // Too far behind; the browser reloads the history when it reconnects
+                events.clear();
+                end(null);
+            }
+        }
+
+        private void end(byte[] last) {
+            if (ended) {
+                return;
+            }
+            ended = true;
+            // Only the reader takes events out, so the room made here stays
+            if (events.remainingCapacity() < 2) {
+                events.clear();
+            }
+            if (last != null) {
+                events.offer(last);
+            }
+            events.offer(END);
+        }
+    }
+}
@@ -1,5 +1,23 @@
 let username = "";
+// Signed session token given at login, sent with every request instead of the username
+let token = "";
 let isLoggedOut = false;
+// Lobby lines pushed by the server, and the sequence number of the newest one
+let messages = [];
+let lastSeq = 0;
+// Lines pushed while the history is loading, merged in once it is there
+let pendingMessages = null;
+let events = null;
+const HISTORY_LINES = 100;
+// Replies to commands are only meant for this user, so they are kept locally
+// and shown below the shared history
+let localNotices = [];
+const MAX_LOCAL_NOTICES = 50;
+
+function showNotices(notices) {
+    localNotices = localNotices.concat(notices).slice(-MAX_LOCAL_NOTICES);
+    renderMessages();
+}
 
 function sendMessage(message) {
     // Check if user is logged out before sending
@@ -11,12 +29,15 @@ function sendMessage(message) {
     fetch('/api/webchat/messages', {
         method: 'POST',
         headers: { 'Content-Type': 'application/json' },
-        body: JSON.stringify({ user: username, message: message })
+        body: JSON.stringify({ token: token, message: message })
     })
     .then(response => {
         if (response.status === 401 || response.status === 403) {
             // User is no longer authenticated
             handleLogout();
+        } else if (response.status === 200) {
+            // The message was a command with replies for this user
+            return response.json().then(data => showNotices(data.replies || []));
         }
     })
     .catch(error => {
@@ -24,63 +45,83 @@ function sendMessage(message) {
     });
 }
 
-function fetchMessages() {
-    // Check if user is logged out before fetching
-    if (isLoggedOut) {
+function renderMessages() {
+    const chatMessages = document.getElementById("chatMessages");
+    chatMessages.innerHTML = "";
+    messages.forEach(msg => {
+        chatMessages.innerHTML += `<div>${msg}</div>`;
+    });
+    localNotices.forEach(msg => {
+        chatMessages.innerHTML += `<div><em>${msg}</em></div>`;
+    });
+    chatMessages.scrollTop = chatMessages.scrollHeight;
+}
+
+function addMessage(seq, line) {
+    // Lines are never shown twice, even if they were both loaded and pushed
+    if (seq > 0 && seq <= lastSeq) {
         return;
     }
+    messages.push(line);
+    messages = messages.slice(-HISTORY_LINES);
+    lastSeq = Math.max(lastSeq, seq);
+}
 
-    fetch('/api/webchat/messages')
-        .then(response => {
-            if (response.status === 401 || response.status === 403) {
-                // User is no longer authenticated
-                handleLogout();
-                return;
-            }
-            return response.json();
-        })
+// Loads the latest history each time the stream (re)opens, so nothing sent while it was closed is missed
+function loadHistory() {
+    pendingMessages = [];
+    fetch('/api/webchat/history?limit=' + HISTORY_LINES)
+        .then(response => response.json())
         .then(data => {
-            if (data) {
-                const chatMessages = document.getElementById("chatMessages");
-                chatMessages.innerHTML = "";
-                data.forEach(msg => {
-                    chatMessages.innerHTML += `<div>${msg}</div>`;
-                });
-                chatMessages.scrollTop = chatMessages.scrollHeight;
-            }
+            messages = data.map(entry => entry.message);
+            lastSeq = data.length > 0 ? data[data.length - 1].seq : 0;
+            pendingMessages.forEach(pending => addMessage(pending.seq, pending.line));
+            pendingMessages = null;
+            renderMessages();
         })
         .catch(error => {
+            pendingMessages = null;
             console.error('Error fetching messages:', error);
         });
 }
 
-// Add a function to check if user is still logged in
-function checkUserStatus() {
-    if (isLoggedOut || !username) {
-        return;
-    }
-
-    fetch('/api/webchat/status', {
-        method: 'POST',
-        headers: { 'Content-Type': 'application/json' },
-        body: JSON.stringify({ username: username })
-    })
-    .then(response => response.json())
-    .then(data => {
-        if (!data.loggedIn) {
-            handleLogout();
+// Lobby lines, direct messages and the end of the session all come through one stream
+function openEvents() {
+    events = new EventSource('/api/webchat/events?token=' + encodeURIComponent(token));
+    events.onopen = loadHistory;
+    events.addEventListener("message", event => {
+        const seq = Number(event.lastEventId) || 0;
+        if (pendingMessages !== null) {
+            pendingMessages.push({ seq: seq, line: event.data });
+            return;
         }
-    })
-    .catch(error => {
-        console.error('Error checking user status:', error);
+        addMessage(seq, event.data);
+        renderMessages();
     });
+    events.addEventListener("notice", event => showNotices([event.data]));
+    events.addEventListener("kicked", () => handleLogout());
+    events.addEventListener("logout", () => handleLogout());
+    events.addEventListener("expired", () => handleLogout());
+    events.onerror = () => {
+        // The browser reconnects by itself, unless the server refused the token
+        if (events.readyState === EventSource.CLOSED) {
+            handleLogout();
+        }
+    };
 }
 
 // Function to handle logout
 function handleLogout() {
+    // Already leaving, such as when the page itself logged out
+    if (isLoggedOut) {
+        return;
+    }
     isLoggedOut = true;
+    if (events) {
+        events.close();
+    }
     alert("You have been logged out by an administrator or your session has expired. The page will refresh.");
-    
+
     // Force a page refresh to clear all state
     window.location.reload();
 }
@@ -93,6 +134,7 @@ function showLoginScreen() {
     document.getElementById("password").value = "";
     // Reset state
     username = "";
+    token = "";
     isLoggedOut = false;
 }
 
@@ -121,15 +163,15 @@ window.login = function() {
     .then(data => {
         if (data.valid) {
             isLoggedOut = false;
+            token = data.token;
             document.getElementById("loginOverlay").style.display = "none";
             document.getElementById("chatSection").style.display = "block";
-            
-            // Start polling for messages and user status
-            setInterval(fetchMessages, 1000);
-            setInterval(checkUserStatus, 3000); // Check status every 3 seconds
-            fetchMessages();
+
+            // Messages, direct messages and kicks are pushed, nothing is polled
+            openEvents();
         } else {
-            alert("Invalid username or password. Please try again.");
+            // The server says why when the login is refused for too many attempts
+            alert(data.error || "Invalid username or password. Please try again.");
         }
     })
     .catch(() => {
@@ -138,10 +180,11 @@ window.login = function() {
 };
 
 window.addEventListener("beforeunload", function () {
-    if (username && !isLoggedOut) {
+    if (token && !isLoggedOut) {
+        isLoggedOut = true;
         navigator.sendBeacon(
             "/api/webchat/logout",
-            JSON.stringify({ username: username })
+            JSON.stringify({ token: token })
         );
     }
 });
@@ -0,0 +1,69 @@
+package com.sonnybell.app.benchmarks;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * BenchmarkRunner class to run the benchmarks, taking the usual JMH command
+ * line options.
+ * Unless -rf and -rff say otherwise, the results are saved as JSON in
+ * jmh-results/ under the date and time of the run, so runs can be compared
+ * over time. The message log and message store written by the benchmarks go
+ * to jmh-work/ instead of the current directory.
+ */
+public final class BenchmarkRunner {
+    private static final DateTimeFormatter RUN_NAME = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss");
+
+    private BenchmarkRunner() {
+        // Prevent instantiation
+    }
+
+    /**
+     * Runs the benchmarks.
+     *
+     * @param args JMH command line options, such as a benchmark name pattern.
+     * @throws CommandLineOptionException If an option is not understood.
+     * @throws IOException If the result or work directory cannot be created.
+     * @throws RunnerException If a benchmark fails.
+     */
+    public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        if (commandLine.shouldHelp() || commandLine.shouldList() || commandLine.shouldListWithParams()
+                || commandLine.shouldListProfilers() || commandLine.shouldListResultFormats()) {
+            // Nothing to run, JMH prints what was asked for
+            org.openjdk.jmh.Main.main(args);
+            return;
+        }
+
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResultFormat().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON);
+        }
+        if (!commandLine.getResult().hasValue()) {
+            Path results = Files.createDirectories(Paths.get("jmh-results"));
+            String extension = commandLine.getResultFormat().orElse(ResultFormatType.JSON).toString().toLowerCase();
+            options.result(results.resolve(LocalDateTime.now().format(RUN_NAME) + "." + extension).toString());
+        }
+
+        Path work = Files.createDirectories(Paths.get("jmh-work")).toAbsolutePath();
+        List<String> jvmArgs = new ArrayList<>(commandLine.getJvmArgsAppend().orElse(List.of()));
+        jvmArgs.add("-Duser.dir=" + work);
+        jvmArgs.add("-Dchat.store.dir=" + work.resolve("message-store"));
+        options.jvmArgsAppend(jvmArgs.toArray(new String[0]));
+
+        new Runner(options.build()).run();
+    }
+}
@@ -0,0 +1,81 @@
+package com.sonnybell.app.benchmarks;
+
+import com.sonnybell.app.chatfunctions.ChatRoom;
+import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.protocol.OutboundMessage;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * BroadcastBenchmark class timing one message sent to every user of the lobby.
+ * The users are real ClientHandlers over in-memory sockets, so the encoding,
+ * locking and flushing of every recipient is measured, but not the network.
+ * broadcastMessage is the whole path of a chat line (history, log and
+ * fan-out); fanOut is only the delivery to each member.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BroadcastBenchmark {
+
+    /**
+     * Number of users receiving each message, besides the sender.
+     */
+    @Param({"10", "100", "1000"})
+    public int recipients;
+
+    private final List<ClientHandler> handlers = new ArrayList<>();
+    private ClientHandler sender;
+    private OutboundMessage message;
+
+    /**
+     * Logs the sender and the recipients in.
+     */
+    @Setup(Level.Trial)
+    public void connect() {
+        sender = new ClientHandler(new InMemorySocket("sender"));
+        for (int i = 0; i < recipients; i++) {
+            handlers.add(new ClientHandler(new InMemorySocket("user" + i)));
+        }
+        message = OutboundMessage.system(0, "sender: hello everyone");
+    }
+
+    /**
+     * Logs everyone out, so the next trial starts with an empty lobby.
+     */
+    @TearDown(Level.Trial)
+    public void disconnect() {
+        for (ClientHandler handler : handlers) {
+            handler.closeEverything();
+        }
+        sender.closeEverything();
+        handlers.clear();
+    }
+
+    @Benchmark
+    public void broadcastMessage() {
+        sender.broadcastMessage("sender: hello everyone");
+    }
+
+    @Benchmark
+    public void fanOut() {
+        ChatRoom.lobby().deliver(message, sender);
+    }
+}
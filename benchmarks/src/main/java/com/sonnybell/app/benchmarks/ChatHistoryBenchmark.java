@@ -0,0 +1,53 @@
+package com.sonnybell.app.benchmarks;
+
+import com.sonnybell.app.chatfunctions.ChatHistory;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ChatHistoryBenchmark class timing the history, which every message is
+ * added to and every new user and web poll copies.
+ * The contended group runs one thread adding messages against three threads
+ * taking snapshots, like a busy lobby with web users polling; add and
+ * snapshot alone give the uncontended cost.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChatHistoryBenchmark {
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(1)
+    public long contendedAdd() {
+        return ChatHistory.addMessageToHistory("bench: a line of chat");
+    }
+
+    @Benchmark
+    @Group("contended")
+    @GroupThreads(3)
+    public List<String> contendedSnapshot() {
+        return ChatHistory.getMessageHistory();
+    }
+
+    @Benchmark
+    public long add() {
+        return ChatHistory.addMessageToHistory("bench: a line of chat");
+    }
+
+    @Benchmark
+    public List<String> snapshot() {
+        return ChatHistory.getMessageHistory();
+    }
+}
@@ -0,0 +1,83 @@
+package com.sonnybell.app.benchmarks;
+
+import com.sonnybell.app.filter.ContentFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * ContentFilterBenchmark class timing the content filter on a chat line,
+ * with blocklists of 10 to 1000 words.
+ * Clean is the usual case of a line nothing matches, masked a line with two
+ * blocked words. The regex benchmark runs one precompiled pattern per word
+ * over the same clean line, the way a filter without the automaton would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ContentFilterBenchmark {
+    private static final String CLEAN = "did anyone see the game last night, that finish was unbelievable";
+    private static final String MASKED = "did anyone see the word7 last night, that word3 was unbelievable";
+
+    @Param({"10", "100", "1000"})
+    public int words;
+
+    private final List<Pattern> patterns = new ArrayList<>();
+
+    /**
+     * Writes the blocklist to the working directory, where the filter reads
+     * it, and loads it.
+     *
+     * @throws IOException If the blocklist cannot be written.
+     */
+    @Setup(Level.Trial)
+    public void load() throws IOException {
+        List<String> rules = new ArrayList<>();
+        for (int i = 0; i < words; i++) {
+            rules.add("mask word" + i);
+            patterns.add(Pattern.compile("\\bword" + i + "\\b", Pattern.CASE_INSENSITIVE));
+        }
+        Files.write(Paths.get(System.getProperty("user.dir"), "blocklist.txt"), rules, StandardCharsets.UTF_8);
+        ContentFilter.start();
+    }
+
+    @Benchmark
+    public String clean() {
+        return ContentFilter.apply(CLEAN);
+    }
+
+    @Benchmark
+    public String masked() {
+        return ContentFilter.apply(MASKED);
+    }
+
+    @Benchmark
+    public boolean regex() {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(CLEAN).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
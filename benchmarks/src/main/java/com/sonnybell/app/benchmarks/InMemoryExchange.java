@@ -0,0 +1,146 @@
+package com.sonnybell.app.benchmarks;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpContext;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpPrincipal;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * InMemoryExchange class standing in for an HTTP request, so the web
+ * handlers can be called directly, without the HTTP server and its threads.
+ */
+final class InMemoryExchange extends HttpExchange {
+    private static final InetSocketAddress LOCALHOST = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+
+    private final String method;
+    private final URI uri;
+    private final Headers requestHeaders = new Headers();
+    private final Headers responseHeaders = new Headers();
+    private InputStream requestBody;
+    private OutputStream responseBody = new ByteArrayOutputStream();
+    private int responseCode = -1;
+
+    /**
+     * Constructor to initialize a request.
+     *
+     * @param method The HTTP method.
+     * @param target The path and query, such as "/api/webchat/history?limit=50".
+     * @param body   The request body.
+     */
+    InMemoryExchange(String method, String target, String body) {
+        this.method = method;
+        this.uri = URI.create(target);
+        this.requestBody = new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static InMemoryExchange get(String target) {
+        return new InMemoryExchange("GET", target, "");
+    }
+
+    /**
+     * Gets the size of the response body written so far.
+     *
+     * @return The number of bytes.
+     */
+    int getResponseLength() {
+        return responseBody instanceof ByteArrayOutputStream bytes ? bytes.size() : 0;
+    }
+
+    @Override
+    public Headers getRequestHeaders() {
+        return requestHeaders;
+    }
+
+    @Override
+    public Headers getResponseHeaders() {
+        return responseHeaders;
+    }
+
+    @Override
+    public URI getRequestURI() {
+        return uri;
+    }
+
+    @Override
+    public String getRequestMethod() {
+        return method;
+    }
+
+    @Override
+    public HttpContext getHttpContext() {
+        return null;
+    }
+
+    @Override
+    public void close() {
+        // Nothing to release
+    }
+
+    @Override
+    public InputStream getRequestBody() {
+        return requestBody;
+    }
+
+    @Override
+    public OutputStream getResponseBody() {
+        return responseBody;
+    }
+
+    @Override
+    public void sendResponseHeaders(int code, long length) {
+        this.responseCode = code;
+    }
+
+    @Override
+    public InetSocketAddress getRemoteAddress() {
+        return LOCALHOST;
+    }
+
+    @Override
+    public int getResponseCode() {
+        return responseCode;
+    }
+
+    @Override
+    public InetSocketAddress getLocalAddress() {
+        return LOCALHOST;
+    }
+
+    @Override
+    public String getProtocol() {
+        return "HTTP/1.1";
+    }
+
+    @Override
+    public Object getAttribute(String name) {
+        return null;
+    }
+
+    @Override
+    public void setAttribute(String name, Object value) {
+        // Attributes are not used by the handlers
+    }
+
+    @Override
+    public void setStreams(InputStream in, OutputStream out) {
+        if (in != null) {
+            this.requestBody = in;
+        }
+        if (out != null) {
+            this.responseBody = out;
+        }
+    }
+
+    @Override
+    public HttpPrincipal getPrincipal() {
+        return null;
+    }
+}
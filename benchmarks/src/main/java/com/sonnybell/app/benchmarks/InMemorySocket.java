@@ -0,0 +1,54 @@
+package com.sonnybell.app.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * InMemorySocket class standing in for a client connection, so a
+ * ClientHandler can be created without the network.
+ * The client "sends" its username and nothing else; everything written to
+ * it is thrown away, so the benchmarks measure the server and not the
+ * kernel.
+ */
+final class InMemorySocket extends Socket {
+    private final InputStream in;
+    private final OutputStream out = OutputStream.nullOutputStream();
+    private volatile boolean closed;
+
+    /**
+     * Constructor to initialize the socket.
+     *
+     * @param username The username the client logs in with.
+     */
+    InMemorySocket(String username) {
+        this.in = new ByteArrayInputStream((username + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return in;
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+        return out;
+    }
+
+    @Override
+    public boolean isConnected() {
+        return !closed;
+    }
+
+    @Override
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+    }
+}
@@ -0,0 +1,52 @@
+package com.sonnybell.app.benchmarks;
+
+import com.sonnybell.app.chatfunctions.MessageLog;
+import com.sonnybell.app.client.ClientHandler;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * MessageLogBenchmark class measuring how many lines per second can be
+ * logged. Logging only queues the line, so this is the cost to the chat
+ * threads until the queue is full; after that it is the speed of the
+ * writer thread and the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MessageLogBenchmark {
+
+    /**
+     * Waits for the lines of an iteration to be written, so they are not
+     * counted in the next one.
+     */
+    @TearDown(Level.Iteration)
+    public void flush() {
+        MessageLog.flush();
+    }
+
+    @Benchmark
+    public void logMessage() {
+        ClientHandler.logMessage("bench: a line of chat", "UserChats");
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void logMessageFromFourThreads() {
+        ClientHandler.logMessage("bench: a line of chat", "UserChats");
+    }
+}
@@ -0,0 +1,71 @@
+package com.sonnybell.app.benchmarks;
+
+import com.sonnybell.app.chatfunctions.ChatHistory;
+import com.sonnybell.app.web.WebChat;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * WebChatBenchmark class timing the JSON answers of the web chat endpoints
+ * that web users poll, with a full history. The handler is called directly
+ * with an in-memory request, so only the handler and its JSON encoding are
+ * measured.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebChatBenchmark {
+    private static final int HISTORY_LINES = 100;
+
+    private final WebChat webChat = new WebChat();
+
+    /**
+     * Fills the history with typical chat lines.
+     */
+    @Setup(Level.Trial)
+    public void fillHistory() {
+        for (int i = 0; i < HISTORY_LINES; i++) {
+            ChatHistory.addMessageToHistory("user" + (i % 7) + ": message number " + i + " with \"quotes\" & ü");
+        }
+    }
+
+    /**
+     * Answers the poll for the whole history.
+     *
+     * @return The size of the response, so the work is not optimised away.
+     * @throws IOException Never, the request is in memory.
+     */
+    @Benchmark
+    public int getMessages() throws IOException {
+        InMemoryExchange exchange = InMemoryExchange.get("/api/webchat/messages");
+        webChat.handle(exchange);
+        return exchange.getResponseLength();
+    }
+
+    /**
+     * Answers a page of older messages.
+     *
+     * @return The size of the response, so the work is not optimised away.
+     * @throws IOException Never, the request is in memory.
+     */
+    @Benchmark
+    public int getHistoryPage() throws IOException {
+        InMemoryExchange exchange = InMemoryExchange.get("/api/webchat/history?limit=50");
+        webChat.handle(exchange);
+        return exchange.getResponseLength();
+    }
+}
@@ -0,0 +1,95 @@
+package com.sonnybell.app.benchmarks;
+
+import com.sonnybell.app.client.ClientHandler;
+import com.sonnybell.app.web.WebHandler;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * WebHandlerBenchmark class timing the pages of the web server: loading an
+ * HTML template and filling in the uptime and the users online, and the
+ * status JSON.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class WebHandlerBenchmark {
+    private static final int USERS = 50;
+
+    private final WebHandler webHandler = new WebHandler(Instant.now());
+
+    /**
+     * Logs in web users, so the pages have a list of users to render.
+     */
+    @Setup(Level.Trial)
+    public void addUsers() {
+        for (int i = 0; i < USERS; i++) {
+            ClientHandler.addWebClient("web" + i);
+        }
+    }
+
+    /**
+     * Logs the web users out.
+     */
+    @TearDown(Level.Trial)
+    public void removeUsers() {
+        for (int i = 0; i < USERS; i++) {
+            ClientHandler.removeWebClient("web" + i);
+        }
+    }
+
+    /**
+     * Renders the page listing the users online.
+     *
+     * @return The size of the response, so the work is not optimised away.
+     * @throws IOException Never, the request is in memory.
+     */
+    @Benchmark
+    public int currentUsersPage() throws IOException {
+        InMemoryExchange exchange = InMemoryExchange.get("/CurrentUsers.html");
+        webHandler.handle(exchange);
+        return exchange.getResponseLength();
+    }
+
+    /**
+     * Renders the index page.
+     *
+     * @return The size of the response, so the work is not optimised away.
+     * @throws IOException Never, the request is in memory.
+     */
+    @Benchmark
+    public int indexPage() throws IOException {
+        InMemoryExchange exchange = InMemoryExchange.get("/");
+        webHandler.handle(exchange);
+        return exchange.getResponseLength();
+    }
+
+    /**
+     * Answers the status JSON.
+     *
+     * @return The size of the response, so the work is not optimised away.
+     * @throws IOException Never, the request is in memory.
+     */
+    @Benchmark
+    public int status() throws IOException {
+        InMemoryExchange exchange = InMemoryExchange.get("/api/status");
+        webHandler.handle(exchange);
+        return exchange.getResponseLength();
+    }
+}